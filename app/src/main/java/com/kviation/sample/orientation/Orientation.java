@@ -4,21 +4,31 @@ package com.kviation.sample.orientation;
 import android.app.Activity;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.Surface;
 import android.view.WindowManager;
 
-public class Orientation implements SensorEventListener {
+import com.matteverett.ledroid.pipeline.OrientationHistory;
+
+public class Orientation implements SensorEventListener2 {
 
   public interface Listener {
     void onOrientationChanged(float azimuth, float pitch, float roll);
   }
 
   private static final int SENSOR_DELAY_MICROS = 16 * 1000; // 16ms
+  // Frames further than a sample period past the newest sample get no orientation
+  private static final long MAX_SAMPLE_AGE_NS = SENSOR_DELAY_MICROS * 1000L;
   private static final String TAG = "kviation::Orientation";
+  private static final int MAX_REPORT_LATENCY_MICROS = 1000 * 1000;
+  private static final float DEGREES = -57.295779513f;
+  // Two seconds of samples at the sensor rate, enough for a full batch and the frames after it
+  private static final int HISTORY_SIZE = 128;
 
   private final WindowManager mWindowManager;
 
@@ -28,7 +38,30 @@ public class Orientation implements SensorEventListener {
   private final Sensor mRotationSensor;
 
   private int mLastAccuracy;
-  private Listener mListener;
+  private volatile Listener mListener;
+
+  // Batched mode only
+  private HandlerThread mThread;
+  private int mLatencyMicros;
+  private volatile Handler mHandler;
+  private boolean mNotifyPending = false;
+  private volatile boolean mFlushPending = false;
+  private final Runnable mNotify = new Runnable() {
+    @Override
+    public void run() {
+      mNotifyPending = false;
+      notifyListener();
+    }
+  };
+
+  // Sensor thread only
+  private final float[] mRotationMatrix = new float[9];
+  private final float[] mAdjustedRotationMatrix = new float[9];
+  private final float[] mOrientation = new float[3];
+
+  private final OrientationHistory mHistory = new OrientationHistory(HISTORY_SIZE);
+  // Query thread only
+  private final float[] mQueryRotationMatrix = new float[9];
 
   public Orientation(Activity activity) {
     mWindowManager = activity.getWindow().getWindowManager();
@@ -39,6 +72,22 @@ public class Orientation implements SensorEventListener {
   }
 
   public void startListening(Listener listener) {
+    startListening(listener, 0);
+  }
+
+  /**
+   * Starts listening, optionally letting the sensor hub batch samples in its FIFO so the CPU
+   * is woken far less often while camera frames are being processed. Batches are delivered on
+   * a dedicated thread and recorded for {@link #getOrientationAt} in bulk, and the listener is
+   * called once per batch, from that thread, with the newest orientation.
+   *
+   * While batching the newest samples can be up to the latency old. Looking up a frame past
+   * them fails and asks the sensor to flush its FIFO, so the frames after it can be looked up.
+   *
+   * @param maxReportLatencyMicros longest time samples may be held, up to a second, or 0 to
+   *                               deliver each sample on the main thread as it is taken
+   */
+  public void startListening(Listener listener, int maxReportLatencyMicros) {
     if (mListener == listener) {
       return;
     }
@@ -47,12 +96,64 @@ public class Orientation implements SensorEventListener {
       Log.w(TAG,"Rotation vector sensor not available; will not provide orientation data.");
       return;
     }
-    mSensorManager.registerListener(this, mRotationSensor, SENSOR_DELAY_MICROS);
+    if (maxReportLatencyMicros <= 0) {
+      mSensorManager.registerListener(this, mRotationSensor, SENSOR_DELAY_MICROS);
+      return;
+    }
+
+    int latency = Math.min(maxReportLatencyMicros, MAX_REPORT_LATENCY_MICROS);
+    mLatencyMicros = maxReportLatencyMicros;
+    if (mRotationSensor.getFifoMaxEventCount() == 0) {
+      Log.i(TAG, "Rotation vector sensor has no FIFO; samples will not be batched.");
+    }
+    mThread = new HandlerThread("kviation-orientation");
+    mThread.start();
+    mHandler = new Handler(mThread.getLooper());
+    mSensorManager.registerListener(this, mRotationSensor, SENSOR_DELAY_MICROS, latency, mHandler);
+  }
+
+  /**
+   * Changes the report latency while listening, keeping the recorded history, e.g. to batch only
+   * while frames are being captured. Does nothing when not listening or already at the latency.
+   *
+   * @param maxReportLatencyMicros as for {@link #startListening(Listener, int)}
+   */
+  public void setMaxReportLatency(int maxReportLatencyMicros) {
+    Listener listener = mListener;
+    if (listener == null || mRotationSensor == null) {
+      return;
+    }
+    boolean batched = maxReportLatencyMicros > 0;
+    if (batched == (mThread != null) && (!batched || maxReportLatencyMicros == mLatencyMicros)) {
+      return;
+    }
+    unregister();
+    startListening(listener, maxReportLatencyMicros);
   }
 
   public void stopListening() {
+    unregister();
+    mHistory.clear();
+  }
+
+  private void unregister() {
     mSensorManager.unregisterListener(this);
     mListener = null;
+    if (mThread != null) {
+      mHandler.removeCallbacks(mNotify);
+      mHandler = null;
+      mThread.quitSafely();
+      // Events already queued still run on it, and write the same scratch matrices as the
+      // thread of the next registration
+      try {
+        mThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      mThread = null;
+      mNotifyPending = false;
+    }
+    mFlushPending = false;
   }
 
   @Override
@@ -62,6 +163,11 @@ public class Orientation implements SensorEventListener {
     }
   }
 
+  @Override
+  public void onFlushCompleted(Sensor sensor) {
+    mFlushPending = false;
+  }
+
   @Override
   public void onSensorChanged(SensorEvent event) {
     if (mListener == null) {
@@ -71,13 +177,36 @@ public class Orientation implements SensorEventListener {
       return;
     }
     if (event.sensor == mRotationSensor) {
-      updateOrientation(event.values);
+      updateOrientation(event.timestamp, event.values);
+    }
+  }
+
+  /**
+   * Looks up the orientation at a time, interpolated between the rotation sensor's samples,
+   * e.g. at a camera frame's exposure timestamp. Call from one thread only.
+   *
+   * @param timestampNs time on the SystemClock.elapsedRealtimeNanos() time base
+   * @param orientation receives azimuth, pitch and roll in degrees, as given to the listener
+   * @return false if no samples have been received yet, or none recent enough for the time
+   *         because the sensor is holding them in its FIFO
+   */
+  public boolean getOrientationAt(long timestampNs, float[] orientation) {
+    if (!mHistory.rotationAt(timestampNs, MAX_SAMPLE_AGE_NS, mQueryRotationMatrix)) {
+      if (mHandler != null && mHistory.size() > 0 && !mFlushPending) {
+        mFlushPending = mSensorManager.flush(this);
+      }
+      return false;
     }
+    SensorManager.getOrientation(mQueryRotationMatrix, orientation);
+    orientation[0] *= DEGREES;
+    orientation[1] *= DEGREES;
+    orientation[2] *= DEGREES;
+    return true;
   }
 
   @SuppressWarnings("SuspiciousNameCombination")
-  private void updateOrientation(float[] rotationVector) {
-    float[] rotationMatrix = new float[9];
+  private void updateOrientation(long timestamp, float[] rotationVector) {
+    float[] rotationMatrix = mRotationMatrix;
     SensorManager.getRotationMatrixFromVector(rotationMatrix, rotationVector);
 
     final int worldAxisForDeviceAxisX;
@@ -105,19 +234,35 @@ public class Orientation implements SensorEventListener {
         break;
     }
 
-    float[] adjustedRotationMatrix = new float[9];
+    float[] adjustedRotationMatrix = mAdjustedRotationMatrix;
     SensorManager.remapCoordinateSystem(rotationMatrix, worldAxisForDeviceAxisX,
         worldAxisForDeviceAxisY, adjustedRotationMatrix);
+    mHistory.add(timestamp, adjustedRotationMatrix);
+
+    Handler handler = mHandler;
+    if (handler == null) {
+      notifyListener();
+    } else if (!mNotifyPending) {
+      // A batch is dispatched in one go, so this runs once the rest of it has been recorded
+      mNotifyPending = handler.post(mNotify);
+    }
+  }
+
+  private void notifyListener() {
+    Listener listener = mListener;
+    if (listener == null) {
+      return;
+    }
 
     // Transform rotation matrix into azimuth/pitch/roll
-    float[] orientation = new float[3];
-    SensorManager.getOrientation(adjustedRotationMatrix, orientation);
+    float[] orientation = mOrientation;
+    SensorManager.getOrientation(mAdjustedRotationMatrix, orientation);
 
-    // Convert radians to degrees -57.295779513f
-    float azimuth = orientation[0] * -57.295779513f;
-    float pitch = orientation[1] * -57.295779513f;
-    float roll = orientation[2] * -57.295779513f;
+    // Convert radians to degrees
+    float azimuth = orientation[0] * DEGREES;
+    float pitch = orientation[1] * DEGREES;
+    float roll = orientation[2] * DEGREES;
 
-    mListener.onOrientationChanged(azimuth, pitch, roll);
+    listener.onOrientationChanged(azimuth, pitch, roll);
   }
 }
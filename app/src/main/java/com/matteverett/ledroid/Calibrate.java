@@ -2,8 +2,13 @@ package com.matteverett.ledroid;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.provider.Settings;
 import android.util.Log;
 
+import com.matteverett.ledroid.pipeline.CaptureSession;
+import com.matteverett.ledroid.pipeline.LedMap;
+import com.matteverett.ledroid.pipeline.LocationEncoder;
+
 import org.eclipse.paho.android.service.MqttAndroidClient;
 import org.eclipse.paho.client.mqttv3.DisconnectedBufferOptions;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
@@ -13,18 +18,37 @@ import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.opencv.android.CalibrationCaptureProfile;
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.JavaCamera2View;
+import org.opencv.android.PipelineProfiler;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
 import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.LedDetector;
 
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Properties;
 
 public final class Calibrate {
     private static final String TAG = "ledroid::Calibrate";
     private static final String clientId = "ledroid";
+    private static final int fixedThreshold = 251;
+    private static final String MESSAGE_FAILED = "failed";
+    private static final String MESSAGE_DONE = "done";
+    private static final int STAGE_ENCODE = PipelineProfiler.register("encodeLocations");
+    private static final int STAGE_PUBLISH = PipelineProfiler.register("publish");
+    private static final int STAGE_POSE = PipelineProfiler.register("pose");
+    private static final int STAGE_STABILIZE = PipelineProfiler.register("stabilize");
 
 
     private String serverUri = "";
@@ -32,10 +56,77 @@ public final class Calibrate {
     private String password = "";
     private String subscriptionTopic = "";
     private String publishTopic = "";
+    private String telemetryTopic = "";
+    private long telemetryIntervalMs = 0;
     private int captureCount = 20;
+    private int darkFrameThreshold = 40;
+    private double darkFrameLearningRate = 0.05;
+    private int darkFrameUpdateInterval = 10;
+    private boolean captureLedOnly = false;
+    private double ledExposureScale = 0.0625;
+    private int captureSettleFrames = 5;
+    private int detectionWidth = 0;
+    private int detectionHeight = 0;
+    private boolean profiling = false;
+    private boolean trackMats = false;
+    private String recorderMode = "off";
+    private int recorderSlots = 150;
+    private int recorderSeconds = 0;
+    private int lensBoardColumns = 9;
+    private int lensBoardRows = 6;
+    private int lensViews = 15;
+    private String poseMapFile = "";
+    private float poseMatchRadius = 30;
+    private int poseMinInliers = 6;
+    private double poseDistance = 3;
+    private double poseHeight = 1.2;
+    private double poseRollOffset = 90;
+    private boolean stabilize = false;
+    private int stabilizeLevels = 2;
+    private int orientationBatchLatencyMs = 0;
+    private boolean fusedDetection = false;
+    private int openIterations = 1;
 
     private MqttAndroidClient mqttAndroidClient;
-    private List<List<Point>> mLocations = null;
+    private Telemetry mTelemetry;
+    private FrameRecorder mRecorder;
+    private CaptureSession mCapture;
+    private DarkFrame mDarkFrame;
+    private final LocationEncoder mEncoder = new LocationEncoder();
+    private File mIntrinsicsDirectory;
+    private volatile boolean mLensCalibrationRequested = false;
+    private volatile Intrinsics mSolvedIntrinsics;
+    // Camera thread only
+    private LensCalibration mLensCalibration;
+    private Intrinsics mIntrinsics;
+    private int mIntrinsicsWidth = -1;
+    private int mIntrinsicsHeight = -1;
+    private PoseTracker mPoseTracker;
+    private boolean mHasPose = false;
+    private Stabilizer mStabilizer;
+    private LedDetector mLedDetector;
+    private final double[] mPoseRotation = new double[3];
+    private final double[] mPoseTranslation = new double[3];
+    private volatile boolean mStartPending = false;
+    private volatile boolean mInSession = false;
+    private volatile SessionListener mSessionListener;
+    private volatile boolean mHasOrientation = false;
+    private volatile float mAzimuth;
+    private volatile float mPitch;
+    private volatile float mRoll;
+
+    /**
+     * Told when a calibration session starts and when the server ends it, on the camera or
+     * MQTT thread.
+     */
+    interface SessionListener {
+        void onSessionStarted();
+
+        /**
+         * @param failed Whether the server reported the session as failed.
+         */
+        void onSessionEnded(boolean failed);
+    }
 
     Calibrate() {
         Log.i(TAG, "Calibrate created");
@@ -54,12 +145,67 @@ public final class Calibrate {
             password = properties.getProperty("mqttPassword");
             subscriptionTopic = properties.getProperty("mqttCalServerTopic");
             publishTopic = properties.getProperty("mqttCalClientTopic");
+            telemetryTopic = properties.getProperty("mqttTelemetryTopic", "");
+            telemetryIntervalMs = Long.parseLong(properties.getProperty("telemetryIntervalMs", "0"));
             captureCount = Integer.parseInt(properties.getProperty("captureCount", "20"));
+            darkFrameThreshold = Integer.parseInt(properties.getProperty("darkFrameThreshold", "40"));
+            darkFrameLearningRate = Double.parseDouble(properties.getProperty("darkFrameLearningRate", "0.05"));
+            darkFrameUpdateInterval = Integer.parseInt(properties.getProperty("darkFrameUpdateInterval", "10"));
+            captureLedOnly = Boolean.parseBoolean(properties.getProperty("captureLedOnly", "false"));
+            ledExposureScale = Double.parseDouble(properties.getProperty("ledExposureScale", "0.0625"));
+            captureSettleFrames = Integer.parseInt(properties.getProperty("captureSettleFrames", "5"));
+            detectionWidth = Integer.parseInt(properties.getProperty("detectionWidth", "0"));
+            detectionHeight = Integer.parseInt(properties.getProperty("detectionHeight", "0"));
+            profiling = Boolean.parseBoolean(properties.getProperty("profiling", "false"));
+            trackMats = Boolean.parseBoolean(properties.getProperty("trackMats", "false"));
+            recorderMode = properties.getProperty("recorderMode", "off");
+            recorderSlots = Integer.parseInt(properties.getProperty("recorderSlots", "150"));
+            recorderSeconds = Integer.parseInt(properties.getProperty("recorderSeconds", "0"));
+            lensBoardColumns = Integer.parseInt(properties.getProperty("lensBoardColumns", "9"));
+            lensBoardRows = Integer.parseInt(properties.getProperty("lensBoardRows", "6"));
+            lensViews = Integer.parseInt(properties.getProperty("lensViews", "15"));
+            poseMapFile = properties.getProperty("poseMapFile", "");
+            poseMatchRadius = Float.parseFloat(properties.getProperty("poseMatchRadius", "30"));
+            poseMinInliers = Integer.parseInt(properties.getProperty("poseMinInliers", "6"));
+            poseDistance = Double.parseDouble(properties.getProperty("poseDistance", "3"));
+            poseHeight = Double.parseDouble(properties.getProperty("poseHeight", "1.2"));
+            poseRollOffset = Double.parseDouble(properties.getProperty("poseRollOffset", "90"));
+            stabilize = Boolean.parseBoolean(properties.getProperty("stabilize", "false"));
+            stabilizeLevels = Integer.parseInt(properties.getProperty("stabilizeLevels", "2"));
+            orientationBatchLatencyMs = Integer.parseInt(properties.getProperty("orientationBatchLatencyMs", "0"));
+            fusedDetection = Boolean.parseBoolean(properties.getProperty("fusedDetection", "false"));
+            openIterations = Integer.parseInt(properties.getProperty("openIterations", "1"));
         } catch (IOException e) {
             e.printStackTrace();
         }
 
+        mCapture = new CaptureSession(captureCount);
+        mDarkFrame = new DarkFrame(darkFrameThreshold, darkFrameLearningRate, darkFrameUpdateInterval);
+        mIntrinsicsDirectory = new File(context.getFilesDir(), "intrinsics");
+        if (stabilize) {
+            mStabilizer = new Stabilizer(stabilizeLevels);
+        }
+        if (fusedDetection) {
+            mLedDetector = new LedDetector();
+        }
+        if (!poseMapFile.isEmpty()) {
+            LoadPoseMap(new File(context.getExternalFilesDir(null), poseMapFile));
+        }
+
+        if (!recorderMode.equals("off")) {
+            File directory = context.getExternalFilesDir("recordings");
+            if (directory == null) {
+                directory = new File(context.getFilesDir(), "recordings");
+            }
+            mRecorder = new FrameRecorder(directory, recorderMode.equals("yuv"), recorderSlots, recorderSeconds);
+            mRecorder.start();
+        }
+
         mqttAndroidClient = new MqttAndroidClient(context, serverUri, clientId);
+        if (telemetryIntervalMs > 0 && !telemetryTopic.isEmpty()) {
+            String deviceId = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+            mTelemetry = new Telemetry(mqttAndroidClient, telemetryTopic, deviceId, telemetryIntervalMs);
+        }
         mqttAndroidClient.setCallback(new MqttCallbackExtended() {
             @Override
             public void connectComplete(boolean reconnect, String serverURI) {
@@ -80,10 +226,25 @@ public final class Calibrate {
 
             @Override
             public void messageArrived(String topic, MqttMessage message) throws Exception {
-                Log.i(TAG, "Incoming message: " + new String(message.getPayload()));
+                String payload = new String(message.getPayload());
+                Log.i(TAG, "Incoming message: " + payload);
+
+                String type = MessageType(payload);
+                if (MESSAGE_FAILED.equals(type)) {
+                    // Keep the frames that led up to the failure
+                    if (mRecorder != null) {
+                        mRecorder.requestDump();
+                    }
+                    EndSession(true);
+                    return;
+                }
+                if (MESSAGE_DONE.equals(type)) {
+                    EndSession(false);
+                    return;
+                }
 
                 // Start capturing
-                mLocations = new ArrayList<>();
+                mCapture.start();
             }
 
             @Override
@@ -110,6 +271,9 @@ public final class Calibrate {
                     disconnectedBufferOptions.setDeleteOldestMessages(false);
                     mqttAndroidClient.setBufferOpts(disconnectedBufferOptions);
                     subscribeToTopic();
+                    if (mTelemetry != null) {
+                        mTelemetry.start();
+                    }
                 }
 
                 @Override
@@ -124,6 +288,29 @@ public final class Calibrate {
         }
     }
 
+    /**
+     * The type field of a message from the server.
+     * @return The type, or an empty string if the payload is not a JSON object with one.
+     */
+    private static String MessageType(String payload) {
+        try {
+            return new JSONObject(payload).optString("type", "");
+        } catch (JSONException e) {
+            Log.w(TAG, "Unparseable message: " + payload);
+            return "";
+        }
+    }
+
+    private void LoadPoseMap(File file) {
+        try (Reader reader = new FileReader(file)) {
+            LedMap map = LedMap.read(reader);
+            mPoseTracker = new PoseTracker(map, poseMatchRadius, poseMinInliers, poseDistance, poseHeight, poseRollOffset);
+            Log.i(TAG, "Tracking pose against " + map.size() + " LEDs from " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load LED map " + file + ", pose tracking is off", e);
+        }
+    }
+
     private void subscribeToTopic(){
         try {
             mqttAndroidClient.subscribe(subscriptionTopic, 0, null, new IMqttActionListener() {
@@ -143,7 +330,324 @@ public final class Calibrate {
         }
     }
 
+    boolean IsProfilingEnabled() {
+        return profiling;
+    }
+
+    /**
+     * Whether to record where every Mat is created, to find leaks of native memory. Slow.
+     */
+    boolean IsMatTrackingEnabled() {
+        return trackMats;
+    }
+
+    /**
+     * Maximum width of frames used for detection, or 0 to detect on the displayed frames.
+     */
+    int GetDetectionWidth() {
+        return detectionWidth;
+    }
+
+    int GetDetectionHeight() {
+        return detectionHeight;
+    }
+
+    /**
+     * Longest time the rotation sensor may batch samples for during a calibration session, or 0
+     * to deliver every sample as it is taken. Batching saves waking the CPU about 60 times a
+     * second while frames are captured, at the cost of orientations lagging by up to the
+     * latency on a moving phone, so the preview outside sessions is never batched.
+     */
+    int GetOrientationBatchLatencyMs() {
+        return orientationBatchLatencyMs;
+    }
+
+    /**
+     * Creates the camera profile used to lock exposure, focus and white balance while calibrating.
+     */
+    CalibrationCaptureProfile CreateCaptureProfile() {
+        return new CalibrationCaptureProfile(
+                captureLedOnly ? CalibrationCaptureProfile.MODE_LED_ONLY : CalibrationCaptureProfile.MODE_METERED,
+                ledExposureScale, captureSettleFrames);
+    }
+
+    /**
+     * Starts a calibration session. The start message is held back until a reference frame has
+     * been captured with all LEDs off, see {@link #Threshold(Mat, Mat)}. The session lasts until
+     * the server sends a "done" or "failed" message.
+     */
     void StartCalibration(){
+        mStartPending = true;
+        mDarkFrame.requestCapture();
+        mInSession = true;
+        SessionListener listener = mSessionListener;
+        if (listener != null) {
+            listener.onSessionStarted();
+        }
+    }
+
+    boolean IsInSession() {
+        return mInSession;
+    }
+
+    void SetSessionListener(SessionListener listener) {
+        mSessionListener = listener;
+    }
+
+    private void EndSession(boolean failed) {
+        if (!mInSession) {
+            return;
+        }
+        mInSession = false;
+        mStartPending = false;
+        Log.i(TAG, failed ? "Calibration failed" : "Calibration done");
+        SessionListener listener = mSessionListener;
+        if (listener != null) {
+            listener.onSessionEnded(failed);
+        }
+    }
+
+    /**
+     * Produces the binary mask of lit pixels for a frame. Once a session has captured its
+     * reference frame the mask is the thresholded difference against it, otherwise a fixed
+     * threshold is used.
+     * @param gray Single channel camera frame.
+     * @param mask Output CV_8UC1 mask.
+     */
+    void Threshold(Mat gray, Mat mask) {
+        if (mDarkFrame.captureIfRequested(gray) && mStartPending) {
+            mStartPending = false;
+            SendStart();
+        }
+
+        if (mDarkFrame.hasReference()) {
+            mDarkFrame.threshold(gray, mask);
+        } else {
+            Imgproc.threshold(gray, mask, fixedThreshold, 255, Imgproc.THRESH_BINARY);
+        }
+    }
+
+    /**
+     * Whether {@link #Detect} replaces thresholding, morphology and contours.
+     */
+    boolean IsFusedDetectionEnabled() {
+        return mLedDetector != null;
+    }
+
+    /**
+     * Finds the lit spots of a frame in one call, thresholding as {@link #Threshold(Mat, Mat)}
+     * does and then opening and labelling the mask. Spots are measured by their pixels rather
+     * than their outlines, so centroids differ slightly from the contour moments and holes in a
+     * spot do not count as spots of their own.
+     * @param gray Single channel camera frame.
+     * @param mask Receives the CV_8UC1 mask before opening.
+     * @param out  Receives LedDetector.STRIDE floats per spot: x, y and area.
+     * @return Number of spots found, which may be more than fit in out.
+     */
+    int Detect(Mat gray, Mat mask, float[] out) {
+        if (mDarkFrame.captureIfRequested(gray) && mStartPending) {
+            mStartPending = false;
+            SendStart();
+        }
+
+        if (!mDarkFrame.hasReference()) {
+            return mLedDetector.detect(gray, null, fixedThreshold, openIterations, mask, out);
+        }
+        Mat reference = mDarkFrame.reference(gray);
+        if (reference == null) {
+            // The frame size changed, nothing is lit until the reference has been recaptured
+            mask.create(gray.rows(), gray.cols(), CvType.CV_8UC1);
+            mask.setTo(Scalar.all(0));
+            return 0;
+        }
+        // The biased reference already includes the dark frame threshold
+        int count = mLedDetector.detect(gray, reference, 0, openIterations, mask, out);
+        mDarkFrame.update(gray, mask);
+        return count;
+    }
+
+    /**
+     * Starts a one-time lens calibration: point the camera at the chessboard and move it around
+     * until enough views have been collected. Safe to call from any thread.
+     */
+    void StartLensCalibration() {
+        mLensCalibrationRequested = true;
+    }
+
+    /**
+     * Feeds a frame to the lens calibration while one is running. Once it has enough views the
+     * intrinsics are solved on a background thread and cached for this device and resolution.
+     * @param gray Single channel camera frame.
+     * @return true while frames are going to the lens calibration rather than LED detection.
+     */
+    boolean CalibrateLens(Mat gray) {
+        if (mLensCalibrationRequested) {
+            mLensCalibrationRequested = false;
+            if (mLensCalibration != null) {
+                mLensCalibration.release();
+            }
+            mLensCalibration = new LensCalibration(lensBoardColumns, lensBoardRows, lensViews);
+            Log.i(TAG, "Lens calibration started");
+        }
+        if (mLensCalibration == null) {
+            return false;
+        }
+        mLensCalibration.addFrame(gray);
+        if (mLensCalibration.isComplete()) {
+            SolveLens(mLensCalibration);
+            mLensCalibration = null;
+        }
+        return true;
+    }
+
+    private void SolveLens(final LensCalibration lens) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Intrinsics intrinsics = lens.calibrate();
+                lens.release();
+                File file = Intrinsics.cacheFile(mIntrinsicsDirectory, intrinsics.width, intrinsics.height);
+                try {
+                    intrinsics.save(file);
+                    Log.i(TAG, "Saved intrinsics to " + file);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to save intrinsics to " + file, e);
+                }
+                mSolvedIntrinsics = intrinsics;
+            }
+        }, "ledroid-lens").start();
+    }
+
+    /**
+     * Undistorts centroids in place with the intrinsics cached for the frame size. Centroids are
+     * left as they are if the lens has not been calibrated at that size.
+     */
+    void Undistort(List<Point> centroids, int width, int height) {
+        Intrinsics solved = mSolvedIntrinsics;
+        if (solved != null) {
+            mSolvedIntrinsics = null;
+            UseIntrinsics(solved, solved.width, solved.height);
+        }
+        if (width != mIntrinsicsWidth || height != mIntrinsicsHeight) {
+            LoadIntrinsics(width, height);
+        }
+        if (mIntrinsics != null) {
+            mIntrinsics.undistort(centroids);
+        }
+    }
+
+    private void LoadIntrinsics(int width, int height) {
+        Intrinsics intrinsics = null;
+        File file = Intrinsics.cacheFile(mIntrinsicsDirectory, width, height);
+        if (file.isFile()) {
+            try {
+                intrinsics = Intrinsics.load(file);
+                Log.i(TAG, String.format("Loaded intrinsics for %dx%d, RMS error %.3f px", width, height, intrinsics.rms));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to load intrinsics from " + file, e);
+            }
+        } else {
+            Log.i(TAG, "No lens calibration for " + width + "x" + height + ", centroids are not undistorted");
+        }
+        UseIntrinsics(intrinsics, width, height);
+    }
+
+    private void UseIntrinsics(Intrinsics intrinsics, int width, int height) {
+        if (mIntrinsics != null) {
+            mIntrinsics.release();
+        }
+        mIntrinsics = intrinsics;
+        mIntrinsicsWidth = width;
+        mIntrinsicsHeight = height;
+    }
+
+    /**
+     * Compensates for the phone moving in the hand during a capture, when enabled, by mapping
+     * the centroids into the coordinates of the capture's first frame. Between captures it
+     * only forgets the last reference.
+     * @param gray      The frame the centroids were found in.
+     * @param centroids Centroids in frame pixels, before {@link #Undistort}, mapped in place.
+     */
+    void Stabilize(Mat gray, List<Point> centroids) {
+        if (mStabilizer == null) {
+            return;
+        }
+        if (!mCapture.isCapturing()) {
+            mStabilizer.reset();
+            return;
+        }
+        long t = PipelineProfiler.begin();
+        mStabilizer.apply(gray, centroids);
+        PipelineProfiler.end(STAGE_STABILIZE, t);
+    }
+
+    /**
+     * Tracks the camera's pose against the LED map, when one is configured. Captures are then
+     * sent with the pose of the frame that completed them.
+     * @param centroids Undistorted centroids in frame pixels, see {@link #Undistort}.
+     */
+    void TrackPose(List<Point> centroids, int width, int height) {
+        if (mPoseTracker == null) {
+            return;
+        }
+        long t = PipelineProfiler.begin();
+        mHasPose = mPoseTracker.track(centroids, mIntrinsics, width, height);
+        if (mHasPose) {
+            mPoseTracker.getPose(mPoseRotation, mPoseTranslation);
+        }
+        PipelineProfiler.end(STAGE_POSE, t);
+    }
+
+    void Release() {
+        if (mDarkFrame != null) {
+            mDarkFrame.release();
+        }
+        if (mLensCalibration != null) {
+            mLensCalibration.release();
+            mLensCalibration = null;
+        }
+    }
+
+    /**
+     * Gives telemetry access to the camera view's performance monitor and frame pool, and
+     * attaches the frame recorder. Call before the camera view is enabled.
+     */
+    void SetCameraView(CameraBridgeViewBase cameraView) {
+        if (mTelemetry != null) {
+            mTelemetry.setCameraView(cameraView);
+        }
+        if (mRecorder != null) {
+            if (cameraView instanceof JavaCamera2View) {
+                // Pooled frames let the recorder hand frames to its thread without copying
+                // them again, and carry the chroma planes for YUV recording
+                ((JavaCamera2View) cameraView).setFramePoolSize(FrameRecorder.QUEUE_SIZE + 2);
+            }
+            cameraView.setFrameTap(mRecorder);
+        }
+    }
+
+    void Close() {
+        if (mTelemetry != null) {
+            mTelemetry.stop();
+        }
+        if (mRecorder != null) {
+            mRecorder.stop();
+        }
+        if (mIntrinsics != null) {
+            mIntrinsics.release();
+            mIntrinsics = null;
+        }
+        if (mPoseTracker != null) {
+            mPoseTracker.release();
+            mPoseTracker = null;
+        }
+        if (mStabilizer != null) {
+            mStabilizer.release();
+            mStabilizer = null;
+        }
+    }
+
+    private void SendStart(){
         try {
             MqttMessage message = new MqttMessage();
             message.setPayload("{\"type\":\"start\"}".getBytes());
@@ -159,45 +663,71 @@ public final class Calibrate {
         }
     }
 
-    void StoreLocations(List<Point> locations) {
-        if (mLocations != null) {
-            mLocations.add(locations);
-            if (mLocations.size() == captureCount) {
-                SendLocations(mLocations);
+    /**
+     * Records the device orientation when the current frame was exposed, in degrees. Each
+     * capture is sent with the orientation of the frame that completed it, which tells the
+     * server which view of the tree it is for when the LEDs are reconstructed in 3D.
+     */
+    void SetOrientation(float azimuth, float pitch, float roll) {
+        mAzimuth = azimuth;
+        mPitch = pitch;
+        mRoll = roll;
+        mHasOrientation = true;
+        if (mPoseTracker != null) {
+            mPoseTracker.setOrientation(azimuth, pitch, roll);
+        }
+    }
+
+    /**
+     * Records that the orientation when the current frame was exposed is not known, so a
+     * capture it completes is sent without one rather than with an older frame's.
+     */
+    void ClearOrientation() {
+        mHasOrientation = false;
+    }
 
-                // Stop capturing
-                mLocations = null;
+    void StoreLocations(List<Point> locations) {
+        if (mCapture.beginFrame()) {
+            for (int i = 0; i < locations.size(); i++) {
+                Point p = locations.get(i);
+                mCapture.addLocation(p.x, p.y);
+            }
+            if (mCapture.endFrame()) {
+                SendLocations();
             }
         }
     }
 
-    void SendLocations(List<List<Point>> data){
+    private void SendLocations(){
         try {
-            String payload = "{\"type\":\"data\",\"locations\":[";
-            for (int i = 0; i < data.size(); i++) {
-                payload += '[';
-
-                List<Point> locs = data.get(i);
-                for (int j = 0; j < locs.size(); j++) {
-                    payload += String.format(Locale.ENGLISH, "%f,%f", locs.get(j).x, locs.get(j).y);
-                    if (j < locs.size() - 1) {
-                        payload += ",";
-                    }
-                }
-
-                payload += ']';
-                if (i < data.size() - 1) {
-                    payload += ",";
-                }
+            long t = PipelineProfiler.begin();
+            mCapture.encode(mEncoder);
+            if (mHasOrientation) {
+                mEncoder.setOrientation(mAzimuth, mPitch, mRoll);
+            }
+            if (mHasPose) {
+                mEncoder.setPose(mPoseRotation, mPoseTranslation);
             }
-            payload += "]}";
 
             MqttMessage message = new MqttMessage();
-            message.setPayload(payload.getBytes());
+            message.setPayload(mEncoder.toByteArray());
             message.setQos(0);
+            t = PipelineProfiler.end(STAGE_ENCODE, t);
 
-            mqttAndroidClient.publish(publishTopic, message);
-            Log.i(TAG, String.format("Sent message: %s", message));
+            if (mTelemetry != null) {
+                mqttAndroidClient.publish(publishTopic, message, null, mTelemetry.publishListener());
+            } else {
+                mqttAndroidClient.publish(publishTopic, message);
+            }
+            PipelineProfiler.end(STAGE_PUBLISH, t);
+            // Formatting the payload would cost more than encoding it, log its size instead
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                int locations = 0;
+                for (int i = 0; i < mCapture.frameCount(); i++) {
+                    locations += mCapture.locationCount(i);
+                }
+                Log.d(TAG, "Sent " + locations + " locations in " + message.getPayload().length + " bytes");
+            }
 
             if(!mqttAndroidClient.isConnected()){
                 Log.i(TAG, mqttAndroidClient.getBufferedMessageCount() + " messages in buffer.");
@@ -0,0 +1,135 @@
+package com.matteverett.ledroid;
+
+import android.util.Log;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Reference "all LEDs off" frame used to remove reflections and room lights before detection.
+ *
+ * The reference is kept biased by the threshold, so the clamped difference and the threshold
+ * collapse into a single comparison:
+ *
+ *   max(frame - reference, 0) > threshold  ⇔  frame > saturate(reference + threshold)
+ *
+ * That keeps differencing to one pass over the frame. The reference follows slow lighting
+ * changes with a running average that is only updated every few frames and only where no LED
+ * is lit, which is enough for a scene that is mostly dark with a few bright points.
+ */
+final class DarkFrame {
+    private static final String TAG = "ledroid::DarkFrame";
+
+    private final int mThreshold;
+    private final double mLearningRate;
+    private final int mUpdateInterval;
+
+    private final Mat mAverage = new Mat();     // CV_32FC1 running average of unlit pixels
+    private final Mat mBiased = new Mat();      // CV_8UC1 saturate(average + threshold)
+    private final Mat mBackground = new Mat();  // CV_8UC1 mask of unlit pixels
+
+    private volatile boolean mCaptureRequested = false;
+    private boolean mHasReference = false;
+    private int mFrameCount = 0;
+
+    /**
+     * @param threshold Minimum brightness above the reference for a pixel to count as lit.
+     * @param learningRate Weight of the current frame in the running reference update.
+     * @param updateInterval Number of frames between reference updates.
+     */
+    DarkFrame(int threshold, double learningRate, int updateInterval) {
+        mThreshold = threshold;
+        mLearningRate = learningRate;
+        mUpdateInterval = Math.max(1, updateInterval);
+    }
+
+    /**
+     * Requests that the next frame is taken as the new reference. Safe to call from any thread.
+     */
+    void requestCapture() {
+        mCaptureRequested = true;
+    }
+
+    boolean hasReference() {
+        return mHasReference;
+    }
+
+    /**
+     * Takes the frame as the reference if a capture has been requested.
+     * @param gray Single channel frame.
+     * @return true if the frame was captured.
+     */
+    boolean captureIfRequested(Mat gray) {
+        if (!mCaptureRequested) {
+            return false;
+        }
+        mCaptureRequested = false;
+
+        gray.convertTo(mAverage, CvType.CV_32F);
+        mAverage.convertTo(mBiased, CvType.CV_8U, 1.0, mThreshold);
+        mHasReference = true;
+        mFrameCount = 0;
+        Log.i(TAG, "Captured reference " + gray.cols() + "x" + gray.rows());
+        return true;
+    }
+
+    /**
+     * Writes the binary mask of pixels brighter than the reference by more than the threshold.
+     * @param gray Single channel frame, the same size as the reference.
+     * @param mask Output CV_8UC1 mask, 255 where lit.
+     */
+    void threshold(Mat gray, Mat mask) {
+        Mat reference = reference(gray);
+        if (reference == null) {
+            // Nothing is lit until the reference has been recaptured
+            Imgproc.threshold(gray, mask, 255, 255, Imgproc.THRESH_BINARY);
+            return;
+        }
+
+        Core.compare(gray, reference, mask, Core.CMP_GT);
+        update(gray, mask);
+    }
+
+    /**
+     * The biased reference for detection that does its own comparison, in which a pixel is lit
+     * when it is brighter than the reference. Pass the resulting mask to {@link #update}.
+     * @param gray Single channel frame.
+     * @return The reference, or null if there is none or the frame size has changed, in which
+     *         case a new reference is requested.
+     */
+    Mat reference(Mat gray) {
+        if (!mHasReference) {
+            return null;
+        }
+        if (gray.rows() != mBiased.rows() || gray.cols() != mBiased.cols()) {
+            // Frame size changed under us, the old reference is meaningless
+            Log.w(TAG, "Frame size changed, recapturing reference");
+            mHasReference = false;
+            mCaptureRequested = true;
+            return null;
+        }
+        return mBiased;
+    }
+
+    /**
+     * Folds the unlit pixels of the frame into the reference, every few frames.
+     * @param gray Single channel frame the mask was made from.
+     * @param mask CV_8UC1 mask, 255 where lit.
+     */
+    void update(Mat gray, Mat mask) {
+        if (++mFrameCount % mUpdateInterval == 0) {
+            Core.bitwise_not(mask, mBackground);
+            Imgproc.accumulateWeighted(gray, mAverage, mLearningRate, mBackground);
+            mAverage.convertTo(mBiased, CvType.CV_8U, 1.0, mThreshold);
+        }
+    }
+
+    void release() {
+        mAverage.release();
+        mBiased.release();
+        mBackground.release();
+        mHasReference = false;
+    }
+}
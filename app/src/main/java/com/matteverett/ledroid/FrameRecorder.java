@@ -0,0 +1,272 @@
+package com.matteverett.ledroid;
+
+import android.util.Log;
+
+import com.matteverett.ledroid.pipeline.RingFile;
+import com.matteverett.ledroid.pipeline.RingFileWriter;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.PooledFrame;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the camera frames into a memory mapped ring file so that a failed calibration can be
+ * reproduced offline.
+ *
+ * The recorder is a frame tap on the camera view. On the camera thread it only takes a job from
+ * a small pool and, for pooled frames, retains the frame; frames from a camera without a frame
+ * pool have their luma copied into the job's buffer instead. A background thread copies the
+ * frames into the next slot of the ring file and hands the jobs back. When every job is busy the
+ * frame is skipped rather than holding up the camera.
+ *
+ * The ring always holds the most recent frames. With keepSeconds set, a dump only keeps frames
+ * from the last keepSeconds before the newest, otherwise it keeps the whole ring. Dumps are
+ * written next to the ring file as failed-&lt;time&gt;.ring.
+ */
+final class FrameRecorder implements CameraBridgeViewBase.FrameTap {
+    private static final String TAG = "ledroid::FrameRecorder";
+    private static final String RING_NAME = "frames.ring";
+    /** Frames that can be waiting for the writer before new ones are skipped */
+    static final int QUEUE_SIZE = 4;
+
+    private static final class Job {
+        PooledFrame frame;
+        byte[] luma;
+        int width;
+        int height;
+        long sequence;
+        long timestamp;
+        long arrivalTime;
+        long droppedFrames;
+    }
+
+    private final File mDirectory;
+    private final boolean mYuv;
+    private final int mSlots;
+    private final long mKeepNs;
+    private final ArrayBlockingQueue<Job> mFree = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final ArrayBlockingQueue<Job> mReady = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong mSkipped = new AtomicLong();
+    private volatile boolean mRunning = false;
+    private volatile boolean mDumpRequested = false;
+    private Thread mThread;
+
+    // Writer thread only
+    private RingFileWriter mWriter;
+    private Mat[] mSlotMats;
+    private long mNewestTimestamp;
+
+    /**
+     * @param directory   Where the ring file and dumps are written.
+     * @param yuv         Record full I420 frames where the camera provides them, otherwise luma.
+     * @param slots       Number of frames the ring holds.
+     * @param keepSeconds Length of the window kept by a dump, or 0 for the whole ring.
+     */
+    FrameRecorder(File directory, boolean yuv, int slots, int keepSeconds) {
+        mDirectory = directory;
+        mYuv = yuv;
+        mSlots = slots;
+        mKeepNs = TimeUnit.SECONDS.toNanos(keepSeconds);
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            mFree.add(new Job());
+        }
+    }
+
+    synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "ledroid-recorder");
+        mThread.start();
+        Log.i(TAG, "Recording " + (mYuv ? "YUV" : "luma") + " frames to " + mDirectory);
+    }
+
+    synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        mThread.interrupt();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+        // A frame the camera thread queued as the writer was finishing is not drained by it
+        drain();
+    }
+
+    /**
+     * Asks the writer thread to copy the ring into a new file. Safe to call from any thread.
+     */
+    void requestDump() {
+        mDumpRequested = true;
+    }
+
+    /** Frames skipped because the writer had fallen behind */
+    long skippedFrames() {
+        return mSkipped.get();
+    }
+
+    @Override
+    public void onFrame(CameraBridgeViewBase.CvCameraViewFrame frame) {
+        if (!mRunning) {
+            return;
+        }
+        Job job = mFree.poll();
+        if (job == null) {
+            mSkipped.incrementAndGet();
+            return;
+        }
+
+        if (frame instanceof PooledFrame) {
+            PooledFrame pooled = (PooledFrame) frame;
+            job.frame = pooled.retain();
+            job.width = pooled.width();
+            job.height = pooled.height();
+        } else {
+            Mat gray = frame.gray();
+            job.width = gray.cols();
+            job.height = gray.rows();
+            int size = job.width * job.height;
+            if (job.luma == null || job.luma.length != size) {
+                job.luma = new byte[size];
+            }
+            gray.get(0, 0, job.luma);
+        }
+        job.sequence = frame.sequence();
+        job.timestamp = frame.timestamp();
+        job.arrivalTime = frame.arrivalTime();
+        job.droppedFrames = frame.droppedFrames();
+        mReady.add(job);
+        // If the recorder stopped since the check above the writer may already have drained
+        // the queue. Whichever side takes the job out recycles it
+        if (!mRunning && mReady.remove(job)) {
+            recycle(job);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (mRunning) {
+                Job job = mReady.poll(100, TimeUnit.MILLISECONDS);
+                if (job != null) {
+                    write(job);
+                    recycle(job);
+                }
+                if (mDumpRequested) {
+                    mDumpRequested = false;
+                    dump();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopping
+        } catch (IOException e) {
+            Log.e(TAG, "Recording stopped", e);
+            mRunning = false;
+        } finally {
+            drain();
+            closeWriter();
+        }
+    }
+
+    private void drain() {
+        Job job;
+        while ((job = mReady.poll()) != null) {
+            recycle(job);
+        }
+    }
+
+    private void write(Job job) throws IOException {
+        int format = mYuv && job.frame != null ? RingFile.FORMAT_I420 : RingFile.FORMAT_Y8;
+        if (mWriter == null || mWriter.format() != format
+                || mWriter.width() != job.width || mWriter.height() != job.height) {
+            openWriter(format, job.width, job.height);
+        }
+
+        int slot = mWriter.slot();
+        ByteBuffer dst = mWriter.beginFrame(job.sequence, job.timestamp, job.arrivalTime, job.droppedFrames);
+        if (job.frame != null) {
+            // Wrap each slot once and copy natively from the pooled frame
+            if (mSlotMats[slot] == null) {
+                mSlotMats[slot] = new Mat(mWriter.frameSize() / job.width, job.width, CvType.CV_8UC1, dst);
+            }
+            Mat src = format == RingFile.FORMAT_I420 ? job.frame.yuv() : job.frame.gray();
+            src.copyTo(mSlotMats[slot]);
+        } else {
+            dst.put(job.luma, 0, mWriter.frameSize());
+        }
+        mWriter.commitFrame();
+        mNewestTimestamp = job.timestamp;
+    }
+
+    private void recycle(Job job) {
+        if (job.frame != null) {
+            job.frame.release();
+            job.frame = null;
+        }
+        mFree.add(job);
+    }
+
+    private void openWriter(int format, int width, int height) throws IOException {
+        closeWriter();
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        mWriter = new RingFileWriter(new File(mDirectory, RING_NAME), format, width, height, mSlots);
+        mSlotMats = new Mat[mSlots];
+        Log.i(TAG, "Opened " + mSlots + " slot ring for " + width + "x" + height + " frames");
+    }
+
+    private void closeWriter() {
+        if (mWriter == null) {
+            return;
+        }
+        for (Mat mat : mSlotMats) {
+            if (mat != null) {
+                mat.release();
+            }
+        }
+        mSlotMats = null;
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close ring file", e);
+        }
+        mWriter = null;
+    }
+
+    private void dump() {
+        if (mWriter == null || mWriter.written() == 0) {
+            Log.i(TAG, "Nothing recorded to dump");
+            return;
+        }
+        String name = "failed-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".ring";
+        File file = new File(mDirectory, name);
+        long since = mKeepNs > 0 ? mNewestTimestamp - mKeepNs : 0;
+        try {
+            int frames = mWriter.dump(file, since);
+            Log.i(TAG, "Dumped " + frames + " frames to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to dump " + file, e);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.matteverett.ledroid;
+
+import android.os.Build;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Camera matrix and lens distortion of the camera at one resolution, as found by LensCalibration.
+ *
+ * Only the detected centroids are undistorted, a few dozen points per frame, rather than
+ * remapping whole frames at camera rate. Undistorted points are in pixels of an ideal pinhole
+ * camera with the same camera matrix, so the rest of the pipeline is unchanged.
+ *
+ * Intrinsics are cached in a small binary file per device and resolution:
+ *
+ *   int magic, int version, int width, int height, double rms,
+ *   double[9] camera matrix (row major), int n, double[n] distortion coefficients
+ */
+final class Intrinsics {
+    private static final int MAGIC = 0x4C44494E; // "LDIN"
+    private static final int VERSION = 1;
+
+    final int width;
+    final int height;
+    /** RMS reprojection error of the calibration, pixels */
+    final double rms;
+
+    private final Mat mCameraMatrix;
+    private final Mat mDistortion;
+    private final double[] mK = new double[9];
+
+    // Camera thread only
+    private final MatOfPoint2f mDistorted = new MatOfPoint2f();
+    private final MatOfPoint2f mUndistorted = new MatOfPoint2f();
+    private final Mat mNoRectification = new Mat();
+    private float[] mBuffer = new float[64];
+
+    /**
+     * Takes ownership of the matrices.
+     */
+    Intrinsics(int width, int height, double rms, Mat cameraMatrix, Mat distortion) {
+        this.width = width;
+        this.height = height;
+        this.rms = rms;
+        mCameraMatrix = cameraMatrix;
+        mDistortion = distortion;
+        cameraMatrix.get(0, 0, mK);
+    }
+
+    /** Camera matrix, owned by this */
+    Mat cameraMatrix() {
+        return mCameraMatrix;
+    }
+
+    double fx() {
+        return mK[0];
+    }
+
+    double fy() {
+        return mK[4];
+    }
+
+    double cx() {
+        return mK[2];
+    }
+
+    double cy() {
+        return mK[5];
+    }
+
+    /**
+     * Cache file for this device's camera at a resolution.
+     */
+    static File cacheFile(File directory, int width, int height) {
+        String device = (Build.MANUFACTURER + "-" + Build.MODEL).replaceAll("[^A-Za-z0-9-]", "_");
+        return new File(directory, device + "-" + width + "x" + height + ".bin");
+    }
+
+    static Intrinsics load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an intrinsics file: " + file);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            double rms = in.readDouble();
+            double[] k = new double[9];
+            for (int i = 0; i < k.length; i++) {
+                k[i] = in.readDouble();
+            }
+            int n = in.readInt();
+            if (n < 0 || n > 14) {
+                throw new IOException("Bad distortion coefficient count " + n + " in " + file);
+            }
+            double[] d = new double[n];
+            for (int i = 0; i < n; i++) {
+                d[i] = in.readDouble();
+            }
+
+            Mat cameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+            cameraMatrix.put(0, 0, k);
+            Mat distortion = new Mat(1, n, CvType.CV_64FC1);
+            distortion.put(0, 0, d);
+            return new Intrinsics(width, height, rms, cameraMatrix, distortion);
+        }
+    }
+
+    /**
+     * Writes the cache file, replacing it only once it is complete.
+     */
+    void save(File file) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        double[] d = new double[(int) mDistortion.total()];
+        mDistortion.get(0, 0, d);
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeDouble(rms);
+            for (double value : mK) {
+                out.writeDouble(value);
+            }
+            out.writeInt(d.length);
+            for (double value : d) {
+                out.writeDouble(value);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Undistorts points in place. Call from the camera thread only.
+     * @param points Pixel positions in frames of this resolution.
+     */
+    void undistort(List<Point> points) {
+        int n = points.size();
+        if (n == 0) {
+            return;
+        }
+        if (mBuffer.length < 2 * n) {
+            mBuffer = new float[4 * n];
+        }
+        for (int i = 0; i < n; i++) {
+            Point p = points.get(i);
+            mBuffer[2 * i] = (float) p.x;
+            mBuffer[2 * i + 1] = (float) p.y;
+        }
+        mDistorted.fromArray(mBuffer, n);
+        Calib3d.undistortPoints(mDistorted, mUndistorted, mCameraMatrix, mDistortion, mNoRectification, mCameraMatrix);
+        mUndistorted.toArray(mBuffer);
+        for (int i = 0; i < n; i++) {
+            Point p = points.get(i);
+            p.x = mBuffer[2 * i];
+            p.y = mBuffer[2 * i + 1];
+        }
+    }
+
+    void release() {
+        mCameraMatrix.release();
+        mDistortion.release();
+        mDistorted.release();
+        mUndistorted.release();
+        mNoRectification.release();
+    }
+}
@@ -0,0 +1,130 @@
+package com.matteverett.ledroid;
+
+import android.util.Log;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One-time lens calibration from views of a printed chessboard.
+ *
+ * Frames are searched for the board at most every ATTEMPT_INTERVAL_MS, since the search is far
+ * too slow to run on every frame, and a view is only kept once the last one is at least
+ * VIEW_INTERVAL_MS old so that the board is seen from different angles as the phone is moved.
+ * Once enough views are kept, calibrate() solves the camera matrix and distortion.
+ */
+final class LensCalibration {
+    private static final String TAG = "ledroid::LensCalibration";
+    private static final long ATTEMPT_INTERVAL_MS = 250;
+    private static final long VIEW_INTERVAL_MS = 1000;
+
+    private final Size mPattern;
+    private final int mViews;
+    private final MatOfPoint3f mBoard = new MatOfPoint3f();
+    private final List<Mat> mImagePoints = new ArrayList<>();
+    private long mLastAttemptMs = 0;
+    private long mLastViewMs = 0;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * @param columns Inner corners along a row of the board.
+     * @param rows    Inner corners along a column of the board.
+     * @param views   Views of the board to collect.
+     */
+    LensCalibration(int columns, int rows, int views) {
+        mPattern = new Size(columns, rows);
+        mViews = views;
+        // Square size only scales the board's poses, the intrinsics don't depend on it
+        Point3[] corners = new Point3[columns * rows];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                corners[r * columns + c] = new Point3(c, r, 0);
+            }
+        }
+        mBoard.fromArray(corners);
+    }
+
+    int viewCount() {
+        return mImagePoints.size();
+    }
+
+    boolean isComplete() {
+        return mImagePoints.size() >= mViews;
+    }
+
+    /**
+     * Looks for the board in a frame if it is time to.
+     * @param gray Single channel camera frame.
+     * @return true if a view was kept.
+     */
+    boolean addFrame(Mat gray) {
+        long now = System.currentTimeMillis();
+        if (isComplete() || now - mLastAttemptMs < ATTEMPT_INTERVAL_MS || now - mLastViewMs < VIEW_INTERVAL_MS) {
+            return false;
+        }
+        mLastAttemptMs = now;
+        if (!mImagePoints.isEmpty() && (gray.cols() != mWidth || gray.rows() != mHeight)) {
+            Log.w(TAG, "Frame size changed, starting again");
+            release();
+        }
+
+        MatOfPoint2f corners = new MatOfPoint2f();
+        boolean found = Calib3d.findChessboardCorners(gray, mPattern, corners,
+                Calib3d.CALIB_CB_ADAPTIVE_THRESH | Calib3d.CALIB_CB_NORMALIZE_IMAGE | Calib3d.CALIB_CB_FAST_CHECK);
+        if (!found) {
+            corners.release();
+            return false;
+        }
+        Imgproc.cornerSubPix(gray, corners, new Size(11, 11), new Size(-1, -1),
+                new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.01));
+        mImagePoints.add(corners);
+        mWidth = gray.cols();
+        mHeight = gray.rows();
+        mLastViewMs = now;
+        Log.i(TAG, "Kept view " + mImagePoints.size() + " of " + mViews);
+        return true;
+    }
+
+    /**
+     * Solves the intrinsics from the kept views. Slow, keep it off the camera thread.
+     */
+    Intrinsics calibrate() {
+        List<Mat> objectPoints = new ArrayList<>();
+        for (int i = 0; i < mImagePoints.size(); i++) {
+            objectPoints.add(mBoard);
+        }
+        Mat cameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+        Mat distortion = new Mat();
+        List<Mat> rvecs = new ArrayList<>();
+        List<Mat> tvecs = new ArrayList<>();
+        double rms = Calib3d.calibrateCamera(objectPoints, mImagePoints, new Size(mWidth, mHeight),
+                cameraMatrix, distortion, rvecs, tvecs);
+        for (Mat m : rvecs) {
+            m.release();
+        }
+        for (Mat m : tvecs) {
+            m.release();
+        }
+        Log.i(TAG, String.format("Calibrated %dx%d from %d views, RMS error %.3f px",
+                mWidth, mHeight, mImagePoints.size(), rms));
+        return new Intrinsics(mWidth, mHeight, rms, cameraMatrix, distortion);
+    }
+
+    void release() {
+        for (Mat m : mImagePoints) {
+            m.release();
+        }
+        mImagePoints.clear();
+    }
+}
@@ -18,15 +18,21 @@ import android.view.WindowManager;
 import com.kviation.sample.orientation.Orientation;
 
 import org.opencv.android.BaseLoaderCallback;
+import org.opencv.android.CalibrationCaptureProfile;
 import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.JavaCamera2View;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
+import org.opencv.android.PipelineProfiler;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatTracker;
 import org.opencv.core.Scalar;
+import org.opencv.imgproc.Contours;
 import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.LedDetector;
 import org.opencv.imgproc.Moments;
 
 import java.util.ArrayList;
@@ -38,11 +44,33 @@ public class MainActivity extends AppCompatActivity
 
     private static final String TAG = "ledroid::MainActivity";
 
+    private static final int STAGE_THRESHOLD = PipelineProfiler.register("threshold");
+    private static final int STAGE_MORPHOLOGY = PipelineProfiler.register("morphology");
+    private static final int STAGE_CONTOURS = PipelineProfiler.register("findContours");
+    private static final int STAGE_DETECT = PipelineProfiler.register("detect");
+    private static final int STAGE_RGBA = PipelineProfiler.register("rgba");
+    private static final int STAGE_CENTROIDS = PipelineProfiler.register("centroids+overlay");
+    private static final int STAGE_STORE = PipelineProfiler.register("storeLocations");
+
     private CameraBridgeViewBase mOpenCvCameraView;
     private Calibrate mCalibrate;
-    private float mAzimuth;
+    private CalibrationCaptureProfile mCaptureProfile;
+    private volatile boolean mCalibrationRequested = false;
+    private boolean mDualStream = false;
+    private volatile float mAzimuth;
     private Orientation mOrientation;
+    private final float[] mFrameOrientation = new float[3];
     private Mat mRgba;
+    private Mat mThresh;
+    // Empty kernel, the default 3x3 rectangle for erode and dilate
+    private Mat mKernel;
+    private final List<MatOfPoint> mMarker = new ArrayList<>();
+    private final Contours mContours = new Contours();
+    private final Moments mMoments = new Moments();
+    private int[] mOutlinePoints = new int[2 * 64];
+    private MatOfPoint mOutline;
+    private final List<MatOfPoint> mOutlines = new ArrayList<>();
+    private float[] mSpots = new float[LedDetector.STRIDE * 256];
 
     private BaseLoaderCallback mLoaderCallback = new BaseLoaderCallback(this) {
         @Override
@@ -78,7 +106,17 @@ public class MainActivity extends AppCompatActivity
         fab.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                mCalibrate.StartCalibration();
+                // Lock the camera first, the session starts once exposure has settled
+                if (mOpenCvCameraView instanceof JavaCamera2View) {
+                    ((JavaCamera2View) mOpenCvCameraView).lockCaptureProfile(mCaptureProfile, new Runnable() {
+                        @Override
+                        public void run() {
+                            mCalibrationRequested = true;
+                        }
+                    });
+                } else {
+                    mCalibrationRequested = true;
+                }
             }
         });
 
@@ -109,6 +147,31 @@ public class MainActivity extends AppCompatActivity
 
         mCalibrate = new Calibrate();
         mCalibrate.Init(getApplicationContext());
+        mCaptureProfile = mCalibrate.CreateCaptureProfile();
+        PipelineProfiler.setEnabled(mCalibrate.IsProfilingEnabled());
+        MatTracker.setEnabled(mCalibrate.IsMatTrackingEnabled());
+        mCalibrate.SetCameraView(mOpenCvCameraView);
+        mCalibrate.SetSessionListener(new Calibrate.SessionListener() {
+            @Override
+            public void onSessionStarted() {
+                setOrientationLatency(1000 * mCalibrate.GetOrientationBatchLatencyMs());
+            }
+
+            @Override
+            public void onSessionEnded(boolean failed) {
+                // Back to automatic exposure, so the next session meters afresh
+                if (mOpenCvCameraView instanceof JavaCamera2View) {
+                    ((JavaCamera2View) mOpenCvCameraView).unlockCaptureProfile();
+                }
+                setOrientationLatency(0);
+            }
+        });
+
+        if (mOpenCvCameraView instanceof JavaCamera2View && mCalibrate.GetDetectionWidth() > 0) {
+            ((JavaCamera2View) mOpenCvCameraView).enableDualStream(
+                    mCalibrate.GetDetectionWidth(), mCalibrate.GetDetectionHeight());
+            mDualStream = true;
+        }
     }
 
     @Override
@@ -129,6 +192,11 @@ public class MainActivity extends AppCompatActivity
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_calibrate_lens) {
+            mCalibrate.StartLensCalibration();
+            Snackbar.make(mOpenCvCameraView, R.string.lens_calibration_hint, Snackbar.LENGTH_LONG).show();
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -137,6 +205,8 @@ public class MainActivity extends AppCompatActivity
     public void onPause()
     {
         super.onPause();
+        if (mOpenCvCameraView instanceof JavaCamera2View)
+            ((JavaCamera2View) mOpenCvCameraView).unlockCaptureProfile();
         if (mOpenCvCameraView != null)
             mOpenCvCameraView.disableView();
     }
@@ -158,6 +228,7 @@ public class MainActivity extends AppCompatActivity
         super.onDestroy();
         if (mOpenCvCameraView != null)
             mOpenCvCameraView.disableView();
+        mCalibrate.Close();
     }
 
     /**
@@ -170,6 +241,15 @@ public class MainActivity extends AppCompatActivity
     @Override
     public void onCameraViewStarted(int width, int height) {
         mRgba = new Mat(height, width, CvType.CV_8UC4);
+        mThresh = new Mat(height, width, CvType.CV_8UC1);
+        mKernel = new Mat();
+        mMarker.add(new MatOfPoint(new Point(0, 0), new Point(50, 0), new Point(50, 50)));
+        mOutline = new MatOfPoint();
+        mOutlines.add(mOutline);
+        if (mCalibrate.IsFusedDetectionEnabled()) {
+            // OpenCV is loaded by now, which the native detector links against
+            Log.i(TAG, "Fused detection " + (LedDetector.isNativeAvailable() ? "native" : "in Java"));
+        }
     }
 
     /**
@@ -179,6 +259,20 @@ public class MainActivity extends AppCompatActivity
     @Override
     public void onCameraViewStopped() {
         mRgba.release();
+        mThresh.release();
+        mKernel.release();
+        for (MatOfPoint marker : mMarker) {
+            marker.release();
+        }
+        mMarker.clear();
+        mOutline.release();
+        mOutlines.clear();
+        mContours.release();
+        mCalibrate.Release();
+        PipelineProfiler.logSnapshot();
+        if (MatTracker.isEnabled()) {
+            Log.i(TAG, MatTracker.report(10));
+        }
     }
 
     /**
@@ -226,42 +320,132 @@ public class MainActivity extends AppCompatActivity
      */
     @Override
     public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
-        mRgba = inputFrame.rgba();
-
-        Mat thresh = new Mat();
-        Imgproc.cvtColor(mRgba, thresh, Imgproc.COLOR_BGR2GRAY);
-        Imgproc.threshold(thresh, thresh, 251, 255, Imgproc.THRESH_BINARY);
-        Imgproc.erode(thresh, thresh, new Mat(), new Point(-1, -1), 1);
-        Imgproc.dilate(thresh, thresh, new Mat(), new Point(-1, -1), 1);
-
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        Imgproc.findContours(thresh, contours, hierarchy, Imgproc.RETR_TREE,
-                Imgproc.CHAIN_APPROX_SIMPLE);
-
-        int screenWidth = mRgba.width();
-        List<Point> locations = new ArrayList<>();
-        for (int i = 0; i < contours.size(); i++) {
-            Moments m = Imgproc.moments(contours.get(i));
-            Point centroid = new Point(m.m10 / m.m00, m.m01 / m.m00);
-            locations.add(fromScreen(centroid, screenWidth));
-            Imgproc.drawContours(mRgba, contours, i, new Scalar(255, 0, 255), 2);
-            Imgproc.drawMarker(mRgba, centroid, new Scalar(0, 0, 255), Imgproc.MARKER_CROSS, 20, 3);
+        Mat gray = inputFrame.gray();
+        // The attitude when the frame was exposed, rather than when the last sensor event came
+        if (mOrientation.getOrientationAt(inputFrame.timestamp(), mFrameOrientation)) {
+            mCalibrate.SetOrientation(mFrameOrientation[0], mFrameOrientation[1], mFrameOrientation[2]);
+        } else {
+            mCalibrate.ClearOrientation();
+        }
+
+        if (mCalibrate.CalibrateLens(gray)) {
+            return mDualStream ? null : inputFrame.rgba();
+        }
+
+        if (mCalibrationRequested) {
+            mCalibrationRequested = false;
+            mCalibrate.StartCalibration();
+        }
+
+        long t = PipelineProfiler.begin();
+        Mat thresh = mThresh;
+        boolean fused = mCalibrate.IsFusedDetectionEnabled();
+        int spots = 0;
+        if (fused) {
+            // Threshold, opening, labelling and centroids in a single call
+            spots = mCalibrate.Detect(gray, thresh, mSpots);
+            t = PipelineProfiler.end(STAGE_DETECT, t);
+        } else {
+            mCalibrate.Threshold(gray, thresh);
+            t = PipelineProfiler.end(STAGE_THRESHOLD, t);
         }
 
-        ArrayList<MatOfPoint> pts = new ArrayList<>();
-        pts.add(new MatOfPoint(new Point(0, 0), new Point(50, 0), new Point(50, 50)));
-        Imgproc.fillPoly(mRgba, pts, new Scalar(0, 255, 0));
+        // With a separate display stream nothing we draw would be shown
+        boolean drawOverlay = !mDualStream;
+        if (drawOverlay) {
+            mRgba = inputFrame.rgba();
+            t = PipelineProfiler.end(STAGE_RGBA, t);
+        }
+
+        int screenWidth = gray.width();
+        List<Point> centroids = new ArrayList<>();
+        if (fused) {
+            int fit = Math.min(spots, mSpots.length / LedDetector.STRIDE);
+            for (int i = 0; i < fit; i++) {
+                Point centroid = new Point(mSpots[LedDetector.STRIDE * i], mSpots[LedDetector.STRIDE * i + 1]);
+                centroids.add(centroid);
+                if (drawOverlay) {
+                    Imgproc.drawMarker(mRgba, centroid, new Scalar(0, 0, 255), Imgproc.MARKER_CROSS, 20, 3);
+                }
+            }
+            if (spots > fit) {
+                // Make room for them from the next frame on
+                Log.w(TAG, "Dropped " + (spots - fit) + " spots");
+                mSpots = new float[LedDetector.STRIDE * 2 * spots];
+            }
+        } else {
+            Imgproc.erode(thresh, thresh, mKernel, new Point(-1, -1), 1);
+            Imgproc.dilate(thresh, thresh, mKernel, new Point(-1, -1), 1);
+            t = PipelineProfiler.end(STAGE_MORPHOLOGY, t);
+
+            // Contours land in flat arrays that are reused every frame, rather than a MatOfPoint each
+            Imgproc.findContours(thresh, mContours, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE);
+            t = PipelineProfiler.end(STAGE_CONTOURS, t);
+
+            for (int i = 0; i < mContours.size(); i++) {
+                mContours.moments(i, mMoments);
+                Point centroid = new Point(mMoments.m10 / mMoments.m00, mMoments.m01 / mMoments.m00);
+                centroids.add(centroid);
+                if (drawOverlay) {
+                    drawOutline(i);
+                    Imgproc.drawMarker(mRgba, centroid, new Scalar(0, 0, 255), Imgproc.MARKER_CROSS, 20, 3);
+                }
+            }
+        }
+
+        // The overlay is drawn on the distorted frame, only the sent locations are stabilized
+        // and undistorted. Stabilizing first keeps the centroids in the frame it tracks
+        mCalibrate.Stabilize(gray, centroids);
+        mCalibrate.Undistort(centroids, gray.width(), gray.height());
+        mCalibrate.TrackPose(centroids, gray.width(), gray.height());
+        List<Point> locations = new ArrayList<>(centroids.size());
+        for (int i = 0; i < centroids.size(); i++) {
+            locations.add(fromScreen(centroids.get(i), screenWidth));
+        }
+
+        t = PipelineProfiler.end(STAGE_CENTROIDS, t);
 
         mCalibrate.StoreLocations(locations);
+        PipelineProfiler.end(STAGE_STORE, t);
+
+        if (!drawOverlay) {
+            return null;
+        }
+
+        Imgproc.fillPoly(mRgba, mMarker, new Scalar(0, 255, 0));
 
         return mRgba;
     }
 
+    private void drawOutline(int contour) {
+        int n = mContours.length(contour);
+        if (n == 0) {
+            return;
+        }
+        if (mOutlinePoints.length < 2 * n) {
+            mOutlinePoints = new int[4 * n];
+        }
+        mContours.copy(contour, mOutlinePoints);
+        mOutline.fromArray(mOutlinePoints, n);
+        Imgproc.drawContours(mRgba, mOutlines, 0, new Scalar(255, 0, 255), 2);
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
-        mOrientation.startListening(this);
+        // Samples are only batched while a session captures, the preview wants them fresh
+        mOrientation.startListening(this,
+                mCalibrate.IsInSession() ? 1000 * mCalibrate.GetOrientationBatchLatencyMs() : 0);
+    }
+
+    private void setOrientationLatency(final int maxReportLatencyMicros) {
+        // Sessions start and end on the camera and MQTT threads, listening is managed on this one
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mOrientation.setMaxReportLatency(maxReportLatencyMicros);
+            }
+        });
     }
 
     @Override
@@ -272,6 +456,8 @@ public class MainActivity extends AppCompatActivity
 
     @Override
     public void onOrientationChanged(float azimuth, float pitch, float roll) {
+        // Calibrate is given the orientation at each frame's timestamp instead, see onCameraFrame.
+        // Called on the sensor thread when batching
         mAzimuth = azimuth;
         //Log.i(TAG, String.format("azimuth: %f pitch: %f roll: %f", azimuth, pitch, roll));
     }
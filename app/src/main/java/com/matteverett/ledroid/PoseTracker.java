@@ -0,0 +1,236 @@
+package com.matteverett.ledroid;
+
+import android.util.Log;
+
+import com.matteverett.ledroid.pipeline.CameraView;
+import com.matteverett.ledroid.pipeline.LedDetector;
+import com.matteverett.ledroid.pipeline.LedMap;
+import com.matteverett.ledroid.pipeline.PoseMatcher;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point;
+
+import java.util.List;
+
+/**
+ * Tracks the phone's pose every frame against the calibrated LED map, so that captures can be
+ * taken handheld from several angles.
+ *
+ * The map is projected through the last frame's pose and the detected centroids are matched to
+ * the nearest projected LEDs, see PoseMatcher. The pose is then solved with solvePnPRansac,
+ * starting from the last pose, which only needs a few iterations when the phone moves a little
+ * between frames. When tracking is lost the prediction comes from the device orientation
+ * instead, with the camera assumed to stand on a circle around the tree.
+ *
+ * Centroids must already be undistorted. Poses map world points into the camera frame, as in
+ * CameraView. Call from the camera thread only.
+ */
+final class PoseTracker {
+    private static final String TAG = "ledroid::PoseTracker";
+    private static final int RANSAC_ITERATIONS = 50;
+    private static final float RANSAC_REPROJECTION_ERROR = 4;
+    private static final double RANSAC_CONFIDENCE = 0.99;
+    /** Focal length as a fraction of the frame width without a lens calibration, about 68° */
+    private static final double DEFAULT_FOCAL_SCALE = 0.75;
+
+    private final LedMap mMap;
+    private final PoseMatcher mMatcher;
+    private final int mMinInliers;
+    private final double mDistance;
+    private final double mHeight;
+    private final double mRollOffset;
+
+    private final MatOfPoint3f mObjectPoints = new MatOfPoint3f();
+    private final MatOfPoint2f mImagePoints = new MatOfPoint2f();
+    private final MatOfDouble mNoDistortion = new MatOfDouble();
+    private final Mat mCameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+    private final Mat mRvec = new Mat(3, 1, CvType.CV_64FC1);
+    private final Mat mTvec = new Mat(3, 1, CvType.CV_64FC1);
+    private final Mat mRmat = new Mat(3, 3, CvType.CV_64FC1);
+    private final Mat mInliers = new Mat();
+    private float[] mBlobs = new float[LedDetector.STRIDE * 64];
+    private float[] mObjectBuffer = new float[3 * 64];
+    private float[] mImageBuffer = new float[2 * 64];
+    private final double[] mK = new double[9];
+    private final double[] mRotation = new double[3];
+
+    private CameraView mView;
+    private boolean mTracking = false;
+    private volatile boolean mHasOrientation = false;
+    private volatile float mAzimuth;
+    private volatile float mPitch;
+    private volatile float mRoll;
+
+    /**
+     * @param matchRadius Largest distance in pixels between a centroid and its LED's predicted
+     *                    position.
+     * @param minInliers  Fewest LEDs agreeing with a pose for it to be trusted.
+     * @param distance    Assumed distance from the tree's axis when tracking is lost.
+     * @param height      Assumed height above the tree's base when tracking is lost.
+     * @param rollOffset  Roll of the camera's image relative to the device, degrees, which is
+     *                    90 for the usual sensor held in portrait.
+     */
+    PoseTracker(LedMap map, float matchRadius, int minInliers, double distance, double height, double rollOffset) {
+        mMap = map;
+        mMatcher = new PoseMatcher(matchRadius);
+        mMinInliers = Math.max(4, minInliers);
+        mDistance = distance;
+        mHeight = height;
+        mRollOffset = rollOffset;
+    }
+
+    /**
+     * Records the latest device orientation, in degrees. Safe to call from any thread.
+     */
+    void setOrientation(float azimuth, float pitch, float roll) {
+        mAzimuth = azimuth;
+        mPitch = pitch;
+        mRoll = roll;
+        mHasOrientation = true;
+    }
+
+    boolean isTracking() {
+        return mTracking;
+    }
+
+    /**
+     * Solves the pose for a frame.
+     * @param centroids  Undistorted centroids in frame pixels.
+     * @param intrinsics Lens calibration for the frame size, or null to assume a typical lens.
+     * @return true if the pose was found.
+     */
+    boolean track(List<Point> centroids, Intrinsics intrinsics, int width, int height) {
+        if (!updateCamera(intrinsics, width, height)) {
+            mTracking = false;
+        }
+        if (!mTracking && !predictFromOrientation()) {
+            return false;
+        }
+
+        int n = centroids.size();
+        if (mBlobs.length < LedDetector.STRIDE * n) {
+            mBlobs = new float[LedDetector.STRIDE * 2 * n];
+        }
+        for (int i = 0; i < n; i++) {
+            Point p = centroids.get(i);
+            mBlobs[LedDetector.STRIDE * i] = (float) p.x;
+            mBlobs[LedDetector.STRIDE * i + 1] = (float) p.y;
+        }
+        int matches = mMatcher.match(mView, mMap, width, height, mBlobs, n);
+        if (matches < mMinInliers) {
+            lose(matches + " matches");
+            return false;
+        }
+
+        if (mObjectBuffer.length < 3 * matches) {
+            mObjectBuffer = new float[3 * 2 * matches];
+            mImageBuffer = new float[2 * 2 * matches];
+        }
+        double[] object = mMatcher.objectPoints();
+        double[] image = mMatcher.imagePoints();
+        for (int i = 0; i < 3 * matches; i++) {
+            mObjectBuffer[i] = (float) object[i];
+        }
+        for (int i = 0; i < 2 * matches; i++) {
+            mImageBuffer[i] = (float) image[i];
+        }
+        mObjectPoints.create(matches, 1, CvType.CV_32FC3);
+        mObjectPoints.put(0, 0, mObjectBuffer, 3 * matches);
+        mImagePoints.fromArray(mImageBuffer, matches);
+
+        // Start from the predicted pose
+        mRmat.put(0, 0, mView.rotation);
+        Calib3d.Rodrigues(mRmat, mRvec);
+        mTvec.put(0, 0, mView.translation);
+        boolean solved = Calib3d.solvePnPRansac(mObjectPoints, mImagePoints, mCameraMatrix, mNoDistortion,
+                mRvec, mTvec, true, RANSAC_ITERATIONS, RANSAC_REPROJECTION_ERROR, RANSAC_CONFIDENCE,
+                mInliers, Calib3d.SOLVEPNP_ITERATIVE);
+        if (!solved || mInliers.rows() < mMinInliers) {
+            lose(mInliers.rows() + " inliers of " + matches + " matches");
+            return false;
+        }
+
+        Calib3d.Rodrigues(mRvec, mRmat);
+        mRmat.get(0, 0, mView.rotation);
+        mTvec.get(0, 0, mView.translation);
+        mRvec.get(0, 0, mRotation);
+        if (!mTracking) {
+            Log.i(TAG, "Tracking with " + mInliers.rows() + " inliers of " + matches + " matches");
+        }
+        mTracking = true;
+        return true;
+    }
+
+    /**
+     * Copies the last pose found.
+     * @param rotation    Receives the world to camera rotation vector.
+     * @param translation Receives the world to camera translation.
+     */
+    void getPose(double[] rotation, double[] translation) {
+        System.arraycopy(mRotation, 0, rotation, 0, 3);
+        System.arraycopy(mView.translation, 0, translation, 0, 3);
+    }
+
+    void release() {
+        mObjectPoints.release();
+        mImagePoints.release();
+        mNoDistortion.release();
+        mCameraMatrix.release();
+        mRvec.release();
+        mTvec.release();
+        mRmat.release();
+        mInliers.release();
+    }
+
+    /**
+     * Keeps the camera matrix in step with the lens calibration and frame size.
+     * @return false if it changed, which invalidates the last pose.
+     */
+    private boolean updateCamera(Intrinsics intrinsics, int width, int height) {
+        double fx, fy, cx, cy;
+        if (intrinsics != null) {
+            fx = intrinsics.fx();
+            fy = intrinsics.fy();
+            cx = intrinsics.cx();
+            cy = intrinsics.cy();
+        } else {
+            fx = fy = DEFAULT_FOCAL_SCALE * width;
+            cx = width / 2.0;
+            cy = height / 2.0;
+        }
+        if (mView != null && mView.fx == fx && mView.fy == fy && mView.cx == cx && mView.cy == cy) {
+            return true;
+        }
+        mView = new CameraView(fx, fy, cx, cy);
+        mK[0] = fx;
+        mK[2] = cx;
+        mK[4] = fy;
+        mK[5] = cy;
+        mK[8] = 1;
+        mCameraMatrix.put(0, 0, mK);
+        return false;
+    }
+
+    private boolean predictFromOrientation() {
+        if (!mHasOrientation) {
+            return false;
+        }
+        CameraView guess = CameraView.orbiting(mAzimuth, mPitch, mRoll + mRollOffset, mDistance, mHeight,
+                mView.fx, mView.fy, mView.cx, mView.cy);
+        System.arraycopy(guess.rotation, 0, mView.rotation, 0, 9);
+        System.arraycopy(guess.translation, 0, mView.translation, 0, 3);
+        return true;
+    }
+
+    private void lose(String reason) {
+        if (mTracking) {
+            Log.i(TAG, "Lost tracking, " + reason);
+        }
+        mTracking = false;
+    }
+}
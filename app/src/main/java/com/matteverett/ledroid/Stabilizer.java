@@ -0,0 +1,211 @@
+package com.matteverett.ledroid;
+
+import android.util.Log;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.SparsePyrLKOpticalFlow;
+
+import java.util.List;
+
+/**
+ * Compensates for hand shake during a capture by mapping every frame's centroids into the
+ * coordinates of the capture's first frame.
+ *
+ * Corner features are found and tracked with pyramidal Lucas-Kanade flow on luma downscaled by
+ * 2^levels, which is far cheaper than the full frame and plenty for the few pixels the phone
+ * moves. Each feature remembers where it was in the first frame, so the similarity transform
+ * from the current frame to the first is fitted directly, with RANSAC, rather than chained
+ * from frame to frame where the errors would add up. Features that are lost are replaced once
+ * too few remain, their first-frame positions taken from the current transform.
+ *
+ * When too few features can be tracked, for example with the background exposed away, the last
+ * transform is kept. Call from the camera thread only.
+ */
+final class Stabilizer {
+    private static final String TAG = "ledroid::Stabilizer";
+    private static final int MAX_FEATURES = 64;
+    private static final int MIN_FEATURES = 16;
+    private static final int MIN_INLIERS = 6;
+    private static final double FEATURE_QUALITY = 0.01;
+    private static final double FEATURE_DISTANCE = 8;
+    /** RANSAC threshold in downscaled pixels */
+    private static final double RANSAC_THRESHOLD = 1;
+
+    private final int mLevels;
+    private final SparsePyrLKOpticalFlow mFlow = SparsePyrLKOpticalFlow.create(new Size(15, 15), 2);
+    private Mat mPrevious = new Mat();
+    private Mat mCurrent = new Mat();
+    private final Mat mHalf = new Mat();
+    private final MatOfPoint mCorners = new MatOfPoint();
+    private final MatOfPoint2f mPreviousPoints = new MatOfPoint2f();
+    private final MatOfPoint2f mNextPoints = new MatOfPoint2f();
+    private final MatOfPoint2f mFirstPoints = new MatOfPoint2f();
+    private final Mat mStatus = new Mat();
+    private final Mat mInliers = new Mat();
+
+    // Per feature, in downscaled pixels
+    private float[] mNext = new float[2 * MAX_FEATURES];
+    private float[] mFirst = new float[2 * MAX_FEATURES];
+    private byte[] mFound = new byte[MAX_FEATURES];
+    private int[] mCornerBuffer = new int[2 * MAX_FEATURES];
+    private final double[] mAffine = new double[6];
+    private int mCount;
+    private boolean mHasReference = false;
+
+    // Current frame to first frame, in downscaled pixels: x' = a x - b y + tx, y' = b x + a y + ty
+    private double mA = 1;
+    private double mB = 0;
+    private double mTx = 0;
+    private double mTy = 0;
+
+    /**
+     * @param levels Number of times frames are halved before tracking.
+     */
+    Stabilizer(int levels) {
+        mLevels = Math.max(0, levels);
+    }
+
+    /**
+     * Makes the next frame the reference that later frames are mapped to.
+     */
+    void reset() {
+        mHasReference = false;
+    }
+
+    /**
+     * Tracks the frame and maps its centroids into the reference frame's coordinates in place.
+     * @param gray      Single channel camera frame.
+     * @param centroids Centroids in the frame's pixels.
+     */
+    void apply(Mat gray, List<Point> centroids) {
+        downscale(gray, mCurrent);
+
+        if (!mHasReference || mPrevious.cols() != mCurrent.cols() || mPrevious.rows() != mCurrent.rows()) {
+            mA = 1;
+            mB = 0;
+            mTx = 0;
+            mTy = 0;
+            detect();
+            mHasReference = true;
+        } else {
+            track();
+            estimate();
+            if (mCount < MIN_FEATURES) {
+                detect();
+            }
+        }
+        Mat swap = mPrevious;
+        mPrevious = mCurrent;
+        mCurrent = swap;
+
+        // The rotation and scale are the same at full resolution, only the translation scales
+        double scale = 1 << mLevels;
+        double tx = mTx * scale;
+        double ty = mTy * scale;
+        for (int i = 0; i < centroids.size(); i++) {
+            Point p = centroids.get(i);
+            double x = p.x;
+            double y = p.y;
+            p.x = mA * x - mB * y + tx;
+            p.y = mB * x + mA * y + ty;
+        }
+    }
+
+    void release() {
+        mPrevious.release();
+        mCurrent.release();
+        mHalf.release();
+        mCorners.release();
+        mPreviousPoints.release();
+        mNextPoints.release();
+        mFirstPoints.release();
+        mStatus.release();
+        mInliers.release();
+    }
+
+    private void downscale(Mat gray, Mat out) {
+        if (mLevels == 0) {
+            gray.copyTo(out);
+            return;
+        }
+        Mat src = gray;
+        for (int level = 0; level < mLevels; level++) {
+            Mat dst = (mLevels - level) % 2 == 1 ? out : mHalf;
+            Imgproc.pyrDown(src, dst, new Size((src.cols() + 1) / 2, (src.rows() + 1) / 2));
+            src = dst;
+        }
+    }
+
+    /**
+     * Replaces the features with fresh corners of the current frame.
+     */
+    private void detect() {
+        Imgproc.goodFeaturesToTrack(mCurrent, mCorners, MAX_FEATURES, FEATURE_QUALITY, FEATURE_DISTANCE);
+        mCount = mCorners.toArray(mCornerBuffer);
+        for (int i = 0; i < mCount; i++) {
+            double x = mCornerBuffer[2 * i];
+            double y = mCornerBuffer[2 * i + 1];
+            mNext[2 * i] = (float) x;
+            mNext[2 * i + 1] = (float) y;
+            mFirst[2 * i] = (float) (mA * x - mB * y + mTx);
+            mFirst[2 * i + 1] = (float) (mB * x + mA * y + mTy);
+        }
+    }
+
+    /**
+     * Follows the features from the previous frame into the current one, dropping lost ones.
+     */
+    private void track() {
+        if (mCount == 0) {
+            return;
+        }
+        mPreviousPoints.fromArray(mNext, mCount);
+        mFlow.calc(mPrevious, mCurrent, mPreviousPoints, mNextPoints, mStatus);
+        mNextPoints.toArray(mNext);
+        mStatus.get(0, 0, mFound);
+
+        int kept = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mFound[i] == 0) {
+                continue;
+            }
+            mNext[2 * kept] = mNext[2 * i];
+            mNext[2 * kept + 1] = mNext[2 * i + 1];
+            mFirst[2 * kept] = mFirst[2 * i];
+            mFirst[2 * kept + 1] = mFirst[2 * i + 1];
+            kept++;
+        }
+        mCount = kept;
+    }
+
+    /**
+     * Fits the transform from the tracked features to their first-frame positions.
+     */
+    private void estimate() {
+        if (mCount < MIN_INLIERS) {
+            return;
+        }
+        mNextPoints.fromArray(mNext, mCount);
+        mFirstPoints.fromArray(mFirst, mCount);
+        Mat affine = Calib3d.estimateAffinePartial2D(mNextPoints, mFirstPoints, mInliers,
+                Calib3d.RANSAC, RANSAC_THRESHOLD, 200, 0.99, 10);
+        if (affine.empty() || Core.countNonZero(mInliers) < MIN_INLIERS) {
+            affine.release();
+            Log.d(TAG, "Keeping the last transform, too few features agree");
+            return;
+        }
+        affine.get(0, 0, mAffine);
+        affine.release();
+        mA = mAffine[0];
+        mB = mAffine[3];
+        mTx = mAffine[2];
+        mTy = mAffine[5];
+    }
+}
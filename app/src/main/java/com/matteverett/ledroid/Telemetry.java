@@ -0,0 +1,211 @@
+package com.matteverett.ledroid;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.eclipse.paho.android.service.MqttAndroidClient;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.FramePool;
+import org.opencv.android.JavaCamera2View;
+import org.opencv.android.LatencyHistogram;
+import org.opencv.android.PerformanceMonitor;
+import org.opencv.core.MatTracker;
+
+import java.util.Arrays;
+
+/**
+ * Publishes a compact performance record on a fixed interval so unattended devices can be
+ * monitored from the server.
+ *
+ * The record is built on a dedicated background thread into a reused StringBuilder and byte
+ * buffer. Only the final payload array is allocated per record, because Paho keeps a reference
+ * to it until the message has been sent.
+ *
+ * Fields: id, uptime ms, windowed fps, processing p50/p95/p99 ms, frames held in the frame pool,
+ * MQTT messages buffered, dropped frames, native heap bytes, Java heap bytes and publish latency
+ * p50/max ms since the previous record.
+ */
+final class Telemetry {
+    private static final String TAG = "ledroid::Telemetry";
+    // How long stop() waits for a report in progress to finish publishing
+    private static final long STOP_TIMEOUT_MS = 500;
+
+    private final MqttAndroidClient mClient;
+    private final String mTopic;
+    private final String mDeviceId;
+    private final long mIntervalMs;
+
+    private final StringBuilder mBuilder = new StringBuilder(256);
+    private byte[] mBuffer = new byte[256];
+    private final LatencyHistogram mPublishLatency = new LatencyHistogram();
+    private final LatencyHistogram.Snapshot mLatencySnapshot = new LatencyHistogram.Snapshot();
+
+    private volatile CameraBridgeViewBase mCameraView;
+    private HandlerThread mThread;
+    private volatile Handler mHandler;
+
+    private final Runnable mReport = new Runnable() {
+        @Override
+        public void run() {
+            publish();
+            Handler handler = mHandler;
+            if (handler != null) {
+                handler.postDelayed(this, mIntervalMs);
+            }
+        }
+    };
+
+    Telemetry(MqttAndroidClient client, String topic, String deviceId, long intervalMs) {
+        mClient = client;
+        mTopic = topic;
+        mDeviceId = deviceId;
+        mIntervalMs = intervalMs;
+    }
+
+    void setCameraView(CameraBridgeViewBase cameraView) {
+        mCameraView = cameraView;
+    }
+
+    synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread("ledroid-telemetry");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.postDelayed(mReport, mIntervalMs);
+        Log.i(TAG, "Publishing telemetry to " + mTopic + " every " + mIntervalMs + "ms");
+    }
+
+    /**
+     * Stops reporting. A report already being built finishes first, so the client can be closed
+     * once this returns.
+     */
+    synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mHandler.removeCallbacks(mReport);
+        mHandler = null;
+        mThread.quitSafely();
+        try {
+            mThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mThread.isAlive()) {
+            Log.w(TAG, "Telemetry thread still running after " + STOP_TIMEOUT_MS + "ms");
+        }
+        mThread = null;
+    }
+
+    /**
+     * Records how long a publish took from the call until Paho reported it sent.
+     */
+    void recordPublishLatency(long nanos) {
+        mPublishLatency.record(nanos);
+    }
+
+    /**
+     * Returns a listener that feeds the publish latency of one message, started now.
+     */
+    IMqttActionListener publishListener() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        return new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken asyncActionToken) {
+                recordPublishLatency(SystemClock.elapsedRealtimeNanos() - start);
+            }
+
+            @Override
+            public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                Log.w(TAG, "Publish failed: " + exception);
+            }
+        };
+    }
+
+    private void publish() {
+        if (!mClient.isConnected()) {
+            return;
+        }
+
+        StringBuilder b = mBuilder;
+        b.setLength(0);
+        b.append("{\"type\":\"stats\",\"id\":\"").append(mDeviceId)
+                .append("\",\"t\":").append(SystemClock.elapsedRealtime());
+
+        CameraBridgeViewBase view = mCameraView;
+        PerformanceMonitor monitor = view != null ? view.getPerformanceMonitor() : null;
+        if (monitor != null) {
+            b.append(",\"fps\":");
+            appendFixed(b, monitor.windowFps());
+            b.append(",\"p50\":");
+            appendFixed(b, monitor.processingP50Ms());
+            b.append(",\"p95\":");
+            appendFixed(b, monitor.processingP95Ms());
+            b.append(",\"p99\":");
+            appendFixed(b, monitor.processingP99Ms());
+            b.append(",\"drop\":").append(monitor.droppedFrames());
+        }
+
+        FramePool pool = view instanceof JavaCamera2View ? ((JavaCamera2View) view).getFramePool() : null;
+        if (pool != null) {
+            b.append(",\"pool\":").append(pool.inUse())
+                    .append(",\"poolMiss\":").append(pool.exhaustedCount());
+        }
+        b.append(",\"mqttQ\":").append(mClient.getBufferedMessageCount());
+
+        Runtime runtime = Runtime.getRuntime();
+        b.append(",\"nat\":").append(Debug.getNativeHeapAllocatedSize())
+                .append(",\"heap\":").append(runtime.totalMemory() - runtime.freeMemory());
+        if (MatTracker.isEnabled()) {
+            b.append(",\"mats\":").append(MatTracker.liveCount())
+                    .append(",\"matBytes\":").append(MatTracker.liveBytes());
+        }
+
+        mPublishLatency.snapshot(mLatencySnapshot);
+        mPublishLatency.reset();
+        if (mLatencySnapshot.count() > 0) {
+            b.append(",\"pub50\":");
+            appendFixed(b, mLatencySnapshot.percentile(50) / 1e6);
+            b.append(",\"pubMax\":");
+            appendFixed(b, mLatencySnapshot.max() / 1e6);
+        }
+        b.append('}');
+
+        // The record is plain ASCII, so encode it without going through String
+        int length = b.length();
+        if (mBuffer.length < length) {
+            mBuffer = new byte[length * 2];
+        }
+        for (int i = 0; i < length; i++) {
+            mBuffer[i] = (byte) b.charAt(i);
+        }
+
+        try {
+            MqttMessage message = new MqttMessage(Arrays.copyOf(mBuffer, length));
+            message.setQos(0);
+            mClient.publish(mTopic, message, null, publishListener());
+        } catch (MqttException e) {
+            Log.w(TAG, "Telemetry publish failed: " + e.getMessage());
+        }
+    }
+
+    /** Appends a non-negative value with two decimal places. */
+    private static void appendFixed(StringBuilder b, double value) {
+        long hundredths = Math.round(value * 100);
+        long frac = hundredths % 100;
+        b.append(hundredths / 100).append('.');
+        if (frac < 10) {
+            b.append('0');
+        }
+        b.append(frac);
+    }
+}
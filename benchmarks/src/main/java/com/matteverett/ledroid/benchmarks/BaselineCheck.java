@@ -0,0 +1,155 @@
+package com.matteverett.ledroid.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares JMH results in CSV form against the recorded baselines and exits with an error if
+ * any benchmark got slower than the tolerance allows.
+ *
+ * Usage: BaselineCheck results.csv baselines.csv tolerance
+ *        BaselineCheck --record results.csv baselines.csv
+ *
+ * Benchmarks are keyed by name and parameter values. Scores are compared in the direction of
+ * the mode, lower is better for time per operation and higher for throughput. Benchmarks missing
+ * from either file are reported but do not fail the check. Lines starting with # are comments.
+ * Baselines are only meaningful on the machine they were recorded on. Without a baseline file
+ * the check fails and asks for one to be recorded.
+ */
+public final class BaselineCheck {
+
+    private static final class Score {
+        final String mode;
+        final double value;
+        final String unit;
+
+        Score(String mode, double value, String unit) {
+            this.mode = mode;
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+
+    private BaselineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("--record")) {
+            Files.copy(Paths.get(args[1]), Paths.get(args[2]), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Recorded baselines in " + args[2]);
+            return;
+        }
+        if (args.length != 3) {
+            System.err.println("Usage: BaselineCheck results.csv baselines.csv tolerance");
+            System.exit(2);
+        }
+
+        Path baselinePath = Paths.get(args[1]);
+        if (!Files.exists(baselinePath)) {
+            System.err.println("No baselines in " + baselinePath
+                    + ", record them on the reference machine with ./gradlew :benchmarks:recordBaselines");
+            System.exit(2);
+        }
+        Map<String, Score> results = read(Paths.get(args[0]));
+        Map<String, Score> baselines = read(baselinePath);
+        double tolerance = Double.parseDouble(args[2]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            Score result = entry.getValue();
+            Score baseline = baselines.get(entry.getKey());
+            if (baseline == null) {
+                System.out.println(String.format(Locale.ROOT, "NEW   %-60s %12.3f %s",
+                        entry.getKey(), result.value, result.unit));
+                continue;
+            }
+            if (!baseline.unit.equals(result.unit) || !baseline.mode.equals(result.mode)) {
+                System.out.println(String.format(Locale.ROOT, "SKIP  %-60s %s %s against %s %s",
+                        entry.getKey(), result.mode, result.unit, baseline.mode, baseline.unit));
+                continue;
+            }
+
+            // Positive change is always worse
+            double change = result.value / baseline.value - 1;
+            if (result.mode.equals("thrpt")) {
+                change = baseline.value / result.value - 1;
+            }
+            boolean regressed = change > tolerance;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.println(String.format(Locale.ROOT, "%s %-60s %12.3f %12.3f %s %+6.1f%%",
+                    regressed ? "SLOW " : "OK   ", entry.getKey(), baseline.value, result.value,
+                    result.unit, 100 * change));
+        }
+        for (String key : baselines.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.println("GONE  " + key);
+            }
+        }
+
+        if (regressions > 0) {
+            System.err.println(regressions + " benchmark(s) slower than baseline by more than "
+                    + Math.round(100 * tolerance) + "%");
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Score> read(Path path) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        List<String> header = null;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> fields = split(line);
+            if (header == null) {
+                header = fields;
+                continue;
+            }
+
+            StringBuilder key = new StringBuilder(fields.get(header.indexOf("Benchmark")));
+            for (int i = 0; i < header.size() && i < fields.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && !fields.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                }
+            }
+            scores.put(key.toString(), new Score(
+                    fields.get(header.indexOf("Mode")),
+                    Double.parseDouble(fields.get(header.indexOf("Score"))),
+                    fields.get(header.indexOf("Unit"))));
+        }
+        return scores;
+    }
+
+    /**
+     * Splits a line of JMH's CSV output. Fields may be quoted, quotes inside fields are not used.
+     */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
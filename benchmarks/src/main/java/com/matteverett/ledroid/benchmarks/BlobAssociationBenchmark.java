@@ -0,0 +1,101 @@
+package com.matteverett.ledroid.benchmarks;
+
+import com.matteverett.ledroid.pipeline.BlobAssociator;
+import com.matteverett.ledroid.pipeline.LedDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching blobs between consecutive frames, with the grid based BlobAssociator and with the
+ * all-pairs search it replaces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlobAssociationBenchmark {
+    private static final float RADIUS = 4f;
+
+    @Param({"50", "500", "5000"})
+    int blobs;
+
+    private float[] mPrevious;
+    private float[] mCurrent;
+    private int[] mMatch;
+    private boolean[] mClaimed;
+    private final BlobAssociator mAssociator = new BlobAssociator(RADIUS);
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        int stride = LedDetector.STRIDE;
+        mPrevious = new float[stride * blobs];
+        mCurrent = new float[stride * blobs];
+        mMatch = new int[blobs];
+        mClaimed = new boolean[blobs];
+        for (int i = 0; i < blobs; i++) {
+            float x = random.nextFloat() * 1280;
+            float y = random.nextFloat() * 720;
+            mPrevious[i * stride] = x;
+            mPrevious[i * stride + 1] = y;
+            // Current frame in a different order with a little movement
+            int j = (i * 7919) % blobs;
+            mCurrent[j * stride] = x + (random.nextFloat() - 0.5f) * 2;
+            mCurrent[j * stride + 1] = y + (random.nextFloat() - 0.5f) * 2;
+        }
+    }
+
+    @Benchmark
+    public int grid() {
+        return mAssociator.associate(mPrevious, blobs, mCurrent, blobs, mMatch);
+    }
+
+    @Benchmark
+    public int allPairs() {
+        int stride = LedDetector.STRIDE;
+        float radius2 = RADIUS * RADIUS;
+        int matched = 0;
+        for (int i = 0; i < blobs; i++) {
+            mClaimed[i] = false;
+        }
+        for (int j = 0; j < blobs; j++) {
+            float x = mCurrent[j * stride];
+            float y = mCurrent[j * stride + 1];
+            int best = -1;
+            float bestDist2 = radius2;
+            for (int i = 0; i < blobs; i++) {
+                if (mClaimed[i]) {
+                    continue;
+                }
+                float dx = mPrevious[i * stride] - x;
+                float dy = mPrevious[i * stride + 1] - y;
+                float d2 = dx * dx + dy * dy;
+                if (d2 <= bestDist2) {
+                    bestDist2 = d2;
+                    best = i;
+                }
+            }
+            mMatch[j] = best;
+            if (best >= 0) {
+                mClaimed[best] = true;
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
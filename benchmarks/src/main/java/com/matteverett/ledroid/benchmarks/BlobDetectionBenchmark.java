@@ -0,0 +1,54 @@
+package com.matteverett.ledroid.benchmarks;
+
+import com.matteverett.ledroid.pipeline.BlobDetector;
+import com.matteverett.ledroid.pipeline.LedDetector;
+import com.matteverett.ledroid.pipeline.SceneConfig;
+import com.matteverett.ledroid.pipeline.SceneGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threshold and run-length labelling of a synthetic 1280x720 frame by BlobDetector.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlobDetectionBenchmark {
+    @Param({"50", "500"})
+    int leds;
+
+    private SceneGenerator mScene;
+    private byte[] mFrame;
+    private final float[] mOut = new float[LedDetector.STRIDE * 2048];
+    private final LedDetector mDetector = new BlobDetector(128, 2);
+
+    @Setup
+    public void setup() {
+        SceneConfig config = new SceneConfig();
+        config.ledCount = leds;
+        config.minSpacing = 12;
+        mScene = new SceneGenerator(config);
+        mFrame = new byte[mScene.frameSize()];
+        mScene.render(mFrame, SceneGenerator.FORMAT_NV21);
+    }
+
+    @Benchmark
+    public int detect() {
+        return mDetector.detect(mFrame, 0, mScene.width(), mScene.height(), mScene.width(), mOut);
+    }
+}
@@ -0,0 +1,97 @@
+package com.matteverett.ledroid.benchmarks;
+
+import com.matteverett.ledroid.pipeline.BundleAdjuster;
+import com.matteverett.ledroid.pipeline.CameraView;
+import com.matteverett.ledroid.pipeline.TreeScene;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bundle adjustment of a synthetic tree seen from 8 views, starting from poses a few degrees
+ * and centimetres out and positions a few centimetres out. Runs a fixed 10 steps so the work
+ * does not depend on when it converges.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BundleAdjustmentBenchmark {
+    private static final int VIEWS = 8;
+
+    @Param({"500", "2000", "10000"})
+    int leds;
+
+    private CameraView[] mViews;
+    private double[] mStartPoses;
+    private double[] mStartPositions;
+    private double[] mPositions;
+    private int[] mLedStart;
+    private int[] mObsView;
+    private double[] mObsUv;
+    private BundleAdjuster mAdjuster;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        CameraView[] truth = TreeScene.views(VIEWS);
+        mViews = new CameraView[VIEWS];
+        mStartPoses = new double[12 * VIEWS];
+        for (int v = 0; v < VIEWS; v++) {
+            mViews[v] = v == 0 ? truth[v] : TreeScene.sensorView(360.0 * v / VIEWS, random);
+            System.arraycopy(mViews[v].rotation, 0, mStartPoses, 12 * v, 9);
+            System.arraycopy(mViews[v].translation, 0, mStartPoses, 12 * v + 9, 3);
+        }
+
+        mLedStart = new int[leds + 1];
+        mObsView = new int[leds * VIEWS];
+        mObsUv = new double[2 * leds * VIEWS];
+        mStartPositions = new double[3 * leds];
+        mPositions = new double[3 * leds];
+        double[] positions = TreeScene.positions(leds);
+        double[] p = new double[2];
+        for (int i = 0; i < leds; i++) {
+            double x = positions[3 * i], y = positions[3 * i + 1], h = positions[3 * i + 2];
+            mStartPositions[3 * i] = x + random.nextGaussian() * 0.03;
+            mStartPositions[3 * i + 1] = y + random.nextGaussian() * 0.03;
+            mStartPositions[3 * i + 2] = h + random.nextGaussian() * 0.03;
+            mLedStart[i + 1] = mLedStart[i] + VIEWS;
+            for (int v = 0; v < VIEWS; v++) {
+                int o = i * VIEWS + v;
+                truth[v].project(x, y, h, p);
+                mObsView[o] = v;
+                mObsUv[2 * o] = p[0] + random.nextGaussian() * 0.5;
+                mObsUv[2 * o + 1] = p[1] + random.nextGaussian() * 0.5;
+            }
+        }
+
+        BundleAdjuster.Settings settings = new BundleAdjuster.Settings();
+        settings.maxIterations = 10;
+        settings.tolerance = 0;
+        mAdjuster = new BundleAdjuster(settings);
+    }
+
+    @Benchmark
+    public BundleAdjuster.Result adjust() {
+        for (int v = 0; v < VIEWS; v++) {
+            System.arraycopy(mStartPoses, 12 * v, mViews[v].rotation, 0, 9);
+            System.arraycopy(mStartPoses, 12 * v + 9, mViews[v].translation, 0, 3);
+        }
+        System.arraycopy(mStartPositions, 0, mPositions, 0, mPositions.length);
+        return mAdjuster.adjust(mViews, leds, mPositions, mLedStart, mObsView, mObsUv, null);
+    }
+}
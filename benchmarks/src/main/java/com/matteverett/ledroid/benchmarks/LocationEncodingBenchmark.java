@@ -0,0 +1,96 @@
+package com.matteverett.ledroid.benchmarks;
+
+import com.matteverett.ledroid.pipeline.LocationEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of a calibration session's locations into the data message, as sent by
+ * Calibrate.SendLocations: captureCount frames of detected LED centroids.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationEncodingBenchmark {
+    @Param({"20"})
+    int frames;
+
+    @Param({"50", "500"})
+    int leds;
+
+    private List<List<Point>> mData;
+    private final LocationEncoder mEncoder = new LocationEncoder();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        mData = new ArrayList<>();
+        for (int i = 0; i < frames; i++) {
+            List<Point> locations = new ArrayList<>();
+            for (int j = 0; j < leds; j++) {
+                locations.add(new Point(random.nextDouble() * 1280, random.nextDouble() * 720));
+            }
+            mData.add(locations);
+        }
+    }
+
+    /**
+     * The original encoding: string concatenation and String.format per location.
+     */
+    @Benchmark
+    public byte[] formatConcat() {
+        String payload = "{\"type\":\"data\",\"locations\":[";
+        for (int i = 0; i < mData.size(); i++) {
+            payload += '[';
+
+            List<Point> locs = mData.get(i);
+            for (int j = 0; j < locs.size(); j++) {
+                payload += String.format(Locale.ENGLISH, "%f,%f", locs.get(j).x, locs.get(j).y);
+                if (j < locs.size() - 1) {
+                    payload += ",";
+                }
+            }
+
+            payload += ']';
+            if (i < mData.size() - 1) {
+                payload += ",";
+            }
+        }
+        payload += "]}";
+        return payload.getBytes();
+    }
+
+    @Benchmark
+    public byte[] locationEncoder() {
+        mEncoder.reset();
+        for (int i = 0; i < mData.size(); i++) {
+            mEncoder.beginFrame();
+            List<Point> locs = mData.get(i);
+            for (int j = 0; j < locs.size(); j++) {
+                Point p = locs.get(j);
+                mEncoder.add(p.x, p.y);
+            }
+            mEncoder.endFrame();
+        }
+        return mEncoder.toByteArray();
+    }
+}
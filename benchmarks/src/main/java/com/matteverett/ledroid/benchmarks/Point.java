@@ -0,0 +1,15 @@
+package com.matteverett.ledroid.benchmarks;
+
+/**
+ * Stand-in for org.opencv.core.Point, which is only available from the Android library.
+ * Same layout, so list and boxing costs are the same as in the app.
+ */
+final class Point {
+    double x;
+    double y;
+
+    Point(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+}
@@ -0,0 +1,105 @@
+package com.matteverett.ledroid.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java side of moving points in and out of Mats, as done by org.opencv.utils.Converters and
+ * MatOfPoint/MatOfPoint2f: packing boxed points into the primitive array handed to Mat.put and
+ * unpacking the array from Mat.get back into points. The native copy itself is not included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointPackingBenchmark {
+    @Param({"100", "10000"})
+    int count;
+
+    private List<Point> mList;
+    private float[] mPacked;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        mList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            mList.add(new Point(random.nextDouble() * 1280, random.nextDouble() * 720));
+        }
+        mPacked = new float[2 * count];
+        for (int i = 0; i < count; i++) {
+            mPacked[2 * i] = (float) mList.get(i).x;
+            mPacked[2 * i + 1] = (float) mList.get(i).y;
+        }
+    }
+
+    /** Converters.vector_Point_to_Mat for CV_32S. */
+    @Benchmark
+    public int[] listToInt() {
+        int[] buff = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            Point p = mList.get(i);
+            buff[i * 2] = (int) p.x;
+            buff[i * 2 + 1] = (int) p.y;
+        }
+        return buff;
+    }
+
+    /** Converters.vector_Point2f_to_Mat. */
+    @Benchmark
+    public float[] listToFloat() {
+        float[] buff = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            Point p = mList.get(i);
+            buff[i * 2] = (float) p.x;
+            buff[i * 2 + 1] = (float) p.y;
+        }
+        return buff;
+    }
+
+    /** MatOfPoint2f.fromList: copies the list to an array first, then packs. */
+    @Benchmark
+    public float[] fromList() {
+        Point[] a = mList.toArray(new Point[0]);
+        float[] buff = new float[a.length * 2];
+        for (int i = 0; i < a.length; i++) {
+            Point p = a[i];
+            buff[i * 2] = (float) p.x;
+            buff[i * 2 + 1] = (float) p.y;
+        }
+        return buff;
+    }
+
+    /** MatOfPoint2f.toList: a Point per element plus the list wrapper. */
+    @Benchmark
+    public List<Point> toList() {
+        Point[] ap = new Point[count];
+        for (int i = 0; i < count; i++) {
+            ap[i] = new Point(mPacked[i * 2], mPacked[i * 2 + 1]);
+        }
+        return Arrays.asList(ap);
+    }
+
+    /** Lower bound: the points are already packed and only copied. */
+    @Benchmark
+    public float[] primitiveCopy() {
+        return Arrays.copyOf(mPacked, mPacked.length);
+    }
+}
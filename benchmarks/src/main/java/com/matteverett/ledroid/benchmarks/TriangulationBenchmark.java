@@ -0,0 +1,71 @@
+package com.matteverett.ledroid.benchmarks;
+
+import com.matteverett.ledroid.pipeline.CameraView;
+import com.matteverett.ledroid.pipeline.TreeScene;
+import com.matteverett.ledroid.pipeline.Triangulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-view triangulation of a synthetic tree: LEDs on a cone seen from views spaced evenly
+ * around it, with pixel noise, 10% wrong detections and 10% hidden LEDs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriangulationBenchmark {
+    @Param({"1000"})
+    int leds;
+
+    @Param({"8"})
+    int views;
+
+    private double[][] mUv;
+    private Triangulator mTriangulator;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        CameraView[] cameras = TreeScene.views(views);
+        double[] positions = TreeScene.positions(leds);
+        mUv = new double[views][2 * leds];
+        double[] p = new double[2];
+        for (int i = 0; i < leds; i++) {
+            for (int v = 0; v < views; v++) {
+                cameras[v].project(positions[3 * i], positions[3 * i + 1], positions[3 * i + 2], p);
+                mUv[v][2 * i] = p[0] + random.nextGaussian() * 0.5;
+                mUv[v][2 * i + 1] = p[1] + random.nextGaussian() * 0.5;
+                int roll = random.nextInt(10);
+                if (roll == 0) {
+                    mUv[v][2 * i] = random.nextDouble() * 1280;
+                    mUv[v][2 * i + 1] = random.nextDouble() * 720;
+                } else if (roll == 1) {
+                    mUv[v][2 * i] = Double.NaN;
+                }
+            }
+        }
+        mTriangulator = new Triangulator(cameras, new Triangulator.Settings(), ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public Triangulator.Result triangulate() {
+        return mTriangulator.triangulate(mUv, leds);
+    }
+}
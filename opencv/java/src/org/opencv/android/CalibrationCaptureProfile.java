@@ -0,0 +1,152 @@
+package org.opencv.android;
+
+/**
+ * Locks exposure, sensitivity, focus and white balance for the duration of a calibration session.
+ *
+ * Automatic exposure keeps re-metering while LEDs blink, so brightness drifts from frame to frame.
+ * The profile lets auto exposure settle first, then freezes the metered values. In
+ * {@link #MODE_LED_ONLY} it also darkens the exposure by a fixed factor, so the background drops
+ * away and only the LEDs remain. Sensitivity is lowered before exposure time is shortened,
+ * which keeps sensor noise down.
+ *
+ * All camera access goes through {@link CaptureControl}.
+ */
+public class CalibrationCaptureProfile {
+    /** Lock the values auto exposure settled on. */
+    public static final int MODE_METERED  = 0;
+    /** Lock a darker exposure that leaves only the LEDs visible. */
+    public static final int MODE_LED_ONLY = 1;
+
+    private static final int STATE_IDLE     = 0;
+    private static final int STATE_METERING = 1;
+    private static final int STATE_LOCKED   = 2;
+
+    private final int     mMode;
+    private final double  mLedExposureScale;
+    private final int     mSettleFrames;
+
+    private CaptureControl  mControl;
+    private CaptureSettings mLocked;
+    private int             mState = STATE_IDLE;
+    private int             mConvergedFrames;
+    private Runnable        mOnLocked;
+
+    /**
+     * @param mode MODE_METERED or MODE_LED_ONLY.
+     * @param ledExposureScale Fraction of the metered exposure to use in MODE_LED_ONLY, e.g. 1/16.
+     * @param settleFrames Number of consecutive converged results required before locking.
+     */
+    public CalibrationCaptureProfile(int mode, double ledExposureScale, int settleFrames) {
+        if (ledExposureScale <= 0 || ledExposureScale > 1)
+            throw new IllegalArgumentException("ledExposureScale must be in (0, 1]");
+        mMode = mode;
+        mLedExposureScale = ledExposureScale;
+        mSettleFrames = Math.max(1, settleFrames);
+    }
+
+    /**
+     * Starts metering. Settings are locked once enough converged capture results arrive.
+     */
+    public synchronized void lock(CaptureControl control) {
+        // Metering needs the automatic modes back, a previous lock has turned them off
+        if (mState == STATE_LOCKED && mControl != null)
+            mControl.applyAuto();
+        mControl = control;
+        mLocked = null;
+        mConvergedFrames = 0;
+        mState = STATE_METERING;
+    }
+
+    /**
+     * Returns the camera to automatic control.
+     */
+    public synchronized void unlock() {
+        if (mState != STATE_IDLE && mControl != null)
+            mControl.applyAuto();
+        mState = STATE_IDLE;
+        mLocked = null;
+        mControl = null;
+        mOnLocked = null;
+    }
+
+    /**
+     * Runs r once, on the thread feeding capture results, when the settings next lock. Relocking
+     * after the camera session is recreated does not run it again. Cleared by {@link #unlock}.
+     */
+    public synchronized void setOnLocked(Runnable r) {
+        mOnLocked = r;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public synchronized boolean isLocked() {
+        return mState == STATE_LOCKED;
+    }
+
+    public synchronized boolean isMetering() {
+        return mState == STATE_METERING;
+    }
+
+    /**
+     * Returns the locked settings or null if not locked yet.
+     */
+    public synchronized CaptureSettings getLockedSettings() {
+        return mLocked;
+    }
+
+    /**
+     * Feeds a capture result while metering.
+     * @param exposureTime Metered exposure time in ns.
+     * @param sensitivity Metered ISO.
+     * @param focusDistance Focus distance in diopters.
+     * @param converged Whether exposure, focus and white balance have all settled.
+     */
+    public synchronized void onCaptureResult(long exposureTime, int sensitivity, float focusDistance, boolean converged) {
+        if (mState != STATE_METERING)
+            return;
+        if (!converged) {
+            mConvergedFrames = 0;
+            return;
+        }
+        if (++mConvergedFrames < mSettleFrames)
+            return;
+
+        mLocked = select(mControl.getLimits(), exposureTime, sensitivity, focusDistance);
+        mControl.applyLocked(mLocked);
+        mState = STATE_LOCKED;
+        Runnable onLocked = mOnLocked;
+        mOnLocked = null;
+        if (onLocked != null)
+            onLocked.run();
+    }
+
+    /**
+     * Chooses locked settings from metered values.
+     */
+    public CaptureSettings select(CaptureLimits limits, long exposureTime, int sensitivity, float focusDistance) {
+        long exposure = clamp(exposureTime, limits.minExposureTime, limits.maxExposureTime);
+        int iso = (int) clamp(sensitivity, limits.minSensitivity, limits.maxSensitivity);
+
+        if (mMode == MODE_LED_ONLY) {
+            // Total exposure is roughly proportional to time * ISO. Drop ISO first,
+            // and never lengthen the exposure to make up for it.
+            double target = (double) exposure * iso * mLedExposureScale;
+            int lowIso = limits.minSensitivity;
+            long shortExposure = (long) Math.min(exposure, target / lowIso);
+            shortExposure = clamp(shortExposure, limits.minExposureTime, exposure);
+            iso = (int) clamp(Math.round(target / shortExposure), limits.minSensitivity, iso);
+            exposure = shortExposure;
+        }
+
+        boolean focusLocked = limits.minFocusDistance > 0;
+        float focus = focusLocked ? Math.max(0f, Math.min(focusDistance, limits.minFocusDistance)) : 0f;
+
+        return new CaptureSettings(exposure, iso, focus, focusLocked);
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
@@ -34,9 +34,15 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     private static final int STOPPED = 0;
     private static final int STARTED = 1;
 
+    private static final int STAGE_LISTENER = PipelineProfiler.register("onCameraFrame");
+    private static final int STAGE_BITMAP = PipelineProfiler.register("matToBitmap");
+    private static final int STAGE_DRAW = PipelineProfiler.register("drawBitmap");
+    private static final int STAGE_DELIVER = PipelineProfiler.register("deliverAndDrawFrame");
+
     private int mState = STOPPED;
     private Bitmap mCacheBitmap;
     private CvCameraViewListener2 mListener;
+    private volatile FrameTap mFrameTap;
     private boolean mSurfaceExist;
     private final Object mSyncObject = new Object();
 
@@ -49,7 +55,9 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected int mCameraIndex = CAMERA_ID_ANY;
     protected boolean mEnabled;
     protected boolean mCameraPermissionGranted = false;
-    protected FpsMeter mFpsMeter = null;
+    protected PerformanceMonitor mFpsMeter = null;
+    /** When false, frames are delivered to the listener but not drawn, see deliverAndDrawFrame() */
+    protected boolean mDrawFrames = true;
 
     public static final int CAMERA_ID_ANY   = -1;
     public static final int CAMERA_ID_BACK  = 99;
@@ -177,6 +185,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     /**
      * This class interface is abstract representation of single frame from camera for onCameraFrame callback
      * Attention: Do not use objects, that represents this interface out of onCameraFrame callback!
+     * The exception is a {@link PooledFrame}, which stays valid between retain() and release().
      */
     public interface CvCameraViewFrame {
 
@@ -189,6 +198,39 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * Time the frame was exposed, in ns on the SystemClock.elapsedRealtimeNanos() time base.
+         * Sensor timestamps on the monotonic clock are shifted by the offset between the clocks
+         * when the camera opened, and cameras without sensor timestamps report arrivalTime().
+         */
+        public long timestamp();
+
+        /**
+         * Monotonic number of the frame in the camera stream. Frames that were dropped before
+         * delivery leave gaps in the sequence.
+         */
+        public long sequence();
+
+        /**
+         * Time the frame reached the camera view, in ns on the SystemClock.elapsedRealtimeNanos()
+         * time base. The difference to the current time is how long the frame was queued.
+         */
+        public long arrivalTime();
+
+        /**
+         * Total number of frames dropped since the camera was connected, up to this frame.
+         */
+        public long droppedFrames();
+    };
+
+    /**
+     * Observes every frame on the camera thread before it is given to the listener, for stages
+     * such as recording that run alongside the listener without changing the frame. The frame
+     * is only valid during the call unless it is a {@link PooledFrame} that the tap retains.
+     */
+    public interface FrameTap {
+        public void onFrame(CvCameraViewFrame frame);
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
@@ -258,11 +300,11 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     }
 
     /**
-     * This method enables label with fps value on the screen
+     * This method enables label with fps, jitter, processing time and drop count on the screen
      */
     public void enableFpsMeter() {
         if (mFpsMeter == null) {
-            mFpsMeter = new FpsMeter();
+            mFpsMeter = new PerformanceMonitor();
             mFpsMeter.setResolution(mFrameWidth, mFrameHeight);
         }
     }
@@ -271,6 +313,13 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             mFpsMeter = null;
     }
 
+    /**
+     * Returns the performance monitor, or null if the fps meter is disabled
+     */
+    public PerformanceMonitor getPerformanceMonitor() {
+        return mFpsMeter;
+    }
+
     /**
      *
      * @param listener
@@ -286,6 +335,13 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         mListener = adapter;
     }
 
+    /**
+     * Sets the tap that sees every frame before the listener, or null to remove it.
+     */
+    public void setFrameTap(FrameTap tap) {
+        mFrameTap = tap;
+    }
+
     /**
      * This method sets the maximum size that camera frame is allowed to be. When selecting
      * size - the biggest size which less or equal the size set will be selected.
@@ -392,6 +448,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         disconnectCamera();
         if (mCacheBitmap != null) {
             mCacheBitmap.recycle();
+            mCacheBitmap = null;
         }
     }
 
@@ -403,17 +460,37 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
      */
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
         Mat modified;
+        long start = PipelineProfiler.begin();
+        long t = start;
+        PerformanceMonitor monitor = mFpsMeter;
+        long monitorStart = monitor != null ? System.nanoTime() : 0;
+
+        FrameTap tap = mFrameTap;
+        if (tap != null)
+            tap.onFrame(frame);
 
         if (mListener != null) {
             modified = mListener.onCameraFrame(frame);
-        } else {
+        } else if (mDrawFrames) {
             modified = frame.rgba();
+        } else {
+            modified = null;
+        }
+
+        t = PipelineProfiler.end(STAGE_LISTENER, t);
+        if (monitor != null)
+            monitor.onFrame(frame, monitorStart, System.nanoTime() - monitorStart);
+
+        if (!mDrawFrames) {
+            PipelineProfiler.end(STAGE_DELIVER, start);
+            return;
         }
 
         boolean bmpValid = true;
         if (modified != null) {
             try {
                 Utils.matToBitmap(modified, mCacheBitmap);
+                t = PipelineProfiler.end(STAGE_BITMAP, t);
             } catch(Exception e) {
                 Log.e(TAG, "Mat type: " + modified);
                 Log.e(TAG, "Bitmap type: " + mCacheBitmap.getWidth() + "*" + mCacheBitmap.getHeight());
@@ -443,13 +520,13 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                          (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
                 }
 
-                if (mFpsMeter != null) {
-                    mFpsMeter.measure();
-                    mFpsMeter.draw(canvas, 20, 30);
-                }
+                if (monitor != null)
+                    monitor.draw(canvas, 20, 30);
                 getHolder().unlockCanvasAndPost(canvas);
+                PipelineProfiler.end(STAGE_DRAW, t);
             }
         }
+        PipelineProfiler.end(STAGE_DELIVER, start);
     }
 
     /**
@@ -0,0 +1,44 @@
+package org.opencv.android;
+
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
+
+/**
+ * Holds the metadata part of {@link CvCameraViewFrame} for the frame implementations.
+ */
+abstract class CameraFrameBase implements CvCameraViewFrame {
+    private long mTimestamp;
+    private long mSequence;
+    private long mArrivalTime;
+    private long mDroppedFrames;
+
+    @Override
+    public long timestamp() {
+        return mTimestamp;
+    }
+
+    @Override
+    public long sequence() {
+        return mSequence;
+    }
+
+    @Override
+    public long arrivalTime() {
+        return mArrivalTime;
+    }
+
+    @Override
+    public long droppedFrames() {
+        return mDroppedFrames;
+    }
+
+    void setMetadata(long timestamp, long sequence, long arrivalTime, long droppedFrames) {
+        mTimestamp = timestamp;
+        mSequence = sequence;
+        mArrivalTime = arrivalTime;
+        mDroppedFrames = droppedFrames;
+    }
+
+    void copyMetadata(CvCameraViewFrame frame) {
+        setMetadata(frame.timestamp(), frame.sequence(), frame.arrivalTime(), frame.droppedFrames());
+    }
+}
@@ -0,0 +1,24 @@
+package org.opencv.android;
+
+/**
+ * The part of a camera that {@link CalibrationCaptureProfile} drives. Kept free of camera2 types
+ * so the profile can be exercised against a fake camera.
+ */
+public interface CaptureControl {
+
+    /**
+     * Returns the manual sensor limits of the open camera.
+     */
+    public CaptureLimits getLimits();
+
+    /**
+     * Switches the repeating request to manual exposure, sensitivity and focus with the given
+     * values, and locks white balance.
+     */
+    public void applyLocked(CaptureSettings settings);
+
+    /**
+     * Returns the repeating request to automatic exposure, focus and white balance.
+     */
+    public void applyAuto();
+}
@@ -0,0 +1,30 @@
+package org.opencv.android;
+
+/**
+ * Manual sensor limits reported by a camera, as needed to choose locked capture settings.
+ */
+public class CaptureLimits {
+    public final long  minExposureTime;     // ns
+    public final long  maxExposureTime;     // ns
+    public final int   minSensitivity;      // ISO
+    public final int   maxSensitivity;      // ISO
+    public final float minFocusDistance;    // diopters, 0 for fixed focus lenses
+    public final boolean manualSensor;
+
+    public CaptureLimits(long minExposureTime, long maxExposureTime, int minSensitivity,
+                         int maxSensitivity, float minFocusDistance, boolean manualSensor) {
+        this.minExposureTime = minExposureTime;
+        this.maxExposureTime = maxExposureTime;
+        this.minSensitivity = minSensitivity;
+        this.maxSensitivity = maxSensitivity;
+        this.minFocusDistance = minFocusDistance;
+        this.manualSensor = manualSensor;
+    }
+
+    @Override
+    public String toString() {
+        return "exposure " + minExposureTime + "-" + maxExposureTime + "ns, ISO " + minSensitivity
+                + "-" + maxSensitivity + ", min focus " + minFocusDistance + "dpt"
+                + (manualSensor ? "" : " (no manual sensor)");
+    }
+}
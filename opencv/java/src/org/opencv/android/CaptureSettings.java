@@ -0,0 +1,24 @@
+package org.opencv.android;
+
+/**
+ * Locked capture settings for a calibration session.
+ */
+public class CaptureSettings {
+    public final long    exposureTime;      // ns
+    public final int     sensitivity;       // ISO
+    public final float   focusDistance;     // diopters, ignored unless focusLocked
+    public final boolean focusLocked;
+
+    public CaptureSettings(long exposureTime, int sensitivity, float focusDistance, boolean focusLocked) {
+        this.exposureTime = exposureTime;
+        this.sensitivity = sensitivity;
+        this.focusDistance = focusDistance;
+        this.focusLocked = focusLocked;
+    }
+
+    @Override
+    public String toString() {
+        return exposureTime + "ns ISO " + sensitivity
+                + (focusLocked ? " focus " + focusDistance + "dpt" : " focus unlocked");
+    }
+}
@@ -0,0 +1,94 @@
+package org.opencv.android;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size pool of {@link PooledFrame}s with preallocated native buffers.
+ *
+ * The camera thread never waits on the pool: when every frame is still held by a consumer,
+ * {@link #acquire()} returns null and the miss is counted, so the caller can drop the camera
+ * image instead.
+ */
+public class FramePool {
+    private final int mCapacity;
+    private final int mWidth;
+    private final int mHeight;
+    private final ArrayBlockingQueue<PooledFrame> mFree;
+    private final AtomicLong mAcquired = new AtomicLong();
+    private final AtomicLong mExhausted = new AtomicLong();
+    private volatile boolean mClosed = false;
+
+    public FramePool(int capacity, int width, int height) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1");
+        mCapacity = capacity;
+        mWidth = width;
+        mHeight = height;
+        mFree = new ArrayBlockingQueue<PooledFrame>(capacity);
+        for (int i = 0; i < capacity; i++)
+            mFree.add(new PooledFrame(this, width, height));
+    }
+
+    /**
+     * Takes a free frame holding one reference, or returns null if the pool is exhausted.
+     */
+    public PooledFrame acquire() {
+        PooledFrame frame = mClosed ? null : mFree.poll();
+        if (frame == null) {
+            mExhausted.incrementAndGet();
+            return null;
+        }
+        frame.onAcquire();
+        mAcquired.incrementAndGet();
+        return frame;
+    }
+
+    void recycle(PooledFrame frame) {
+        if (mClosed || !mFree.offer(frame))
+            frame.free();
+    }
+
+    /**
+     * Frees the frames that are not in use. Frames still held are freed when released.
+     */
+    public void close() {
+        mClosed = true;
+        PooledFrame frame;
+        while ((frame = mFree.poll()) != null)
+            frame.free();
+    }
+
+    public int width() {
+        return mWidth;
+    }
+
+    public int height() {
+        return mHeight;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /** Number of frames currently held by consumers */
+    public int inUse() {
+        return mCapacity - mFree.size();
+    }
+
+    /** Total number of successful acquires */
+    public long acquiredCount() {
+        return mAcquired.get();
+    }
+
+    /** Total number of acquires that found the pool empty */
+    public long exhaustedCount() {
+        return mExhausted.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FramePool " + mWidth + "x" + mHeight + ": " + inUse() + "/" + mCapacity
+                + " in use, " + mAcquired.get() + " acquired, " + mExhausted.get() + " exhausted";
+    }
+}
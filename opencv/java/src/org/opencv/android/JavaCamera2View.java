@@ -7,22 +7,29 @@ import java.util.List;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.Range;
 import android.view.Surface;
+import android.view.SurfaceHolder;
 import android.view.ViewGroup.LayoutParams;
 
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
@@ -42,8 +49,12 @@ import org.opencv.imgproc.Imgproc;
 public class JavaCamera2View extends CameraBridgeViewBase {
 
     private static final String LOGTAG = "JavaCamera2View";
+    private static final long MANUAL_FRAME_DURATION = 33333333L; // ns, 30 fps
 
     private ImageReader mImageReader;
+    private JavaCamera2Frame mCameraFrame;
+    private FramePool mFramePool;
+    private int mFramePoolSize = 0;
     private int mPreviewFormat = ImageFormat.YUV_420_888;
 
     private CameraDevice mCameraDevice;
@@ -52,9 +63,43 @@ public class JavaCamera2View extends CameraBridgeViewBase {
     private String mCameraID;
     private android.util.Size mPreviewSize = new android.util.Size(-1, -1);
 
+    // Dual stream: frames for detection come from mImageReader at mPreviewSize,
+    // while the camera renders straight into this view's surface at mDisplaySize.
+    private boolean mDualStream = false;
+    private int mDetectionMaxWidth = MAX_UNSPECIFIED;
+    private int mDetectionMaxHeight = MAX_UNSPECIFIED;
+    private android.util.Size mDisplaySize = new android.util.Size(-1, -1);
+    // Set while the surface is being resized to mDisplaySize, so the session waits for it
+    // instead of being configured on the old size
+    private volatile boolean mAwaitingDisplaySurface = false;
+    // Background thread only: the camera opened while the surface was still being resized
+    private boolean mSessionDeferred = false;
+    private final Runnable mCreateDeferredSession = new Runnable() {
+        @Override
+        public void run() {
+            if (mSessionDeferred)
+                createCameraPreviewSession();
+        }
+    };
+
     private HandlerThread mBackgroundThread;
     private Handler mBackgroundHandler;
 
+    private CalibrationCaptureProfile mCaptureProfile;
+
+    // Recent sensor timestamps and their frame numbers from capture results, used to give
+    // delivered images a sequence number. Only touched on the background thread.
+    private static final int FRAME_NUMBER_HISTORY = 16;
+    private final long[] mResultTimestamps = new long[FRAME_NUMBER_HISTORY];
+    private final long[] mResultFrameNumbers = new long[FRAME_NUMBER_HISTORY];
+    private int mResultIndex = 0;
+    private long mLastSequence = -1;
+    private long mDroppedFrames = 0;
+    // Whether sensor timestamps are on the elapsed realtime clock, and if not the offset to it.
+    // Set when the camera opens, used on the background thread.
+    private volatile boolean mRealtimeTimestamps = true;
+    private final SensorClock mSensorClock = new SensorClock();
+
     public JavaCamera2View(Context context, int cameraId) {
         super(context, cameraId);
     }
@@ -111,11 +156,13 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             }
             if (mCameraID != null) {
                 Log.i(LOGTAG, "Opening camera: " + mCameraID);
+                readTimestampSource(manager);
                 manager.openCamera(mCameraID, mStateCallback, mBackgroundHandler);
             } else { // make JavaCamera2View behaves in the same way as JavaCameraView
                 Log.i(LOGTAG, "Trying to open camera with the value (" + mCameraIndex + ")");
                 if (mCameraIndex < camList.length) {
                     mCameraID = camList[mCameraIndex];
+                    readTimestampSource(manager);
                     manager.openCamera(mCameraID, mStateCallback, mBackgroundHandler);
                 } else {
                     // CAMERA_DISCONNECTED is used when the camera id is no longer valid
@@ -169,7 +216,23 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 Log.e(LOGTAG, "createCameraPreviewSession: mCaptureSession is already started");
                 return;
             }
+            mSessionDeferred = mDualStream && mAwaitingDisplaySurface;
+            if (mSessionDeferred) {
+                Log.d(LOGTAG, "createCameraPreviewSession: waiting for the display surface size");
+                return;
+            }
 
+            if (null == mCameraFrame)
+                mCameraFrame = new JavaCamera2Frame();
+            mLastSequence = -1;
+            mDroppedFrames = 0;
+            Arrays.fill(mResultTimestamps, 0L);
+            if (mFramePoolSize > 0 && (null == mFramePool
+                    || mFramePool.width() != w || mFramePool.height() != h)) {
+                if (null != mFramePool)
+                    mFramePool.close();
+                mFramePool = new FramePool(mFramePoolSize, w, h);
+            }
             mImageReader = ImageReader.newInstance(w, h, mPreviewFormat, 2);
             mImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
                 @Override
@@ -177,16 +240,37 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     Image image = reader.acquireLatestImage();
                     if (image == null)
                         return;
+                    long arrivalTime = SystemClock.elapsedRealtimeNanos();
 
                     // sanity checks - 3 planes
                     Image.Plane[] planes = image.getPlanes();
                     assert (planes.length == 3);
                     assert (image.getFormat() == mPreviewFormat);
 
-                    JavaCamera2Frame tempFrame = new JavaCamera2Frame(image);
-                    deliverAndDrawFrame(tempFrame);
-                    tempFrame.release();
-                    image.close();
+                    mCameraFrame.setImage(image);
+                    setFrameMetadata(mCameraFrame, image.getTimestamp(), arrivalTime);
+                    FramePool pool = mFramePool;
+                    if (pool != null) {
+                        // Copy into a pooled frame so the image can go back to the camera
+                        // straight away, and consumers can keep the frame for as long as needed
+                        PooledFrame frame = pool.acquire();
+                        if (frame != null) {
+                            mCameraFrame.copyTo(frame);
+                            frame.copyMetadata(mCameraFrame);
+                        } else {
+                            mDroppedFrames++;
+                        }
+                        mCameraFrame.clearImage();
+                        image.close();
+                        if (frame != null) {
+                            deliverAndDrawFrame(frame);
+                            frame.release();
+                        }
+                    } else {
+                        deliverAndDrawFrame(mCameraFrame);
+                        mCameraFrame.clearImage();
+                        image.close();
+                    }
                 }
             }, mBackgroundHandler);
             Surface surface = mImageReader.getSurface();
@@ -194,7 +278,16 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             mPreviewRequestBuilder.addTarget(surface);
 
-            mCameraDevice.createCaptureSession(Arrays.asList(surface),
+            List<Surface> outputs;
+            if (mDualStream) {
+                Surface displaySurface = getHolder().getSurface();
+                mPreviewRequestBuilder.addTarget(displaySurface);
+                outputs = Arrays.asList(surface, displaySurface);
+            } else {
+                outputs = Arrays.asList(surface);
+            }
+
+            mCameraDevice.createCaptureSession(outputs,
                 new CameraCaptureSession.StateCallback() {
                     @Override
                     public void onConfigured(CameraCaptureSession cameraCaptureSession) {
@@ -204,12 +297,11 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                         }
                         mCaptureSession = cameraCaptureSession;
                         try {
-                            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                                    CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                            setAutoControls();
+                            if (mCaptureProfile != null)
+                                mCaptureProfile.lock(mCaptureControl);
 
-                            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, mBackgroundHandler);
+                            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback, mBackgroundHandler);
                             Log.i(LOGTAG, "CameraPreviewSession has been started");
                         } catch (Exception e) {
                             Log.e(LOGTAG, "createCaptureSession failed", e);
@@ -228,9 +320,219 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         }
     }
 
+    /**
+     * Checks whether the camera's sensor timestamps use the elapsed realtime clock that
+     * {@link CvCameraViewFrame#timestamp()} promises. Otherwise they are on the monotonic clock,
+     * and are shifted onto it by the offset between the two clocks now.
+     */
+    private void readTimestampSource(CameraManager manager) throws CameraAccessException {
+        Integer source = manager.getCameraCharacteristics(mCameraID).get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        mRealtimeTimestamps = source != null && source == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+        if (!mRealtimeTimestamps) {
+            Log.i(LOGTAG, "Sensor timestamps are not on the elapsed realtime clock, shifting them onto it");
+            mSensorClock.sync(SystemClock.elapsedRealtimeNanos(), System.nanoTime());
+        }
+    }
+
+    /**
+     * Fills in frame metadata. The sequence is the camera's frame number, so images discarded
+     * by acquireLatestImage() leave gaps that are counted as drops.
+     * If the capture result has not arrived yet the sequence continues from the last frame.
+     * The timestamp given is the image's, on the sensor clock.
+     */
+    private void setFrameMetadata(CameraFrameBase frame, long timestamp, long arrivalTime) {
+        long sequence = mLastSequence + 1;
+        for (int i = 0; i < FRAME_NUMBER_HISTORY; i++) {
+            if (mResultTimestamps[i] == timestamp && mResultFrameNumbers[i] >= sequence) {
+                sequence = mResultFrameNumbers[i];
+                break;
+            }
+        }
+        if (mLastSequence >= 0 && sequence > mLastSequence + 1)
+            mDroppedFrames += sequence - mLastSequence - 1;
+        mLastSequence = sequence;
+        if (!mRealtimeTimestamps)
+            timestamp = mSensorClock.toRealtime(timestamp, arrivalTime);
+        frame.setMetadata(timestamp, sequence, arrivalTime, mDroppedFrames);
+    }
+
+    private void setAutoControls() {
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+                CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+                CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_LOCK, false);
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AWB_LOCK, false);
+    }
+
+    private void updateRepeatingRequest() {
+        if (null == mCaptureSession)
+            return;
+        try {
+            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback, mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            Log.e(LOGTAG, "updateRepeatingRequest", e);
+        } catch (IllegalStateException e) {
+            Log.e(LOGTAG, "updateRepeatingRequest - session closed", e);
+        }
+    }
+
+    /**
+     * Locks exposure, sensitivity, focus and white balance using the given profile. The lock is
+     * applied once auto exposure has settled, and is re-applied if the session is recreated.
+     * May be called from any thread.
+     * @param profile - the profile to lock with
+     */
+    public void lockCaptureProfile(CalibrationCaptureProfile profile) {
+        lockCaptureProfile(profile, null);
+    }
+
+    /**
+     * Locks as {@link #lockCaptureProfile(CalibrationCaptureProfile)} and runs onLocked on the
+     * camera thread once the settings are locked.
+     * @param profile - the profile to lock with
+     * @param onLocked - run once when locked, or null
+     */
+    public void lockCaptureProfile(final CalibrationCaptureProfile profile, final Runnable onLocked) {
+        Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                if (mCaptureProfile != null && mCaptureProfile != profile)
+                    mCaptureProfile.unlock();
+                mCaptureProfile = profile;
+                profile.setOnLocked(onLocked);
+                if (mCaptureSession != null)
+                    profile.lock(mCaptureControl);
+            }
+        };
+        if (mBackgroundHandler != null)
+            mBackgroundHandler.post(r);
+        else
+            r.run();
+    }
+
+    /**
+     * Returns the camera to automatic exposure, focus and white balance.
+     */
+    public void unlockCaptureProfile() {
+        Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                if (mCaptureProfile != null) {
+                    if (mCaptureSession != null)
+                        mCaptureProfile.unlock();
+                    mCaptureProfile = null;
+                }
+            }
+        };
+        if (mBackgroundHandler != null)
+            mBackgroundHandler.post(r);
+        else
+            r.run();
+    }
+
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            if (timestamp != null) {
+                mResultTimestamps[mResultIndex] = timestamp;
+                mResultFrameNumbers[mResultIndex] = result.getFrameNumber();
+                mResultIndex = (mResultIndex + 1) % FRAME_NUMBER_HISTORY;
+            }
+
+            CalibrationCaptureProfile profile = mCaptureProfile;
+            if (profile == null || !profile.isMetering())
+                return;
+
+            Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+            Integer iso = result.get(CaptureResult.SENSOR_SENSITIVITY);
+            Float focus = result.get(CaptureResult.LENS_FOCUS_DISTANCE);
+            Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            Integer awbState = result.get(CaptureResult.CONTROL_AWB_STATE);
+
+            boolean converged = exposure != null && iso != null && aeState != null
+                    && (aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                        || aeState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED)
+                    && (afState == null
+                        || afState == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED
+                        || afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED)
+                    && (awbState == null || awbState == CaptureResult.CONTROL_AWB_STATE_CONVERGED);
+
+            profile.onCaptureResult(converged ? exposure : 0, converged ? iso : 0,
+                    focus != null ? focus : 0f, converged);
+        }
+    };
+
+    private final CaptureControl mCaptureControl = new CaptureControl() {
+        @Override
+        public CaptureLimits getLimits() {
+            CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+            try {
+                CameraCharacteristics characteristics = manager.getCameraCharacteristics(mCameraID);
+                Range<Long> exposure = characteristics.get(CameraCharacteristics.SENSOR_INFO_EXPOSURE_TIME_RANGE);
+                Range<Integer> iso = characteristics.get(CameraCharacteristics.SENSOR_INFO_SENSITIVITY_RANGE);
+                Float minFocus = characteristics.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+                int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+                boolean manualSensor = false;
+                if (capabilities != null) {
+                    for (int capability : capabilities) {
+                        if (capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_MANUAL_SENSOR)
+                            manualSensor = true;
+                    }
+                }
+                manualSensor &= exposure != null && iso != null;
+                CaptureLimits limits = new CaptureLimits(
+                        exposure != null ? exposure.getLower() : 0L,
+                        exposure != null ? exposure.getUpper() : Long.MAX_VALUE,
+                        iso != null ? iso.getLower() : 0,
+                        iso != null ? iso.getUpper() : Integer.MAX_VALUE,
+                        minFocus != null ? minFocus : 0f,
+                        manualSensor);
+                Log.i(LOGTAG, "Capture limits: " + limits);
+                return limits;
+            } catch (CameraAccessException e) {
+                Log.e(LOGTAG, "getLimits - Camera Access Exception", e);
+            }
+            return new CaptureLimits(0L, Long.MAX_VALUE, 0, Integer.MAX_VALUE, 0f, false);
+        }
+
+        @Override
+        public void applyLocked(CaptureSettings settings) {
+            Log.i(LOGTAG, "Locking capture settings: " + settings);
+            if (getLimits().manualSensor) {
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_OFF);
+                mPreviewRequestBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, settings.exposureTime);
+                mPreviewRequestBuilder.set(CaptureRequest.SENSOR_SENSITIVITY, settings.sensitivity);
+                mPreviewRequestBuilder.set(CaptureRequest.SENSOR_FRAME_DURATION,
+                        Math.max(settings.exposureTime, MANUAL_FRAME_DURATION));
+            } else {
+                CalibrationCaptureProfile profile = mCaptureProfile;
+                if (profile != null && profile.getMode() == CalibrationCaptureProfile.MODE_LED_ONLY)
+                    Log.w(LOGTAG, "No manual sensor control, LED only exposure not applied, locking the metered exposure");
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_LOCK, true);
+            }
+            if (settings.focusLocked) {
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_OFF);
+                mPreviewRequestBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, settings.focusDistance);
+            }
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AWB_LOCK, true);
+            updateRepeatingRequest();
+        }
+
+        @Override
+        public void applyAuto() {
+            Log.i(LOGTAG, "Unlocking capture settings");
+            setAutoControls();
+            updateRepeatingRequest();
+        }
+    };
+
     @Override
     protected void disconnectCamera() {
         Log.i(LOGTAG, "closeCamera");
+        mAwaitingDisplaySurface = false;
         try {
             CameraDevice c = mCameraDevice;
             mCameraDevice = null;
@@ -247,7 +549,32 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             }
         } finally {
             stopBackgroundThread();
+            if (null != mCameraFrame) {
+                mCameraFrame.release();
+                mCameraFrame = null;
+            }
+            if (null != mFramePool) {
+                mFramePool.close();
+                mFramePool = null;
+            }
+        }
+    }
+
+    /**
+     * In dual stream mode the resize that connectCamera() asks for is expected, and creates the
+     * held back session instead of reopening the camera as any other surface change does.
+     */
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        if (mAwaitingDisplaySurface && width == mDisplaySize.getWidth() && height == mDisplaySize.getHeight()) {
+            Log.d(LOGTAG, "Display surface resized to " + width + "x" + height);
+            mAwaitingDisplaySurface = false;
+            Handler handler = mBackgroundHandler;
+            if (handler != null)
+                handler.post(mCreateDeferredSession);
+            return;
         }
+        super.surfaceChanged(holder, format, width, height);
     }
 
     public static class JavaCameraSizeAccessor implements ListItemAccessor {
@@ -264,6 +591,68 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         }
     }
 
+    /**
+     * Delivers frames from a pool of the given size instead of straight from the camera image.
+     * Pooled frames are reference counted, so a listener can retain() a frame and process it
+     * asynchronously without a deep copy. When all frames are held, camera images are dropped
+     * and counted by the pool rather than blocking the camera.
+     * Must be called before the camera is connected.
+     * @param size - number of preallocated frames, 0 to disable pooling
+     */
+    public void setFramePoolSize(int size) {
+        mFramePoolSize = size;
+    }
+
+    /**
+     * Returns the current frame pool, or null if pooling is disabled or the camera is not connected.
+     */
+    public FramePool getFramePool() {
+        return mFramePool;
+    }
+
+    /**
+     * Splits detection and display into two camera outputs. Frames delivered to the listener come
+     * from an ImageReader at the largest supported size that fits maxWidth x maxHeight, however
+     * big the view is. The camera renders the preview straight into this view at a size chosen
+     * for the screen. The Mat returned by the listener is not drawn in this mode, so display no
+     * longer pays for Utils.matToBitmap.
+     * Must be called before the camera is connected.
+     * @param maxWidth - the maximum width of detection frames
+     * @param maxHeight - the maximum height of detection frames
+     */
+    public void enableDualStream(int maxWidth, int maxHeight) {
+        mDualStream = true;
+        mDetectionMaxWidth = maxWidth;
+        mDetectionMaxHeight = maxHeight;
+        mDrawFrames = false;
+    }
+
+    public void disableDualStream() {
+        mDualStream = false;
+        mDrawFrames = true;
+    }
+
+    public boolean isDualStream() {
+        return mDualStream;
+    }
+
+    private Size calcDetectionSize(StreamConfigurationMap map, int width, int height) {
+        List<android.util.Size> sizes_list = Arrays.asList(map.getOutputSizes(ImageReader.class));
+        int maxWidth = mDetectionMaxWidth != MAX_UNSPECIFIED ? mDetectionMaxWidth : width;
+        int maxHeight = mDetectionMaxHeight != MAX_UNSPECIFIED ? mDetectionMaxHeight : height;
+        return calculateCameraFrameSize(sizes_list, new JavaCameraSizeAccessor(), maxWidth, maxHeight);
+    }
+
+    private boolean calcDisplaySize(StreamConfigurationMap map, int width, int height) {
+        List<android.util.Size> sizes_list = Arrays.asList(map.getOutputSizes(SurfaceHolder.class));
+        Size displaySize = calculateCameraFrameSize(sizes_list, new JavaCameraSizeAccessor(), width, height);
+        Log.i(LOGTAG, "Selected display size to " + (int)displaySize.width + "x" + (int)displaySize.height);
+        if (mDisplaySize.getWidth() == displaySize.width && mDisplaySize.getHeight() == displaySize.height)
+            return false;
+        mDisplaySize = new android.util.Size((int)displaySize.width, (int)displaySize.height);
+        return true;
+    }
+
     boolean calcPreviewSize(final int width, final int height) {
         Log.i(LOGTAG, "calcPreviewSize: " + width + "x" + height);
         if (mCameraID == null) {
@@ -274,13 +663,20 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         try {
             CameraCharacteristics characteristics = manager.getCameraCharacteristics(mCameraID);
             StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-            android.util.Size[] sizes = map.getOutputSizes(ImageReader.class);
-            List<android.util.Size> sizes_list = Arrays.asList(sizes);
-            Size frameSize = calculateCameraFrameSize(sizes_list, new JavaCameraSizeAccessor(), width, height);
+            boolean displayChanged = false;
+            Size frameSize;
+            if (mDualStream) {
+                displayChanged = calcDisplaySize(map, width, height);
+                frameSize = calcDetectionSize(map, width, height);
+            } else {
+                android.util.Size[] sizes = map.getOutputSizes(ImageReader.class);
+                List<android.util.Size> sizes_list = Arrays.asList(sizes);
+                frameSize = calculateCameraFrameSize(sizes_list, new JavaCameraSizeAccessor(), width, height);
+            }
             Log.i(LOGTAG, "Selected preview size to " + Integer.valueOf((int)frameSize.width) + "x" + Integer.valueOf((int)frameSize.height));
             assert(!(frameSize.width == 0 || frameSize.height == 0));
             if (mPreviewSize.getWidth() == frameSize.width && mPreviewSize.getHeight() == frameSize.height)
-                return false;
+                return displayChanged;
             else {
                 mPreviewSize = new android.util.Size((int)frameSize.width, (int)frameSize.height);
                 return true;
@@ -305,12 +701,31 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             mFrameWidth = mPreviewSize.getWidth();
             mFrameHeight = mPreviewSize.getHeight();
 
+            if (mFpsMeter != null)
+                mFpsMeter.setResolution(mFrameWidth, mFrameHeight);
+
             if ((getLayoutParams().width == LayoutParams.MATCH_PARENT) && (getLayoutParams().height == LayoutParams.MATCH_PARENT))
                 mScale = Math.min(((float)height)/mFrameHeight, ((float)width)/mFrameWidth);
             else
                 mScale = 0;
 
-            AllocateCache();
+            if (mDualStream) {
+                // The camera writes into this surface directly, so it has to be a supported size.
+                // Until it has been resized the session is held back, see surfaceChanged().
+                final int displayWidth = mDisplaySize.getWidth(), displayHeight = mDisplaySize.getHeight();
+                Rect surfaceFrame = getHolder().getSurfaceFrame();
+                mAwaitingDisplaySurface = surfaceFrame.width() != displayWidth || surfaceFrame.height() != displayHeight;
+                if (mAwaitingDisplaySurface) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            getHolder().setFixedSize(displayWidth, displayHeight);
+                        }
+                    });
+                }
+            } else {
+                AllocateCache();
+            }
 
             if (needReconfig) {
                 if (null != mCaptureSession) {
@@ -326,34 +741,39 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         return true;
     }
 
-    private class JavaCamera2Frame implements CvCameraViewFrame {
+    /**
+     * Camera frame backed by the planes of the current Image. One instance is reused for every
+     * image of a session: Mats over the camera buffers are headers cached per plane, and the
+     * buffer needed when the chroma planes cannot be wrapped is allocated once per frame size.
+     */
+    private class JavaCamera2Frame extends CameraFrameBase {
         @Override
         public Mat gray() {
-            Image.Plane[] planes = mImage.getPlanes();
-            int w = mImage.getWidth();
-            int h = mImage.getHeight();
-            ByteBuffer y_plane = planes[0].getBuffer();
-            mGray = new Mat(h, w, CvType.CV_8UC1, y_plane);
+            if (mGray == null) {
+                Image.Plane[] planes = mImage.getPlanes();
+                mGray = mPlaneY.wrap(planes[0].getBuffer(), mImage.getHeight(), mImage.getWidth(),
+                        CvType.CV_8UC1, planes[0].getRowStride());
+            }
             return mGray;
         }
 
         @Override
         public Mat rgba() {
+            if (mRgbaValid)
+                return mRgba;
+
             Image.Plane[] planes = mImage.getPlanes();
             int w = mImage.getWidth();
             int h = mImage.getHeight();
             int chromaPixelStride = planes[1].getPixelStride();
-
+            int chromaRowStride = planes[1].getRowStride();
+            Mat y_mat = gray();
 
             if (chromaPixelStride == 2) { // Chroma channels are interleaved
                 assert(planes[0].getPixelStride() == 1);
                 assert(planes[2].getPixelStride() == 2);
-                ByteBuffer y_plane = planes[0].getBuffer();
-                ByteBuffer uv_plane1 = planes[1].getBuffer();
-                ByteBuffer uv_plane2 = planes[2].getBuffer();
-                Mat y_mat = new Mat(h, w, CvType.CV_8UC1, y_plane);
-                Mat uv_mat1 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane1);
-                Mat uv_mat2 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane2);
+                Mat uv_mat1 = mPlaneU.wrap(planes[1].getBuffer(), h / 2, w / 2, CvType.CV_8UC2, chromaRowStride);
+                Mat uv_mat2 = mPlaneV.wrap(planes[2].getBuffer(), h / 2, w / 2, CvType.CV_8UC2, chromaRowStride);
                 long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
                 if (addr_diff > 0) {
                     assert(addr_diff == 1);
@@ -362,65 +782,122 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     assert(addr_diff == -1);
                     Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, mRgba, Imgproc.COLOR_YUV2RGBA_NV21);
                 }
-                return mRgba;
             } else { // Chroma channels are not interleaved
-                byte[] yuv_bytes = new byte[w*(h+h/2)];
-                ByteBuffer y_plane = planes[0].getBuffer();
-                ByteBuffer u_plane = planes[1].getBuffer();
-                ByteBuffer v_plane = planes[2].getBuffer();
-
-                y_plane.get(yuv_bytes, 0, w*h);
-
-                int chromaRowStride = planes[1].getRowStride();
-                int chromaRowPadding = chromaRowStride - w/2;
-
-                int offset = w*h;
-                if (chromaRowPadding == 0){
-                    // When the row stride of the chroma channels equals their width, we can copy
-                    // the entire channels in one go
-                    u_plane.get(yuv_bytes, offset, w*h/4);
-                    offset += w*h/4;
-                    v_plane.get(yuv_bytes, offset, w*h/4);
-                } else {
-                    // When not equal, we need to copy the channels row by row
-                    for (int i = 0; i < h/2; i++){
-                        u_plane.get(yuv_bytes, offset, w/2);
-                        offset += w/2;
-                        if (i < h/2-1){
-                            u_plane.position(u_plane.position() + chromaRowPadding);
-                        }
-                    }
-                    for (int i = 0; i < h/2; i++){
-                        v_plane.get(yuv_bytes, offset, w/2);
-                        offset += w/2;
-                        if (i < h/2-1){
-                            v_plane.position(v_plane.position() + chromaRowPadding);
-                        }
-                    }
-                }
+                assert(chromaPixelStride == 1);
+                // Gather the planes into a pooled I420 buffer. The copies are done natively,
+                // one per plane, and honour both the luma and the chroma row strides.
+                allocateYuv(w, h);
+                Mat u_mat = mPlaneU.wrap(planes[1].getBuffer(), h / 2, w / 2, CvType.CV_8UC1, chromaRowStride);
+                Mat v_mat = mPlaneV.wrap(planes[2].getBuffer(), h / 2, w / 2, CvType.CV_8UC1, planes[2].getRowStride());
+                y_mat.copyTo(mYuvY);
+                u_mat.copyTo(mYuvU);
+                v_mat.copyTo(mYuvV);
+                Imgproc.cvtColor(mYuvMat, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
+            }
+            mRgbaValid = true;
+            return mRgba;
+        }
 
-                Mat yuv_mat = new Mat(h+h/2, w, CvType.CV_8UC1);
-                yuv_mat.put(0, 0, yuv_bytes);
-                Imgproc.cvtColor(yuv_mat, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
-                return mRgba;
+        /**
+         * Copies the current image into a pooled frame as I420.
+         */
+        public void copyTo(PooledFrame dst) {
+            Image.Plane[] planes = mImage.getPlanes();
+            int w = mImage.getWidth();
+            int h = mImage.getHeight();
+            gray().copyTo(dst.y());
+            if (planes[1].getPixelStride() == 2) {
+                // Each interleaved plane starts with its own channel
+                Mat u_mat = mPlaneU.wrap(planes[1].getBuffer(), h / 2, w / 2, CvType.CV_8UC2, planes[1].getRowStride());
+                Mat v_mat = mPlaneV.wrap(planes[2].getBuffer(), h / 2, w / 2, CvType.CV_8UC2, planes[2].getRowStride());
+                Core.extractChannel(u_mat, dst.u(), 0);
+                Core.extractChannel(v_mat, dst.v(), 0);
+            } else {
+                Mat u_mat = mPlaneU.wrap(planes[1].getBuffer(), h / 2, w / 2, CvType.CV_8UC1, planes[1].getRowStride());
+                Mat v_mat = mPlaneV.wrap(planes[2].getBuffer(), h / 2, w / 2, CvType.CV_8UC1, planes[2].getRowStride());
+                u_mat.copyTo(dst.u());
+                v_mat.copyTo(dst.v());
             }
         }
 
+        private void allocateYuv(int w, int h) {
+            if (mYuvMat != null && mYuvWidth == w && mYuvHeight == h)
+                return;
+            releaseYuv();
+            int ySize = w * h;
+            int cSize = (w / 2) * (h / 2);
+            mYuvBuffer = ByteBuffer.allocateDirect(ySize + 2 * cSize);
+            mYuvMat = new Mat(h + h / 2, w, CvType.CV_8UC1, mYuvBuffer);
+            mYuvY = new Mat(h, w, CvType.CV_8UC1, slice(mYuvBuffer, 0));
+            mYuvU = new Mat(h / 2, w / 2, CvType.CV_8UC1, slice(mYuvBuffer, ySize));
+            mYuvV = new Mat(h / 2, w / 2, CvType.CV_8UC1, slice(mYuvBuffer, ySize + cSize));
+            mYuvWidth = w;
+            mYuvHeight = h;
+        }
+
+        private ByteBuffer slice(ByteBuffer buffer, int offset) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            return view.slice();
+        }
+
+        private void releaseYuv() {
+            if (mYuvMat == null)
+                return;
+            mYuvY.release();
+            mYuvU.release();
+            mYuvV.release();
+            mYuvMat.release();
+            mYuvMat = null;
+            mYuvBuffer = null;
+        }
 
-        public JavaCamera2Frame(Image image) {
+        public JavaCamera2Frame() {
             super();
-            mImage = image;
             mRgba = new Mat();
-            mGray = new Mat();
+        }
+
+        /**
+         * Points the frame at a new image. clearImage() must be called before the image is closed.
+         */
+        public void setImage(Image image) {
+            mImage = image;
+            mRgbaValid = false;
+        }
+
+        /**
+         * Stops using the current image, which is about to be closed. The plane headers stay
+         * cached for when its buffer comes round again.
+         */
+        public void clearImage() {
+            mGray = null;
+            mImage = null;
+            mRgbaValid = false;
         }
 
         public void release() {
+            clearImage();
+            mPlaneY.release();
+            mPlaneU.release();
+            mPlaneV.release();
+            releaseYuv();
             mRgba.release();
-            mGray.release();
         }
 
         private Image mImage;
         private Mat mRgba;
+        private boolean mRgbaValid;
         private Mat mGray;
+        private final PlaneCache mPlaneY = new PlaneCache();
+        private final PlaneCache mPlaneU = new PlaneCache();
+        private final PlaneCache mPlaneV = new PlaneCache();
+
+        private ByteBuffer mYuvBuffer;
+        private Mat mYuvMat;
+        private Mat mYuvY;
+        private Mat mYuvU;
+        private Mat mYuvV;
+        private int mYuvWidth;
+        private int mYuvHeight;
     };
 }
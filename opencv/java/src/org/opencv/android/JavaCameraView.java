@@ -8,6 +8,7 @@ import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.PreviewCallback;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.ViewGroup.LayoutParams;
@@ -247,6 +248,9 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
     }
 
     private boolean mCameraFrameReady = false;
+    private long mFrameSequence = 0;
+    private long mLastDelivered = 0;
+    private long mDroppedFrames = 0;
 
     @Override
     protected boolean connectCamera(int width, int height) {
@@ -260,6 +264,9 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             return false;
 
         mCameraFrameReady = false;
+        mFrameSequence = 0;
+        mLastDelivered = 0;
+        mDroppedFrames = 0;
 
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
@@ -302,7 +309,10 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
         synchronized (this) {
+            // The old camera API has no sensor timestamps, arrival is the best we have
+            long now = SystemClock.elapsedRealtimeNanos();
             mFrameChain[mChainIdx].put(0, 0, frame);
+            mCameraFrame[mChainIdx].setMetadata(now, ++mFrameSequence, now, 0);
             mCameraFrameReady = true;
             this.notify();
         }
@@ -310,7 +320,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             mCamera.addCallbackBuffer(mBuffer);
     }
 
-    private class JavaCameraFrame implements CvCameraViewFrame {
+    private class JavaCameraFrame extends CameraFrameBase {
         @Override
         public Mat gray() {
             return mYuvFrameData.submat(0, mHeight, 0, mWidth);
@@ -369,8 +379,17 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 }
 
                 if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+                    if (!mFrameChain[1 - mChainIdx].empty()) {
+                        // Frames overwritten before the worker got to them show up as gaps
+                        JavaCameraFrame cameraFrame = mCameraFrame[1 - mChainIdx];
+                        long sequence = cameraFrame.sequence();
+                        if (mLastDelivered != 0 && sequence > mLastDelivered + 1)
+                            mDroppedFrames += sequence - mLastDelivered - 1;
+                        mLastDelivered = sequence;
+                        cameraFrame.setMetadata(cameraFrame.timestamp(), sequence,
+                                cameraFrame.arrivalTime(), mDroppedFrames);
+                        deliverAndDrawFrame(cameraFrame);
+                    }
                 }
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
@@ -0,0 +1,118 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket log-linear histogram of nanosecond durations.
+ *
+ * Every power of two is split into 8 linear sub-buckets, so a recorded value lands in a bucket
+ * no more than 12.5% wider than itself, from 1ns up to Long.MAX_VALUE. Recording is a few
+ * atomic increments with no locks and no allocation, and can happen on any thread.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    public static final int BUCKET_COUNT = (63 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    static int bucketIndex(long value) {
+        if (value < SUB_COUNT)
+            return value < 0 ? 0 : (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Smallest value that falls into the bucket.
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_COUNT)
+            return index;
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        int sub = index % SUB_COUNT;
+        return (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+    }
+
+    public void record(long nanos) {
+        mCounts.incrementAndGet(bucketIndex(nanos));
+        mTotal.incrementAndGet();
+        mSum.addAndGet(nanos);
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos))
+            max = mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            mCounts.set(i, 0);
+        mTotal.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Copies the current state into a snapshot. Recording may continue meanwhile, so the copy
+     * is consistent per bucket rather than across buckets.
+     * @param into Snapshot to fill, reused to avoid allocation.
+     * @return The filled snapshot.
+     */
+    public Snapshot snapshot(Snapshot into) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = mCounts.get(i);
+            into.mCounts[i] = c;
+            total += c;
+        }
+        into.mTotal = total;
+        into.mSum = mSum.get();
+        into.mMax = mMax.get();
+        return into;
+    }
+
+    /**
+     * Point in time copy of a histogram.
+     */
+    public static class Snapshot {
+        private final long[] mCounts = new long[BUCKET_COUNT];
+        private long mTotal;
+        private long mSum;
+        private long mMax;
+
+        public long count() {
+            return mTotal;
+        }
+
+        public long max() {
+            return mMax;
+        }
+
+        public double mean() {
+            return mTotal == 0 ? 0 : (double) mSum / mTotal;
+        }
+
+        /**
+         * Returns the lower bound of the bucket containing the given percentile.
+         * @param percentile Percentile in [0, 100].
+         */
+        public long percentile(double percentile) {
+            if (mTotal == 0)
+                return 0;
+            long rank = (long) Math.ceil(percentile / 100.0 * mTotal);
+            if (rank < 1)
+                rank = 1;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mCounts[i];
+                if (seen >= rank)
+                    return Math.min(bucketLowerBound(i), mMax);
+            }
+            return mMax;
+        }
+    }
+}
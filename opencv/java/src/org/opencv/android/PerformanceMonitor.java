@@ -0,0 +1,174 @@
+package org.opencv.android;
+
+import java.util.Arrays;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
+
+/**
+ * Rolling-window frame rate and processing time monitor for the camera view.
+ *
+ * Each frame records its arrival interval, processing time and drop count into fixed ring
+ * buffers. Statistics and the overlay text are only recomputed a few times per second, into a
+ * reused character buffer, so the per-frame cost is a handful of array writes with no
+ * allocation and no logging. The published statistics can be read from any thread.
+ */
+public class PerformanceMonitor {
+    private static final int  WINDOW = 64;                   // frames, power of two
+    private static final long REFRESH_INTERVAL = 250000000L; // ns
+
+    private final long[] mIntervals = new long[WINDOW];
+    private final long[] mProcessing = new long[WINDOW];
+    private final long[] mSorted = new long[WINDOW];
+    private int  mCount;
+    private long mLastFrameTime;
+    private long mLastRefresh;
+    private long mDroppedFrames;
+
+    private final StringBuilder mBuilder = new StringBuilder(96);
+    private char[] mText = new char[96];
+    private int  mTextLength;
+    private final Paint mPaint;
+    private int  mWidth = 0;
+    private int  mHeight = 0;
+
+    // Published at each refresh
+    private volatile double mFps;
+    private volatile double mWindowFps;
+    private volatile double mJitterMs;
+    private volatile double mP50Ms;
+    private volatile double mP95Ms;
+    private volatile double mP99Ms;
+    private volatile long   mPublishedDropped;
+
+    public PerformanceMonitor() {
+        mPaint = new Paint();
+        mPaint.setColor(Color.BLUE);
+        mPaint.setTextSize(20);
+    }
+
+    public void setResolution(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Records a delivered frame.
+     * @param frame The frame, for its drop count.
+     * @param startTime System.nanoTime() when delivery of the frame started.
+     * @param processingTime Time spent processing the frame, in ns.
+     */
+    public void onFrame(CvCameraViewFrame frame, long startTime, long processingTime) {
+        if (mLastFrameTime != 0) {
+            int slot = mCount & (WINDOW - 1);
+            mIntervals[slot] = startTime - mLastFrameTime;
+            mProcessing[slot] = processingTime;
+            mCount++;
+        }
+        mLastFrameTime = startTime;
+        mDroppedFrames = frame.droppedFrames();
+
+        if (startTime - mLastRefresh >= REFRESH_INTERVAL) {
+            mLastRefresh = startTime;
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        int n = Math.min(mCount, WINDOW);
+        if (n == 0)
+            return;
+
+        long last = mIntervals[(mCount - 1) & (WINDOW - 1)];
+        long sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += mIntervals[i];
+        double mean = (double) sum / n;
+        double variance = 0;
+        for (int i = 0; i < n; i++) {
+            double d = mIntervals[i] - mean;
+            variance += d * d;
+        }
+
+        System.arraycopy(mProcessing, 0, mSorted, 0, n);
+        Arrays.sort(mSorted, 0, n);
+
+        mFps = last > 0 ? 1e9 / last : 0;
+        mWindowFps = mean > 0 ? 1e9 / mean : 0;
+        mJitterMs = Math.sqrt(variance / n) / 1e6;
+        mP50Ms = mSorted[percentileIndex(n, 50)] / 1e6;
+        mP95Ms = mSorted[percentileIndex(n, 95)] / 1e6;
+        mP99Ms = mSorted[percentileIndex(n, 99)] / 1e6;
+        mPublishedDropped = mDroppedFrames;
+
+        StringBuilder b = mBuilder;
+        b.setLength(0);
+        appendFixed(b, mWindowFps);
+        b.append(" FPS (");
+        appendFixed(b, mFps);
+        b.append(")");
+        if (mWidth != 0 && mHeight != 0)
+            b.append('@').append(mWidth).append('x').append(mHeight);
+        b.append(" jit ");
+        appendFixed(b, mJitterMs);
+        b.append("ms p50/95/99 ");
+        appendFixed(b, mP50Ms);
+        b.append('/');
+        appendFixed(b, mP95Ms);
+        b.append('/');
+        appendFixed(b, mP99Ms);
+        b.append("ms drop ").append(mDroppedFrames);
+
+        if (mText.length < b.length())
+            mText = new char[b.length()];
+        b.getChars(0, b.length(), mText, 0);
+        mTextLength = b.length();
+    }
+
+    private static int percentileIndex(int n, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * n) - 1;
+        return index < 0 ? 0 : index;
+    }
+
+    /** Appends a non-negative value with one decimal place, without going through String. */
+    private static void appendFixed(StringBuilder b, double value) {
+        long tenths = Math.round(value * 10);
+        b.append(tenths / 10).append('.').append((char) ('0' + (int) (tenths % 10)));
+    }
+
+    public void draw(Canvas canvas, float offsetx, float offsety) {
+        if (mTextLength > 0)
+            canvas.drawText(mText, 0, mTextLength, offsetx, offsety, mPaint);
+    }
+
+    public double fps() {
+        return mFps;
+    }
+
+    public double windowFps() {
+        return mWindowFps;
+    }
+
+    public double jitterMs() {
+        return mJitterMs;
+    }
+
+    public double processingP50Ms() {
+        return mP50Ms;
+    }
+
+    public double processingP95Ms() {
+        return mP95Ms;
+    }
+
+    public double processingP99Ms() {
+        return mP99Ms;
+    }
+
+    public long droppedFrames() {
+        return mPublishedDropped;
+    }
+}
@@ -0,0 +1,114 @@
+package org.opencv.android;
+
+import android.util.Log;
+
+/**
+ * Per-stage timing of the frame pipeline.
+ *
+ * Stages are registered once, usually into a static final field, and timed like this:
+ *
+ *   long t = PipelineProfiler.begin();
+ *   ...
+ *   PipelineProfiler.end(STAGE, t);
+ *
+ * When profiling is disabled begin() returns 0 and end() returns immediately, so the cost is
+ * one volatile read per call. When enabled, every duration is recorded into the stage's
+ * {@link LatencyHistogram} without locking.
+ */
+public final class PipelineProfiler {
+    private static final String TAG = "PipelineProfiler";
+    public static final int MAX_STAGES = 32;
+
+    private static final LatencyHistogram[] sHistograms = new LatencyHistogram[MAX_STAGES];
+    private static final String[] sNames = new String[MAX_STAGES];
+    private static int sStageCount = 0;
+    private static volatile boolean sEnabled = false;
+
+    private PipelineProfiler() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Registers a stage, or returns the existing id if the name is already registered.
+     */
+    public static synchronized int register(String name) {
+        for (int i = 0; i < sStageCount; i++) {
+            if (sNames[i].equals(name))
+                return i;
+        }
+        if (sStageCount == MAX_STAGES)
+            throw new IllegalStateException("Too many pipeline stages");
+        sNames[sStageCount] = name;
+        sHistograms[sStageCount] = new LatencyHistogram();
+        return sStageCount++;
+    }
+
+    /**
+     * Returns a start time for end(), or 0 when profiling is disabled.
+     */
+    public static long begin() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since begin() against the stage and returns the current time, so
+     * consecutive stages can be chained without another clock read.
+     */
+    public static long end(int stage, long start) {
+        if (start == 0)
+            return 0;
+        long now = System.nanoTime();
+        sHistograms[stage].record(now - start);
+        return now;
+    }
+
+    /**
+     * Records an externally measured duration against the stage.
+     */
+    public static void record(int stage, long nanos) {
+        if (sEnabled)
+            sHistograms[stage].record(nanos);
+    }
+
+    public static synchronized int stageCount() {
+        return sStageCount;
+    }
+
+    public static synchronized String stageName(int stage) {
+        return sNames[stage];
+    }
+
+    public static LatencyHistogram histogram(int stage) {
+        return sHistograms[stage];
+    }
+
+    public static void reset() {
+        int count = stageCount();
+        for (int i = 0; i < count; i++)
+            sHistograms[i].reset();
+    }
+
+    /**
+     * Logs count, mean and p50/p95/p99/max for every stage that has samples.
+     */
+    public static void logSnapshot() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        int count = stageCount();
+        for (int i = 0; i < count; i++) {
+            sHistograms[i].snapshot(snapshot);
+            if (snapshot.count() == 0)
+                continue;
+            Log.i(TAG, String.format("%-20s n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                    sNames[i], snapshot.count(), snapshot.mean() / 1e6,
+                    snapshot.percentile(50) / 1e6, snapshot.percentile(95) / 1e6,
+                    snapshot.percentile(99) / 1e6, snapshot.max() / 1e6));
+        }
+    }
+}
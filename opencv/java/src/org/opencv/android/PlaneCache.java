@@ -0,0 +1,91 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.LedDetector;
+
+/**
+ * Mat headers over one plane of camera images, kept from frame to frame.
+ *
+ * ImageReader cycles through a small set of buffers, so a header is built the first time a
+ * buffer is seen with a given layout and reused whenever that buffer comes round again. Once
+ * every buffer has been seen, wrapping a plane allocates nothing. Buffers are recognised by
+ * their address, which comes from the ledroid_detect native library; without it a header is
+ * built for every image. The cache owns the headers it returns, callers must not release them.
+ */
+final class PlaneCache {
+    // More than the buffers a camera stream cycles through
+    private static final int ENTRIES = 8;
+
+    private final boolean mNative;
+    private final Mat[] mMats = new Mat[ENTRIES];
+    private final long[] mAddresses = new long[ENTRIES];
+    private final int[] mRows = new int[ENTRIES];
+    private final int[] mCols = new int[ENTRIES];
+    private final int[] mTypes = new int[ENTRIES];
+    private final int[] mStrides = new int[ENTRIES];
+    private int mNext = 0;
+
+    /**
+     * Must be created once OpenCV has been loaded, which the native library links against.
+     */
+    PlaneCache() {
+        mNative = LedDetector.isNativeAvailable();
+    }
+
+    /**
+     * Returns a header over a plane without copying. When rows are padded the Mat is a view
+     * with the plane's row stride as its step. Valid until the cache is released.
+     */
+    Mat wrap(ByteBuffer buffer, int rows, int cols, int type, int rowStride) {
+        long address = mNative ? bufferAddress(buffer) : 0;
+        if (address != 0) {
+            for (int i = 0; i < ENTRIES; i++) {
+                if (mMats[i] != null && mAddresses[i] == address && mRows[i] == rows && mCols[i] == cols
+                        && mTypes[i] == type && mStrides[i] == rowStride)
+                    return mMats[i];
+            }
+        }
+
+        int slot = mNext;
+        mNext = (mNext + 1) % ENTRIES;
+        if (mMats[slot] != null)
+            mMats[slot].release();
+        mMats[slot] = wrapPlane(buffer, rows, cols, type, rowStride);
+        // 0 never matches, so without the native library every image gets a new header
+        mAddresses[slot] = address;
+        mRows[slot] = rows;
+        mCols[slot] = cols;
+        mTypes[slot] = type;
+        mStrides[slot] = rowStride;
+        return mMats[slot];
+    }
+
+    void release() {
+        for (int i = 0; i < ENTRIES; i++) {
+            if (mMats[i] != null) {
+                mMats[i].release();
+                mMats[i] = null;
+            }
+        }
+    }
+
+    private static Mat wrapPlane(ByteBuffer buffer, int rows, int cols, int type, int rowStride) {
+        int elemSize = CvType.ELEM_SIZE(type);
+        if (rowStride == cols * elemSize)
+            return new Mat(rows, cols, type, buffer);
+        // A padded parent with one column per byte of stride, viewed at the real width
+        Mat parent = new Mat(rows, rowStride, CvType.CV_8UC1, buffer);
+        Mat view = parent.submat(0, rows, 0, cols * elemSize);
+        parent.release();
+        if (elemSize == 1)
+            return view;
+        Mat typed = view.reshape(CvType.channels(type));
+        view.release();
+        return typed;
+    }
+
+    private static native long bufferAddress(ByteBuffer buffer);
+}
@@ -0,0 +1,126 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Reference counted camera frame owned by a {@link FramePool}.
+ *
+ * The frame holds its own copy of the image in a preallocated I420 buffer, so it stays valid
+ * after the camera has moved on. A frame is handed out with one reference. Every consumer that
+ * keeps the frame beyond the callback it was delivered in calls {@link #retain()} and later
+ * {@link #release()}. When the last reference is released the frame goes back to its pool.
+ */
+public class PooledFrame extends CameraFrameBase {
+    private final FramePool mPool;
+    private final int mWidth;
+    private final int mHeight;
+    private final Mat mYuv;
+    private final Mat mY;
+    private final Mat mU;
+    private final Mat mV;
+    private final Mat mRgba = new Mat();
+    private final AtomicInteger mRefCount = new AtomicInteger(0);
+    private boolean mRgbaValid;
+
+    PooledFrame(FramePool pool, int width, int height) {
+        mPool = pool;
+        mWidth = width;
+        mHeight = height;
+        mYuv = new Mat(height + height / 2, width, CvType.CV_8UC1);
+        mY = mYuv.submat(0, height, 0, width);
+        // In I420 each chroma plane is (w/2)*(h/2) contiguous bytes, which is h/4 rows of mYuv
+        Mat chroma = mYuv.submat(height, height + height / 2, 0, width);
+        Mat chromaPlanes = chroma.reshape(1, height / 2 * 2);
+        mU = chromaPlanes.submat(0, height / 2, 0, width / 2);
+        mV = chromaPlanes.submat(height / 2, height, 0, width / 2);
+        chromaPlanes.release();
+        chroma.release();
+    }
+
+    public int width() {
+        return mWidth;
+    }
+
+    public int height() {
+        return mHeight;
+    }
+
+    /**
+     * Adds a reference. Returns this frame for convenience.
+     */
+    public PooledFrame retain() {
+        int count = mRefCount.incrementAndGet();
+        if (count <= 1)
+            throw new IllegalStateException("retain() on a frame that is not in use");
+        return this;
+    }
+
+    /**
+     * Drops a reference, returning the frame to its pool when none remain.
+     */
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0)
+            mPool.recycle(this);
+        else if (count < 0)
+            throw new IllegalStateException("release() called more often than retain()");
+    }
+
+    public int refCount() {
+        return mRefCount.get();
+    }
+
+    @Override
+    public Mat gray() {
+        return mY;
+    }
+
+    @Override
+    public synchronized Mat rgba() {
+        if (!mRgbaValid) {
+            Imgproc.cvtColor(mYuv, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
+            mRgbaValid = true;
+        }
+        return mRgba;
+    }
+
+    /**
+     * The whole I420 image, luma plane followed by the U and V planes, as one continuous
+     * (h + h/2) x w single channel Mat.
+     */
+    public Mat yuv() {
+        return mYuv;
+    }
+
+    /** Luma plane to be filled by the producer */
+    Mat y() {
+        return mY;
+    }
+
+    /** U plane to be filled by the producer, (w/2)x(h/2) */
+    Mat u() {
+        return mU;
+    }
+
+    /** V plane to be filled by the producer, (w/2)x(h/2) */
+    Mat v() {
+        return mV;
+    }
+
+    synchronized void onAcquire() {
+        mRefCount.set(1);
+        mRgbaValid = false;
+    }
+
+    void free() {
+        mY.release();
+        mU.release();
+        mV.release();
+        mYuv.release();
+        mRgba.release();
+    }
+}
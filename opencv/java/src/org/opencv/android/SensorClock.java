@@ -0,0 +1,33 @@
+package org.opencv.android;
+
+/**
+ * Shifts camera sensor timestamps from the monotonic clock onto the elapsed realtime clock.
+ *
+ * The two clocks only drift apart while the device sleeps, so their difference read back to
+ * back when the camera opens is the offset for the frames that follow. Arrival times are not
+ * used for the offset, as they include however long the frame took to be delivered. They only
+ * bound it: a frame cannot have been exposed after it arrived, so a sensor clock that turns out
+ * not to be the monotonic one is pulled back until its frames land no later than their arrival.
+ */
+final class SensorClock {
+    private long mOffset = 0;
+
+    /**
+     * Takes the offset between the clocks, e.g. from SystemClock.elapsedRealtimeNanos() and
+     * System.nanoTime() read one after the other.
+     */
+    void sync(long realtimeNs, long monotonicNs) {
+        mOffset = realtimeNs - monotonicNs;
+    }
+
+    /**
+     * @param timestamp   Sensor timestamp of the frame, on the monotonic clock.
+     * @param arrivalTime When the frame arrived, on the elapsed realtime clock.
+     * @return The time the frame was exposed, on the elapsed realtime clock.
+     */
+    long toRealtime(long timestamp, long arrivalTime) {
+        if (timestamp + mOffset > arrivalTime)
+            mOffset = arrivalTime - timestamp;
+        return timestamp + mOffset;
+    }
+}
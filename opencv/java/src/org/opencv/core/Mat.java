@@ -8,12 +8,61 @@ public class Mat {
 
     public final long nativeObj;
 
+    // Open scopes plus one while the tracker is enabled, so a Mat costs one read when neither is
+    static volatile int sObservers = 0;
+
+    // Lets open scopes and the debug tracker see every Mat, including those made for native results
+    {
+        if (sObservers > 0) {
+            if (MatScope.sOpenCount > 0)
+                MatScope.created(this);
+            if (MatTracker.sEnabled)
+                MatTracker.created(this);
+        }
+    }
+
+    static synchronized void addObservers(int count) {
+        sObservers += count;
+    }
+
     public Mat(long addr) {
         if (addr == 0)
             throw new UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
     }
 
+    /**
+     * Number of elements of a Mat known only by its native address, such as one of the Mats
+     * of a vector&lt;Mat&gt; returned from native code, without wrapping it in a Mat.
+     */
+    public static long totalOfNative(long addr) {
+        if (addr == 0)
+            throw new UnsupportedOperationException("Native object address is NULL");
+        return n_total(addr);
+    }
+
+    /**
+     * Copies the first count values of a CV_32S Mat known only by its native address into the
+     * start of data. See {@link #totalOfNative}.
+     * @return Number of bytes copied.
+     */
+    public static int getIntsOfNative(long addr, int[] data, int count) {
+        if (addr == 0)
+            throw new UnsupportedOperationException("Native object address is NULL");
+        if (data == null || count < 0 || count > data.length)
+            throw new IndexOutOfBoundsException("count " + count + " out of range for the array");
+        return nGetI(addr, 0, 0, count, data);
+    }
+
+    /**
+     * Deletes a Mat known only by its native address. It must not also be wrapped in a Mat,
+     * whose finalizer would delete it again.
+     */
+    public static void deleteNative(long addr) {
+        if (addr != 0)
+            n_delete(addr);
+    }
+
     //
     // C++: Mat::Mat()
     //
@@ -1080,6 +1129,83 @@ public class Mat {
         throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    /**
+     * Copies the first count values of data into the Mat starting at (row, col), so reused
+     * arrays need not match the Mat's size. count must be a multiple of the channels.
+     * @return Number of bytes copied.
+     */
+    public int put(int row, int col, int[] data, int count) {
+        int t = type();
+        checkCount(t, data, data == null ? 0 : data.length, count);
+        if (CvType.depth(t) == CvType.CV_32S) {
+            return nPutI(nativeObj, row, col, count, data);
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    /** See {@link #put(int, int, int[], int)}. */
+    public int put(int row, int col, float[] data, int count) {
+        int t = type();
+        checkCount(t, data, data == null ? 0 : data.length, count);
+        if (CvType.depth(t) == CvType.CV_32F) {
+            return nPutF(nativeObj, row, col, count, data);
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    /** See {@link #put(int, int, int[], int)}. */
+    public int put(int row, int col, double[] data, int count) {
+        int t = type();
+        checkCount(t, data, data == null ? 0 : data.length, count);
+        return nPutD(nativeObj, row, col, count, data);
+    }
+
+    /**
+     * Copies count values from the Mat starting at (row, col) into the start of data, so
+     * reused arrays need not match the Mat's size. count must be a multiple of the channels.
+     * @return Number of bytes copied.
+     */
+    public int get(int row, int col, int[] data, int count) {
+        int t = type();
+        checkCount(t, data, data == null ? 0 : data.length, count);
+        if (CvType.depth(t) == CvType.CV_32S) {
+            return nGetI(nativeObj, row, col, count, data);
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    /** See {@link #get(int, int, int[], int)}. */
+    public int get(int row, int col, float[] data, int count) {
+        int t = type();
+        checkCount(t, data, data == null ? 0 : data.length, count);
+        if (CvType.depth(t) == CvType.CV_32F) {
+            return nGetF(nativeObj, row, col, count, data);
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    /** See {@link #get(int, int, int[], int)}. */
+    public int get(int row, int col, double[] data, int count) {
+        int t = type();
+        checkCount(t, data, data == null ? 0 : data.length, count);
+        if (CvType.depth(t) == CvType.CV_64F) {
+            return nGetD(nativeObj, row, col, count, data);
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    private static void checkCount(int type, Object data, int length, int count) {
+        if (data == null)
+            throw new IllegalArgumentException("data is null");
+        if (count < 0 || count > length)
+            throw new IndexOutOfBoundsException("count " + count + " out of range for " + length + " values");
+        if (count % CvType.channels(type) != 0)
+            throw new UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(type) + ")");
+    }
+
     // javadoc:Mat::get(idx,data)
     public int get(int[] idx, double[] data) {
         int t = type();
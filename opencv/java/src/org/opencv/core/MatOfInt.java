@@ -60,6 +60,57 @@ public class MatOfInt extends Mat {
         return a;
     }
 
+    /**
+     * Sets the values from ints, without creating an object per element.
+     * @param count Number of elements to take from the start of a.
+     */
+    public void fromArray(int[] a, int count) {
+        if(count < 0 || count * _channels > a.length)
+            throw new IndexOutOfBoundsException("count " + count + " out of range for " + a.length + " values");
+        if(count == 0) {
+            release();
+            return;
+        }
+        alloc(count);
+        put(0, 0, a, count * _channels);
+    }
+
+    /**
+     * Copies every element into the start of a, which may be larger than needed, as ints.
+     * @return Number of elements copied.
+     */
+    public int toArray(int[] a) {
+        int num = (int) total();
+        if(num * _channels > a.length)
+            throw new IndexOutOfBoundsException(num + " elements do not fit in " + a.length + " values");
+        if(num > 0)
+            get(0, 0, a, num * _channels);
+        return num;
+    }
+
+    /**
+     * Copies count elements starting at element first into the start of a.
+     */
+    public void getRange(int first, int count, int[] a) {
+        checkRange(first, count);
+        if(count > 0)
+            get(first, 0, a, count * _channels);
+    }
+
+    /**
+     * Overwrites count elements starting at element first with the start of a.
+     */
+    public void putRange(int first, int count, int[] a) {
+        checkRange(first, count);
+        if(count > 0)
+            put(first, 0, a, count * _channels);
+    }
+
+    private void checkRange(int first, int count) {
+        if(first < 0 || count < 0 || first + count > total())
+            throw new IndexOutOfBoundsException("Elements " + first + " to " + (first + count) + " out of range for " + total());
+    }
+
     public void fromList(List<Integer> lb) {
         if(lb==null || lb.size()==0)
             return;
@@ -0,0 +1,131 @@
+package org.opencv.core;
+
+/**
+ * Reusable Mats keyed by size and type, for temporaries whose shape repeats every frame.
+ *
+ * {@link #acquire} hands out a free Mat of the shape or allocates one, and {@link #recycle}
+ * takes it back. At most maxPerShape free Mats are held per shape, any more are released.
+ * Shapes are found by a linear search, as a pipeline only uses a handful, so acquiring and
+ * recycling do not allocate once the pool is warm. Pooled Mats are never released by a
+ * {@link MatScope}, borrow them through {@link MatScope#borrow} to recycle them on close.
+ */
+public final class MatPool {
+    private final int mMaxPerShape;
+    private long[] mShapes = new long[4];
+    private Mat[][] mFree = new Mat[4][];
+    private int[] mFreeCounts = new int[4];
+    private int mShapeCount = 0;
+    private long mHits = 0;
+    private long mMisses = 0;
+
+    public MatPool(int maxPerShape) {
+        if (maxPerShape < 1)
+            throw new IllegalArgumentException("maxPerShape must be at least 1");
+        mMaxPerShape = maxPerShape;
+    }
+
+    /**
+     * Takes a Mat of the shape, with undefined contents.
+     */
+    public synchronized Mat acquire(int rows, int cols, int type) {
+        int shape = find(key(rows, cols, type));
+        if (shape >= 0 && mFreeCounts[shape] > 0) {
+            mHits++;
+            int n = --mFreeCounts[shape];
+            Mat mat = mFree[shape][n];
+            mFree[shape][n] = null;
+            return mat;
+        }
+        mMisses++;
+        Mat mat = new Mat(rows, cols, type);
+        MatScope.forget(mat);
+        return mat;
+    }
+
+    /**
+     * Returns a Mat for reuse. Its shape is taken as it is now, so it need not be the one it
+     * was acquired with. Empty Mats and submatrices are released instead.
+     */
+    public synchronized void recycle(Mat mat) {
+        if (mat.empty() || mat.isSubmatrix() || !mat.isContinuous()) {
+            mat.release();
+            return;
+        }
+        long key = key(mat.rows(), mat.cols(), mat.type());
+        int shape = find(key);
+        if (shape < 0)
+            shape = addShape(key);
+        if (mFreeCounts[shape] == mMaxPerShape) {
+            mat.release();
+            return;
+        }
+        mFree[shape][mFreeCounts[shape]++] = mat;
+    }
+
+    /**
+     * Releases all free Mats. Mats still held can be recycled afterwards.
+     */
+    public synchronized void clear() {
+        for (int s = 0; s < mShapeCount; s++) {
+            for (int i = 0; i < mFreeCounts[s]; i++) {
+                mFree[s][i].release();
+                mFree[s][i] = null;
+            }
+            mFreeCounts[s] = 0;
+        }
+    }
+
+    /** Number of Mats waiting to be reused */
+    public synchronized int freeCount() {
+        int count = 0;
+        for (int s = 0; s < mShapeCount; s++)
+            count += mFreeCounts[s];
+        return count;
+    }
+
+    /** Total number of acquires served from the pool */
+    public synchronized long hitCount() {
+        return mHits;
+    }
+
+    /** Total number of acquires that allocated a new Mat */
+    public synchronized long missCount() {
+        return mMisses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MatPool: " + freeCount() + " free in " + mShapeCount + " shapes, "
+                + mHits + " hits, " + mMisses + " misses";
+    }
+
+    private static long key(int rows, int cols, int type) {
+        return ((long) rows << 40) | ((long) (cols & 0xFFFFFF) << 16) | (type & 0xFFFF);
+    }
+
+    private int find(long key) {
+        for (int s = 0; s < mShapeCount; s++) {
+            if (mShapes[s] == key)
+                return s;
+        }
+        return -1;
+    }
+
+    private int addShape(long key) {
+        if (mShapeCount == mShapes.length) {
+            int capacity = 2 * mShapeCount;
+            long[] shapes = new long[capacity];
+            Mat[][] free = new Mat[capacity][];
+            int[] counts = new int[capacity];
+            System.arraycopy(mShapes, 0, shapes, 0, mShapeCount);
+            System.arraycopy(mFree, 0, free, 0, mShapeCount);
+            System.arraycopy(mFreeCounts, 0, counts, 0, mShapeCount);
+            mShapes = shapes;
+            mFree = free;
+            mFreeCounts = counts;
+        }
+        mShapes[mShapeCount] = key;
+        mFree[mShapeCount] = new Mat[mMaxPerShape];
+        return mShapeCount++;
+    }
+}
@@ -0,0 +1,155 @@
+package org.opencv.core;
+
+import java.util.ArrayList;
+
+/**
+ * Releases the native data of every Mat created on the thread while it is open, so per-frame
+ * temporaries do not wait for the finalizer to give their memory back:
+ *
+ *   try (MatScope scope = MatScope.open()) {
+ *       Mat hierarchy = new Mat();
+ *       Imgproc.findContours(thresh, contours, hierarchy, ...);
+ *       ...
+ *   }
+ *
+ * This includes Mats made inside the bindings, such as the MatOfPoint of each contour, and any
+ * that are allocated lazily by longer lived objects, which must therefore be created outside
+ * the scope or passed to {@link #keep}. Scopes nest, and each Mat belongs to the innermost
+ * scope open on its thread.
+ *
+ * Only the data is released, the small native header is still deleted by the finalizer.
+ */
+public final class MatScope implements AutoCloseable {
+    private static final ThreadLocal<MatScope> sCurrent = new ThreadLocal<MatScope>();
+    /** Number of open scopes on all threads, so creating a Mat costs one read when there are none */
+    static volatile int sOpenCount = 0;
+
+    private final MatScope mParent;
+    private final Thread mThread;
+    private final ArrayList<Mat> mMats = new ArrayList<Mat>();
+    private final ArrayList<Mat> mBorrowed = new ArrayList<Mat>();
+    private final ArrayList<MatPool> mBorrowedFrom = new ArrayList<MatPool>();
+    private boolean mClosed = false;
+
+    private MatScope(MatScope parent) {
+        mParent = parent;
+        mThread = Thread.currentThread();
+    }
+
+    /**
+     * Opens a scope on the calling thread, inside any scope already open on it.
+     */
+    public static MatScope open() {
+        MatScope scope = new MatScope(sCurrent.get());
+        sCurrent.set(scope);
+        synchronized (MatScope.class) {
+            sOpenCount++;
+        }
+        Mat.addObservers(1);
+        return scope;
+    }
+
+    /**
+     * Releases a Mat created before the scope was opened along with the scope's own.
+     */
+    public <T extends Mat> T track(T mat) {
+        checkOpen();
+        mMats.add(mat);
+        return mat;
+    }
+
+    /**
+     * Lets a Mat created in the scope outlive it. It is handed to the enclosing scope, if any.
+     */
+    public <T extends Mat> T keep(T mat) {
+        checkOpen();
+        for (int i = mMats.size() - 1; i >= 0; i--) {
+            if (mMats.get(i) == mat) {
+                mMats.remove(i);
+                if (mParent != null)
+                    mParent.mMats.add(mat);
+                break;
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * Takes a Mat from a pool, which is recycled into the pool instead of released on close.
+     */
+    public Mat borrow(MatPool pool, int rows, int cols, int type) {
+        checkOpen();
+        Mat mat = pool.acquire(rows, cols, type);
+        mBorrowed.add(mat);
+        mBorrowedFrom.add(pool);
+        return mat;
+    }
+
+    /** Number of Mats the scope will release */
+    public int size() {
+        return mMats.size();
+    }
+
+    @Override
+    public void close() {
+        if (mClosed)
+            return;
+        if (Thread.currentThread() != mThread)
+            throw new IllegalStateException("MatScope closed on another thread");
+        if (sCurrent.get() != this)
+            throw new IllegalStateException("MatScope closed while an inner scope is open");
+
+        for (int i = 0; i < mMats.size(); i++) {
+            Mat mat = mMats.get(i);
+            // A constructor that threw leaves a Mat without a native object
+            if (mat.nativeObj != 0)
+                mat.release();
+        }
+        mMats.clear();
+        for (int i = 0; i < mBorrowed.size(); i++)
+            mBorrowedFrom.get(i).recycle(mBorrowed.get(i));
+        mBorrowed.clear();
+        mBorrowedFrom.clear();
+
+        mClosed = true;
+        if (mParent != null)
+            sCurrent.set(mParent);
+        else
+            sCurrent.remove();
+        synchronized (MatScope.class) {
+            sOpenCount--;
+        }
+        Mat.addObservers(-1);
+    }
+
+    /**
+     * Called for every Mat as it is constructed, while any scope is open.
+     */
+    static void created(Mat mat) {
+        MatScope scope = sCurrent.get();
+        if (scope != null)
+            scope.mMats.add(mat);
+    }
+
+    /**
+     * Stops the current scope releasing a Mat it has just seen created, for Mats owned elsewhere.
+     */
+    static void forget(Mat mat) {
+        if (sOpenCount == 0)
+            return;
+        MatScope scope = sCurrent.get();
+        if (scope == null)
+            return;
+        for (int i = scope.mMats.size() - 1; i >= 0; i--) {
+            if (scope.mMats.get(i) == mat) {
+                scope.mMats.remove(i);
+                return;
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (mClosed)
+            throw new IllegalStateException("MatScope is closed");
+    }
+}
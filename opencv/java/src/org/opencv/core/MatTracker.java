@@ -0,0 +1,161 @@
+package org.opencv.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Debug tracking of the Mats that hold native memory, for finding Mats that are never released.
+ *
+ * While enabled, every Mat constructed is recorded weakly with the stack it was created from.
+ * A Mat counts as live while it holds data and has not been collected. Live bytes are
+ * approximate: submatrices are left out as their parent owns the data, but Mats wrapping
+ * buffers they do not own are counted.
+ *
+ * Recording a stack per Mat is slow, so only enable this while debugging. When disabled and no
+ * {@link MatScope} is open the cost is one volatile read per Mat.
+ */
+public final class MatTracker {
+    static volatile boolean sEnabled = false;
+
+    private static final ArrayList<Entry> sEntries = new ArrayList<Entry>();
+    private static int sPruneAt = 1024;
+
+    private static final class Entry extends WeakReference<Mat> {
+        final Throwable mSite;
+
+        Entry(Mat mat, Throwable site) {
+            super(mat);
+            mSite = site;
+        }
+    }
+
+    private MatTracker() {
+    }
+
+    /**
+     * Starts or stops recording new Mats. Mats already recorded stay tracked.
+     */
+    public static synchronized void setEnabled(boolean enabled) {
+        if (enabled == sEnabled)
+            return;
+        sEnabled = enabled;
+        Mat.addObservers(enabled ? 1 : -1);
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    static synchronized void created(Mat mat) {
+        sEntries.add(new Entry(mat, new Throwable()));
+        if (sEntries.size() >= sPruneAt) {
+            prune();
+            sPruneAt = Math.max(1024, 2 * sEntries.size());
+        }
+    }
+
+    /** Number of tracked Mats holding data */
+    public static synchronized int liveCount() {
+        prune();
+        int count = 0;
+        for (int i = 0; i < sEntries.size(); i++) {
+            if (bytes(sEntries.get(i).get()) > 0)
+                count++;
+        }
+        return count;
+    }
+
+    /** Native bytes held by tracked Mats */
+    public static synchronized long liveBytes() {
+        prune();
+        long total = 0;
+        for (int i = 0; i < sEntries.size(); i++)
+            total += bytes(sEntries.get(i).get());
+        return total;
+    }
+
+    /**
+     * Summarises the live Mats by where they were created, most bytes first.
+     * @param maxSites Number of creation sites to list.
+     */
+    public static synchronized String report(int maxSites) {
+        prune();
+        final Map<String, long[]> sites = new HashMap<String, long[]>();
+        long count = 0;
+        long total = 0;
+        for (int i = 0; i < sEntries.size(); i++) {
+            Entry entry = sEntries.get(i);
+            long bytes = bytes(entry.get());
+            if (bytes == 0)
+                continue;
+            String site = site(entry.mSite);
+            long[] totals = sites.get(site);
+            if (totals == null) {
+                totals = new long[2];
+                sites.put(site, totals);
+            }
+            totals[0]++;
+            totals[1] += bytes;
+            count++;
+            total += bytes;
+        }
+
+        ArrayList<String> order = new ArrayList<String>(sites.keySet());
+        Collections.sort(order, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long bytesA = sites.get(a)[1];
+                long bytesB = sites.get(b)[1];
+                return bytesA < bytesB ? 1 : bytesA > bytesB ? -1 : a.compareTo(b);
+            }
+        });
+        StringBuilder b = new StringBuilder();
+        b.append(String.format(Locale.ROOT, "%d live Mats holding %d bytes", count, total));
+        for (int i = 0; i < order.size() && i < maxSites; i++) {
+            long[] totals = sites.get(order.get(i));
+            b.append(String.format(Locale.ROOT, "\n  %6d Mats %10d bytes  %s", totals[0], totals[1], order.get(i)));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Forgets every Mat recorded so far, e.g. to only see those created after a warm-up.
+     */
+    public static synchronized void reset() {
+        sEntries.clear();
+    }
+
+    private static void prune() {
+        int kept = 0;
+        for (int i = 0; i < sEntries.size(); i++) {
+            Entry entry = sEntries.get(i);
+            if (entry.get() != null)
+                sEntries.set(kept++, entry);
+        }
+        for (int i = sEntries.size() - 1; i >= kept; i--)
+            sEntries.remove(i);
+    }
+
+    private static long bytes(Mat mat) {
+        // A constructor that threw leaves a Mat without a native object
+        if (mat == null || mat.nativeObj == 0 || mat.empty() || mat.isSubmatrix())
+            return 0;
+        return mat.total() * mat.elemSize();
+    }
+
+    /** First frame outside the bindings, which is where the caller asked for the Mat */
+    private static String site(Throwable site) {
+        StackTraceElement[] stack = site.getStackTrace();
+        for (int i = 0; i < stack.length; i++) {
+            String name = stack[i].getClassName();
+            if (!name.startsWith("org.opencv.") || name.startsWith("org.opencv.android."))
+                return stack[i].toString();
+        }
+        return stack.length > 0 ? stack[stack.length - 1].toString() : "unknown";
+    }
+}
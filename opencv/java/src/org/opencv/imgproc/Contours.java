@@ -0,0 +1,296 @@
+package org.opencv.imgproc;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+
+/**
+ * All the contours of an image in flat arrays, filled by
+ * {@link Imgproc#findContours(Mat, Contours, int, int)} without a MatOfPoint per contour.
+ *
+ * The points of every contour are packed as x, y pairs into one array, contour i taking points
+ * start(i) up to start(i + 1). The hierarchy holds next, previous, first child and parent per
+ * contour, as in the hierarchy Mat of findContours. Moments, area and bounding box are computed
+ * in Java by contour index with the same formulas as Imgproc, so a frame's contours can be
+ * measured without creating objects. The arrays are reused and only grow.
+ */
+public final class Contours {
+    private int mCount = 0;
+    private int mPointCount = 0;
+    private int[] mPoints = new int[2 * 256];
+    private int[] mStarts = new int[64 + 1];
+    private int[] mHierarchy = new int[4 * 64];
+    private int[] mAddresses = new int[2 * 64];
+    private int[] mScratch = new int[2 * 64];
+
+    // Native results of findContours, created on first use
+    private Mat mContoursMat;
+    private Mat mHierarchyMat;
+
+    /** Number of contours */
+    public int size() {
+        return mCount;
+    }
+
+    /** Number of points in all contours */
+    public int pointCount() {
+        return mPointCount;
+    }
+
+    /** Index of the first point of contour i in {@link #points()} pairs */
+    public int start(int i) {
+        return mStarts[i];
+    }
+
+    /** Number of points of contour i */
+    public int length(int i) {
+        return mStarts[i + 1] - mStarts[i];
+    }
+
+    /** x, y of every point, valid up to pointCount() pairs */
+    public int[] points() {
+        return mPoints;
+    }
+
+    /** Next, previous, first child and parent of each contour, -1 where there is none */
+    public int[] hierarchy() {
+        return mHierarchy;
+    }
+
+    public int x(int i, int k) {
+        return mPoints[2 * (mStarts[i] + k)];
+    }
+
+    public int y(int i, int k) {
+        return mPoints[2 * (mStarts[i] + k) + 1];
+    }
+
+    public void clear() {
+        mCount = 0;
+        mPointCount = 0;
+    }
+
+    /**
+     * Appends a contour with no hierarchy links.
+     * @param xy    x, y pairs.
+     * @param count Number of points to take from the start of xy.
+     * @return Index of the contour.
+     */
+    public int add(int[] xy, int count) {
+        ensureContours(mCount + 1);
+        ensurePoints(mPointCount + count);
+        System.arraycopy(xy, 0, mPoints, 2 * mPointCount, 2 * count);
+        mStarts[mCount] = mPointCount;
+        mPointCount += count;
+        mStarts[mCount + 1] = mPointCount;
+        for (int k = 0; k < 4; k++)
+            mHierarchy[4 * mCount + k] = -1;
+        return mCount++;
+    }
+
+    /**
+     * Copies the points of contour i into the start of xy as x, y pairs.
+     * @return Number of points.
+     */
+    public int copy(int i, int[] xy) {
+        int n = length(i);
+        System.arraycopy(mPoints, 2 * mStarts[i], xy, 0, 2 * n);
+        return n;
+    }
+
+    /**
+     * Spatial, central and normalized central moments of contour i, as Imgproc.moments gives
+     * for the contour. Written into m so it can be reused.
+     */
+    public void moments(int i, Moments m) {
+        double a00 = 0, a10 = 0, a01 = 0, a20 = 0, a11 = 0, a02 = 0, a30 = 0, a21 = 0, a12 = 0, a03 = 0;
+        int n = length(i);
+        if (n > 2) {
+            int p = 2 * mStarts[i];
+            double xi_1 = mPoints[p + 2 * (n - 1)];
+            double yi_1 = mPoints[p + 2 * (n - 1) + 1];
+            double xi_12 = xi_1 * xi_1;
+            double yi_12 = yi_1 * yi_1;
+            for (int k = 0; k < n; k++) {
+                double xi = mPoints[p + 2 * k];
+                double yi = mPoints[p + 2 * k + 1];
+                double xi2 = xi * xi;
+                double yi2 = yi * yi;
+                double dxy = xi_1 * yi - xi * yi_1;
+                double xii_1 = xi_1 + xi;
+                double yii_1 = yi_1 + yi;
+
+                a00 += dxy;
+                a10 += dxy * xii_1;
+                a01 += dxy * yii_1;
+                a20 += dxy * (xi_1 * xii_1 + xi2);
+                a11 += dxy * (xi_1 * (yii_1 + yi_1) + xi * (yii_1 + yi));
+                a02 += dxy * (yi_1 * yii_1 + yi2);
+                a30 += dxy * xii_1 * (xi_12 + xi2);
+                a03 += dxy * yii_1 * (yi_12 + yi2);
+                a21 += dxy * (xi_12 * (3 * yi_1 + yi) + 2 * xi * xi_1 * yii_1 + xi2 * (yi_1 + 3 * yi));
+                a12 += dxy * (yi_12 * (3 * xi_1 + xi) + 2 * yi * yi_1 * xii_1 + yi2 * (xi_1 + 3 * xi));
+
+                xi_1 = xi;
+                yi_1 = yi;
+                xi_12 = xi2;
+                yi_12 = yi2;
+            }
+        }
+
+        if (Math.abs(a00) > 1.1920929e-7) {
+            // Orientation of the contour only flips the sign
+            double sign = a00 > 0 ? 1 : -1;
+            m.m00 = sign * a00 / 2;
+            m.m10 = sign * a10 / 6;
+            m.m01 = sign * a01 / 6;
+            m.m20 = sign * a20 / 12;
+            m.m11 = sign * a11 / 24;
+            m.m02 = sign * a02 / 12;
+            m.m30 = sign * a30 / 20;
+            m.m21 = sign * a21 / 60;
+            m.m12 = sign * a12 / 60;
+            m.m03 = sign * a03 / 20;
+        } else {
+            m.m00 = m.m10 = m.m01 = m.m20 = m.m11 = m.m02 = m.m30 = m.m21 = m.m12 = m.m03 = 0;
+        }
+        m.completeState();
+    }
+
+    /**
+     * Area of contour i, as Imgproc.contourArea.
+     * @param oriented Whether to keep the sign, which depends on the contour's orientation.
+     */
+    public double contourArea(int i, boolean oriented) {
+        int n = length(i);
+        if (n < 3)
+            return 0;
+        int p = 2 * mStarts[i];
+        double a = 0;
+        double xPrev = mPoints[p + 2 * (n - 1)];
+        double yPrev = mPoints[p + 2 * (n - 1) + 1];
+        for (int k = 0; k < n; k++) {
+            double x = mPoints[p + 2 * k];
+            double y = mPoints[p + 2 * k + 1];
+            a += xPrev * y - x * yPrev;
+            xPrev = x;
+            yPrev = y;
+        }
+        a /= 2;
+        return oriented ? a : Math.abs(a);
+    }
+
+    public double contourArea(int i) {
+        return contourArea(i, false);
+    }
+
+    /**
+     * Upright bounding box of contour i, as Imgproc.boundingRect.
+     * @param rect Receives x, y, width and height.
+     */
+    public void boundingRect(int i, int[] rect) {
+        int n = length(i);
+        if (n == 0) {
+            rect[0] = rect[1] = rect[2] = rect[3] = 0;
+            return;
+        }
+        int p = 2 * mStarts[i];
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int k = 0; k < n; k++) {
+            int x = mPoints[p + 2 * k];
+            int y = mPoints[p + 2 * k + 1];
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+        rect[0] = minX;
+        rect[1] = minY;
+        rect[2] = maxX - minX + 1;
+        rect[3] = maxY - minY + 1;
+    }
+
+    /**
+     * Frees the native buffers kept for findContours. The arrays are kept.
+     */
+    public void release() {
+        if (mContoursMat != null) {
+            mContoursMat.release();
+            mHierarchyMat.release();
+        }
+    }
+
+    Mat contoursMat() {
+        if (mContoursMat == null) {
+            mContoursMat = new Mat();
+            mHierarchyMat = new Mat();
+        }
+        return mContoursMat;
+    }
+
+    Mat hierarchyMat() {
+        contoursMat();
+        return mHierarchyMat;
+    }
+
+    /**
+     * Unpacks the vector of contours findContours returned as native Mat addresses, and deletes
+     * each contour's Mat as soon as it has been read.
+     */
+    void load() {
+        clear();
+        Mat contours = mContoursMat;
+        int count = contours.empty() ? 0 : contours.rows();
+        if (count > 0 && (contours.type() != CvType.CV_32SC2 || contours.cols() != 1))
+            throw new IllegalArgumentException("Unexpected contours Mat " + contours);
+        ensureContours(count);
+        if (mAddresses.length < 2 * count)
+            mAddresses = new int[4 * count];
+        if (count > 0)
+            contours.get(0, 0, mAddresses, 2 * count);
+
+        for (int i = 0; i < count; i++) {
+            long addr = (((long) mAddresses[2 * i]) << 32) | (((long) mAddresses[2 * i + 1]) & 0xffffffffL);
+            int n = (int) Mat.totalOfNative(addr);
+            if (mScratch.length < 2 * n)
+                mScratch = new int[4 * n];
+            if (n > 0)
+                Mat.getIntsOfNative(addr, mScratch, 2 * n);
+            Mat.deleteNative(addr);
+            ensurePoints(mPointCount + n);
+            System.arraycopy(mScratch, 0, mPoints, 2 * mPointCount, 2 * n);
+            mStarts[i] = mPointCount;
+            mPointCount += n;
+            mStarts[i + 1] = mPointCount;
+        }
+        mCount = count;
+        contours.release();
+
+        if (count > 0 && mHierarchyMat.total() == count)
+            mHierarchyMat.get(0, 0, mHierarchy, 4 * count);
+        else
+            Arrays.fill(mHierarchy, 0, 4 * count, -1);
+    }
+
+    private void ensureContours(int count) {
+        if (mStarts.length < count + 1) {
+            int capacity = 2 * count;
+            int[] starts = new int[capacity + 1];
+            System.arraycopy(mStarts, 0, starts, 0, mCount + 1);
+            mStarts = starts;
+            int[] hierarchy = new int[4 * capacity];
+            System.arraycopy(mHierarchy, 0, hierarchy, 0, 4 * mCount);
+            mHierarchy = hierarchy;
+        }
+    }
+
+    private void ensurePoints(int count) {
+        if (mPoints.length < 2 * count) {
+            int[] points = new int[4 * count];
+            System.arraycopy(mPoints, 0, points, 0, 2 * mPointCount);
+            mPoints = points;
+        }
+    }
+}
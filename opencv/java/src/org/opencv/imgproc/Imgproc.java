@@ -6468,6 +6468,22 @@ public class Imgproc {
         contours_mat.release();
     }
 
+    /**
+     * Finds contours in a binary image, as above, into a flat {@link Contours} store.
+     *
+     * Each contour is read straight from the native result and deleted, so no Java Mat is
+     * created per contour and none is left for the finalizer.
+     *
+     * @param image Source, an 8-bit single-channel image.
+     * @param contours Receives the contours and their hierarchy, replacing any it held.
+     * @param mode Contour retrieval mode, see #RetrievalModes
+     * @param method Contour approximation method, see #ContourApproximationModes
+     */
+    public static void findContours(Mat image, Contours contours, int mode, int method) {
+        findContours_1(image.nativeObj, contours.contoursMat().nativeObj, contours.hierarchyMat().nativeObj, mode, method);
+        contours.load();
+    }
+
 
     //
     // C++:  void cv::fitLine(Mat points, Mat& line, int distType, double param, double reps, double aeps)
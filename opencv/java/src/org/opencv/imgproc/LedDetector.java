@@ -0,0 +1,308 @@
+package org.opencv.imgproc;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Finds bright spots in a luma frame in one call: threshold, opening, connected components and
+ * the centroid and area of each component.
+ *
+ * A pixel is lit when it is brighter than threshold, or than reference + threshold where a
+ * per-pixel reference is given. The lit mask is opened with a 3 x 3 square applied
+ * openIterations times, pixels outside the image being ignored as Imgproc.erode and dilate do,
+ * and split into 8-connected components. Components are reported in the raster order of their
+ * first pixel as {@link #STRIDE} floats: centroid x, centroid y and area in pixels.
+ *
+ * The work is done by the native ledroid_detect library when it has been built and loaded,
+ * otherwise by the Java implementation in {@link #detect(byte[], byte[], int, int, int, int,
+ * byte[], float[])}, which gives identical results and serves as the reference for the native
+ * one. Scratch buffers are kept by the instance and only grow, so an instance must not be
+ * shared between threads.
+ */
+public final class LedDetector {
+    /** Floats written per component */
+    public static final int STRIDE = 3;
+
+    private static final String LIBRARY = "ledroid_detect";
+    private static int sNativeState = 0;    // 0 not tried, 1 loaded, -1 unavailable
+
+    private boolean mUseNative = true;
+    private byte[] mGray = new byte[0];
+    private byte[] mReference = new byte[0];
+    private byte[] mMask = new byte[0];
+    private byte[] mOpened = new byte[0];
+    private byte[] mPass = new byte[0];
+    private int[] mLabels = new int[0];
+    private int[] mParent = new int[256];
+    private int[] mIds = new int[256];
+    private int[] mArea = new int[256];
+    private long[] mSumX = new long[256];
+    private long[] mSumY = new long[256];
+
+    /**
+     * Whether the native library could be loaded. It links against the OpenCV library, so this
+     * must only be called once OpenCV has been loaded.
+     */
+    public static synchronized boolean isNativeAvailable() {
+        if (sNativeState == 0) {
+            try {
+                System.loadLibrary(LIBRARY);
+                sNativeState = 1;
+            } catch (UnsatisfiedLinkError e) {
+                sNativeState = -1;
+            }
+        }
+        return sNativeState > 0;
+    }
+
+    /**
+     * Uses the Java implementation for Mats even when the native library is available, e.g. to
+     * compare the two on a device.
+     */
+    public void setUseNative(boolean useNative) {
+        mUseNative = useNative;
+    }
+
+    /**
+     * Detects the spots in a frame.
+     * @param gray           CV_8UC1 frame.
+     * @param reference      CV_8UC1 per-pixel reference the same size as gray, or null.
+     * @param threshold      Brightness above the reference, or above 0 without one, for a pixel to be lit.
+     * @param openIterations Number of times to erode and then dilate the mask, 0 for none.
+     * @param mask           Receives the lit mask before opening as 255 or 0, or null.
+     * @param out            Receives STRIDE floats per component, as many as fit.
+     * @return Number of components found, which may be more than fit in out.
+     */
+    public int detect(Mat gray, Mat reference, int threshold, int openIterations, Mat mask, float[] out) {
+        if (gray.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("gray must be CV_8UC1: " + gray);
+        if (reference != null && (reference.type() != CvType.CV_8UC1
+                || reference.rows() != gray.rows() || reference.cols() != gray.cols()))
+            throw new IllegalArgumentException("reference must be CV_8UC1 and the size of gray: " + reference);
+        if (openIterations < 0)
+            throw new IllegalArgumentException("openIterations must not be negative");
+        int width = gray.cols();
+        int height = gray.rows();
+        if (mask != null)
+            mask.create(height, width, CvType.CV_8UC1);
+
+        if (mUseNative && isNativeAvailable()) {
+            return detect_0(gray.nativeObj, reference != null ? reference.nativeObj : 0, threshold,
+                    openIterations, mask != null ? mask.nativeObj : 0, out);
+        }
+
+        int n = width * height;
+        if (mGray.length < n)
+            mGray = new byte[n];
+        gray.get(0, 0, mGray);
+        if (reference != null) {
+            if (mReference.length < n)
+                mReference = new byte[n];
+            reference.get(0, 0, mReference);
+        }
+        if (mask != null && mMask.length < n)
+            mMask = new byte[n];
+        int count = detect(mGray, reference != null ? mReference : null, width, height, threshold,
+                openIterations, mask != null ? mMask : null, out);
+        if (mask != null)
+            mask.put(0, 0, mMask);
+        return count;
+    }
+
+    /**
+     * Java implementation of {@link #detect(Mat, Mat, int, int, Mat, float[])} on packed rows.
+     * @param gray      width x height pixels.
+     * @param reference Per-pixel reference of the same size, or null.
+     * @param mask      Receives the lit mask before opening as 255 or 0, or null.
+     */
+    public int detect(byte[] gray, byte[] reference, int width, int height, int threshold,
+                      int openIterations, byte[] mask, float[] out) {
+        int n = width * height;
+        if (gray.length < n || (reference != null && reference.length < n) || (mask != null && mask.length < n))
+            throw new IllegalArgumentException("Buffers smaller than " + width + "x" + height);
+        if (openIterations < 0)
+            throw new IllegalArgumentException("openIterations must not be negative");
+        if (mOpened.length < n) {
+            mOpened = new byte[n];
+            mPass = new byte[n];
+            mLabels = new int[n];
+        }
+
+        byte[] lit = mOpened;
+        for (int i = 0; i < n; i++) {
+            int level = reference != null ? (reference[i] & 0xff) + threshold : threshold;
+            lit[i] = (gray[i] & 0xff) > level ? (byte) 1 : 0;
+        }
+        if (mask != null) {
+            for (int i = 0; i < n; i++)
+                mask[i] = lit[i] != 0 ? (byte) 255 : 0;
+        }
+
+        if (openIterations > 0) {
+            // Iterating a clipped 3 x 3 square equals one clipped square of radius openIterations,
+            // and a square separates into a row pass and a column pass
+            morph(lit, width, height, openIterations, true);
+            morph(lit, width, height, openIterations, false);
+        }
+
+        return label(lit, width, height, out);
+    }
+
+    /** Erodes (minimum) or dilates (maximum) the 0 / 1 image in place */
+    private void morph(byte[] image, int width, int height, int radius, boolean erode) {
+        byte[] pass = mPass;
+        byte keep = erode ? (byte) 1 : 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int from = Math.max(0, x - radius);
+                int to = Math.min(width - 1, x + radius);
+                byte v = keep;
+                for (int k = from; k <= to; k++) {
+                    if (image[row + k] != keep) {
+                        v = image[row + k];
+                        break;
+                    }
+                }
+                pass[row + x] = v;
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            int from = Math.max(0, y - radius);
+            int to = Math.min(height - 1, y + radius);
+            for (int x = 0; x < width; x++) {
+                byte v = keep;
+                for (int k = from; k <= to; k++) {
+                    if (pass[k * width + x] != keep) {
+                        v = pass[k * width + x];
+                        break;
+                    }
+                }
+                image[y * width + x] = v;
+            }
+        }
+    }
+
+    /**
+     * Two pass 8-connected labelling with union-find. Components are numbered by their first
+     * pixel in raster order on the second pass, so the order does not depend on how the
+     * provisional labels were merged.
+     */
+    private int label(byte[] lit, int width, int height, float[] out) {
+        int[] labels = mLabels;
+        int next = 1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = row + x;
+                if (lit[i] == 0) {
+                    labels[i] = 0;
+                    continue;
+                }
+                int label = 0;
+                if (y > 0) {
+                    if (x > 0)
+                        label = union(label, labels[i - width - 1]);
+                    label = union(label, labels[i - width]);
+                    if (x < width - 1)
+                        label = union(label, labels[i - width + 1]);
+                }
+                if (x > 0)
+                    label = union(label, labels[i - 1]);
+                if (label == 0) {
+                    if (next == mParent.length)
+                        mParent = grow(mParent);
+                    mParent[next] = next;
+                    label = next++;
+                }
+                labels[i] = label;
+            }
+        }
+
+        if (mIds.length < next)
+            mIds = new int[mParent.length];
+        for (int l = 1; l < next; l++)
+            mIds[l] = -1;
+        int count = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int label = labels[row + x];
+                if (label == 0)
+                    continue;
+                int root = find(label);
+                int id = mIds[root];
+                if (id < 0) {
+                    if (count == mArea.length) {
+                        mArea = grow(mArea);
+                        mSumX = grow(mSumX);
+                        mSumY = grow(mSumY);
+                    }
+                    id = count++;
+                    mIds[root] = id;
+                    mArea[id] = 0;
+                    mSumX[id] = 0;
+                    mSumY[id] = 0;
+                }
+                mArea[id]++;
+                mSumX[id] += x;
+                mSumY[id] += y;
+            }
+        }
+
+        int fit = Math.min(count, out.length / STRIDE);
+        for (int id = 0; id < fit; id++) {
+            out[STRIDE * id] = (float) ((double) mSumX[id] / mArea[id]);
+            out[STRIDE * id + 1] = (float) ((double) mSumY[id] / mArea[id]);
+            out[STRIDE * id + 2] = mArea[id];
+        }
+        return count;
+    }
+
+    /** Merges the sets of two labels, either of which may be 0 for none, returning the root */
+    private int union(int a, int b) {
+        if (b == 0)
+            return a;
+        b = find(b);
+        if (a == 0)
+            return b;
+        a = find(a);
+        if (a == b)
+            return a;
+        // The smaller label stays root, as it was seen first
+        if (a < b) {
+            mParent[b] = a;
+            return a;
+        }
+        mParent[a] = b;
+        return b;
+    }
+
+    private int find(int label) {
+        int root = label;
+        while (mParent[root] != root)
+            root = mParent[root];
+        while (mParent[label] != root) {
+            int parent = mParent[label];
+            mParent[label] = root;
+            label = parent;
+        }
+        return root;
+    }
+
+    private static int[] grow(int[] a) {
+        int[] grown = new int[2 * a.length];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+
+    private static long[] grow(long[] a) {
+        long[] grown = new long[2 * a.length];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+
+    // Native entry point in libcxx_helper/led_detector.cpp
+    private static native int detect_0(long grayAddr, long referenceAddr, int threshold,
+                                       int openIterations, long maskAddr, float[] out);
+}
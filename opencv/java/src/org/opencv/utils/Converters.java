@@ -809,4 +809,153 @@ public class Converters {
             rs.add(new RotatedRect(new Point(buff[5 * i], buff[5 * i + 1]), new Size(buff[5 * i + 2], buff[5 * i + 3]), buff[5 * i + 4]));
         }
     }
+
+    // Primitive arrays. These convert without an object per element and write into a Mat
+    // given by the caller, which is only reallocated when its shape changes, so contour and
+    // point data can be passed in reused arrays. Points are x, y pairs.
+
+    public static void array_Point_to_Mat(int[] xy, int count, Mat m) {
+        if (xy == null || count < 0 || count * 2 > xy.length)
+            throw new IllegalArgumentException("count " + count + " out of range for the array");
+        if (count == 0) {
+            m.release();
+            return;
+        }
+        m.create(count, 1, CvType.CV_32SC2);
+        m.put(0, 0, xy, count * 2);
+    }
+
+    /**
+     * @return Number of elements copied into the start of xy.
+     */
+    public static int Mat_to_array_Point(Mat m, int[] xy) {
+        if (xy == null)
+            throw new IllegalArgumentException("Output array can't be null");
+        if (m.empty())
+            return 0;
+        int count = m.rows();
+        if (CvType.CV_32SC2 != m.type() || m.cols() != 1)
+            throw new IllegalArgumentException(
+                    "CvType.CV_32SC2 != m.type() ||  m.cols()!=1\n" + m);
+        if (count * 2 > xy.length)
+            throw new IllegalArgumentException(count + " elements do not fit in the array");
+        m.get(0, 0, xy, count * 2);
+        return count;
+    }
+
+    public static void array_Point2f_to_Mat(float[] xy, int count, Mat m) {
+        if (xy == null || count < 0 || count * 2 > xy.length)
+            throw new IllegalArgumentException("count " + count + " out of range for the array");
+        if (count == 0) {
+            m.release();
+            return;
+        }
+        m.create(count, 1, CvType.CV_32FC2);
+        m.put(0, 0, xy, count * 2);
+    }
+
+    /**
+     * @return Number of elements copied into the start of xy.
+     */
+    public static int Mat_to_array_Point2f(Mat m, float[] xy) {
+        if (xy == null)
+            throw new IllegalArgumentException("Output array can't be null");
+        if (m.empty())
+            return 0;
+        int count = m.rows();
+        if (CvType.CV_32FC2 != m.type() || m.cols() != 1)
+            throw new IllegalArgumentException(
+                    "CvType.CV_32FC2 != m.type() ||  m.cols()!=1\n" + m);
+        if (count * 2 > xy.length)
+            throw new IllegalArgumentException(count + " elements do not fit in the array");
+        m.get(0, 0, xy, count * 2);
+        return count;
+    }
+
+    public static void array_int_to_Mat(int[] is, int count, Mat m) {
+        if (is == null || count < 0 || count > is.length)
+            throw new IllegalArgumentException("count " + count + " out of range for the array");
+        if (count == 0) {
+            m.release();
+            return;
+        }
+        m.create(count, 1, CvType.CV_32SC1);
+        m.put(0, 0, is, count);
+    }
+
+    /**
+     * @return Number of elements copied into the start of is.
+     */
+    public static int Mat_to_array_int(Mat m, int[] is) {
+        if (is == null)
+            throw new IllegalArgumentException("Output array can't be null");
+        if (m.empty())
+            return 0;
+        int count = m.rows();
+        if (CvType.CV_32SC1 != m.type() || m.cols() != 1)
+            throw new IllegalArgumentException(
+                    "CvType.CV_32SC1 != m.type() ||  m.cols()!=1\n" + m);
+        if (count > is.length)
+            throw new IllegalArgumentException(count + " elements do not fit in the array");
+        m.get(0, 0, is, count);
+        return count;
+    }
+
+    public static void array_float_to_Mat(float[] fs, int count, Mat m) {
+        if (fs == null || count < 0 || count > fs.length)
+            throw new IllegalArgumentException("count " + count + " out of range for the array");
+        if (count == 0) {
+            m.release();
+            return;
+        }
+        m.create(count, 1, CvType.CV_32FC1);
+        m.put(0, 0, fs, count);
+    }
+
+    /**
+     * @return Number of elements copied into the start of fs.
+     */
+    public static int Mat_to_array_float(Mat m, float[] fs) {
+        if (fs == null)
+            throw new IllegalArgumentException("Output array can't be null");
+        if (m.empty())
+            return 0;
+        int count = m.rows();
+        if (CvType.CV_32FC1 != m.type() || m.cols() != 1)
+            throw new IllegalArgumentException(
+                    "CvType.CV_32FC1 != m.type() ||  m.cols()!=1\n" + m);
+        if (count > fs.length)
+            throw new IllegalArgumentException(count + " elements do not fit in the array");
+        m.get(0, 0, fs, count);
+        return count;
+    }
+
+    public static void array_double_to_Mat(double[] ds, int count, Mat m) {
+        if (ds == null || count < 0 || count > ds.length)
+            throw new IllegalArgumentException("count " + count + " out of range for the array");
+        if (count == 0) {
+            m.release();
+            return;
+        }
+        m.create(count, 1, CvType.CV_64FC1);
+        m.put(0, 0, ds, count);
+    }
+
+    /**
+     * @return Number of elements copied into the start of ds.
+     */
+    public static int Mat_to_array_double(Mat m, double[] ds) {
+        if (ds == null)
+            throw new IllegalArgumentException("Output array can't be null");
+        if (m.empty())
+            return 0;
+        int count = m.rows();
+        if (CvType.CV_64FC1 != m.type() || m.cols() != 1)
+            throw new IllegalArgumentException(
+                    "CvType.CV_64FC1 != m.type() ||  m.cols()!=1\n" + m);
+        if (count > ds.length)
+            throw new IllegalArgumentException(count + " elements do not fit in the array");
+        m.get(0, 0, ds, count);
+        return count;
+    }
 }
@@ -0,0 +1,127 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the calibration capture profile against a fake camera.
+ */
+public class CalibrationCaptureProfileTest {
+
+    private static class FakeCamera implements CaptureControl {
+        CaptureLimits limits = new CaptureLimits(10000L, 100000000L, 50, 3200, 10f, true);
+        CaptureSettings applied;
+        int autoCount;
+
+        @Override
+        public CaptureLimits getLimits() {
+            return limits;
+        }
+
+        @Override
+        public void applyLocked(CaptureSettings settings) {
+            applied = settings;
+        }
+
+        @Override
+        public void applyAuto() {
+            autoCount++;
+        }
+    }
+
+    @Test
+    public void locksAfterSettleFrames() {
+        FakeCamera camera = new FakeCamera();
+        CalibrationCaptureProfile profile = new CalibrationCaptureProfile(
+                CalibrationCaptureProfile.MODE_METERED, 1.0, 3);
+        profile.lock(camera);
+
+        profile.onCaptureResult(20000000L, 400, 2f, true);
+        profile.onCaptureResult(20000000L, 400, 2f, false);
+        profile.onCaptureResult(20000000L, 400, 2f, true);
+        profile.onCaptureResult(20000000L, 400, 2f, true);
+        assertNull(camera.applied);
+        assertTrue(profile.isMetering());
+
+        profile.onCaptureResult(20000000L, 400, 2f, true);
+        assertTrue(profile.isLocked());
+        assertEquals(20000000L, camera.applied.exposureTime);
+        assertEquals(400, camera.applied.sensitivity);
+        assertEquals(2f, camera.applied.focusDistance, 0f);
+        assertTrue(camera.applied.focusLocked);
+
+        profile.unlock();
+        assertEquals(1, camera.autoCount);
+        assertNull(profile.getLockedSettings());
+    }
+
+    @Test
+    public void ledOnlyLowersSensitivityBeforeExposure() {
+        CalibrationCaptureProfile profile = new CalibrationCaptureProfile(
+                CalibrationCaptureProfile.MODE_LED_ONLY, 1.0 / 16, 1);
+        CaptureLimits limits = new FakeCamera().limits;
+
+        CaptureSettings s = profile.select(limits, 20000000L, 800, 2f);
+        assertEquals(50, s.sensitivity);
+        assertEquals(20000000L, s.exposureTime);
+
+        s = profile.select(limits, 20000000L, 100, 2f);
+        assertEquals(50, s.sensitivity);
+        assertEquals(2500000L, s.exposureTime);
+    }
+
+    @Test
+    public void ledOnlyStopsAtMinimumExposure() {
+        CalibrationCaptureProfile profile = new CalibrationCaptureProfile(
+                CalibrationCaptureProfile.MODE_LED_ONLY, 1.0 / 1000, 1);
+        CaptureSettings s = profile.select(new FakeCamera().limits, 100000L, 50, 2f);
+        assertEquals(10000L, s.exposureTime);
+        assertEquals(50, s.sensitivity);
+    }
+
+    @Test
+    public void fixedFocusIsNotLocked() {
+        FakeCamera camera = new FakeCamera();
+        camera.limits = new CaptureLimits(10000L, 100000000L, 50, 3200, 0f, true);
+        CalibrationCaptureProfile profile = new CalibrationCaptureProfile(
+                CalibrationCaptureProfile.MODE_METERED, 1.0, 1);
+        CaptureSettings s = profile.select(camera.limits, 20000000L, 400, 5f);
+        assertFalse(s.focusLocked);
+    }
+
+    @Test
+    public void relockRestoresAutoAndRunsOnLockedOnce() {
+        FakeCamera camera = new FakeCamera();
+        CalibrationCaptureProfile profile = new CalibrationCaptureProfile(
+                CalibrationCaptureProfile.MODE_METERED, 1.0, 1);
+        final int[] runs = new int[1];
+        Runnable onLocked = new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+            }
+        };
+
+        profile.setOnLocked(onLocked);
+        profile.lock(camera);
+        assertEquals(0, camera.autoCount);
+        profile.onCaptureResult(20000000L, 400, 2f, true);
+        assertTrue(profile.isLocked());
+        assertEquals(1, runs[0]);
+
+        // Locking again, as when the camera session is recreated, meters under auto exposure
+        profile.lock(camera);
+        assertEquals(1, camera.autoCount);
+        assertTrue(profile.isMetering());
+        profile.onCaptureResult(20000000L, 400, 2f, true);
+        assertEquals(1, runs[0]);
+
+        // A new session asks again
+        profile.setOnLocked(onLocked);
+        profile.lock(camera);
+        profile.onCaptureResult(20000000L, 400, 2f, true);
+        assertEquals(2, runs[0]);
+        assertEquals(2, camera.autoCount);
+    }
+}
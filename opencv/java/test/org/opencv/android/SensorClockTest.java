@@ -0,0 +1,35 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SensorClockTest {
+
+    // The realtime clock is ahead by the time the device has spent asleep
+    private static final long OFFSET = 5000000000L;
+    private static final long LATENCY = 30000000L;
+
+    @Test
+    public void deliveryLatencyIsNotFoldedIntoTheOffset() {
+        SensorClock clock = new SensorClock();
+        clock.sync(OFFSET + 1000L, 1000L);
+
+        // Every frame reaches the view 30 ms after it was exposed
+        for (long exposed = 2000000L; exposed < 200000000L; exposed += 33000000L)
+            assertEquals(OFFSET + exposed, clock.toRealtime(exposed, OFFSET + exposed + LATENCY));
+    }
+
+    @Test
+    public void timestampsPastTheirArrivalAreBoundedByIt() {
+        SensorClock clock = new SensorClock();
+        // Sensor clock running 10 ms ahead of the monotonic one
+        clock.sync(OFFSET, -10000000L);
+
+        long exposed = 50000000L;
+        long arrival = OFFSET + exposed + 5000000L;
+        assertEquals(arrival, clock.toRealtime(exposed, arrival));
+        // The tightened offset holds for the frames that follow
+        assertEquals(arrival + 33000000L, clock.toRealtime(exposed + 33000000L, arrival + 33000000L + LATENCY));
+    }
+}
@@ -0,0 +1,76 @@
+package org.opencv.imgproc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the flat contour measurements against shapes with known moments.
+ */
+public class ContoursTest {
+
+    @Test
+    public void moments_ofRectangleMatchClosedForm() {
+        Contours contours = new Contours();
+        contours.add(new int[]{0, 0, 1, 1}, 2);
+        // 4 x 2 rectangle at (10, 20), in either orientation
+        int rect = contours.add(new int[]{10, 20, 14, 20, 14, 22, 10, 22}, 4);
+        int reversed = contours.add(new int[]{10, 20, 10, 22, 14, 22, 14, 20}, 4);
+        assertEquals(3, contours.size());
+        assertEquals(10, contours.pointCount());
+
+        Moments m = new Moments();
+        for (int i : new int[]{rect, reversed}) {
+            contours.moments(i, m);
+            assertEquals(8, m.m00, 1e-9);
+            assertEquals(12, m.m10 / m.m00, 1e-9);
+            assertEquals(21, m.m01 / m.m00, 1e-9);
+            // Central moments of a w x h rectangle: w^3 h / 12 and w h^3 / 12
+            assertEquals(64.0 * 2 / 12, m.mu20, 1e-9);
+            assertEquals(4.0 * 8 / 12, m.mu02, 1e-9);
+            assertEquals(0, m.mu11, 1e-9);
+            assertEquals(0, m.mu30, 1e-9);
+        }
+
+        // Too few points for an area
+        contours.moments(0, m);
+        assertEquals(0, m.m00, 0);
+    }
+
+    @Test
+    public void areaAndBoundingRect() {
+        Contours contours = new Contours();
+        int triangle = contours.add(new int[]{0, 0, 6, 0, 0, 4, 99, 99}, 3);
+        int reversed = contours.add(new int[]{0, 0, 0, 4, 6, 0}, 3);
+        assertEquals(12, contours.contourArea(triangle), 1e-9);
+        assertEquals(12, Math.abs(contours.contourArea(reversed, true)), 1e-9);
+        assertEquals(-contours.contourArea(triangle, true), contours.contourArea(reversed, true), 1e-9);
+
+        int[] rect = new int[4];
+        contours.boundingRect(triangle, rect);
+        assertArrayEquals(new int[]{0, 0, 7, 5}, rect);
+
+        int[] xy = new int[8];
+        assertEquals(3, contours.copy(triangle, xy));
+        assertEquals(6, xy[2]);
+        assertEquals(4, contours.y(triangle, 2));
+    }
+
+    @Test
+    public void add_growsAndKeepsEarlierContours() {
+        Contours contours = new Contours();
+        int[] square = {0, 0, 3, 0, 3, 3, 0, 3};
+        for (int i = 0; i < 500; i++) {
+            square[0] = i;
+            contours.add(square, 4);
+        }
+        assertEquals(500, contours.size());
+        assertEquals(2000, contours.pointCount());
+        assertEquals(7, contours.x(7, 0));
+        assertEquals(4 * 499, contours.start(499));
+        assertEquals(-1, contours.hierarchy()[4 * 499 + 3]);
+
+        contours.clear();
+        assertEquals(0, contours.size());
+    }
+}
@@ -0,0 +1,97 @@
+package org.opencv.imgproc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the Java implementation of the fused detection, which the native one must match.
+ */
+public class LedDetectorTest {
+    private static final int W = 20;
+    private static final int H = 16;
+
+    private static void fill(byte[] image, int x0, int y0, int w, int h, int value) {
+        for (int y = y0; y < y0 + h; y++)
+            for (int x = x0; x < x0 + w; x++)
+                image[y * W + x] = (byte) value;
+    }
+
+    @Test
+    public void detect_openingRemovesSpecksButMaskKeepsThem() {
+        byte[] gray = new byte[W * H];
+        fill(gray, 5, 10, 3, 3, 255);
+        fill(gray, 15, 2, 1, 1, 255);
+        byte[] mask = new byte[W * H];
+        float[] out = new float[4 * LedDetector.STRIDE];
+
+        LedDetector detector = new LedDetector();
+        assertEquals(1, detector.detect(gray, null, W, H, 250, 1, mask, out));
+        assertEquals(6, out[0], 0);
+        assertEquals(11, out[1], 0);
+        assertEquals(9, out[2], 0);
+        assertEquals((byte) 255, mask[2 * W + 15]);
+        assertEquals(0, mask[0]);
+
+        // The speck's row comes first
+        assertEquals(2, detector.detect(gray, null, W, H, 250, 0, null, out));
+        assertEquals(15, out[0], 0);
+        assertEquals(2, out[1], 0);
+        assertEquals(1, out[2], 0);
+        assertEquals(9, out[5], 0);
+    }
+
+    @Test
+    public void detect_mergesLabelsAndKeepsRasterOrder() {
+        byte[] gray = new byte[W * H];
+        // A U whose arms get separate labels until the bottom row joins them
+        fill(gray, 10, 0, 1, 4, 200);
+        fill(gray, 14, 0, 1, 4, 200);
+        fill(gray, 10, 4, 5, 1, 200);
+        // Touching only diagonally still connects
+        fill(gray, 2, 6, 1, 1, 200);
+        fill(gray, 3, 7, 1, 1, 200);
+        // Clipped at the image corner, where opening must not eat it
+        fill(gray, W - 3, H - 3, 3, 3, 200);
+        float[] out = new float[4 * LedDetector.STRIDE];
+
+        LedDetector detector = new LedDetector();
+        assertEquals(3, detector.detect(gray, null, W, H, 100, 0, null, out));
+        assertEquals(13, out[2], 0);
+        assertEquals(12, out[0], 1e-6);
+        assertEquals((2 * 6 + 5 * 4) / 13f, out[1], 1e-6);
+        assertEquals(2.5f, out[3], 0);
+        assertEquals(6.5f, out[4], 0);
+        assertEquals(2, out[5], 0);
+        assertEquals(W - 2, out[6], 0);
+        assertEquals(H - 2, out[7], 0);
+        assertEquals(9, out[8], 0);
+
+        // Opening keeps only the corner block, the rest being one pixel wide
+        assertEquals(1, detector.detect(gray, null, W, H, 100, 1, null, out));
+        assertEquals(9, out[2], 0);
+    }
+
+    @Test
+    public void detect_usesReferenceAndReportsComponentsThatDoNotFit() {
+        byte[] gray = new byte[W * H];
+        fill(gray, 0, 0, W, H, 60);
+        fill(gray, 2, 2, 2, 2, 120);
+        fill(gray, 8, 2, 2, 2, 120);
+        fill(gray, 14, 2, 2, 2, 120);
+        byte[] reference = new byte[W * H];
+        fill(reference, 0, 0, W, H, 50);
+        // A reflection the reference already holds
+        fill(reference, 8, 2, 2, 2, 110);
+        float[] out = new float[LedDetector.STRIDE];
+
+        LedDetector detector = new LedDetector();
+        assertEquals(2, detector.detect(gray, reference, W, H, 20, 0, null, out));
+        assertEquals(2.5f, out[0], 0);
+        assertEquals(4, out[2], 0);
+
+        // Without the reference the background is lit as well
+        assertEquals(1, detector.detect(gray, null, W, H, 20, 0, null, out));
+        assertEquals(W * H, out[2], 0);
+    }
+}
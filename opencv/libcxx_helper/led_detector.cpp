@@ -0,0 +1,224 @@
+// Fused LED detection for org.opencv.imgproc.LedDetector: threshold, opening, connected
+// components and centroids in one JNI call. LedDetector.detect(byte[], ...) is the reference
+// implementation and this must give identical results, so any change has to be made to both.
+// Also gives org.opencv.android.PlaneCache the addresses of camera buffers.
+
+#include <jni.h>
+#include <algorithm>
+#include <cstdint>
+#include <vector>
+
+#include <opencv2/core.hpp>
+
+namespace {
+
+struct Scratch {
+    std::vector<uint8_t> lit;
+    std::vector<uint8_t> pass;
+    std::vector<int> labels;
+    std::vector<int> parent;
+    std::vector<int> ids;
+    std::vector<int> area;
+    std::vector<int64_t> sumX;
+    std::vector<int64_t> sumY;
+    std::vector<float> out;
+};
+
+// One set of buffers per camera thread, kept between frames
+thread_local Scratch scratch;
+
+// Erodes (minimum) or dilates (maximum) the 0 / 1 image in place with a clipped square
+void morph(uint8_t* image, uint8_t* pass, int width, int height, int radius, bool erode)
+{
+    const uint8_t keep = erode ? 1 : 0;
+    for (int y = 0; y < height; y++) {
+        const uint8_t* src = image + (size_t) y * width;
+        uint8_t* dst = pass + (size_t) y * width;
+        for (int x = 0; x < width; x++) {
+            const int from = std::max(0, x - radius);
+            const int to = std::min(width - 1, x + radius);
+            uint8_t v = keep;
+            for (int k = from; k <= to; k++) {
+                if (src[k] != keep) {
+                    v = src[k];
+                    break;
+                }
+            }
+            dst[x] = v;
+        }
+    }
+    for (int y = 0; y < height; y++) {
+        const int from = std::max(0, y - radius);
+        const int to = std::min(height - 1, y + radius);
+        uint8_t* dst = image + (size_t) y * width;
+        for (int x = 0; x < width; x++) {
+            uint8_t v = keep;
+            for (int k = from; k <= to; k++) {
+                if (pass[(size_t) k * width + x] != keep) {
+                    v = pass[(size_t) k * width + x];
+                    break;
+                }
+            }
+            dst[x] = v;
+        }
+    }
+}
+
+int find(std::vector<int>& parent, int label)
+{
+    int root = label;
+    while (parent[root] != root)
+        root = parent[root];
+    while (parent[label] != root) {
+        const int next = parent[label];
+        parent[label] = root;
+        label = next;
+    }
+    return root;
+}
+
+// Merges the sets of two labels, either of which may be 0 for none, returning the root
+int unite(std::vector<int>& parent, int a, int b)
+{
+    if (b == 0)
+        return a;
+    b = find(parent, b);
+    if (a == 0)
+        return b;
+    a = find(parent, a);
+    if (a == b)
+        return a;
+    // The smaller label stays root, as it was seen first
+    if (a < b) {
+        parent[b] = a;
+        return a;
+    }
+    parent[a] = b;
+    return b;
+}
+
+int label(Scratch& s, int width, int height)
+{
+    const uint8_t* lit = s.lit.data();
+    int* labels = s.labels.data();
+    s.parent.assign(1, 0);
+    for (int y = 0; y < height; y++) {
+        const size_t row = (size_t) y * width;
+        for (int x = 0; x < width; x++) {
+            const size_t i = row + x;
+            if (lit[i] == 0) {
+                labels[i] = 0;
+                continue;
+            }
+            int l = 0;
+            if (y > 0) {
+                if (x > 0)
+                    l = unite(s.parent, l, labels[i - width - 1]);
+                l = unite(s.parent, l, labels[i - width]);
+                if (x < width - 1)
+                    l = unite(s.parent, l, labels[i - width + 1]);
+            }
+            if (x > 0)
+                l = unite(s.parent, l, labels[i - 1]);
+            if (l == 0) {
+                l = (int) s.parent.size();
+                s.parent.push_back(l);
+            }
+            labels[i] = l;
+        }
+    }
+
+    s.ids.assign(s.parent.size(), -1);
+    s.area.clear();
+    s.sumX.clear();
+    s.sumY.clear();
+    for (int y = 0; y < height; y++) {
+        const size_t row = (size_t) y * width;
+        for (int x = 0; x < width; x++) {
+            const int l = labels[row + x];
+            if (l == 0)
+                continue;
+            const int root = find(s.parent, l);
+            int id = s.ids[root];
+            if (id < 0) {
+                id = (int) s.area.size();
+                s.ids[root] = id;
+                s.area.push_back(0);
+                s.sumX.push_back(0);
+                s.sumY.push_back(0);
+            }
+            s.area[id]++;
+            s.sumX[id] += x;
+            s.sumY[id] += y;
+        }
+    }
+    return (int) s.area.size();
+}
+
+} // namespace
+
+extern "C" {
+
+JNIEXPORT jint JNICALL Java_org_opencv_imgproc_LedDetector_detect_10
+  (JNIEnv* env, jclass, jlong grayAddr, jlong referenceAddr, jint threshold,
+   jint openIterations, jlong maskAddr, jfloatArray out)
+{
+    const cv::Mat& gray = *reinterpret_cast<cv::Mat*>(grayAddr);
+    const cv::Mat* reference = reinterpret_cast<cv::Mat*>(referenceAddr);
+    // Allocated by the Java side, so only the data is written here
+    cv::Mat* mask = reinterpret_cast<cv::Mat*>(maskAddr);
+    const int width = gray.cols;
+    const int height = gray.rows;
+    const size_t n = (size_t) width * height;
+
+    Scratch& s = scratch;
+    if (s.lit.size() < n) {
+        s.lit.resize(n);
+        s.pass.resize(n);
+        s.labels.resize(n);
+    }
+
+    // Threshold straight from the frame rows, writing the mask alongside
+    for (int y = 0; y < height; y++) {
+        const uint8_t* g = gray.ptr<uint8_t>(y);
+        const uint8_t* r = reference ? reference->ptr<uint8_t>(y) : nullptr;
+        uint8_t* m = mask ? mask->ptr<uint8_t>(y) : nullptr;
+        uint8_t* l = s.lit.data() + (size_t) y * width;
+        for (int x = 0; x < width; x++) {
+            const int level = r ? r[x] + threshold : threshold;
+            l[x] = g[x] > level ? 1 : 0;
+            if (m)
+                m[x] = l[x] ? 255 : 0;
+        }
+    }
+
+    if (openIterations > 0) {
+        // Iterating a clipped 3 x 3 square equals one clipped square of radius openIterations,
+        // and a square separates into a row pass and a column pass
+        morph(s.lit.data(), s.pass.data(), width, height, openIterations, true);
+        morph(s.lit.data(), s.pass.data(), width, height, openIterations, false);
+    }
+
+    const int count = label(s, width, height);
+
+    const int capacity = env->GetArrayLength(out) / 3;
+    const int fit = std::min(count, capacity);
+    s.out.resize((size_t) 3 * fit);
+    for (int id = 0; id < fit; id++) {
+        s.out[3 * id] = (float) ((double) s.sumX[id] / s.area[id]);
+        s.out[3 * id + 1] = (float) ((double) s.sumY[id] / s.area[id]);
+        s.out[3 * id + 2] = (float) s.area[id];
+    }
+    if (fit > 0)
+        env->SetFloatArrayRegion(out, 0, 3 * fit, s.out.data());
+    return count;
+}
+
+// Lets PlaneCache recognise a camera buffer it has already wrapped without building a Mat
+JNIEXPORT jlong JNICALL Java_org_opencv_android_PlaneCache_bufferAddress
+  (JNIEnv* env, jclass, jobject buffer)
+{
+    return (jlong) (intptr_t) env->GetDirectBufferAddress(buffer);
+}
+
+} // extern "C"
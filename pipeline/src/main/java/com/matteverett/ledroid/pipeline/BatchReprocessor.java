@@ -0,0 +1,283 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-runs detection over recorded calibration sessions and writes an LED map per session.
+ *
+ * Every session is a fork/join task. Ring file sessions are split into frame ranges down to
+ * shardFrames frames, each read through its own mapping of the file, so one long session
+ * spreads over every core while short ones fill the gaps; the work-stealing pool balances the
+ * shards. Each shard aggregates its own frames and the aggregates are merged on the way back
+ * up. Other recordings can only be read in order and run as a single shard.
+ *
+ * Usage: BatchReprocessor [--out dir] [--threads N] [--shard-frames N] [--threshold T]
+ *        [--min-area N] [--radius R] [--min-hits N] [--size WxH] [--chroma] recording|dir ...
+ *
+ * Directories are searched for .ring and .y4m recordings. Each session's map is written to the
+ * output directory as name.leds.csv.
+ */
+public final class BatchReprocessor {
+
+    /** Detection and aggregation settings */
+    public static final class Settings {
+        public int threshold = 251;
+        public int minArea = 1;
+        public float radius = 4f;
+        public int shardFrames = 64;
+        public int width;
+        public int height;
+        public boolean chroma;
+    }
+
+    /** Outcome of reprocessing one session */
+    public static final class Result {
+        public final File session;
+        public final LocationAggregator leds;
+        public final long frames;
+
+        Result(File session, LocationAggregator leds, long frames) {
+            this.session = session;
+            this.leds = leds;
+            this.frames = frames;
+        }
+    }
+
+    private final Settings mSettings;
+    private final ForkJoinPool mPool;
+    private final AtomicLong mFrames = new AtomicLong();
+    private final ThreadLocal<Detection> mDetection = new ThreadLocal<Detection>() {
+        @Override
+        protected Detection initialValue() {
+            return new Detection(new BlobDetector(mSettings.threshold, mSettings.minArea));
+        }
+    };
+
+    public BatchReprocessor(Settings settings, int threads) {
+        mSettings = settings;
+        mPool = new ForkJoinPool(threads);
+    }
+
+    public int parallelism() {
+        return mPool.getParallelism();
+    }
+
+    /** Frames processed so far, over all sessions */
+    public long framesProcessed() {
+        return mFrames.get();
+    }
+
+    /**
+     * Reprocesses the sessions in parallel and waits for all of them.
+     */
+    public List<Result> run(List<File> sessions) {
+        List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+        for (final File session : sessions) {
+            tasks.add(mPool.submit(new RecursiveTask<Result>() {
+                @Override
+                protected Result compute() {
+                    return processSession(session);
+                }
+            }));
+        }
+        List<Result> results = new ArrayList<>();
+        for (ForkJoinTask<Result> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private Result processSession(File session) {
+        // Sessions run concurrently, so each counts its own frames
+        AtomicLong frames = new AtomicLong();
+        try {
+            LocationAggregator leds;
+            if (session.getName().toLowerCase(Locale.ROOT).endsWith(".ring")) {
+                int count;
+                try (RingFileReader reader = new RingFileReader(session)) {
+                    count = reader.frameCount();
+                }
+                leds = new RangeTask(session, 0, count, frames).compute();
+            } else {
+                try (FrameSource source = Replay.open(session, mSettings.width, mSettings.height,
+                        mSettings.chroma, 30)) {
+                    leds = newAggregator(source);
+                    LumaFrame frame;
+                    long index = 0;
+                    while ((frame = source.next()) != null) {
+                        detect(frame, index++, leds);
+                        frames.incrementAndGet();
+                        mFrames.incrementAndGet();
+                    }
+                }
+            }
+            return new Result(session, leds, frames.get());
+        } catch (IOException e) {
+            throw new UncheckedIOException(session.toString(), e);
+        }
+    }
+
+    /**
+     * Frames [from, to) of a ring file, split in half until small enough.
+     */
+    private final class RangeTask extends RecursiveTask<LocationAggregator> {
+        private static final long serialVersionUID = 1L;
+
+        private final File mSession;
+        private final int mFrom;
+        private final int mTo;
+        private final AtomicLong mFramesDone;
+
+        RangeTask(File session, int from, int to, AtomicLong framesDone) {
+            mSession = session;
+            mFrom = from;
+            mTo = to;
+            mFramesDone = framesDone;
+        }
+
+        @Override
+        protected LocationAggregator compute() {
+            if (mTo - mFrom > mSettings.shardFrames) {
+                int middle = (mFrom + mTo) >>> 1;
+                RangeTask second = new RangeTask(mSession, middle, mTo, mFramesDone);
+                second.fork();
+                LocationAggregator leds = new RangeTask(mSession, mFrom, middle, mFramesDone).compute();
+                leds.merge(second.join());
+                return leds;
+            }
+
+            try (RingFileReader reader = new RingFileReader(mSession)) {
+                LocationAggregator leds = newAggregator(reader);
+                reader.seek(mFrom);
+                for (int i = mFrom; i < mTo; i++) {
+                    detect(reader.next(), i, leds);
+                }
+                mFramesDone.addAndGet(mTo - mFrom);
+                mFrames.addAndGet(mTo - mFrom);
+                return leds;
+            } catch (IOException e) {
+                throw new UncheckedIOException(mSession.toString(), e);
+            }
+        }
+    }
+
+    private LocationAggregator newAggregator(FrameSource source) {
+        return new LocationAggregator(source.width(), source.height(), mSettings.radius);
+    }
+
+    private void detect(LumaFrame frame, long index, LocationAggregator leds) {
+        Detection detection = mDetection.get();
+        int count = detection.detect(frame);
+        leds.add(detection.mBlobs, count, index);
+    }
+
+    /** Per-thread detector and output buffer */
+    private static final class Detection {
+        private final LedDetector mDetector;
+        float[] mBlobs = new float[LedDetector.STRIDE * 256];
+
+        Detection(LedDetector detector) {
+            mDetector = detector;
+        }
+
+        int detect(LumaFrame frame) {
+            int count = mDetector.detect(frame.data(), frame.offset(), frame.width(), frame.height(),
+                    frame.stride(), mBlobs);
+            if (count * LedDetector.STRIDE > mBlobs.length) {
+                mBlobs = new float[count * LedDetector.STRIDE * 2];
+                count = mDetector.detect(frame.data(), frame.offset(), frame.width(), frame.height(),
+                        frame.stride(), mBlobs);
+            }
+            return count;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Settings settings = new Settings();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long minHits = 1;
+        File outDir = new File(".");
+        List<File> sessions = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--out": outDir = new File(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--shard-frames": settings.shardFrames = Integer.parseInt(args[++i]); break;
+                case "--threshold": settings.threshold = Integer.parseInt(args[++i]); break;
+                case "--min-area": settings.minArea = Integer.parseInt(args[++i]); break;
+                case "--radius": settings.radius = Float.parseFloat(args[++i]); break;
+                case "--min-hits": minHits = Long.parseLong(args[++i]); break;
+                case "--chroma": settings.chroma = true; break;
+                case "--size": {
+                    String[] size = args[++i].split("x");
+                    settings.width = Integer.parseInt(size[0]);
+                    settings.height = Integer.parseInt(size[1]);
+                    break;
+                }
+                default: collect(new File(args[i]), sessions); break;
+            }
+        }
+        if (sessions.isEmpty()) {
+            System.err.println("No recordings given");
+            System.exit(2);
+        }
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("Cannot create " + outDir);
+        }
+
+        BatchReprocessor reprocessor = new BatchReprocessor(settings, threads);
+        long start = System.nanoTime();
+        List<Result> results = reprocessor.run(sessions);
+        long elapsed = System.nanoTime() - start;
+        reprocessor.shutdown();
+
+        for (Result result : results) {
+            File map = new File(outDir, result.session.getName().replaceFirst("\\.[^.]*$", "") + ".leds.csv");
+            int written;
+            try (Writer out = new FileWriter(map)) {
+                written = result.leds.write(out, minHits);
+            }
+            System.out.println(String.format(Locale.ROOT, "%s: %d frames, %d LEDs -> %s",
+                    result.session, result.frames, written, map));
+        }
+        long frames = reprocessor.framesProcessed();
+        double fps = frames * 1e9 / elapsed;
+        System.out.println(String.format(Locale.ROOT,
+                "%d sessions, %d frames in %.3f s on %d threads: %.1f fps, %.1f fps per core",
+                results.size(), frames, elapsed / 1e9, reprocessor.parallelism(), fps,
+                fps / reprocessor.parallelism()));
+    }
+
+    private static void collect(File file, List<File> sessions) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    String name = child.getName().toLowerCase(Locale.ROOT);
+                    if (child.isDirectory() || name.endsWith(".ring") || name.endsWith(".y4m")) {
+                        collect(child, sessions);
+                    }
+                }
+            }
+        } else {
+            sessions.add(file);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * Matches blobs detected in one frame to those detected in the previous frame.
+ *
+ * Each blob is matched to the nearest blob of the previous frame within a radius, one to one,
+ * in the order the current blobs are given. Previous blobs are bucketed into a uniform grid with
+ * cells no smaller than the radius, so each lookup only visits the 3x3 neighbouring cells and
+ * the cost is linear in the number of blobs rather than quadratic.
+ *
+ * Blobs are in the {@link LedDetector} layout, {@link LedDetector#STRIDE} floats per blob
+ * starting with x and y. Working storage is kept between calls and only grows.
+ */
+public final class BlobAssociator {
+    private final float mRadius;
+    private final float mRadius2;
+
+    private int[] mCellStart = new int[1];
+    private int[] mCellFill = new int[0];
+    private int[] mCellItems = new int[64];
+    private int[] mItemCell = new int[64];
+    private boolean[] mClaimed = new boolean[64];
+
+    /**
+     * @param radius Maximum distance in pixels a blob can move between frames.
+     */
+    public BlobAssociator(float radius) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        mRadius = radius;
+        mRadius2 = radius * radius;
+    }
+
+    /**
+     * @param previous      Blobs of the previous frame.
+     * @param previousCount Number of blobs in previous.
+     * @param current       Blobs of the current frame.
+     * @param currentCount  Number of blobs in current.
+     * @param match         Receives, for each current blob, the index of its previous blob or -1.
+     * @return Number of current blobs that were matched.
+     */
+    public int associate(float[] previous, int previousCount, float[] current, int currentCount, int[] match) {
+        final int stride = LedDetector.STRIDE;
+        if (previousCount == 0) {
+            Arrays.fill(match, 0, currentCount, -1);
+            return 0;
+        }
+
+        // Grid bounds from the previous blobs
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < previousCount; i++) {
+            float x = previous[i * stride];
+            float y = previous[i * stride + 1];
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        // Cells at least the radius across so the 3x3 neighbourhood covers it, and larger when
+        // blobs are sparse so there are about as many cells as blobs
+        float cellSize = Math.max(mRadius,
+                (float) Math.sqrt((maxX - minX + 1) * (maxY - minY + 1) / previousCount));
+        int cols = (int) ((maxX - minX) / cellSize) + 1;
+        int rows = (int) ((maxY - minY) / cellSize) + 1;
+        int cells = cols * rows;
+
+        // Counting sort of previous blobs into cells
+        if (mCellStart.length < cells + 1) {
+            mCellStart = new int[cells + 1];
+            mCellFill = new int[cells];
+        }
+        if (mCellItems.length < previousCount) {
+            int size = Math.max(previousCount, mCellItems.length * 2);
+            mCellItems = new int[size];
+            mItemCell = new int[size];
+            mClaimed = new boolean[size];
+        }
+        Arrays.fill(mCellStart, 0, cells + 1, 0);
+        for (int i = 0; i < previousCount; i++) {
+            int cx = (int) ((previous[i * stride] - minX) / cellSize);
+            int cy = (int) ((previous[i * stride + 1] - minY) / cellSize);
+            int cell = cy * cols + cx;
+            mItemCell[i] = cell;
+            mCellStart[cell + 1]++;
+            mClaimed[i] = false;
+        }
+        for (int c = 0; c < cells; c++) {
+            mCellStart[c + 1] += mCellStart[c];
+        }
+        System.arraycopy(mCellStart, 0, mCellFill, 0, cells);
+        for (int i = 0; i < previousCount; i++) {
+            mCellItems[mCellFill[mItemCell[i]]++] = i;
+        }
+
+        int matched = 0;
+        for (int j = 0; j < currentCount; j++) {
+            float x = current[j * stride];
+            float y = current[j * stride + 1];
+            // floor rather than truncate, blobs can lie left of or above the grid
+            int cx = (int) Math.floor((x - minX) / cellSize);
+            int cy = (int) Math.floor((y - minY) / cellSize);
+            int best = -1;
+            float bestDist2 = mRadius2;
+            for (int gy = Math.max(0, cy - 1); gy <= Math.min(rows - 1, cy + 1); gy++) {
+                for (int gx = Math.max(0, cx - 1); gx <= Math.min(cols - 1, cx + 1); gx++) {
+                    int cell = gy * cols + gx;
+                    for (int k = mCellStart[cell]; k < mCellStart[cell + 1]; k++) {
+                        int i = mCellItems[k];
+                        if (mClaimed[i]) {
+                            continue;
+                        }
+                        float dx = previous[i * stride] - x;
+                        float dy = previous[i * stride + 1] - y;
+                        float d2 = dx * dx + dy * dy;
+                        if (d2 <= bestDist2) {
+                            bestDist2 = d2;
+                            best = i;
+                        }
+                    }
+                }
+            }
+            match[j] = best;
+            if (best >= 0) {
+                mClaimed[best] = true;
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,143 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * Pure Java LED detector: fixed threshold followed by 8-connected labelling of pixel runs.
+ *
+ * Each row is split into runs of pixels above the threshold. Runs that touch a run in the
+ * previous row, diagonally included, are merged with union-find, and per-run pixel counts and
+ * coordinate sums are folded into their roots at the end. The centroid is the mean of the
+ * pixel coordinates, pixel centres at integer positions, as with OpenCV moments.
+ *
+ * All working storage is kept between calls and only grows, so a detector that has seen a
+ * frame of a given complexity does not allocate again.
+ */
+public final class BlobDetector implements LedDetector {
+    private final int mThreshold;
+    private final int mMinArea;
+
+    private int[] mRunStart = new int[1024];
+    private int[] mRunEnd = new int[1024];     // exclusive
+    private int[] mParent = new int[1024];
+    private long[] mCount = new long[1024];
+    private long[] mSumX = new long[1024];
+    private long[] mSumY = new long[1024];
+
+    /**
+     * @param threshold Pixels strictly brighter than this are lit, as THRESH_BINARY.
+     * @param minArea   Blobs with fewer pixels are ignored.
+     */
+    public BlobDetector(int threshold, int minArea) {
+        mThreshold = threshold;
+        mMinArea = minArea;
+    }
+
+    @Override
+    public int detect(byte[] luma, int offset, int width, int height, int stride, float[] out) {
+        int runs = 0;
+        int prevFirst = 0;
+        int prevLast = 0;
+
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * stride;
+            int first = runs;
+            int p = prevFirst;
+            int x = 0;
+            while (x < width) {
+                while (x < width && (luma[row + x] & 0xff) <= mThreshold) {
+                    x++;
+                }
+                if (x == width) {
+                    break;
+                }
+                int start = x;
+                while (x < width && (luma[row + x] & 0xff) > mThreshold) {
+                    x++;
+                }
+
+                if (runs == mRunStart.length) {
+                    grow();
+                }
+                mRunStart[runs] = start;
+                mRunEnd[runs] = x;
+                mParent[runs] = runs;
+                int n = x - start;
+                mCount[runs] = n;
+                mSumX[runs] = (long) n * (start + x - 1) / 2;
+                mSumY[runs] = (long) n * y;
+
+                // 8-connectivity: runs touch if they overlap once widened by a pixel.
+                // Both rows are sorted by x, so runs ending before this one can be skipped
+                // for the rest of the row.
+                while (p < prevLast && mRunEnd[p] < start) {
+                    p++;
+                }
+                for (int q = p; q < prevLast && mRunStart[q] <= x; q++) {
+                    union(q, runs);
+                }
+                runs++;
+            }
+            prevFirst = first;
+            prevLast = runs;
+        }
+
+        // Fold run statistics into their roots
+        for (int r = 0; r < runs; r++) {
+            int root = find(r);
+            if (root != r) {
+                mCount[root] += mCount[r];
+                mSumX[root] += mSumX[r];
+                mSumY[root] += mSumY[r];
+                mCount[r] = 0;
+            }
+        }
+
+        int found = 0;
+        for (int r = 0; r < runs; r++) {
+            long count = mCount[r];
+            if (mParent[r] != r || count < mMinArea || count == 0) {
+                continue;
+            }
+            int o = found * STRIDE;
+            if (o + STRIDE <= out.length) {
+                out[o] = (float) ((double) mSumX[r] / count);
+                out[o + 1] = (float) ((double) mSumY[r] / count);
+                out[o + 2] = count;
+            }
+            found++;
+        }
+        return found;
+    }
+
+    private int find(int r) {
+        while (mParent[r] != r) {
+            mParent[r] = mParent[mParent[r]];
+            r = mParent[r];
+        }
+        return r;
+    }
+
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra != rb) {
+            // Keep the earlier run as root so roots come out in raster order
+            if (ra < rb) {
+                mParent[rb] = ra;
+            } else {
+                mParent[ra] = rb;
+            }
+        }
+    }
+
+    private void grow() {
+        int size = mRunStart.length * 2;
+        mRunStart = Arrays.copyOf(mRunStart, size);
+        mRunEnd = Arrays.copyOf(mRunEnd, size);
+        mParent = Arrays.copyOf(mParent, size);
+        mCount = Arrays.copyOf(mCount, size);
+        mSumX = Arrays.copyOf(mSumX, size);
+        mSumY = Arrays.copyOf(mSumY, size);
+    }
+}
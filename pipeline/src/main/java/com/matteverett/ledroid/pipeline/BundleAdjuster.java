@@ -0,0 +1,678 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * Refines LED positions and camera poses together by minimising the reprojection error with
+ * Levenberg-Marquardt.
+ *
+ * Every observation only ties one LED to one view, so the normal equations are block sparse: a
+ * 6x6 block per view, a 3x3 block per LED and a 6x3 block per observation. The LEDs are
+ * eliminated with the Schur complement, leaving a dense system with six unknowns per view that
+ * is solved by Cholesky, and the LED steps follow by back substitution. The cost of a step is
+ * linear in the number of observations and only cubic in the number of views, which stay few.
+ *
+ * Poses are updated by rotating the camera frame, R = exp([w]x) R and t = exp([w]x) t + dt, so
+ * CameraView keeps a plain rotation matrix. Residuals are weighted with the Huber loss so that a
+ * wrong detection left in by triangulation cannot drag the solution.
+ *
+ * The first views are held fixed to pin down where the scene is. With a single fixed view the
+ * scale is still free, so the solution is scaled about the fixed view to keep the mean distance
+ * of the other views from it at its starting value: the distance to the tree used for the
+ * starting poses sets the scale of the map.
+ *
+ * Observations are in the compressed rows used by Triangulator. Scratch space grows to the
+ * largest problem seen and is then reused, so iterations do not allocate. Not thread safe.
+ */
+public final class BundleAdjuster {
+    public static final class Settings {
+        public int maxIterations = 20;
+        /** Views at the start of the array whose pose is not adjusted */
+        public int fixedViews = 1;
+        /** Residual in pixels beyond which the loss grows linearly */
+        public double huberThreshold = 2;
+        public double initialLambda = 1e-3;
+        /** Relative cost reduction below which the solution is taken as converged */
+        public double tolerance = 1e-6;
+    }
+
+    public static final class Result {
+        /** Steps tried, including rejected ones */
+        public int iterations;
+        /** RMS reprojection error of the used observations before adjustment, pixels */
+        public double initialRms;
+        /** RMS reprojection error of the used observations after adjustment, pixels */
+        public double rms;
+        public boolean converged;
+    }
+
+    private static final double MAX_LAMBDA = 1e10;
+    private static final double MIN_DEPTH = 1e-6;
+
+    private final Settings mSettings;
+
+    // Per view
+    private int[] mParameter = new int[0];      // Offset of the pose in the reduced system, -1 if fixed
+    private double[] mSavedPose = new double[0];
+    private double[] mCentre = new double[0];      // Camera centres at the start
+    // Per adjusted view
+    private double[] mU = new double[0];        // 6x6 blocks of J^T J
+    private double[] mBc = new double[0];       // -J^T r
+    private double[] mS = new double[0];        // Reduced camera system, then its Cholesky factor
+    private double[] mRhs = new double[0];
+    private double[] mDc = new double[0];       // Pose steps, rotation then translation
+    // Per LED
+    private boolean[] mActive = new boolean[0];
+    private double[] mV = new double[0];        // 3x3 blocks of J^T J
+    private double[] mVinv = new double[0];     // Inverses of the damped blocks
+    private double[] mBp = new double[0];       // -J^T r
+    private double[] mDp = new double[0];       // Position steps
+    private double[] mSavedPositions = new double[0];
+    // Per observation
+    private double[] mWeight = new double[0];   // Huber weight, 0 if not used
+    private double[] mW = new double[0];        // 6x3 view-LED blocks of J^T J
+    private double[] mY = new double[0];        // W V^-1
+
+    private final double[] mJu = new double[6];
+    private final double[] mJv = new double[6];
+    private final double[] mRotation = new double[9];
+    private double mRms;
+
+    public BundleAdjuster(Settings settings) {
+        mSettings = settings;
+    }
+
+    public BundleAdjuster() {
+        this(new Settings());
+    }
+
+    /**
+     * Adjusts the views' poses and the LED positions in place.
+     * @param positions x, y, z per LED. LEDs with a NaN position or fewer than two used
+     *                  observations are left alone.
+     * @param use       Whether each observation takes part, e.g. Triangulator's inliers, or null
+     *                  to use them all.
+     */
+    public Result adjust(CameraView[] views, int ledCount, double[] positions,
+                         int[] ledStart, int[] obsView, double[] obsUv, boolean[] use) {
+        int n = prepare(views.length, ledCount, ledStart[ledCount]);
+        for (int led = 0; led < ledCount; led++) {
+            int used = 0;
+            if (!Double.isNaN(positions[3 * led])) {
+                for (int o = ledStart[led]; o < ledStart[led + 1]; o++) {
+                    if (use == null || use[o]) {
+                        used++;
+                    }
+                }
+            }
+            mActive[led] = used >= 2;
+        }
+
+        for (int v = 0; v < views.length; v++) {
+            centre(views[v], mCentre, 3 * v);
+        }
+
+        Result result = new Result();
+        double lambda = mSettings.initialLambda;
+        double cost = linearize(views, ledCount, positions, ledStart, obsView, obsUv, use, n);
+        result.initialRms = mRms;
+        result.rms = mRms;
+        while (result.iterations < mSettings.maxIterations) {
+            result.iterations++;
+            if (!solve(ledCount, ledStart, obsView, lambda, n)) {
+                lambda *= 10;
+                if (lambda > MAX_LAMBDA) {
+                    break;
+                }
+                continue;
+            }
+
+            save(views, ledCount, positions);
+            update(views, ledCount, positions);
+            double newCost = cost(views, ledCount, positions, ledStart, obsView, obsUv);
+            if (newCost < cost) {
+                double reduction = (cost - newCost) / cost;
+                lambda = Math.max(lambda / 10, 1e-12);
+                cost = linearize(views, ledCount, positions, ledStart, obsView, obsUv, use, n);
+                result.rms = mRms;
+                if (reduction < mSettings.tolerance) {
+                    result.converged = true;
+                    break;
+                }
+            } else {
+                restore(views, ledCount, positions);
+                lambda *= 10;
+                if (lambda > MAX_LAMBDA) {
+                    // No step improves on where we are
+                    result.converged = true;
+                    break;
+                }
+            }
+        }
+        if (mSettings.fixedViews == 1 && views.length > 1) {
+            keepScale(views, ledCount, positions);
+        }
+        return result;
+    }
+
+    /**
+     * Sizes the scratch space and numbers the adjusted views.
+     * @return Number of unknowns in the reduced camera system.
+     */
+    private int prepare(int viewCount, int ledCount, int observationCount) {
+        if (mParameter.length < viewCount) {
+            mParameter = new int[viewCount];
+            mSavedPose = new double[12 * viewCount];
+            mCentre = new double[3 * viewCount];
+        }
+        int n = 0;
+        for (int v = 0; v < viewCount; v++) {
+            if (v < mSettings.fixedViews) {
+                mParameter[v] = -1;
+            } else {
+                mParameter[v] = n;
+                n += 6;
+            }
+        }
+        if (mBc.length < n) {
+            mU = new double[6 * n];
+            mBc = new double[n];
+            mS = new double[n * n];
+            mRhs = new double[n];
+            mDc = new double[n];
+        }
+        if (mActive.length < ledCount) {
+            mActive = new boolean[ledCount];
+            mV = new double[9 * ledCount];
+            mVinv = new double[9 * ledCount];
+            mBp = new double[3 * ledCount];
+            mDp = new double[3 * ledCount];
+            mSavedPositions = new double[3 * ledCount];
+        }
+        if (mWeight.length < observationCount) {
+            mWeight = new double[observationCount];
+            mW = new double[18 * observationCount];
+            mY = new double[18 * observationCount];
+        }
+        return n;
+    }
+
+    /**
+     * Evaluates the Jacobians at the current solution and accumulates the blocks of the weighted
+     * normal equations. Leaves the RMS error in mRms.
+     * @return Robust cost.
+     */
+    private double linearize(CameraView[] views, int ledCount, double[] positions,
+                             int[] ledStart, int[] obsView, double[] obsUv, boolean[] use, int n) {
+        Arrays.fill(mU, 0, 6 * n, 0);
+        Arrays.fill(mBc, 0, n, 0);
+        double k = mSettings.huberThreshold;
+        double cost = 0;
+        double sum = 0;
+        int count = 0;
+
+        for (int led = 0; led < ledCount; led++) {
+            int start = ledStart[led];
+            int end = ledStart[led + 1];
+            Arrays.fill(mWeight, start, end, 0);
+            if (!mActive[led]) {
+                continue;
+            }
+            double x = positions[3 * led], y = positions[3 * led + 1], z = positions[3 * led + 2];
+            double v00 = 0, v01 = 0, v02 = 0, v11 = 0, v12 = 0, v22 = 0;
+            double b0 = 0, b1 = 0, b2 = 0;
+
+            for (int o = start; o < end; o++) {
+                if (use != null && !use[o]) {
+                    continue;
+                }
+                int view = obsView[o];
+                CameraView c = views[view];
+                double[] R = c.rotation;
+                double[] t = c.translation;
+                double px = R[0] * x + R[1] * y + R[2] * z + t[0];
+                double py = R[3] * x + R[4] * y + R[5] * z + t[1];
+                double pz = R[6] * x + R[7] * y + R[8] * z + t[2];
+                if (pz < MIN_DEPTH) {
+                    continue;
+                }
+                double iz = 1 / pz;
+                double ru = c.fx * px * iz + c.cx - obsUv[2 * o];
+                double rv = c.fy * py * iz + c.cy - obsUv[2 * o + 1];
+                double e2 = ru * ru + rv * rv;
+                double e = Math.sqrt(e2);
+                double w = e <= k ? 1 : k / e;
+                cost += e <= k ? e2 : 2 * k * e - k * k;
+                sum += e2;
+                count++;
+                mWeight[o] = w;
+
+                // d(u, v)/d(camera point)
+                double au = c.fx * iz, auz = -c.fx * px * iz * iz;
+                double av = c.fy * iz, avz = -c.fy * py * iz * iz;
+
+                // d(u, v)/d(LED position)
+                double p0 = au * R[0] + auz * R[6], p1 = au * R[1] + auz * R[7], p2 = au * R[2] + auz * R[8];
+                double q0 = av * R[3] + avz * R[6], q1 = av * R[4] + avz * R[7], q2 = av * R[5] + avz * R[8];
+                v00 += w * (p0 * p0 + q0 * q0);
+                v01 += w * (p0 * p1 + q0 * q1);
+                v02 += w * (p0 * p2 + q0 * q2);
+                v11 += w * (p1 * p1 + q1 * q1);
+                v12 += w * (p1 * p2 + q1 * q2);
+                v22 += w * (p2 * p2 + q2 * q2);
+                b0 -= w * (p0 * ru + q0 * rv);
+                b1 -= w * (p1 * ru + q1 * rv);
+                b2 -= w * (p2 * ru + q2 * rv);
+
+                int p = mParameter[view];
+                if (p < 0) {
+                    continue;
+                }
+                // d(u, v)/d(w, dt), the camera point moving by w x P + dt
+                double[] ju = mJu;
+                double[] jv = mJv;
+                ju[0] = auz * py;
+                ju[1] = au * pz - auz * px;
+                ju[2] = -au * py;
+                ju[3] = au;
+                ju[4] = 0;
+                ju[5] = auz;
+                jv[0] = avz * py - av * pz;
+                jv[1] = -avz * px;
+                jv[2] = av * px;
+                jv[3] = 0;
+                jv[4] = av;
+                jv[5] = avz;
+
+                int u = 6 * p;
+                int wo = 18 * o;
+                for (int r = 0; r < 6; r++) {
+                    double wu = w * ju[r];
+                    double wv = w * jv[r];
+                    for (int col = r; col < 6; col++) {
+                        mU[u + 6 * r + col] += wu * ju[col] + wv * jv[col];
+                    }
+                    mBc[p + r] -= wu * ru + wv * rv;
+                    mW[wo + 3 * r] = wu * p0 + wv * q0;
+                    mW[wo + 3 * r + 1] = wu * p1 + wv * q1;
+                    mW[wo + 3 * r + 2] = wu * p2 + wv * q2;
+                }
+            }
+
+            int vi = 9 * led;
+            mV[vi] = v00;
+            mV[vi + 1] = v01;
+            mV[vi + 2] = v02;
+            mV[vi + 3] = v01;
+            mV[vi + 4] = v11;
+            mV[vi + 5] = v12;
+            mV[vi + 6] = v02;
+            mV[vi + 7] = v12;
+            mV[vi + 8] = v22;
+            mBp[3 * led] = b0;
+            mBp[3 * led + 1] = b1;
+            mBp[3 * led + 2] = b2;
+        }
+        mRms = Math.sqrt(sum / Math.max(1, count));
+        return cost;
+    }
+
+    /**
+     * Robust cost at the current solution over the observations used at the last linearisation.
+     * @return Infinity if one of them has gone behind its camera.
+     */
+    private double cost(CameraView[] views, int ledCount, double[] positions,
+                        int[] ledStart, int[] obsView, double[] obsUv) {
+        double k = mSettings.huberThreshold;
+        double cost = 0;
+        for (int led = 0; led < ledCount; led++) {
+            if (!mActive[led]) {
+                continue;
+            }
+            double x = positions[3 * led], y = positions[3 * led + 1], z = positions[3 * led + 2];
+            for (int o = ledStart[led]; o < ledStart[led + 1]; o++) {
+                if (mWeight[o] == 0) {
+                    continue;
+                }
+                CameraView c = views[obsView[o]];
+                double[] R = c.rotation;
+                double[] t = c.translation;
+                double pz = R[6] * x + R[7] * y + R[8] * z + t[2];
+                if (pz < MIN_DEPTH) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                double px = R[0] * x + R[1] * y + R[2] * z + t[0];
+                double py = R[3] * x + R[4] * y + R[5] * z + t[1];
+                double ru = c.fx * px / pz + c.cx - obsUv[2 * o];
+                double rv = c.fy * py / pz + c.cy - obsUv[2 * o + 1];
+                double e2 = ru * ru + rv * rv;
+                double e = Math.sqrt(e2);
+                cost += e <= k ? e2 : 2 * k * e - k * k;
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Solves the damped normal equations into mDc and mDp.
+     * @return false if the reduced system is not positive definite.
+     */
+    private boolean solve(int ledCount, int[] ledStart, int[] obsView, double lambda, int n) {
+        // Damped view blocks on the diagonal, only the lower triangle is used from here on
+        Arrays.fill(mS, 0, n * n, 0);
+        for (int p = 0; p < n; p += 6) {
+            int u = 6 * p;
+            for (int r = 0; r < 6; r++) {
+                for (int col = r; col < 6; col++) {
+                    double value = mU[u + 6 * r + col];
+                    if (col == r) {
+                        value += lambda * value + 1e-9;
+                    }
+                    mS[(p + col) * n + p + r] = value;
+                }
+            }
+        }
+        System.arraycopy(mBc, 0, mRhs, 0, n);
+
+        for (int led = 0; led < ledCount; led++) {
+            if (!mActive[led]) {
+                continue;
+            }
+            invertDamped(led, lambda);
+            int vi = 9 * led;
+            double b0 = mBp[3 * led], b1 = mBp[3 * led + 1], b2 = mBp[3 * led + 2];
+            int start = ledStart[led];
+            int end = ledStart[led + 1];
+            for (int o = start; o < end; o++) {
+                int p = mParameter[obsView[o]];
+                if (mWeight[o] == 0 || p < 0) {
+                    continue;
+                }
+                // Y = W V^-1, and the right hand side loses Y bp
+                for (int r = 0; r < 6; r++) {
+                    int w = 18 * o + 3 * r;
+                    double y0 = mW[w] * mVinv[vi] + mW[w + 1] * mVinv[vi + 3] + mW[w + 2] * mVinv[vi + 6];
+                    double y1 = mW[w] * mVinv[vi + 1] + mW[w + 1] * mVinv[vi + 4] + mW[w + 2] * mVinv[vi + 7];
+                    double y2 = mW[w] * mVinv[vi + 2] + mW[w + 1] * mVinv[vi + 5] + mW[w + 2] * mVinv[vi + 8];
+                    mY[w] = y0;
+                    mY[w + 1] = y1;
+                    mY[w + 2] = y2;
+                    mRhs[p + r] -= y0 * b0 + y1 * b1 + y2 * b2;
+                }
+            }
+            // S loses Y_j W_k^T for every pair of the LED's observations
+            for (int j = start; j < end; j++) {
+                int pj = mParameter[obsView[j]];
+                if (mWeight[j] == 0 || pj < 0) {
+                    continue;
+                }
+                for (int k = j; k < end; k++) {
+                    int pk = mParameter[obsView[k]];
+                    if (mWeight[k] == 0 || pk < 0) {
+                        continue;
+                    }
+                    if (pj >= pk) {
+                        subtractBlock(18 * j, 18 * k, pj, pk, n);
+                    }
+                    if (pk >= pj && k != j) {
+                        subtractBlock(18 * k, 18 * j, pk, pj, n);
+                    }
+                }
+            }
+        }
+
+        if (!cholesky(n)) {
+            return false;
+        }
+        System.arraycopy(mRhs, 0, mDc, 0, n);
+        choleskySolve(n, mDc);
+
+        // Back substitute the LEDs
+        for (int led = 0; led < ledCount; led++) {
+            if (!mActive[led]) {
+                continue;
+            }
+            double b0 = mBp[3 * led], b1 = mBp[3 * led + 1], b2 = mBp[3 * led + 2];
+            for (int o = ledStart[led]; o < ledStart[led + 1]; o++) {
+                int p = mParameter[obsView[o]];
+                if (mWeight[o] == 0 || p < 0) {
+                    continue;
+                }
+                for (int r = 0; r < 6; r++) {
+                    int w = 18 * o + 3 * r;
+                    double d = mDc[p + r];
+                    b0 -= mW[w] * d;
+                    b1 -= mW[w + 1] * d;
+                    b2 -= mW[w + 2] * d;
+                }
+            }
+            int vi = 9 * led;
+            mDp[3 * led] = mVinv[vi] * b0 + mVinv[vi + 1] * b1 + mVinv[vi + 2] * b2;
+            mDp[3 * led + 1] = mVinv[vi + 3] * b0 + mVinv[vi + 4] * b1 + mVinv[vi + 5] * b2;
+            mDp[3 * led + 2] = mVinv[vi + 6] * b0 + mVinv[vi + 7] * b1 + mVinv[vi + 8] * b2;
+        }
+        return true;
+    }
+
+    /**
+     * Inverts the LED's damped block into mVinv, leaving zeros, and so no step, if it is
+     * singular.
+     */
+    private void invertDamped(int led, double lambda) {
+        int vi = 9 * led;
+        double a = mV[vi] * (1 + lambda) + 1e-12;
+        double b = mV[vi + 1];
+        double c = mV[vi + 2];
+        double d = mV[vi + 4] * (1 + lambda) + 1e-12;
+        double e = mV[vi + 5];
+        double f = mV[vi + 8] * (1 + lambda) + 1e-12;
+        double c00 = d * f - e * e;
+        double c01 = c * e - b * f;
+        double c02 = b * e - c * d;
+        double det = a * c00 + b * c01 + c * c02;
+        if (!(det > 0)) {
+            Arrays.fill(mVinv, vi, vi + 9, 0);
+            return;
+        }
+        double inv = 1 / det;
+        double c11 = (a * f - c * c) * inv;
+        double c12 = (b * c - a * e) * inv;
+        double c22 = (a * d - b * b) * inv;
+        c00 *= inv;
+        c01 *= inv;
+        c02 *= inv;
+        mVinv[vi] = c00;
+        mVinv[vi + 1] = c01;
+        mVinv[vi + 2] = c02;
+        mVinv[vi + 3] = c01;
+        mVinv[vi + 4] = c11;
+        mVinv[vi + 5] = c12;
+        mVinv[vi + 6] = c02;
+        mVinv[vi + 7] = c12;
+        mVinv[vi + 8] = c22;
+    }
+
+    /**
+     * Subtracts Y_j W_k^T from the (pj, pk) block of S. Only blocks on or below the diagonal are
+     * kept, as Cholesky only reads the lower triangle, so pj must not be less than pk; pass the
+     * pair the other way round otherwise, as Y_k W_j^T is the transpose.
+     */
+    private void subtractBlock(int yj, int wk, int pj, int pk, int n) {
+        for (int r = 0; r < 6; r++) {
+            double y0 = mY[yj + 3 * r], y1 = mY[yj + 3 * r + 1], y2 = mY[yj + 3 * r + 2];
+            int row = (pj + r) * n + pk;
+            for (int col = 0; col < 6; col++) {
+                int w = wk + 3 * col;
+                mS[row + col] -= y0 * mW[w] + y1 * mW[w + 1] + y2 * mW[w + 2];
+            }
+        }
+    }
+
+    /**
+     * Factors mS in place into its lower triangle.
+     * @return false if it is not positive definite.
+     */
+    private boolean cholesky(int n) {
+        double[] s = mS;
+        for (int j = 0; j < n; j++) {
+            int rj = j * n;
+            double d = s[rj + j];
+            for (int k = 0; k < j; k++) {
+                d -= s[rj + k] * s[rj + k];
+            }
+            if (!(d > 0)) {
+                return false;
+            }
+            double l = Math.sqrt(d);
+            s[rj + j] = l;
+            double il = 1 / l;
+            for (int i = j + 1; i < n; i++) {
+                int ri = i * n;
+                double sum = s[ri + j];
+                for (int k = 0; k < j; k++) {
+                    sum -= s[ri + k] * s[rj + k];
+                }
+                s[ri + j] = sum * il;
+            }
+        }
+        return true;
+    }
+
+    private void choleskySolve(int n, double[] x) {
+        double[] s = mS;
+        for (int i = 0; i < n; i++) {
+            double sum = x[i];
+            for (int k = 0; k < i; k++) {
+                sum -= s[i * n + k] * x[k];
+            }
+            x[i] = sum / s[i * n + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = x[i];
+            for (int k = i + 1; k < n; k++) {
+                sum -= s[k * n + i] * x[k];
+            }
+            x[i] = sum / s[i * n + i];
+        }
+    }
+
+    private void update(CameraView[] views, int ledCount, double[] positions) {
+        for (int v = 0; v < views.length; v++) {
+            int p = mParameter[v];
+            if (p < 0) {
+                continue;
+            }
+            rodrigues(mDc[p], mDc[p + 1], mDc[p + 2], mRotation);
+            double[] dR = mRotation;
+            double[] R = views[v].rotation;
+            double[] t = views[v].translation;
+            for (int col = 0; col < 3; col++) {
+                double r0 = R[col], r1 = R[3 + col], r2 = R[6 + col];
+                R[col] = dR[0] * r0 + dR[1] * r1 + dR[2] * r2;
+                R[3 + col] = dR[3] * r0 + dR[4] * r1 + dR[5] * r2;
+                R[6 + col] = dR[6] * r0 + dR[7] * r1 + dR[8] * r2;
+            }
+            double t0 = t[0], t1 = t[1], t2 = t[2];
+            t[0] = dR[0] * t0 + dR[1] * t1 + dR[2] * t2 + mDc[p + 3];
+            t[1] = dR[3] * t0 + dR[4] * t1 + dR[5] * t2 + mDc[p + 4];
+            t[2] = dR[6] * t0 + dR[7] * t1 + dR[8] * t2 + mDc[p + 5];
+        }
+        for (int led = 0; led < ledCount; led++) {
+            if (mActive[led]) {
+                positions[3 * led] += mDp[3 * led];
+                positions[3 * led + 1] += mDp[3 * led + 1];
+                positions[3 * led + 2] += mDp[3 * led + 2];
+            }
+        }
+    }
+
+    /**
+     * Rotation matrix of the rotation vector (x, y, z).
+     */
+    static void rodrigues(double x, double y, double z, double[] R) {
+        double theta2 = x * x + y * y + z * z;
+        double a, b;
+        if (theta2 < 1e-12) {
+            a = 1 - theta2 / 6;
+            b = 0.5 - theta2 / 24;
+        } else {
+            double theta = Math.sqrt(theta2);
+            a = Math.sin(theta) / theta;
+            b = (1 - Math.cos(theta)) / theta2;
+        }
+        R[0] = 1 - b * (y * y + z * z);
+        R[1] = b * x * y - a * z;
+        R[2] = b * x * z + a * y;
+        R[3] = b * x * y + a * z;
+        R[4] = 1 - b * (x * x + z * z);
+        R[5] = b * y * z - a * x;
+        R[6] = b * x * z - a * y;
+        R[7] = b * y * z + a * x;
+        R[8] = 1 - b * (x * x + y * y);
+    }
+
+    /**
+     * Scales the scene about the first view's centre so that the mean distance of the others
+     * from it is what it was at the start. Reprojections are unchanged.
+     */
+    private void keepScale(CameraView[] views, int ledCount, double[] positions) {
+        double[] c = mJu;
+        double x0 = mCentre[0], y0 = mCentre[1], z0 = mCentre[2];
+        double before = 0;
+        double after = 0;
+        for (int v = 1; v < views.length; v++) {
+            centre(views[v], c, 0);
+            before += Math.sqrt(sq(mCentre[3 * v] - x0) + sq(mCentre[3 * v + 1] - y0) + sq(mCentre[3 * v + 2] - z0));
+            after += Math.sqrt(sq(c[0] - x0) + sq(c[1] - y0) + sq(c[2] - z0));
+        }
+        if (!(after > 0)) {
+            return;
+        }
+        double s = before / after;
+        for (int v = 1; v < views.length; v++) {
+            centre(views[v], c, 0);
+            double[] R = views[v].rotation;
+            double[] t = views[v].translation;
+            double x = x0 + s * (c[0] - x0), y = y0 + s * (c[1] - y0), z = z0 + s * (c[2] - z0);
+            t[0] = -(R[0] * x + R[1] * y + R[2] * z);
+            t[1] = -(R[3] * x + R[4] * y + R[5] * z);
+            t[2] = -(R[6] * x + R[7] * y + R[8] * z);
+        }
+        for (int led = 0; led < ledCount; led++) {
+            if (mActive[led]) {
+                positions[3 * led] = x0 + s * (positions[3 * led] - x0);
+                positions[3 * led + 1] = y0 + s * (positions[3 * led + 1] - y0);
+                positions[3 * led + 2] = z0 + s * (positions[3 * led + 2] - z0);
+            }
+        }
+    }
+
+    /** Camera centre in world coordinates, -R^T t */
+    private static void centre(CameraView view, double[] out, int offset) {
+        double[] R = view.rotation;
+        double[] t = view.translation;
+        out[offset] = -(R[0] * t[0] + R[3] * t[1] + R[6] * t[2]);
+        out[offset + 1] = -(R[1] * t[0] + R[4] * t[1] + R[7] * t[2]);
+        out[offset + 2] = -(R[2] * t[0] + R[5] * t[1] + R[8] * t[2]);
+    }
+
+    private static double sq(double x) {
+        return x * x;
+    }
+
+    private void save(CameraView[] views, int ledCount, double[] positions) {
+        for (int v = 0; v < views.length; v++) {
+            System.arraycopy(views[v].rotation, 0, mSavedPose, 12 * v, 9);
+            System.arraycopy(views[v].translation, 0, mSavedPose, 12 * v + 9, 3);
+        }
+        System.arraycopy(positions, 0, mSavedPositions, 0, 3 * ledCount);
+    }
+
+    private void restore(CameraView[] views, int ledCount, double[] positions) {
+        for (int v = 0; v < views.length; v++) {
+            System.arraycopy(mSavedPose, 12 * v, views[v].rotation, 0, 9);
+            System.arraycopy(mSavedPose, 12 * v + 9, views[v].translation, 0, 3);
+        }
+        System.arraycopy(mSavedPositions, 0, positions, 0, 3 * ledCount);
+    }
+}
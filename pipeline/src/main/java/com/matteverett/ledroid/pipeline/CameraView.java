@@ -0,0 +1,91 @@
+package com.matteverett.ledroid.pipeline;
+
+/**
+ * Pinhole camera for one view of the tree: intrinsics plus the pose mapping world points into
+ * the camera frame, x right, y down and z forward.
+ *
+ * World coordinates have the tree's axis as z, pointing up, with the origin at its base. Units
+ * are whatever the camera positions are given in, metres by convention.
+ */
+public final class CameraView {
+    public final double fx;
+    public final double fy;
+    public final double cx;
+    public final double cy;
+    /** World to camera rotation, row major */
+    public final double[] rotation = new double[9];
+    /** World to camera translation */
+    public final double[] translation = new double[3];
+
+    public CameraView(double fx, double fy, double cx, double cy) {
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        rotation[0] = 1;
+        rotation[4] = 1;
+        rotation[8] = 1;
+    }
+
+    /**
+     * Camera standing on a circle around the tree and facing its axis, posed from the device
+     * orientation as reported by Orientation.
+     *
+     * @param azimuthDeg Heading of the camera around the tree, degrees. The camera stands at
+     *                   (distance sin a, -distance cos a, height) and looks back at the axis.
+     * @param pitchDeg   Tilt up from horizontal, degrees.
+     * @param rollDeg    Rotation about the viewing direction, clockwise as seen by the camera.
+     * @param distance   Distance from the tree's axis.
+     * @param height     Height of the camera above the tree's base.
+     */
+    public static CameraView orbiting(double azimuthDeg, double pitchDeg, double rollDeg,
+                                      double distance, double height,
+                                      double fx, double fy, double cx, double cy) {
+        double a = Math.toRadians(azimuthDeg);
+        double p = Math.toRadians(pitchDeg);
+        double r = Math.toRadians(rollDeg);
+        double sa = Math.sin(a), ca = Math.cos(a);
+        double sp = Math.sin(p), cp = Math.cos(p);
+        double sr = Math.sin(r), cr = Math.cos(r);
+
+        // Level camera facing the axis, then pitch about its x axis and roll about its z axis
+        double[] forward = {-sa * cp, ca * cp, sp};
+        double[] right = {ca, sa, 0};
+        double[] down = {
+                forward[1] * right[2] - forward[2] * right[1],
+                forward[2] * right[0] - forward[0] * right[2],
+                forward[0] * right[1] - forward[1] * right[0]};
+
+        CameraView view = new CameraView(fx, fy, cx, cy);
+        double[] R = view.rotation;
+        for (int i = 0; i < 3; i++) {
+            R[i] = cr * right[i] - sr * down[i];
+            R[3 + i] = sr * right[i] + cr * down[i];
+            R[6 + i] = forward[i];
+        }
+        double px = distance * sa;
+        double py = -distance * ca;
+        for (int i = 0; i < 3; i++) {
+            view.translation[i] = -(R[3 * i] * px + R[3 * i + 1] * py + R[3 * i + 2] * height);
+        }
+        return view;
+    }
+
+    /**
+     * Projects a world point into the image.
+     * @param uv Receives the pixel position.
+     * @return false if the point is not in front of the camera.
+     */
+    public boolean project(double x, double y, double z, double[] uv) {
+        double[] R = rotation;
+        double pz = R[6] * x + R[7] * y + R[8] * z + translation[2];
+        if (pz <= 0) {
+            return false;
+        }
+        double px = R[0] * x + R[1] * y + R[2] * z + translation[0];
+        double py = R[3] * x + R[4] * y + R[5] * z + translation[1];
+        uv[0] = fx * px / pz + cx;
+        uv[1] = fy * py / pz + cy;
+        return true;
+    }
+}
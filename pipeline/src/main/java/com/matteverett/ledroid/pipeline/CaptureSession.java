@@ -0,0 +1,135 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * Collects the LED locations of one calibration capture: once started, the locations found in
+ * each of the next captureCount frames, which are then sent to the server as one batch.
+ *
+ * {@link #start()} may be called from any thread, for example when the server's message
+ * arrives; the capture begins with the next frame. The frames are added on the camera thread:
+ *
+ *   if (session.beginFrame()) {
+ *       for each location: session.addLocation(x, y);
+ *       if (session.endFrame()) { send the batch }
+ *   }
+ *
+ * Starting again while a capture is running restarts it. Storage is kept between captures.
+ */
+public final class CaptureSession {
+    private final int mCaptureCount;
+    private final int[] mFrameEnd;
+    private double[] mCoords = new double[1024];
+    private int mLength;
+    private int mFrames;
+    private boolean mCapturing;
+    private boolean mInFrame;
+    private volatile boolean mStartRequested;
+
+    public CaptureSession(int captureCount) {
+        if (captureCount < 1) {
+            throw new IllegalArgumentException("captureCount must be at least 1");
+        }
+        mCaptureCount = captureCount;
+        mFrameEnd = new int[captureCount];
+    }
+
+    public int captureCount() {
+        return mCaptureCount;
+    }
+
+    /**
+     * Starts a capture with the next frame. Safe to call from any thread.
+     */
+    public void start() {
+        mStartRequested = true;
+    }
+
+    /**
+     * Whether frames are being collected, or will be from the next frame.
+     */
+    public boolean isCapturing() {
+        return mCapturing || mStartRequested;
+    }
+
+    /**
+     * Starts adding a frame's locations.
+     * @return false when no capture is running, and the frame should not be added.
+     */
+    public boolean beginFrame() {
+        if (mStartRequested) {
+            mStartRequested = false;
+            mCapturing = true;
+            mFrames = 0;
+            mLength = 0;
+        }
+        mInFrame = mCapturing;
+        return mCapturing;
+    }
+
+    public void addLocation(double x, double y) {
+        if (!mInFrame) {
+            throw new IllegalStateException("addLocation() outside beginFrame()/endFrame()");
+        }
+        if (mLength + 2 > mCoords.length) {
+            mCoords = Arrays.copyOf(mCoords, mCoords.length * 2);
+        }
+        mCoords[mLength++] = x;
+        mCoords[mLength++] = y;
+    }
+
+    /**
+     * Finishes the frame.
+     * @return true if this frame completed the capture. The batch can be read until the next
+     * capture starts.
+     */
+    public boolean endFrame() {
+        if (!mInFrame) {
+            return false;
+        }
+        mInFrame = false;
+        mFrameEnd[mFrames++] = mLength;
+        if (mFrames == mCaptureCount) {
+            mCapturing = false;
+            return true;
+        }
+        return false;
+    }
+
+    /** Number of frames in the current or last capture */
+    public int frameCount() {
+        return mFrames;
+    }
+
+    public int locationCount(int frame) {
+        return (mFrameEnd[frame] - frameStart(frame)) / 2;
+    }
+
+    public double x(int frame, int location) {
+        return mCoords[frameStart(frame) + 2 * location];
+    }
+
+    public double y(int frame, int location) {
+        return mCoords[frameStart(frame) + 2 * location + 1];
+    }
+
+    /**
+     * Writes the frames of the capture into the encoder, which is reset first.
+     */
+    public void encode(LocationEncoder encoder) {
+        encoder.reset();
+        int start = 0;
+        for (int f = 0; f < mFrames; f++) {
+            encoder.beginFrame();
+            for (int i = start; i < mFrameEnd[f]; i += 2) {
+                encoder.add(mCoords[i], mCoords[i + 1]);
+            }
+            encoder.endFrame();
+            start = mFrameEnd[f];
+        }
+    }
+
+    private int frameStart(int frame) {
+        return frame == 0 ? 0 : mFrameEnd[frame - 1];
+    }
+}
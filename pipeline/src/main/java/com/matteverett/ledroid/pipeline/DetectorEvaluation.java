@@ -0,0 +1,162 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.util.Locale;
+
+/**
+ * Runs detectors over synthetic scenes and reports throughput and accuracy against the known
+ * LED positions.
+ *
+ * Frames are rendered once up front so that only detection is timed. Each detection is matched
+ * to the nearest unclaimed true LED within {@link #MATCH_RADIUS}; unmatched detections count as
+ * false positives and unmatched LEDs lower the recall.
+ *
+ * Usage: DetectorEvaluation [--width W] [--height H] [--leds N] [--frames N] [--noise SIGMA]
+ *        [--threshold T] [--seed S]
+ */
+public final class DetectorEvaluation {
+    public static final float MATCH_RADIUS = 3f;
+
+    /** Accuracy and throughput of one detector over a set of frames. */
+    public static final class Result {
+        public int frames;
+        public long nanos;
+        public long pixels;
+        public int truePositives;
+        public int falsePositives;
+        public int falseNegatives;
+        public double sumError;
+        public double maxError;
+
+        public double framesPerSecond() {
+            return nanos == 0 ? 0 : frames * 1e9 / nanos;
+        }
+
+        public double megapixelsPerSecond() {
+            return nanos == 0 ? 0 : pixels * 1e3 / nanos;
+        }
+
+        public double meanError() {
+            return truePositives == 0 ? 0 : sumError / truePositives;
+        }
+
+        public double recall() {
+            int total = truePositives + falseNegatives;
+            return total == 0 ? 1 : (double) truePositives / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d frames, %.1f fps, %.1f Mpix/s, recall %.4f, %d false positives, "
+                            + "centroid error mean %.3f px max %.3f px",
+                    frames, framesPerSecond(), megapixelsPerSecond(), recall(), falsePositives,
+                    meanError(), maxError);
+        }
+    }
+
+    private DetectorEvaluation() {
+    }
+
+    /**
+     * Renders frames from the generator and runs the detector over each.
+     * @param frames Number of distinct frames rendered; each is detected once per pass.
+     * @param passes Number of times the set of frames is detected.
+     */
+    public static Result evaluate(SceneGenerator scene, LedDetector detector, int frames, int passes) {
+        int width = scene.width();
+        int height = scene.height();
+        byte[][] data = new byte[frames][scene.frameSize()];
+        for (int i = 0; i < frames; i++) {
+            scene.render(data[i], SceneGenerator.FORMAT_NV21);
+        }
+        float[] truth = new float[2 * scene.ledCount()];
+        int truthCount = scene.truth(truth, null);
+        float[] out = new float[LedDetector.STRIDE * Math.max(64, 4 * scene.ledCount())];
+        boolean[] claimed = new boolean[truthCount];
+
+        Result result = new Result();
+        for (int pass = 0; pass < passes; pass++) {
+            for (int i = 0; i < frames; i++) {
+                long start = System.nanoTime();
+                int found = detector.detect(data[i], 0, width, height, width, out);
+                result.nanos += System.nanoTime() - start;
+                result.frames++;
+                result.pixels += (long) width * height;
+                match(truth, truthCount, out, Math.min(found, out.length / LedDetector.STRIDE),
+                        claimed, result);
+            }
+        }
+        return result;
+    }
+
+    private static void match(float[] truth, int truthCount, float[] found, int foundCount,
+                              boolean[] claimed, Result result) {
+        float radius2 = MATCH_RADIUS * MATCH_RADIUS;
+        for (int t = 0; t < truthCount; t++) {
+            claimed[t] = false;
+        }
+        for (int f = 0; f < foundCount; f++) {
+            float x = found[LedDetector.STRIDE * f];
+            float y = found[LedDetector.STRIDE * f + 1];
+            int best = -1;
+            float bestDist2 = radius2;
+            for (int t = 0; t < truthCount; t++) {
+                if (claimed[t]) {
+                    continue;
+                }
+                float dx = truth[2 * t] - x;
+                float dy = truth[2 * t + 1] - y;
+                float d2 = dx * dx + dy * dy;
+                if (d2 <= bestDist2) {
+                    bestDist2 = d2;
+                    best = t;
+                }
+            }
+            if (best < 0) {
+                result.falsePositives++;
+                continue;
+            }
+            claimed[best] = true;
+            double error = Math.sqrt(bestDist2);
+            result.truePositives++;
+            result.sumError += error;
+            result.maxError = Math.max(result.maxError, error);
+        }
+        for (int t = 0; t < truthCount; t++) {
+            if (!claimed[t]) {
+                result.falseNegatives++;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        SceneConfig config = new SceneConfig();
+        int frames = 100;
+        int threshold = 128;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--width": config.width = Integer.parseInt(value); break;
+                case "--height": config.height = Integer.parseInt(value); break;
+                case "--leds": config.ledCount = Integer.parseInt(value); break;
+                case "--frames": frames = Integer.parseInt(value); break;
+                case "--noise": config.noiseSigma = Float.parseFloat(value); break;
+                case "--threshold": threshold = Integer.parseInt(value); break;
+                case "--seed": config.seed = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        SceneGenerator scene = new SceneGenerator(config);
+        LedDetector detector = new BlobDetector(threshold, 2);
+        int distinct = Math.min(frames, 16);
+
+        // Warm up so the timed run measures compiled code
+        evaluate(scene, detector, distinct, Math.max(1, 200 / distinct));
+
+        Result result = evaluate(scene, detector, distinct, Math.max(1, frames / distinct));
+        System.out.println(String.format(Locale.ROOT, "%dx%d, %d LEDs, noise %.1f, threshold %d",
+                config.width, config.height, config.ledCount, config.noiseSigma, threshold));
+        System.out.println("BlobDetector: " + result);
+    }
+}
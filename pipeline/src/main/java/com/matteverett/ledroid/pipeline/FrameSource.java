@@ -0,0 +1,19 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequence of recorded frames for replay.
+ */
+public interface FrameSource extends Closeable {
+    int width();
+
+    int height();
+
+    /**
+     * Reads the next frame, reusing the previous frame's storage.
+     * @return The frame, or null at the end of the recording.
+     */
+    LumaFrame next() throws IOException;
+}
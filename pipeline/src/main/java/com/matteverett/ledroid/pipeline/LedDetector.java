@@ -0,0 +1,23 @@
+package com.matteverett.ledroid.pipeline;
+
+/**
+ * Finds LED blobs in a luma plane.
+ */
+public interface LedDetector {
+
+    /** Number of floats written per detected blob: x, y, area. */
+    int STRIDE = 3;
+
+    /**
+     * Detects blobs and writes their centroids and areas.
+     *
+     * @param luma   Luma plane, one byte per pixel.
+     * @param offset Index of the first pixel in luma.
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @param stride Distance in bytes between the starts of consecutive rows.
+     * @param out    Receives {@link #STRIDE} floats per blob: centroid x, centroid y, area.
+     * @return Number of blobs found. Blobs beyond the capacity of out are counted but not written.
+     */
+    int detect(byte[] luma, int offset, int width, int height, int stride, float[] out);
+}
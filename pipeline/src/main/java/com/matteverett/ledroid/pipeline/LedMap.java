@@ -0,0 +1,122 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Calibrated 3D positions of the tree's LEDs, in the world coordinates of CameraView.
+ *
+ * Stored as CSV with a header line: led, x, y, z, one LED per line, with positions in metres.
+ * LEDs that could not be solved are left out, so led is the LED's index on the string rather
+ * than its line number.
+ */
+public final class LedMap {
+    private final int[] mLeds;
+    private final double[] mPositions;
+
+    /**
+     * @param leds      Index of each LED on the string.
+     * @param positions x, y, z per LED.
+     */
+    public LedMap(int[] leds, double[] positions) {
+        if (positions.length != 3 * leds.length) {
+            throw new IllegalArgumentException("Expected " + 3 * leds.length + " coordinates, got " + positions.length);
+        }
+        mLeds = leds;
+        mPositions = positions;
+    }
+
+    /**
+     * Map of the solved LEDs of a reconstruction, e.g. Triangulator.Result.positions, skipping
+     * those with NaN positions.
+     */
+    public static LedMap fromPositions(double[] positions) {
+        int count = 0;
+        for (int i = 0; i < positions.length; i += 3) {
+            if (!Double.isNaN(positions[i])) {
+                count++;
+            }
+        }
+        int[] leds = new int[count];
+        double[] solved = new double[3 * count];
+        int n = 0;
+        for (int i = 0; i < positions.length / 3; i++) {
+            if (!Double.isNaN(positions[3 * i])) {
+                leds[n] = i;
+                System.arraycopy(positions, 3 * i, solved, 3 * n, 3);
+                n++;
+            }
+        }
+        return new LedMap(leds, solved);
+    }
+
+    public static LedMap read(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        String header = reader.readLine();
+        if (header == null || !header.trim().equals("led,x,y,z")) {
+            throw new IOException("Not an LED map, header is " + header);
+        }
+        int[] leds = new int[64];
+        double[] positions = new double[3 * 64];
+        int count = 0;
+        String line;
+        int lineNumber = 1;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length != 4) {
+                throw new IOException("Expected 4 fields on line " + lineNumber + ": " + line);
+            }
+            if (count == leds.length) {
+                leds = Arrays.copyOf(leds, 2 * count);
+                positions = Arrays.copyOf(positions, 6 * count);
+            }
+            try {
+                leds[count] = Integer.parseInt(fields[0]);
+                for (int i = 0; i < 3; i++) {
+                    positions[3 * count + i] = Double.parseDouble(fields[1 + i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad number on line " + lineNumber + ": " + line, e);
+            }
+            count++;
+        }
+        return new LedMap(Arrays.copyOf(leds, count), Arrays.copyOf(positions, 3 * count));
+    }
+
+    public void write(Writer out) throws IOException {
+        out.write("led,x,y,z\n");
+        for (int i = 0; i < mLeds.length; i++) {
+            out.write(String.format(Locale.ROOT, "%d,%.4f,%.4f,%.4f\n", mLeds[i], x(i), y(i), z(i)));
+        }
+    }
+
+    public int size() {
+        return mLeds.length;
+    }
+
+    /** Index on the string of the i-th LED in the map */
+    public int led(int i) {
+        return mLeds[i];
+    }
+
+    public double x(int i) {
+        return mPositions[3 * i];
+    }
+
+    public double y(int i) {
+        return mPositions[3 * i + 1];
+    }
+
+    public double z(int i) {
+        return mPositions[3 * i + 2];
+    }
+}
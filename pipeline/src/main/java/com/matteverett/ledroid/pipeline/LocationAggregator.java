@@ -0,0 +1,178 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Builds a map of LEDs from the blobs detected over many frames.
+ *
+ * Each blob joins the nearest LED within a radius of it, updating that LED's mean position,
+ * or starts a new LED. LEDs are found through a grid with cells the size of the radius, keyed by
+ * the cell each LED started in, so adding a blob only looks at the 3x3 neighbouring cells.
+ *
+ * Aggregators built from different frames of a session can be merged, so a session can be
+ * split across threads and the parts combined in any order.
+ */
+public final class LocationAggregator {
+    private final float mRadius;
+    private final float mRadius2;
+    private final int mCols;
+    private final int mRows;
+    private final int[] mCellHead;
+
+    private int mSize;
+    private double[] mSumX = new double[64];
+    private double[] mSumY = new double[64];
+    private long[] mHits = new long[64];
+    private long[] mFirstFrame = new long[64];
+    private long[] mLastFrame = new long[64];
+    private int[] mNext = new int[64];
+
+    /**
+     * @param width  Width of the frames the blobs come from.
+     * @param height Height of the frames the blobs come from.
+     * @param radius Blobs within this distance of an LED's mean position belong to it.
+     */
+    public LocationAggregator(int width, int height, float radius) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        mRadius = radius;
+        mRadius2 = radius * radius;
+        mCols = (int) (width / radius) + 1;
+        mRows = (int) (height / radius) + 1;
+        mCellHead = new int[mCols * mRows];
+        Arrays.fill(mCellHead, -1);
+    }
+
+    /**
+     * Adds the blobs of one frame.
+     * @param blobs Blobs in the {@link LedDetector} layout.
+     * @param frame Index of the frame in the session.
+     */
+    public void add(float[] blobs, int count, long frame) {
+        for (int i = 0; i < count; i++) {
+            add(blobs[i * LedDetector.STRIDE], blobs[i * LedDetector.STRIDE + 1], 1, frame, frame);
+        }
+    }
+
+    /**
+     * Adds the LEDs of another aggregator of the same frame size and radius.
+     */
+    public void merge(LocationAggregator other) {
+        for (int i = 0; i < other.mSize; i++) {
+            long hits = other.mHits[i];
+            add(other.mSumX[i] / hits, other.mSumY[i] / hits, hits, other.mFirstFrame[i], other.mLastFrame[i]);
+        }
+    }
+
+    /** Number of LEDs found */
+    public int size() {
+        return mSize;
+    }
+
+    public double x(int led) {
+        return mSumX[led] / mHits[led];
+    }
+
+    public double y(int led) {
+        return mSumY[led] / mHits[led];
+    }
+
+    /** Number of blobs that made up the LED */
+    public long hits(int led) {
+        return mHits[led];
+    }
+
+    public long firstFrame(int led) {
+        return mFirstFrame[led];
+    }
+
+    public long lastFrame(int led) {
+        return mLastFrame[led];
+    }
+
+    /**
+     * Writes the LEDs seen at least minHits times as CSV, ordered by the frame they first
+     * appeared in: index, x, y, hits, first frame, last frame.
+     * @return Number of LEDs written.
+     */
+    public int write(Writer out, long minHits) throws IOException {
+        Integer[] order = new Integer[mSize];
+        for (int i = 0; i < mSize; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> mFirstFrame[a] != mFirstFrame[b]
+                ? Long.compare(mFirstFrame[a], mFirstFrame[b])
+                : Double.compare(y(a), y(b)));
+
+        out.write("led,x,y,hits,firstFrame,lastFrame\n");
+        int written = 0;
+        for (int led : order) {
+            if (mHits[led] < minHits) {
+                continue;
+            }
+            out.write(String.format(Locale.ROOT, "%d,%.3f,%.3f,%d,%d,%d\n",
+                    written, x(led), y(led), mHits[led], mFirstFrame[led], mLastFrame[led]));
+            written++;
+        }
+        return written;
+    }
+
+    private void add(double x, double y, long hits, long firstFrame, long lastFrame) {
+        int cx = clamp((int) (x / mRadius), mCols);
+        int cy = clamp((int) (y / mRadius), mRows);
+
+        int best = -1;
+        double bestDist2 = mRadius2;
+        for (int gy = Math.max(0, cy - 1); gy <= Math.min(mRows - 1, cy + 1); gy++) {
+            for (int gx = Math.max(0, cx - 1); gx <= Math.min(mCols - 1, cx + 1); gx++) {
+                for (int led = mCellHead[gy * mCols + gx]; led >= 0; led = mNext[led]) {
+                    double dx = x(led) - x;
+                    double dy = y(led) - y;
+                    double d2 = dx * dx + dy * dy;
+                    if (d2 <= bestDist2) {
+                        bestDist2 = d2;
+                        best = led;
+                    }
+                }
+            }
+        }
+
+        if (best < 0) {
+            if (mSize == mHits.length) {
+                grow();
+            }
+            best = mSize++;
+            int cell = cy * mCols + cx;
+            mNext[best] = mCellHead[cell];
+            mCellHead[cell] = best;
+            mHits[best] = 0;
+            mSumX[best] = 0;
+            mSumY[best] = 0;
+            mFirstFrame[best] = firstFrame;
+            mLastFrame[best] = lastFrame;
+        }
+        mSumX[best] += x * hits;
+        mSumY[best] += y * hits;
+        mHits[best] += hits;
+        mFirstFrame[best] = Math.min(mFirstFrame[best], firstFrame);
+        mLastFrame[best] = Math.max(mLastFrame[best], lastFrame);
+    }
+
+    private static int clamp(int cell, int cells) {
+        return cell < 0 ? 0 : (cell >= cells ? cells - 1 : cell);
+    }
+
+    private void grow() {
+        int size = mHits.length * 2;
+        mSumX = Arrays.copyOf(mSumX, size);
+        mSumY = Arrays.copyOf(mSumY, size);
+        mHits = Arrays.copyOf(mHits, size);
+        mFirstFrame = Arrays.copyOf(mFirstFrame, size);
+        mLastFrame = Arrays.copyOf(mLastFrame, size);
+        mNext = Arrays.copyOf(mNext, size);
+    }
+}
@@ -0,0 +1,226 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Encodes captured LED locations into the calibration server's data message:
+ *
+ *   {"type":"data","locations":[[x0,y0,x1,y1,...],[...],...]}
+ *
+ * with one inner array per captured frame and every coordinate written with six decimal places,
+ * the same text String.format("%f") produces. The message is built directly into a byte buffer
+ * that is reused between messages, without intermediate strings or a Formatter.
+ *
+ * When the device orientation is set, it follows the locations as
+ * "orientation":[azimuth,pitch,roll] in degrees, so the server can tell the views of a
+ * multi-view capture apart. When the camera's pose has been tracked against the LED map it
+ * follows as "pose":[rx,ry,rz,tx,ty,tz], the world to camera rotation vector and translation.
+ *
+ * Usage: reset(), then beginFrame(), add() for each location and endFrame() for each frame,
+ * optionally setOrientation() and setPose(), then toByteArray().
+ */
+public final class LocationEncoder {
+    private static final byte[] HEADER =
+            "{\"type\":\"data\",\"locations\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ORIENTATION =
+            ",\"orientation\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] POSE =
+            ",\"pose\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final int DECIMALS = 6;
+    private static final long SCALE = 1000000L;
+    // Beyond this the fraction has too few bits for six decimals, leave those to the slow path
+    private static final double FAST_LIMIT = 1e9;
+    // Formatter rounds the shortest decimal representation half up, which can differ from
+    // rounding the binary value when it lies this close to halfway between two outputs
+    private static final double TIE_WINDOW = 1e-3;
+
+    private byte[] mBuffer = new byte[4096];
+    private int mLength;
+    private boolean mFirstFrame;
+    private boolean mFirstValue;
+    private boolean mHasOrientation;
+    private double mAzimuth;
+    private double mPitch;
+    private double mRoll;
+    private boolean mHasPose;
+    private final double[] mPose = new double[6];
+
+    public LocationEncoder() {
+        reset();
+    }
+
+    /**
+     * Starts a new message, discarding anything encoded so far.
+     */
+    public LocationEncoder reset() {
+        mLength = 0;
+        append(HEADER);
+        mFirstFrame = true;
+        mHasOrientation = false;
+        mHasPose = false;
+        return this;
+    }
+
+    public void beginFrame() {
+        if (!mFirstFrame) {
+            append((byte) ',');
+        }
+        mFirstFrame = false;
+        mFirstValue = true;
+        append((byte) '[');
+    }
+
+    public void add(double x, double y) {
+        if (!mFirstValue) {
+            append((byte) ',');
+        }
+        mFirstValue = false;
+        appendFixed(x);
+        append((byte) ',');
+        appendFixed(y);
+    }
+
+    public void endFrame() {
+        append((byte) ']');
+    }
+
+    /**
+     * Adds the device orientation the locations were captured at, in degrees.
+     */
+    public void setOrientation(double azimuth, double pitch, double roll) {
+        mHasOrientation = true;
+        mAzimuth = azimuth;
+        mPitch = pitch;
+        mRoll = roll;
+    }
+
+    /**
+     * Adds the camera pose the locations were captured at.
+     * @param rotation    World to camera rotation vector.
+     * @param translation World to camera translation, metres.
+     */
+    public void setPose(double[] rotation, double[] translation) {
+        mHasPose = true;
+        System.arraycopy(rotation, 0, mPose, 0, 3);
+        System.arraycopy(translation, 0, mPose, 3, 3);
+    }
+
+    /**
+     * Number of bytes in the message once closed by {@link #toByteArray()}.
+     */
+    public int length() {
+        int length = mLength;
+        int closed = close();
+        mLength = length;
+        return closed;
+    }
+
+    /**
+     * Closes the message and returns a copy of it. The encoder must be reset before reuse.
+     */
+    public byte[] toByteArray() {
+        int length = mLength;
+        byte[] out = Arrays.copyOf(mBuffer, close());
+        mLength = length;
+        return out;
+    }
+
+    /**
+     * Appends the end of the message, returning its length. The caller restores mLength so
+     * that more frames can still be added.
+     */
+    private int close() {
+        append((byte) ']');
+        if (mHasOrientation) {
+            append(ORIENTATION);
+            appendFixed(mAzimuth);
+            append((byte) ',');
+            appendFixed(mPitch);
+            append((byte) ',');
+            appendFixed(mRoll);
+            append((byte) ']');
+        }
+        if (mHasPose) {
+            append(POSE);
+            for (int i = 0; i < mPose.length; i++) {
+                if (i > 0) {
+                    append((byte) ',');
+                }
+                appendFixed(mPose[i]);
+            }
+            append((byte) ']');
+        }
+        append((byte) '}');
+        return mLength;
+    }
+
+    private void appendFixed(double value) {
+        double abs = Math.abs(value);
+        if (!(abs < FAST_LIMIT)) {
+            appendFormatted(value);
+            return;
+        }
+        long whole = (long) abs;
+        double scaled = (abs - whole) * SCALE;
+        double floor = Math.floor(scaled);
+        if (Math.abs(scaled - floor - 0.5) < TIE_WINDOW) {
+            appendFormatted(value);
+            return;
+        }
+
+        boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+        long fraction = (long) floor + (scaled - floor > 0.5 ? 1 : 0);
+        if (fraction == SCALE) {
+            whole++;
+            fraction = 0;
+        }
+
+        ensure(1 + 20 + 1 + DECIMALS);
+        if (negative) {
+            mBuffer[mLength++] = '-';
+        }
+        appendDigits(whole);
+        mBuffer[mLength++] = '.';
+        for (int i = DECIMALS - 1; i >= 0; i--) {
+            mBuffer[mLength + i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        mLength += DECIMALS;
+    }
+
+    private void appendFormatted(double value) {
+        append(String.format(Locale.ENGLISH, "%f", value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void appendDigits(long value) {
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            mBuffer[mLength + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        mLength += digits;
+    }
+
+    private void append(byte b) {
+        ensure(1);
+        mBuffer[mLength++] = b;
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mLength, bytes.length);
+        mLength += bytes.length;
+    }
+
+    private void ensure(int extra) {
+        int needed = mLength + extra;
+        if (needed > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(needed, mBuffer.length * 2));
+        }
+    }
+}
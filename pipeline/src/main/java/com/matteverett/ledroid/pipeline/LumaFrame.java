@@ -0,0 +1,34 @@
+package com.matteverett.ledroid.pipeline;
+
+/**
+ * A camera frame's luma plane and metadata, the plain Java counterpart of OpenCV's
+ * CvCameraViewFrame for code that runs without Android.
+ *
+ * Frames from a {@link FrameSource} are only valid until the next frame is read.
+ */
+public interface LumaFrame {
+    /** Luma plane, one byte per pixel */
+    byte[] data();
+
+    /** Index of the first pixel in data() */
+    int offset();
+
+    /** Distance in bytes between the starts of consecutive rows */
+    int stride();
+
+    int width();
+
+    int height();
+
+    /** Time the frame was exposed, ns */
+    long timestamp();
+
+    /** Number of the frame in the camera stream, with gaps where frames were dropped */
+    long sequence();
+
+    /** Time the frame reached the camera view, ns */
+    long arrivalTime();
+
+    /** Frames dropped by the camera up to this one */
+    long droppedFrames();
+}
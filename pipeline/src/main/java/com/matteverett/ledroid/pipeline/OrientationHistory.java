@@ -0,0 +1,205 @@
+package com.matteverett.ledroid.pipeline;
+
+/**
+ * Recent timestamped device rotations, for looking up the device's attitude at the time a
+ * camera frame was exposed rather than whenever the last sensor event happened to arrive.
+ *
+ * Rotations are kept as unit quaternions in a fixed ring, so adding a sample or querying does
+ * not allocate. A query between two samples is interpolated with slerp; one outside the held
+ * samples is clamped to the nearest, as the sensor usually lags the camera by a few ms and
+ * extrapolating would only add noise. Callers can limit how far past the newest sample that
+ * clamping goes.
+ *
+ * Rotation matrices are 3x3 row-major, as used by android.hardware.SensorManager. Timestamps
+ * are in ns and must be added in increasing order. Safe to add from one thread and query from
+ * another.
+ */
+public final class OrientationHistory {
+    /** Below this angle between samples slerp is replaced by a normalized lerp */
+    private static final double SLERP_THRESHOLD = 0.9995;
+
+    private final long[] mTimestamps;
+    // w, x, y, z per sample
+    private final double[] mQuaternions;
+    private int mHead = 0;
+    private int mCount = 0;
+    private final double[] mQuaternion = new double[4];
+
+    /**
+     * @param capacity Number of samples held, e.g. a second's worth at the sensor rate.
+     */
+    public OrientationHistory(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        mTimestamps = new long[capacity];
+        mQuaternions = new double[4 * capacity];
+    }
+
+    /**
+     * @param timestampNs Time of the sample.
+     * @param rotation    Rotation matrix, 9 floats.
+     */
+    public synchronized void add(long timestampNs, float[] rotation) {
+        if (mCount > 0 && timestampNs <= mTimestamps[index(mCount - 1)]) {
+            return;
+        }
+        int slot = mHead;
+        int q = 4 * slot;
+        toQuaternion(rotation, mQuaternions, q);
+        if (mCount > 0) {
+            // Keep neighbouring samples in the same hemisphere so slerp takes the short way round
+            int p = 4 * index(mCount - 1);
+            double dot = mQuaternions[p] * mQuaternions[q] + mQuaternions[p + 1] * mQuaternions[q + 1]
+                    + mQuaternions[p + 2] * mQuaternions[q + 2] + mQuaternions[p + 3] * mQuaternions[q + 3];
+            if (dot < 0) {
+                for (int k = 0; k < 4; k++) {
+                    mQuaternions[q + k] = -mQuaternions[q + k];
+                }
+            }
+        }
+        mTimestamps[slot] = timestampNs;
+        mHead = (mHead + 1) % mTimestamps.length;
+        if (mCount < mTimestamps.length) {
+            mCount++;
+        }
+    }
+
+    /**
+     * Forgets all samples, e.g. when the display rotation changes the device axes.
+     */
+    public synchronized void clear() {
+        mHead = 0;
+        mCount = 0;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Interpolates the rotation at a time.
+     * @param timestampNs Time to look up, on the same time base as the samples.
+     * @param rotation    Receives the rotation matrix, 9 floats.
+     * @return false when there are no samples yet.
+     */
+    public boolean rotationAt(long timestampNs, float[] rotation) {
+        return rotationAt(timestampNs, Long.MAX_VALUE, rotation);
+    }
+
+    /**
+     * Interpolates the rotation at a time, unless the newest sample is too old to stand in for
+     * it, e.g. while the sensor is holding back a batch of newer samples.
+     * @param timestampNs Time to look up, on the same time base as the samples.
+     * @param maxAgeNs    Longest time after the newest sample that is still clamped to it.
+     * @param rotation    Receives the rotation matrix, 9 floats.
+     * @return false when there are no samples yet or the newest is more than maxAgeNs older
+     *         than timestampNs.
+     */
+    public synchronized boolean rotationAt(long timestampNs, long maxAgeNs, float[] rotation) {
+        if (mCount == 0) {
+            return false;
+        }
+        if (timestampNs - mTimestamps[index(mCount - 1)] > maxAgeNs) {
+            return false;
+        }
+
+        // Queries are usually for recent frames, so search back from the newest sample
+        int after = mCount - 1;
+        while (after > 0 && mTimestamps[index(after - 1)] >= timestampNs) {
+            after--;
+        }
+        int a = index(after);
+        if (after == 0 || mTimestamps[a] <= timestampNs) {
+            // Before the oldest or after the newest sample
+            toMatrix(mQuaternions, 4 * a, rotation);
+            return true;
+        }
+        int b = index(after - 1);
+        long t0 = mTimestamps[b];
+        double t = (double) (timestampNs - t0) / (mTimestamps[a] - t0);
+        slerp(mQuaternions, 4 * b, 4 * a, t, mQuaternion);
+        toMatrix(mQuaternion, 0, rotation);
+        return true;
+    }
+
+    /** Slot of the i-th oldest sample */
+    private int index(int i) {
+        int slot = mHead - mCount + i;
+        return slot < 0 ? slot + mTimestamps.length : slot;
+    }
+
+    static void slerp(double[] q, int from, int to, double t, double[] out) {
+        double dot = q[from] * q[to] + q[from + 1] * q[to + 1] + q[from + 2] * q[to + 2] + q[from + 3] * q[to + 3];
+        double wa, wb;
+        if (dot > SLERP_THRESHOLD) {
+            wa = 1 - t;
+            wb = t;
+        } else {
+            double theta = Math.acos(Math.min(1, dot));
+            double sin = Math.sin(theta);
+            wa = Math.sin((1 - t) * theta) / sin;
+            wb = Math.sin(t * theta) / sin;
+        }
+        double norm = 0;
+        for (int k = 0; k < 4; k++) {
+            out[k] = wa * q[from + k] + wb * q[to + k];
+            norm += out[k] * out[k];
+        }
+        norm = Math.sqrt(norm);
+        for (int k = 0; k < 4; k++) {
+            out[k] /= norm;
+        }
+    }
+
+    static void toQuaternion(float[] r, double[] q, int offset) {
+        double trace = r[0] + r[4] + r[8];
+        double w, x, y, z;
+        if (trace > 0) {
+            double s = 2 * Math.sqrt(trace + 1);
+            w = s / 4;
+            x = (r[7] - r[5]) / s;
+            y = (r[2] - r[6]) / s;
+            z = (r[3] - r[1]) / s;
+        } else if (r[0] > r[4] && r[0] > r[8]) {
+            double s = 2 * Math.sqrt(1 + r[0] - r[4] - r[8]);
+            w = (r[7] - r[5]) / s;
+            x = s / 4;
+            y = (r[1] + r[3]) / s;
+            z = (r[2] + r[6]) / s;
+        } else if (r[4] > r[8]) {
+            double s = 2 * Math.sqrt(1 + r[4] - r[0] - r[8]);
+            w = (r[2] - r[6]) / s;
+            x = (r[1] + r[3]) / s;
+            y = s / 4;
+            z = (r[5] + r[7]) / s;
+        } else {
+            double s = 2 * Math.sqrt(1 + r[8] - r[0] - r[4]);
+            w = (r[3] - r[1]) / s;
+            x = (r[2] + r[6]) / s;
+            y = (r[5] + r[7]) / s;
+            z = s / 4;
+        }
+        double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+        q[offset] = w / norm;
+        q[offset + 1] = x / norm;
+        q[offset + 2] = y / norm;
+        q[offset + 3] = z / norm;
+    }
+
+    static void toMatrix(double[] q, int offset, float[] r) {
+        double w = q[offset];
+        double x = q[offset + 1];
+        double y = q[offset + 2];
+        double z = q[offset + 3];
+        r[0] = (float) (1 - 2 * (y * y + z * z));
+        r[1] = (float) (2 * (x * y - w * z));
+        r[2] = (float) (2 * (x * z + w * y));
+        r[3] = (float) (2 * (x * y + w * z));
+        r[4] = (float) (1 - 2 * (x * x + z * z));
+        r[5] = (float) (2 * (y * z - w * x));
+        r[6] = (float) (2 * (x * z - w * y));
+        r[7] = (float) (2 * (y * z + w * x));
+        r[8] = (float) (1 - 2 * (x * x + y * y));
+    }
+}
@@ -0,0 +1,102 @@
+package com.matteverett.ledroid.pipeline;
+
+/**
+ * Matches the blobs detected in a frame to LEDs of a calibrated map, for solving the camera's
+ * pose from the matches.
+ *
+ * The map is projected through a predicted pose, usually the last frame's, and each blob is
+ * matched one to one to the nearest projected LED within a radius with BlobAssociator. The
+ * prediction only needs to be good to within the radius; the pose is then solved from the
+ * matches, which is left to the caller.
+ *
+ * Matches are written to reused arrays, so a frame does not allocate once they have grown.
+ */
+public final class PoseMatcher {
+    private final BlobAssociator mAssociator;
+    private final double[] mUv = new double[2];
+
+    private float[] mProjected = new float[0];
+    private int[] mProjectedIndex = new int[0];
+    private int[] mMatch = new int[0];
+
+    private int mCount;
+    private int[] mIndex = new int[0];
+    private double[] mObjectPoints = new double[0];
+    private double[] mImagePoints = new double[0];
+
+    /**
+     * @param radius Largest distance in pixels between a blob and its LED's predicted position.
+     */
+    public PoseMatcher(float radius) {
+        mAssociator = new BlobAssociator(radius);
+    }
+
+    /**
+     * @param view   Predicted camera.
+     * @param width  Frame width, LEDs projecting outside the frame are not matched.
+     * @param height Frame height.
+     * @param blobs  Detected blobs in the {@link LedDetector} layout.
+     * @return Number of matches.
+     */
+    public int match(CameraView view, LedMap map, int width, int height, float[] blobs, int blobCount) {
+        final int stride = LedDetector.STRIDE;
+        int size = map.size();
+        if (mProjectedIndex.length < size) {
+            mProjected = new float[stride * size];
+            mProjectedIndex = new int[size];
+        }
+        int projected = 0;
+        for (int i = 0; i < size; i++) {
+            if (!view.project(map.x(i), map.y(i), map.z(i), mUv)
+                    || mUv[0] < 0 || mUv[0] >= width || mUv[1] < 0 || mUv[1] >= height) {
+                continue;
+            }
+            mProjected[stride * projected] = (float) mUv[0];
+            mProjected[stride * projected + 1] = (float) mUv[1];
+            mProjectedIndex[projected] = i;
+            projected++;
+        }
+
+        if (mMatch.length < blobCount) {
+            mMatch = new int[blobCount];
+            mIndex = new int[blobCount];
+            mObjectPoints = new double[3 * blobCount];
+            mImagePoints = new double[2 * blobCount];
+        }
+        mAssociator.associate(mProjected, projected, blobs, blobCount, mMatch);
+        mCount = 0;
+        for (int b = 0; b < blobCount; b++) {
+            if (mMatch[b] < 0) {
+                continue;
+            }
+            int i = mProjectedIndex[mMatch[b]];
+            mIndex[mCount] = i;
+            mObjectPoints[3 * mCount] = map.x(i);
+            mObjectPoints[3 * mCount + 1] = map.y(i);
+            mObjectPoints[3 * mCount + 2] = map.z(i);
+            mImagePoints[2 * mCount] = blobs[stride * b];
+            mImagePoints[2 * mCount + 1] = blobs[stride * b + 1];
+            mCount++;
+        }
+        return mCount;
+    }
+
+    public int count() {
+        return mCount;
+    }
+
+    /** Index in the map of the k-th match's LED */
+    public int index(int k) {
+        return mIndex[k];
+    }
+
+    /** x, y, z of each match's LED, valid up to count() */
+    public double[] objectPoints() {
+        return mObjectPoints;
+    }
+
+    /** u, v of each match's blob, valid up to count() */
+    public double[] imagePoints() {
+        return mImagePoints;
+    }
+}
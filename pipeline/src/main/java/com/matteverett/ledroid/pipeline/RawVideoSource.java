@@ -0,0 +1,86 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads headerless video: back to back frames of a fixed size, each a luma plane optionally
+ * followed by 4:2:0 chroma, as in Y8, I420, NV12 and NV21 dumps. Frames are timed at a fixed
+ * rate since the file carries no timestamps.
+ */
+public final class RawVideoSource implements FrameSource {
+    private final DataInputStream mInput;
+    private final ReplayFrame mFrame;
+    private final int mChromaSize;
+    private final double mFrameNs;
+    private long mSequence;
+
+    /**
+     * @param chroma Whether each frame is followed by 4:2:0 chroma planes, which are skipped.
+     * @param fps    Frame rate used for the timestamps.
+     */
+    public RawVideoSource(File file, int width, int height, boolean chroma, double fps) throws IOException {
+        this(new FileInputStream(file), width, height, chroma, fps);
+    }
+
+    public RawVideoSource(InputStream input, int width, int height, boolean chroma, double fps) {
+        mInput = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+        mFrame = new ReplayFrame(width, height);
+        mChromaSize = chroma ? 2 * ((width + 1) / 2) * ((height + 1) / 2) : 0;
+        mFrameNs = 1e9 / fps;
+    }
+
+    @Override
+    public int width() {
+        return mFrame.mWidth;
+    }
+
+    @Override
+    public int height() {
+        return mFrame.mHeight;
+    }
+
+    @Override
+    public LumaFrame next() throws IOException {
+        if (!readFrame(mInput, mFrame.mData, mChromaSize)) {
+            return null;
+        }
+        long timestamp = Math.round(mSequence * mFrameNs);
+        mFrame.set(timestamp, mSequence, timestamp, 0);
+        mSequence++;
+        return mFrame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    /**
+     * Reads a luma plane and skips the chroma after it.
+     * @return false at a clean end of stream.
+     * @throws EOFException if the stream ends part way through a frame.
+     */
+    static boolean readFrame(DataInputStream input, byte[] luma, int chromaSize) throws IOException {
+        int first = input.read();
+        if (first < 0) {
+            return false;
+        }
+        luma[0] = (byte) first;
+        input.readFully(luma, 1, luma.length - 1);
+        int skipped = 0;
+        while (skipped < chromaSize) {
+            int n = input.skipBytes(chromaSize - skipped);
+            if (n <= 0) {
+                throw new EOFException("Truncated frame");
+            }
+            skipped += n;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Feeds the frames of a recording to a consumer, either as fast as the consumer takes them or
+ * paced to the recorded timestamps.
+ *
+ * Real-time replay reproduces the timing the device saw, including how a slow consumer falls
+ * behind. Frames are never skipped; frames delivered after their due time are counted as late.
+ */
+public final class Replay {
+
+    /** Receives each frame on the replay thread */
+    public interface FrameConsumer {
+        void onFrame(LumaFrame frame);
+    }
+
+    /** Counts and timings of a replay */
+    public static final class Stats {
+        public int frames;
+        public int lateFrames;
+        public long elapsedNs;
+        public long consumerNs;
+        public long maxConsumerNs;
+
+        public double framesPerSecond() {
+            return elapsedNs == 0 ? 0 : frames * 1e9 / elapsedNs;
+        }
+
+        /** Frame rate the consumer alone could sustain */
+        public double consumerFramesPerSecond() {
+            return consumerNs == 0 ? 0 : frames * 1e9 / consumerNs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d frames in %.3f s, %.1f fps, consumer %.1f fps, mean %.3f ms, max %.3f ms, %d late",
+                    frames, elapsedNs / 1e9, framesPerSecond(), consumerFramesPerSecond(),
+                    frames == 0 ? 0 : consumerNs / 1e6 / frames, maxConsumerNs / 1e6, lateFrames);
+        }
+    }
+
+    private final FrameSource mSource;
+    private final boolean mRealTime;
+
+    public Replay(FrameSource source, boolean realTime) {
+        mSource = source;
+        mRealTime = realTime;
+    }
+
+    /**
+     * Opens a recording by its extension: .ring for ring files, .y4m for YUV4MPEG2 and anything
+     * else as headerless video of the given size.
+     * @param chroma For headerless video, whether frames carry 4:2:0 chroma after the luma.
+     * @param fps    For headerless video, the frame rate.
+     */
+    public static FrameSource open(File file, int width, int height, boolean chroma, double fps) throws IOException {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".ring")) {
+            return new RingFileReader(file);
+        }
+        if (name.endsWith(".y4m")) {
+            return new Y4mSource(file);
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Frame size needed for " + file);
+        }
+        return new RawVideoSource(file, width, height, chroma, fps);
+    }
+
+    /**
+     * Replays every frame of the source into the consumer.
+     */
+    public Stats run(FrameConsumer consumer) throws IOException {
+        Stats stats = new Stats();
+        long start = System.nanoTime();
+        long firstTimestamp = 0;
+        LumaFrame frame;
+        while ((frame = mSource.next()) != null) {
+            if (mRealTime) {
+                if (stats.frames == 0) {
+                    firstTimestamp = frame.timestamp();
+                }
+                long due = start + (frame.timestamp() - firstTimestamp);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    sleep(wait);
+                } else if (wait < -1000000) {
+                    stats.lateFrames++;
+                }
+            }
+
+            long t = System.nanoTime();
+            consumer.onFrame(frame);
+            long took = System.nanoTime() - t;
+            stats.consumerNs += took;
+            stats.maxConsumerNs = Math.max(stats.maxConsumerNs, took);
+            stats.frames++;
+        }
+        stats.elapsedNs = System.nanoTime() - start;
+        return stats;
+    }
+
+    private static void sleep(long ns) {
+        try {
+            Thread.sleep(ns / 1000000, (int) (ns % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.matteverett.ledroid.pipeline;
+
+/**
+ * Mutable {@link LumaFrame} filled in by the frame sources. The luma plane is stored tightly
+ * packed from the start of the array.
+ */
+final class ReplayFrame implements LumaFrame {
+    final byte[] mData;
+    final int mWidth;
+    final int mHeight;
+    long mTimestamp;
+    long mSequence;
+    long mArrivalTime;
+    long mDroppedFrames;
+
+    ReplayFrame(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mData = new byte[width * height];
+    }
+
+    void set(long timestamp, long sequence, long arrivalTime, long droppedFrames) {
+        mTimestamp = timestamp;
+        mSequence = sequence;
+        mArrivalTime = arrivalTime;
+        mDroppedFrames = droppedFrames;
+    }
+
+    @Override
+    public byte[] data() {
+        return mData;
+    }
+
+    @Override
+    public int offset() {
+        return 0;
+    }
+
+    @Override
+    public int stride() {
+        return mWidth;
+    }
+
+    @Override
+    public int width() {
+        return mWidth;
+    }
+
+    @Override
+    public int height() {
+        return mHeight;
+    }
+
+    @Override
+    public long timestamp() {
+        return mTimestamp;
+    }
+
+    @Override
+    public long sequence() {
+        return mSequence;
+    }
+
+    @Override
+    public long arrivalTime() {
+        return mArrivalTime;
+    }
+
+    @Override
+    public long droppedFrames() {
+        return mDroppedFrames;
+    }
+}
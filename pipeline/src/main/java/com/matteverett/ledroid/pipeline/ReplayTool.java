@@ -0,0 +1,137 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Replays a recording through LED detection and capture batching, the same steps the app runs
+ * on camera frames, and reports throughput and what was detected.
+ *
+ * Detection uses {@link BlobDetector} in place of the app's OpenCV threshold and contours.
+ * Captures run back to back from the first frame, and each completed capture's data message
+ * can be written to a file, one per line, to compare runs.
+ *
+ * Usage: ReplayTool recording [--size WxH] [--chroma] [--fps N] [--realtime]
+ *        [--threshold T] [--min-area N] [--capture-count N] [--out messages.txt]
+ */
+public final class ReplayTool {
+
+    private ReplayTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayTool recording [--size WxH] [--chroma] [--fps N] [--realtime]"
+                    + " [--threshold T] [--min-area N] [--capture-count N] [--out messages.txt]");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        int width = 0;
+        int height = 0;
+        boolean chroma = false;
+        double fps = 30;
+        boolean realTime = false;
+        int threshold = 251;
+        int minArea = 1;
+        int captureCount = 20;
+        File out = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--size": {
+                    String[] size = args[++i].split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                    break;
+                }
+                case "--chroma": chroma = true; break;
+                case "--fps": fps = Double.parseDouble(args[++i]); break;
+                case "--realtime": realTime = true; break;
+                case "--threshold": threshold = Integer.parseInt(args[++i]); break;
+                case "--min-area": minArea = Integer.parseInt(args[++i]); break;
+                case "--capture-count": captureCount = Integer.parseInt(args[++i]); break;
+                case "--out": out = new File(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        FrameSource source = Replay.open(input, width, height, chroma, fps);
+        OutputStream messages = out != null ? new FileOutputStream(out) : null;
+        try {
+            DetectionConsumer consumer = new DetectionConsumer(new BlobDetector(threshold, minArea),
+                    new CaptureSession(captureCount), messages);
+            Replay.Stats stats = new Replay(source, realTime).run(consumer);
+            System.out.println(input + ": " + source.width() + "x" + source.height());
+            System.out.println(stats);
+            System.out.println(String.format(Locale.ROOT,
+                    "%.1f LEDs per frame, %d captures completed",
+                    stats.frames == 0 ? 0 : (double) consumer.mLocations / stats.frames, consumer.mCaptures));
+        } finally {
+            source.close();
+            if (messages != null) {
+                messages.close();
+            }
+        }
+    }
+
+    /**
+     * Detection and capture batching for each replayed frame.
+     */
+    static final class DetectionConsumer implements Replay.FrameConsumer {
+        private final LedDetector mDetector;
+        private final CaptureSession mSession;
+        private final OutputStream mMessages;
+        private final LocationEncoder mEncoder = new LocationEncoder();
+        private float[] mBlobs = new float[LedDetector.STRIDE * 256];
+        long mLocations;
+        int mCaptures;
+
+        DetectionConsumer(LedDetector detector, CaptureSession session, OutputStream messages) {
+            mDetector = detector;
+            mSession = session;
+            mMessages = messages;
+            mSession.start();
+        }
+
+        @Override
+        public void onFrame(LumaFrame frame) {
+            int count = mDetector.detect(frame.data(), frame.offset(), frame.width(), frame.height(),
+                    frame.stride(), mBlobs);
+            if (count * LedDetector.STRIDE > mBlobs.length) {
+                mBlobs = new float[count * LedDetector.STRIDE * 2];
+                count = mDetector.detect(frame.data(), frame.offset(), frame.width(), frame.height(),
+                        frame.stride(), mBlobs);
+            }
+            mLocations += count;
+
+            if (mSession.beginFrame()) {
+                for (int i = 0; i < count; i++) {
+                    // Screen to simple coordinates, as MainActivity.fromScreen
+                    float x = mBlobs[i * LedDetector.STRIDE];
+                    float y = mBlobs[i * LedDetector.STRIDE + 1];
+                    mSession.addLocation(frame.width() - y, x);
+                }
+                if (mSession.endFrame()) {
+                    mCaptures++;
+                    writeMessage();
+                    mSession.start();
+                }
+            }
+        }
+
+        private void writeMessage() {
+            if (mMessages == null) {
+                return;
+            }
+            mSession.encode(mEncoder);
+            try {
+                mMessages.write(mEncoder.toByteArray());
+                mMessages.write('\n');
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
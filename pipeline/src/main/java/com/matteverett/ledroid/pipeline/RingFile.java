@@ -0,0 +1,66 @@
+package com.matteverett.ledroid.pipeline;
+
+/**
+ * Layout of a frame ring file, as written by {@link RingFileWriter}.
+ *
+ * The file is a fixed size header followed by a fixed number of equally sized slots, each
+ * holding one frame. Frames are written to the slots in turn, overwriting the oldest, so a
+ * file holds the last slotCount frames. All values are little endian.
+ *
+ * Header, {@link #HEADER_SIZE} bytes:
+ *
+ *   0  8 bytes  magic "LEDRING" followed by a zero byte
+ *   8  int      version
+ *   12 int      format, {@link #FORMAT_Y8} or {@link #FORMAT_I420}
+ *   16 int      width
+ *   20 int      height
+ *   24 int      slotCount
+ *   28 int      slotSize in bytes, slot header included
+ *   32 long     frames written in total; the slots hold frames max(0, written - slotCount)
+ *               to written - 1, frame n in slot n % slotCount
+ *
+ * Slot, {@link #SLOT_HEADER_SIZE} bytes of metadata followed by the frame:
+ *
+ *   0  long     sequence number in the camera stream
+ *   8  long     timestamp, ns
+ *   16 long     arrival time, ns
+ *   24 long     frames dropped by the camera before this one
+ *   32 bytes    frame, luma plane then for I420 the U and V planes
+ */
+public final class RingFile {
+    public static final byte[] MAGIC = {'L', 'E', 'D', 'R', 'I', 'N', 'G', 0};
+    public static final int VERSION = 1;
+
+    /** Luma plane only */
+    public static final int FORMAT_Y8 = 0;
+    /** Luma plane followed by quarter size U and V planes */
+    public static final int FORMAT_I420 = 1;
+
+    public static final int HEADER_SIZE = 64;
+    public static final int SLOT_HEADER_SIZE = 32;
+
+    static final int OFFSET_VERSION = 8;
+    static final int OFFSET_FORMAT = 12;
+    static final int OFFSET_WIDTH = 16;
+    static final int OFFSET_HEIGHT = 20;
+    static final int OFFSET_SLOT_COUNT = 24;
+    static final int OFFSET_SLOT_SIZE = 28;
+    static final int OFFSET_WRITTEN = 32;
+
+    private RingFile() {
+    }
+
+    /**
+     * Size in bytes of one frame of the given format.
+     */
+    public static int frameSize(int format, int width, int height) {
+        switch (format) {
+            case FORMAT_Y8:
+                return width * height;
+            case FORMAT_I420:
+                return width * height + 2 * (width / 2) * (height / 2);
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of a {@link RingFile}, oldest first.
+ */
+public final class RingFileReader implements FrameSource {
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMap;
+    private final int mFormat;
+    private final int mSlotCount;
+    private final int mSlotSize;
+    private final long mWritten;
+    private final ReplayFrame mFrame;
+    private long mNext;
+
+    public RingFileReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            mMap = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mFile.length());
+            mMap.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[RingFile.MAGIC.length];
+            mMap.get(magic);
+            if (!Arrays.equals(magic, RingFile.MAGIC)) {
+                throw new IOException(file + " is not a ring file");
+            }
+            int version = mMap.getInt(RingFile.OFFSET_VERSION);
+            if (version != RingFile.VERSION) {
+                throw new IOException(file + " has unsupported version " + version);
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+        mFormat = mMap.getInt(RingFile.OFFSET_FORMAT);
+        int width = mMap.getInt(RingFile.OFFSET_WIDTH);
+        int height = mMap.getInt(RingFile.OFFSET_HEIGHT);
+        mSlotCount = mMap.getInt(RingFile.OFFSET_SLOT_COUNT);
+        mSlotSize = mMap.getInt(RingFile.OFFSET_SLOT_SIZE);
+        mWritten = mMap.getLong(RingFile.OFFSET_WRITTEN);
+        mFrame = new ReplayFrame(width, height);
+        mNext = Math.max(0, mWritten - mSlotCount);
+    }
+
+    /** RingFile.FORMAT_Y8 or RingFile.FORMAT_I420 */
+    public int format() {
+        return mFormat;
+    }
+
+    /** Number of frames that will be read in total */
+    public int frameCount() {
+        return (int) Math.min(mWritten, mSlotCount);
+    }
+
+    /**
+     * Moves to a frame, counted from the oldest frame in the ring, so that it is read next.
+     */
+    public void seek(int index) {
+        if (index < 0 || index > frameCount()) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + frameCount());
+        }
+        mNext = Math.max(0, mWritten - mSlotCount) + index;
+    }
+
+    @Override
+    public int width() {
+        return mFrame.mWidth;
+    }
+
+    @Override
+    public int height() {
+        return mFrame.mHeight;
+    }
+
+    @Override
+    public LumaFrame next() {
+        if (mNext >= mWritten) {
+            return null;
+        }
+        int offset = RingFile.HEADER_SIZE + (int) (mNext % mSlotCount) * mSlotSize;
+        mFrame.set(mMap.getLong(offset + 8), mMap.getLong(offset), mMap.getLong(offset + 16),
+                mMap.getLong(offset + 24));
+        mMap.position(offset + RingFile.SLOT_HEADER_SIZE);
+        mMap.get(mFrame.mData);
+        mNext++;
+        return mFrame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
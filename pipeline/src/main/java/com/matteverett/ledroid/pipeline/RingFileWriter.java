@@ -0,0 +1,196 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes frames into a preallocated, memory mapped {@link RingFile}.
+ *
+ * The whole file is created and mapped up front, so writing a frame is a copy into memory with
+ * no file system calls; the kernel writes the pages back in the background. Not thread safe,
+ * a writer belongs to one thread.
+ *
+ * Frames can be written from an array with {@link #write}, or copied in place into the buffer
+ * returned by {@link #beginFrame} and completed with {@link #commitFrame()}.
+ */
+public final class RingFileWriter {
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMap;
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mSlotCount;
+    private final int mSlotSize;
+    private final int mFrameSize;
+    private final ByteBuffer[] mFrames;
+    private long mWritten;
+    private boolean mInFrame;
+
+    /**
+     * Creates or replaces the file and maps it.
+     * @param format    RingFile.FORMAT_Y8 or RingFile.FORMAT_I420.
+     * @param slotCount Number of frames the ring holds.
+     */
+    public RingFileWriter(File file, int format, int width, int height, int slotCount) throws IOException {
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("slotCount must be at least 1");
+        }
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mSlotCount = slotCount;
+        mFrameSize = RingFile.frameSize(format, width, height);
+        // Keep slots 8 byte aligned for the metadata longs
+        mSlotSize = (RingFile.SLOT_HEADER_SIZE + mFrameSize + 7) & ~7;
+        long size = RingFile.HEADER_SIZE + (long) mSlotSize * slotCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Ring of " + slotCount + " " + width + "x" + height
+                    + " frames is too large to map, " + size + " bytes");
+        }
+
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            mFile.setLength(0);
+            mFile.setLength(size);
+            mMap = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+        mMap.order(ByteOrder.LITTLE_ENDIAN);
+        mMap.put(RingFile.MAGIC);
+        mMap.putInt(RingFile.OFFSET_VERSION, RingFile.VERSION);
+        mMap.putInt(RingFile.OFFSET_FORMAT, format);
+        mMap.putInt(RingFile.OFFSET_WIDTH, width);
+        mMap.putInt(RingFile.OFFSET_HEIGHT, height);
+        mMap.putInt(RingFile.OFFSET_SLOT_COUNT, slotCount);
+        mMap.putInt(RingFile.OFFSET_SLOT_SIZE, mSlotSize);
+        mMap.putLong(RingFile.OFFSET_WRITTEN, 0);
+
+        mFrames = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            ByteBuffer view = mMap.duplicate();
+            view.position(slotOffset(i) + RingFile.SLOT_HEADER_SIZE);
+            view.limit(slotOffset(i) + RingFile.SLOT_HEADER_SIZE + mFrameSize);
+            mFrames[i] = view.slice();
+        }
+    }
+
+    public int format() {
+        return mFormat;
+    }
+
+    public int width() {
+        return mWidth;
+    }
+
+    public int height() {
+        return mHeight;
+    }
+
+    public int slotCount() {
+        return mSlotCount;
+    }
+
+    public int frameSize() {
+        return mFrameSize;
+    }
+
+    /** Number of frames written in total, including those since overwritten */
+    public long written() {
+        return mWritten;
+    }
+
+    /**
+     * Starts a frame in the next slot and returns the slot's frame bytes, {@link #frameSize()}
+     * long and starting at position 0. The same direct buffer is returned each time the slot
+     * comes round, so it can be wrapped once by native code.
+     */
+    public ByteBuffer beginFrame(long sequence, long timestamp, long arrivalTime, long droppedFrames) {
+        if (mInFrame) {
+            throw new IllegalStateException("beginFrame() without commitFrame()");
+        }
+        int slot = (int) (mWritten % mSlotCount);
+        int offset = slotOffset(slot);
+        mMap.putLong(offset, sequence);
+        mMap.putLong(offset + 8, timestamp);
+        mMap.putLong(offset + 16, arrivalTime);
+        mMap.putLong(offset + 24, droppedFrames);
+        mInFrame = true;
+        ByteBuffer frame = mFrames[slot];
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Index of the slot the current or next frame goes in.
+     */
+    public int slot() {
+        return (int) (mWritten % mSlotCount);
+    }
+
+    public void commitFrame() {
+        if (!mInFrame) {
+            throw new IllegalStateException("commitFrame() without beginFrame()");
+        }
+        mInFrame = false;
+        mWritten++;
+        mMap.putLong(RingFile.OFFSET_WRITTEN, mWritten);
+    }
+
+    /**
+     * Writes a frame from an array of at least {@link #frameSize()} bytes.
+     */
+    public void write(byte[] data, int offset, long sequence, long timestamp, long arrivalTime,
+                      long droppedFrames) {
+        beginFrame(sequence, timestamp, arrivalTime, droppedFrames).put(data, offset, mFrameSize);
+        commitFrame();
+    }
+
+    /**
+     * Copies the frames in the ring, oldest first, into a new ring file that holds exactly them.
+     * @param sinceTimestamp Only frames with a timestamp at or after this are copied, 0 for all.
+     * @return Number of frames copied.
+     */
+    public int dump(File file, long sinceTimestamp) throws IOException {
+        long first = Math.max(0, mWritten - mSlotCount);
+        long start = first;
+        while (start < mWritten && mMap.getLong(slotOffset((int) (start % mSlotCount)) + 8) < sinceTimestamp) {
+            start++;
+        }
+        int count = (int) (mWritten - start);
+
+        RingFileWriter out = new RingFileWriter(file, mFormat, mWidth, mHeight, Math.max(1, count));
+        try {
+            for (long n = start; n < mWritten; n++) {
+                int offset = slotOffset((int) (n % mSlotCount));
+                ByteBuffer dst = out.beginFrame(mMap.getLong(offset), mMap.getLong(offset + 8),
+                        mMap.getLong(offset + 16), mMap.getLong(offset + 24));
+                ByteBuffer src = mFrames[(int) (n % mSlotCount)].duplicate();
+                src.clear();
+                dst.put(src);
+                out.commitFrame();
+            }
+        } finally {
+            out.close();
+        }
+        return count;
+    }
+
+    /**
+     * Flushes the mapping to the file and closes it.
+     */
+    public void close() throws IOException {
+        mMap.force();
+        mFile.close();
+    }
+
+    private int slotOffset(int slot) {
+        return RingFile.HEADER_SIZE + slot * mSlotSize;
+    }
+}
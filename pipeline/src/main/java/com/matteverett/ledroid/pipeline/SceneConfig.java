@@ -0,0 +1,35 @@
+package com.matteverett.ledroid.pipeline;
+
+/**
+ * Parameters of a synthetic LED scene. Defaults approximate a tree a few metres away at night.
+ */
+public final class SceneConfig {
+    public int width = 1280;
+    public int height = 720;
+    public int ledCount = 50;
+    /** Keep LED centres at least this far from the frame edge, in pixels. */
+    public int margin = 24;
+    /** Minimum distance between LED centres, in pixels. */
+    public float minSpacing = 16f;
+
+    /** Standard deviation of the LED spot, in pixels. */
+    public float spotSigma = 2.0f;
+    /** Peak spot brightness before clipping. Values above 255 give saturated cores. */
+    public float brightness = 400f;
+    /** Spread of the bloom around each spot relative to spotSigma. */
+    public float bloomScale = 4f;
+    /** Peak bloom brightness as a fraction of the spot peak. */
+    public float bloomStrength = 0.1f;
+    /** Random brightness variation between LEDs, as a fraction of brightness. */
+    public float brightnessJitter = 0.2f;
+
+    /** Standard deviation of the additive sensor noise in grey levels. */
+    public float noiseSigma = 2f;
+    /** Ambient level at the top left corner in grey levels. */
+    public float ambient = 12f;
+    /** Ambient increase across the full width and height, in grey levels. */
+    public float ambientGradientX = 24f;
+    public float ambientGradientY = 8f;
+
+    public long seed = 1;
+}
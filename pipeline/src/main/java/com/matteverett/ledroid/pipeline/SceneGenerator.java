@@ -0,0 +1,263 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Renders synthetic camera frames of LEDs with known centroids.
+ *
+ * Each LED is a Gaussian spot with a wider, fainter bloom, over an ambient gradient with
+ * additive sensor noise, clipped to 8 bits. Frames are laid out as NV21 or I420 with LED
+ * colour in the chroma planes, the same as JavaCamera2View and JavaCameraView hand out.
+ * LED positions and colours are fixed per generator, so the same scene can be rendered with
+ * different LEDs lit, as in a calibration sequence.
+ *
+ * Spots are separable, so each LED costs two small 1D kernels plus one multiply per pixel in
+ * its footprint. Noise comes from a precomputed Gaussian table indexed by a xorshift
+ * generator, which keeps rendering fast enough to drive throughput measurements.
+ */
+public final class SceneGenerator {
+    public static final int FORMAT_NV21 = 0;
+    public static final int FORMAT_I420 = 1;
+
+    private static final int NOISE_TABLE_BITS = 16;
+
+    private final SceneConfig mConfig;
+    private final int mWidth;
+    private final int mHeight;
+    private final float[] mLedX;
+    private final float[] mLedY;
+    private final float[] mLedPeak;
+    private final float[] mLedU;    // chroma offset from neutral per unit of luma
+    private final float[] mLedV;
+
+    private final float[] mLuma;
+    private final float[] mChromaU;
+    private final float[] mChromaV;
+    private final float[] mAmbientRow;
+    private final float[] mNoise = new float[1 << NOISE_TABLE_BITS];
+    private final int mRadius;
+    private final float[] mKernelX;
+    private final float[] mKernelY;
+    private final float[] mBloomX;
+    private final float[] mBloomY;
+    private int mRandom;
+
+    public SceneGenerator(SceneConfig config) {
+        mConfig = config;
+        mWidth = config.width;
+        mHeight = config.height;
+        Random random = new Random(config.seed);
+
+        mLedX = new float[config.ledCount];
+        mLedY = new float[config.ledCount];
+        mLedPeak = new float[config.ledCount];
+        mLedU = new float[config.ledCount];
+        mLedV = new float[config.ledCount];
+        placeLeds(random);
+
+        mLuma = new float[mWidth * mHeight];
+        mChromaU = new float[(mWidth / 2) * (mHeight / 2)];
+        mChromaV = new float[(mWidth / 2) * (mHeight / 2)];
+        mAmbientRow = new float[mWidth];
+        for (int x = 0; x < mWidth; x++) {
+            mAmbientRow[x] = config.ambient + config.ambientGradientX * x / mWidth;
+        }
+        for (int i = 0; i < mNoise.length; i++) {
+            mNoise[i] = (float) (random.nextGaussian() * config.noiseSigma);
+        }
+        mRandom = random.nextInt() | 1;
+
+        float bloomSigma = config.spotSigma * config.bloomScale;
+        float reach = config.bloomStrength > 0 ? Math.max(config.spotSigma, bloomSigma) : config.spotSigma;
+        mRadius = (int) Math.ceil(4 * reach);
+        mKernelX = new float[2 * mRadius + 2];
+        mKernelY = new float[2 * mRadius + 2];
+        mBloomX = new float[2 * mRadius + 2];
+        mBloomY = new float[2 * mRadius + 2];
+    }
+
+    private void placeLeds(Random random) {
+        SceneConfig c = mConfig;
+        float minDist2 = c.minSpacing * c.minSpacing;
+        int placed = 0;
+        int attempts = 0;
+        while (placed < c.ledCount) {
+            if (++attempts > c.ledCount * 1000) {
+                throw new IllegalArgumentException("Cannot place " + c.ledCount + " LEDs "
+                        + c.minSpacing + "px apart in " + mWidth + "x" + mHeight);
+            }
+            float x = c.margin + random.nextFloat() * (mWidth - 1 - 2 * c.margin);
+            float y = c.margin + random.nextFloat() * (mHeight - 1 - 2 * c.margin);
+            boolean clear = true;
+            for (int i = 0; i < placed && clear; i++) {
+                float dx = mLedX[i] - x;
+                float dy = mLedY[i] - y;
+                clear = dx * dx + dy * dy >= minDist2;
+            }
+            if (!clear) {
+                continue;
+            }
+            mLedX[placed] = x;
+            mLedY[placed] = y;
+            mLedPeak[placed] = c.brightness * (1 + c.brightnessJitter * (2 * random.nextFloat() - 1));
+            double hue = random.nextDouble() * 2 * Math.PI;
+            mLedU[placed] = (float) (0.4 * Math.cos(hue));
+            mLedV[placed] = (float) (0.4 * Math.sin(hue));
+            placed++;
+        }
+    }
+
+    public int width() {
+        return mWidth;
+    }
+
+    public int height() {
+        return mHeight;
+    }
+
+    public int ledCount() {
+        return mLedX.length;
+    }
+
+    public float ledX(int led) {
+        return mLedX[led];
+    }
+
+    public float ledY(int led) {
+        return mLedY[led];
+    }
+
+    /**
+     * Size in bytes of a rendered frame: a full resolution luma plane followed by two quarter
+     * resolution chroma planes.
+     */
+    public int frameSize() {
+        return mWidth * mHeight + 2 * (mWidth / 2) * (mHeight / 2);
+    }
+
+    /**
+     * Writes the centroids of the lit LEDs as x, y pairs.
+     * @param lit Which LEDs are lit, or null for all.
+     * @return Number of lit LEDs.
+     */
+    public int truth(float[] out, boolean[] lit) {
+        int n = 0;
+        for (int i = 0; i < mLedX.length; i++) {
+            if (lit == null || lit[i]) {
+                out[2 * n] = mLedX[i];
+                out[2 * n + 1] = mLedY[i];
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Renders a frame with every LED lit.
+     */
+    public void render(byte[] out, int format) {
+        render(out, format, null);
+    }
+
+    /**
+     * Renders a frame.
+     * @param out    Receives {@link #frameSize()} bytes.
+     * @param format FORMAT_NV21 or FORMAT_I420.
+     * @param lit    Which LEDs are lit, or null for all.
+     */
+    public void render(byte[] out, int format, boolean[] lit) {
+        SceneConfig c = mConfig;
+
+        for (int y = 0; y < mHeight; y++) {
+            float rowAmbient = c.ambientGradientY * y / mHeight;
+            int o = y * mWidth;
+            for (int x = 0; x < mWidth; x++) {
+                mLuma[o + x] = mAmbientRow[x] + rowAmbient;
+            }
+        }
+        Arrays.fill(mChromaU, 0f);
+        Arrays.fill(mChromaV, 0f);
+
+        for (int i = 0; i < mLedX.length; i++) {
+            if (lit == null || lit[i]) {
+                addSpot(i);
+            }
+        }
+
+        // Luma with noise, clipped
+        int r = mRandom;
+        int mask = (1 << NOISE_TABLE_BITS) - 1;
+        for (int i = 0; i < mLuma.length; i++) {
+            r ^= r << 13;
+            r ^= r >>> 17;
+            r ^= r << 5;
+            out[i] = clip(mLuma[i] + mNoise[r & mask]);
+        }
+        mRandom = r;
+
+        // Chroma, neutral 128 plus the LED colours
+        int ySize = mWidth * mHeight;
+        int cSize = mChromaU.length;
+        for (int i = 0; i < cSize; i++) {
+            byte u = clip(128 + mChromaU[i]);
+            byte v = clip(128 + mChromaV[i]);
+            if (format == FORMAT_NV21) {
+                out[ySize + 2 * i] = v;
+                out[ySize + 2 * i + 1] = u;
+            } else {
+                out[ySize + i] = u;
+                out[ySize + cSize + i] = v;
+            }
+        }
+    }
+
+    private void addSpot(int led) {
+        SceneConfig c = mConfig;
+        float cx = mLedX[led];
+        float cy = mLedY[led];
+        float peak = mLedPeak[led];
+        float bloomPeak = peak * c.bloomStrength;
+        float bloomSigma = c.spotSigma * c.bloomScale;
+
+        int x0 = Math.max(0, (int) Math.floor(cx) - mRadius);
+        int x1 = Math.min(mWidth - 1, (int) Math.ceil(cx) + mRadius);
+        int y0 = Math.max(0, (int) Math.floor(cy) - mRadius);
+        int y1 = Math.min(mHeight - 1, (int) Math.ceil(cy) + mRadius);
+
+        fillKernel(mKernelX, x0, x1, cx, c.spotSigma);
+        fillKernel(mKernelY, y0, y1, cy, c.spotSigma);
+        fillKernel(mBloomX, x0, x1, cx, bloomSigma);
+        fillKernel(mBloomY, y0, y1, cy, bloomSigma);
+
+        int cw = mWidth / 2;
+        for (int y = y0; y <= y1; y++) {
+            float ky = mKernelY[y - y0] * peak;
+            float by = mBloomY[y - y0] * bloomPeak;
+            int o = y * mWidth;
+            boolean chromaRow = (y & 1) == 0 && y / 2 < mHeight / 2;
+            int co = (y / 2) * cw;
+            for (int x = x0; x <= x1; x++) {
+                float value = mKernelX[x - x0] * ky + mBloomX[x - x0] * by;
+                mLuma[o + x] += value;
+                if (chromaRow && (x & 1) == 0 && x / 2 < cw) {
+                    mChromaU[co + x / 2] += value * mLedU[led];
+                    mChromaV[co + x / 2] += value * mLedV[led];
+                }
+            }
+        }
+    }
+
+    private static void fillKernel(float[] kernel, int from, int to, float centre, float sigma) {
+        float k = -1f / (2 * sigma * sigma);
+        for (int i = from; i <= to; i++) {
+            float d = i - centre;
+            kernel[i - from] = (float) Math.exp(d * d * k);
+        }
+    }
+
+    private static byte clip(float value) {
+        int v = Math.round(value);
+        return (byte) (v < 0 ? 0 : (v > 255 ? 255 : v));
+    }
+}
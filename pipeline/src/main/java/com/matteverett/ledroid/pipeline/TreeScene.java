@@ -0,0 +1,75 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.util.Random;
+
+/**
+ * Synthetic tree with known LED positions and camera poses, for testing and measuring the 3D
+ * stages against ground truth.
+ *
+ * LEDs are wound round a cone 2 m tall, 0.7 m in radius at the base, with a fixed angle
+ * between neighbours so the string spirals up the tree. Cameras stand on a circle 3 m from the
+ * axis at 1.2 m, tilted 5 degrees down, with 1280x720 intrinsics.
+ */
+public final class TreeScene {
+    public static final double HEIGHT = 2.0;
+    public static final double BASE_RADIUS = 0.7;
+    public static final double CAMERA_DISTANCE = 3;
+    public static final double CAMERA_HEIGHT = 1.2;
+    public static final double CAMERA_PITCH = -5;
+    public static final double FOCAL_LENGTH = 1000;
+    public static final int IMAGE_WIDTH = 1280;
+    public static final int IMAGE_HEIGHT = 720;
+
+    // Angle between consecutive LEDs around the axis, radians
+    private static final double LED_ANGLE = 0.37;
+
+    private TreeScene() {
+    }
+
+    /**
+     * @return x, y, z of each LED, from the base of the tree up.
+     */
+    public static double[] positions(int leds) {
+        double[] positions = new double[3 * leds];
+        for (int i = 0; i < leds; i++) {
+            double h = HEIGHT * i / leds;
+            // Narrows towards a point just above the top
+            double r = BASE_RADIUS * (1 - h / (1.1 * HEIGHT));
+            positions[3 * i] = r * Math.cos(i * LED_ANGLE);
+            positions[3 * i + 1] = r * Math.sin(i * LED_ANGLE);
+            positions[3 * i + 2] = h;
+        }
+        return positions;
+    }
+
+    /**
+     * Camera at the given heading around the tree.
+     */
+    public static CameraView view(double azimuthDeg) {
+        return CameraView.orbiting(azimuthDeg, CAMERA_PITCH, 0, CAMERA_DISTANCE, CAMERA_HEIGHT,
+                FOCAL_LENGTH, FOCAL_LENGTH, IMAGE_WIDTH / 2, IMAGE_HEIGHT / 2);
+    }
+
+    /**
+     * Cameras spaced evenly around the tree, the first at heading 0.
+     */
+    public static CameraView[] views(int count) {
+        CameraView[] views = new CameraView[count];
+        for (int v = 0; v < count; v++) {
+            views[v] = view(360.0 * v / count);
+        }
+        return views;
+    }
+
+    /**
+     * Camera near the given heading, posed the way the phone's sensors would report it: a few
+     * degrees and centimetres out.
+     */
+    public static CameraView sensorView(double azimuthDeg, Random random) {
+        return CameraView.orbiting(
+                azimuthDeg + random.nextGaussian() * 3, CAMERA_PITCH + random.nextGaussian() * 2,
+                random.nextGaussian(),
+                CAMERA_DISTANCE + random.nextGaussian() * 0.05, CAMERA_HEIGHT + random.nextGaussian() * 0.05,
+                FOCAL_LENGTH, FOCAL_LENGTH, IMAGE_WIDTH / 2, IMAGE_HEIGHT / 2);
+    }
+}
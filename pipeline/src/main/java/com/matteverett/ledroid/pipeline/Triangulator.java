@@ -0,0 +1,396 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reconstructs the 3D positions of LEDs seen from several camera views.
+ *
+ * Each LED is solved independently, so LEDs are split across a fork/join pool. For an LED the
+ * observations are tried in pairs: each pair is triangulated and scored by the number of
+ * observations that reproject within the inlier threshold, which rejects detections of the
+ * wrong LED or of reflections. The best pair's inliers are then triangulated together by
+ * linear least squares and refined with a few Gauss-Newton steps on the reprojection error.
+ *
+ * Observations are given in compressed rows: the observations of LED i are at indices
+ * ledStart[i] to ledStart[i + 1] - 1 of obsView and obsUv, obsUv holding u, v pairs.
+ */
+public final class Triangulator {
+
+    /** Robustness and refinement settings */
+    public static final class Settings {
+        /** Maximum reprojection error of an inlier, pixels */
+        public double inlierThreshold = 4;
+        /** LEDs with fewer inlier views are left unsolved */
+        public int minInliers = 2;
+        /** Pairs tried per LED when there are more than this many; all pairs otherwise */
+        public int maxPairs = 64;
+        public int refineIterations = 5;
+        /** Number of LEDs below which a task is not split further */
+        public int ledsPerTask = 32;
+    }
+
+    /** Reconstructed LEDs */
+    public static final class Result {
+        /** x, y, z per LED, NaN where the LED could not be solved */
+        public final double[] positions;
+        /** Inlier view count per LED */
+        public final int[] inliers;
+        /** RMS reprojection error of the inliers per LED, pixels */
+        public final double[] rmsError;
+        /** Whether each observation was used as an inlier */
+        public final boolean[] inlierObservations;
+
+        Result(int ledCount, int observationCount) {
+            positions = new double[3 * ledCount];
+            inliers = new int[ledCount];
+            rmsError = new double[ledCount];
+            inlierObservations = new boolean[observationCount];
+        }
+
+        public int solvedCount() {
+            int solved = 0;
+            for (int i = 0; i < inliers.length; i++) {
+                if (!Double.isNaN(positions[3 * i])) {
+                    solved++;
+                }
+            }
+            return solved;
+        }
+    }
+
+    private final CameraView[] mViews;
+    private final Settings mSettings;
+    private final ForkJoinPool mPool;
+
+    public Triangulator(CameraView[] views, Settings settings, ForkJoinPool pool) {
+        mViews = views;
+        mSettings = settings;
+        mPool = pool;
+    }
+
+    public Triangulator(CameraView[] views) {
+        this(views, new Settings(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Triangulates LEDs from positions per view, the usual shape of aggregated captures.
+     * @param uv Per view, u, v per LED, NaN where the LED was not seen in that view.
+     */
+    public Result triangulate(double[][] uv, int ledCount) {
+        int[] ledStart = new int[ledCount + 1];
+        int total = 0;
+        for (int led = 0; led < ledCount; led++) {
+            ledStart[led] = total;
+            for (double[] view : uv) {
+                if (!Double.isNaN(view[2 * led])) {
+                    total++;
+                }
+            }
+        }
+        ledStart[ledCount] = total;
+
+        int[] obsView = new int[total];
+        double[] obsUv = new double[2 * total];
+        int o = 0;
+        for (int led = 0; led < ledCount; led++) {
+            for (int v = 0; v < uv.length; v++) {
+                if (!Double.isNaN(uv[v][2 * led])) {
+                    obsView[o] = v;
+                    obsUv[2 * o] = uv[v][2 * led];
+                    obsUv[2 * o + 1] = uv[v][2 * led + 1];
+                    o++;
+                }
+            }
+        }
+        return triangulate(ledCount, ledStart, obsView, obsUv);
+    }
+
+    /**
+     * Triangulates LEDs from observations in compressed rows, see the class comment.
+     */
+    public Result triangulate(int ledCount, int[] ledStart, int[] obsView, double[] obsUv) {
+        Result result = new Result(ledCount, ledStart[ledCount]);
+        mPool.invoke(new Task(result, ledStart, obsView, obsUv, 0, ledCount));
+        return result;
+    }
+
+    private final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Result mResult;
+        private final int[] mLedStart;
+        private final int[] mObsView;
+        private final double[] mObsUv;
+        private final int mFrom;
+        private final int mTo;
+
+        Task(Result result, int[] ledStart, int[] obsView, double[] obsUv, int from, int to) {
+            mResult = result;
+            mLedStart = ledStart;
+            mObsView = obsView;
+            mObsUv = obsUv;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > mSettings.ledsPerTask) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new Task(mResult, mLedStart, mObsView, mObsUv, mFrom, middle),
+                        new Task(mResult, mLedStart, mObsView, mObsUv, middle, mTo));
+                return;
+            }
+            Solver solver = new Solver();
+            for (int led = mFrom; led < mTo; led++) {
+                solver.solve(led, mLedStart[led], mLedStart[led + 1], mObsView, mObsUv, mResult);
+            }
+        }
+    }
+
+    /**
+     * Per task scratch space and the per LED solution.
+     */
+    private final class Solver {
+        private final double[] mAtA = new double[9];
+        private final double[] mAtb = new double[3];
+        private final double[] mX = new double[3];
+        private final double[] mBest = new double[3];
+        private final double[] mUv = new double[2];
+        private boolean[] mInlier = new boolean[16];
+        private boolean[] mBestInlier = new boolean[16];
+
+        void solve(int led, int start, int end, int[] obsView, double[] obsUv, Result result) {
+            int n = end - start;
+            Arrays.fill(result.positions, 3 * led, 3 * led + 3, Double.NaN);
+            result.inliers[led] = 0;
+            result.rmsError[led] = Double.NaN;
+            if (n < Math.max(2, mSettings.minInliers)) {
+                return;
+            }
+            if (mInlier.length < n) {
+                mInlier = new boolean[n];
+                mBestInlier = new boolean[n];
+            }
+
+            // Score pairs, all of them for the usual handful of views
+            int pairs = n * (n - 1) / 2;
+            int tries = Math.min(pairs, mSettings.maxPairs);
+            int bestCount = 0;
+            double bestError = Double.MAX_VALUE;
+            long seed = 0x9E3779B97F4A7C15L * (led + 1);
+            for (int t = 0; t < tries; t++) {
+                int pair;
+                if (tries == pairs) {
+                    pair = t;
+                } else {
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 7;
+                    seed ^= seed << 17;
+                    pair = (int) ((seed >>> 1) % pairs);
+                }
+                // Unrank the pair index into j < k
+                int j = 0;
+                int remaining = pair;
+                while (remaining >= n - 1 - j) {
+                    remaining -= n - 1 - j;
+                    j++;
+                }
+                int k = j + 1 + remaining;
+
+                clear();
+                addRows(obsView[start + j], obsUv, start + j);
+                addRows(obsView[start + k], obsUv, start + k);
+                if (!solveNormal()) {
+                    continue;
+                }
+                double error = score(start, end, obsView, obsUv, mInlier);
+                int count = countInliers(n);
+                if (count > bestCount || (count == bestCount && error < bestError)) {
+                    bestCount = count;
+                    bestError = error;
+                    System.arraycopy(mX, 0, mBest, 0, 3);
+                    System.arraycopy(mInlier, 0, mBestInlier, 0, n);
+                }
+            }
+            if (bestCount < Math.max(2, mSettings.minInliers)) {
+                return;
+            }
+
+            // Least squares on every inlier, then refine the reprojection error
+            clear();
+            for (int i = 0; i < n; i++) {
+                if (mBestInlier[i]) {
+                    addRows(obsView[start + i], obsUv, start + i);
+                }
+            }
+            if (!solveNormal()) {
+                System.arraycopy(mBest, 0, mX, 0, 3);
+            }
+            for (int it = 0; it < mSettings.refineIterations; it++) {
+                if (!refineStep(start, n, obsView, obsUv)) {
+                    break;
+                }
+            }
+
+            double sum = 0;
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                if (!mBestInlier[i]) {
+                    continue;
+                }
+                double e2 = reprojectionError2(obsView[start + i], obsUv, start + i);
+                if (Double.isNaN(e2)) {
+                    continue;
+                }
+                sum += e2;
+                count++;
+                result.inlierObservations[start + i] = true;
+            }
+            System.arraycopy(mX, 0, result.positions, 3 * led, 3);
+            result.inliers[led] = count;
+            result.rmsError[led] = Math.sqrt(sum / Math.max(1, count));
+        }
+
+        private void clear() {
+            Arrays.fill(mAtA, 0);
+            Arrays.fill(mAtb, 0);
+        }
+
+        /**
+         * Adds the two linear constraints of an observation: the point lies on the ray through
+         * the normalised image position.
+         */
+        private void addRows(int view, double[] obsUv, int o) {
+            CameraView c = mViews[view];
+            double[] R = c.rotation;
+            double[] t = c.translation;
+            double xn = (obsUv[2 * o] - c.cx) / c.fx;
+            double yn = (obsUv[2 * o + 1] - c.cy) / c.fy;
+            addRow(xn * R[6] - R[0], xn * R[7] - R[1], xn * R[8] - R[2], t[0] - xn * t[2]);
+            addRow(yn * R[6] - R[3], yn * R[7] - R[4], yn * R[8] - R[5], t[1] - yn * t[2]);
+        }
+
+        private void addRow(double a0, double a1, double a2, double b) {
+            mAtA[0] += a0 * a0;
+            mAtA[1] += a0 * a1;
+            mAtA[2] += a0 * a2;
+            mAtA[4] += a1 * a1;
+            mAtA[5] += a1 * a2;
+            mAtA[8] += a2 * a2;
+            mAtb[0] += a0 * b;
+            mAtb[1] += a1 * b;
+            mAtb[2] += a2 * b;
+        }
+
+        /**
+         * Solves the symmetric 3x3 normal equations into mX.
+         * @return false if the rays are too close to parallel.
+         */
+        private boolean solveNormal() {
+            double a = mAtA[0], b = mAtA[1], c = mAtA[2], d = mAtA[4], e = mAtA[5], f = mAtA[8];
+            double c00 = d * f - e * e;
+            double c01 = c * e - b * f;
+            double c02 = b * e - c * d;
+            double det = a * c00 + b * c01 + c * c02;
+            double scale = a + d + f;
+            if (!(Math.abs(det) > 1e-12 * scale * scale * scale)) {
+                return false;
+            }
+            double c11 = a * f - c * c;
+            double c12 = b * c - a * e;
+            double c22 = a * d - b * b;
+            double inv = 1 / det;
+            mX[0] = (c00 * mAtb[0] + c01 * mAtb[1] + c02 * mAtb[2]) * inv;
+            mX[1] = (c01 * mAtb[0] + c11 * mAtb[1] + c12 * mAtb[2]) * inv;
+            mX[2] = (c02 * mAtb[0] + c12 * mAtb[1] + c22 * mAtb[2]) * inv;
+            return true;
+        }
+
+        /**
+         * Marks the observations that reproject within the threshold.
+         * @return Sum of the squared errors of the inliers, for breaking ties.
+         */
+        private double score(int start, int end, int[] obsView, double[] obsUv, boolean[] inlier) {
+            double threshold2 = mSettings.inlierThreshold * mSettings.inlierThreshold;
+            double sum = 0;
+            for (int o = start; o < end; o++) {
+                double e2 = reprojectionError2(obsView[o], obsUv, o);
+                inlier[o - start] = e2 <= threshold2;
+                if (inlier[o - start]) {
+                    sum += e2;
+                }
+            }
+            return sum;
+        }
+
+        private int countInliers(int n) {
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                if (mInlier[i]) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /** Squared reprojection error of mX, NaN when behind the camera */
+        private double reprojectionError2(int view, double[] obsUv, int o) {
+            if (!mViews[view].project(mX[0], mX[1], mX[2], mUv)) {
+                return Double.NaN;
+            }
+            double du = mUv[0] - obsUv[2 * o];
+            double dv = mUv[1] - obsUv[2 * o + 1];
+            return du * du + dv * dv;
+        }
+
+        /**
+         * One Gauss-Newton step on the reprojection error of the inliers.
+         * @return false once the step is negligible or cannot be taken.
+         */
+        private boolean refineStep(int start, int n, int[] obsView, double[] obsUv) {
+            clear();
+            for (int i = 0; i < n; i++) {
+                if (!mBestInlier[i]) {
+                    continue;
+                }
+                int o = start + i;
+                CameraView c = mViews[obsView[o]];
+                double[] R = c.rotation;
+                double[] t = c.translation;
+                double px = R[0] * mX[0] + R[1] * mX[1] + R[2] * mX[2] + t[0];
+                double py = R[3] * mX[0] + R[4] * mX[1] + R[5] * mX[2] + t[1];
+                double pz = R[6] * mX[0] + R[7] * mX[1] + R[8] * mX[2] + t[2];
+                if (pz <= 0) {
+                    return false;
+                }
+                double iz = 1 / pz;
+                double ru = obsUv[2 * o] - (c.fx * px * iz + c.cx);
+                double rv = obsUv[2 * o + 1] - (c.fy * py * iz + c.cy);
+                // d(u, v)/dX through the projection
+                double ju0 = c.fx * iz * (R[0] - px * iz * R[6]);
+                double ju1 = c.fx * iz * (R[1] - px * iz * R[7]);
+                double ju2 = c.fx * iz * (R[2] - px * iz * R[8]);
+                double jv0 = c.fy * iz * (R[3] - py * iz * R[6]);
+                double jv1 = c.fy * iz * (R[4] - py * iz * R[7]);
+                double jv2 = c.fy * iz * (R[5] - py * iz * R[8]);
+                addRow(ju0, ju1, ju2, ru);
+                addRow(jv0, jv1, jv2, rv);
+            }
+            double x0 = mX[0], x1 = mX[1], x2 = mX[2];
+            if (!solveNormal()) {
+                mX[0] = x0;
+                mX[1] = x1;
+                mX[2] = x2;
+                return false;
+            }
+            double dx = mX[0], dy = mX[1], dz = mX[2];
+            mX[0] = x0 + dx;
+            mX[1] = x1 + dy;
+            mX[2] = x2 + dz;
+            return dx * dx + dy * dy + dz * dz > 1e-18;
+        }
+    }
+}
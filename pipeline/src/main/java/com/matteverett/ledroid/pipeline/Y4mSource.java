@@ -0,0 +1,126 @@
+package com.matteverett.ledroid.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads 8 bit YUV4MPEG2 video, as written by ffmpeg with -f yuv4mpegpipe. Frames are timed
+ * from the header's frame rate.
+ */
+public final class Y4mSource implements FrameSource {
+    private static final String SIGNATURE = "YUV4MPEG2";
+
+    private final DataInputStream mInput;
+    private final ReplayFrame mFrame;
+    private final int mChromaSize;
+    private final double mFrameNs;
+    private long mSequence;
+
+    public Y4mSource(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public Y4mSource(InputStream input) throws IOException {
+        mInput = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+        String header = readLine(mInput);
+        if (header == null || !header.startsWith(SIGNATURE + " ")) {
+            mInput.close();
+            throw new IOException("Not a YUV4MPEG2 stream");
+        }
+
+        int width = 0;
+        int height = 0;
+        double fps = 30;
+        String colour = "420";
+        for (String token : header.substring(SIGNATURE.length() + 1).split(" ")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            String value = token.substring(1);
+            switch (token.charAt(0)) {
+                case 'W': width = Integer.parseInt(value); break;
+                case 'H': height = Integer.parseInt(value); break;
+                case 'F': {
+                    String[] ratio = value.split(":");
+                    fps = Double.parseDouble(ratio[0]) / Double.parseDouble(ratio[1]);
+                    break;
+                }
+                case 'C': colour = value; break;
+                default: break;
+            }
+        }
+        if (width <= 0 || height <= 0) {
+            mInput.close();
+            throw new IOException("YUV4MPEG2 header without size: " + header);
+        }
+
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        if (colour.startsWith("420")) {
+            mChromaSize = 2 * chromaWidth * chromaHeight;
+        } else if (colour.equals("422")) {
+            mChromaSize = 2 * chromaWidth * height;
+        } else if (colour.equals("444")) {
+            mChromaSize = 2 * width * height;
+        } else if (colour.equals("mono")) {
+            mChromaSize = 0;
+        } else {
+            mInput.close();
+            throw new IOException("Unsupported YUV4MPEG2 colour space " + colour);
+        }
+        mFrame = new ReplayFrame(width, height);
+        mFrameNs = 1e9 / fps;
+    }
+
+    @Override
+    public int width() {
+        return mFrame.mWidth;
+    }
+
+    @Override
+    public int height() {
+        return mFrame.mHeight;
+    }
+
+    @Override
+    public LumaFrame next() throws IOException {
+        String marker = readLine(mInput);
+        if (marker == null) {
+            return null;
+        }
+        if (!marker.startsWith("FRAME")) {
+            throw new IOException("Expected FRAME, found " + marker);
+        }
+        if (!RawVideoSource.readFrame(mInput, mFrame.mData, mChromaSize)) {
+            throw new IOException("Missing frame data");
+        }
+        long timestamp = Math.round(mSequence * mFrameNs);
+        mFrame.set(timestamp, mSequence, timestamp, 0);
+        mSequence++;
+        return mFrame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    /**
+     * Reads an ASCII line up to a newline, or returns null at the end of the stream.
+     */
+    private static String readLine(DataInputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = input.read()) != '\n') {
+            if (c < 0) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+}
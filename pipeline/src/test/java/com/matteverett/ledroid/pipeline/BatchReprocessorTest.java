@@ -0,0 +1,101 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchReprocessorTest {
+    private static final int LED_COUNT = 10;
+
+    private static SceneGenerator scene() {
+        SceneConfig config = new SceneConfig();
+        config.width = 320;
+        config.height = 240;
+        config.ledCount = LED_COUNT;
+        return new SceneGenerator(config);
+    }
+
+    /** One LED lit per frame, as in a calibration sequence */
+    private static void record(File file, SceneGenerator scene, int frames) throws IOException {
+        RingFileWriter writer = new RingFileWriter(file, RingFile.FORMAT_I420, 320, 240, frames);
+        byte[] frame = new byte[scene.frameSize()];
+        boolean[] lit = new boolean[LED_COUNT];
+        for (int i = 0; i < frames; i++) {
+            Arrays.fill(lit, false);
+            lit[i % LED_COUNT] = true;
+            scene.render(frame, SceneGenerator.FORMAT_I420, lit);
+            writer.write(frame, 0, i, i * 33000000L, i * 33000000L, 0);
+        }
+        writer.close();
+    }
+
+    private static BatchReprocessor reprocessor() {
+        BatchReprocessor.Settings settings = new BatchReprocessor.Settings();
+        settings.threshold = 128;
+        settings.minArea = 2;
+        settings.shardFrames = 5;
+        return new BatchReprocessor(settings, 3);
+    }
+
+    @Test
+    public void shardedSession_mapsEveryLed() throws IOException {
+        SceneGenerator scene = scene();
+        File file = File.createTempFile("session", ".ring");
+        try {
+            record(file, scene, 40);
+
+            BatchReprocessor reprocessor = reprocessor();
+            List<BatchReprocessor.Result> results = reprocessor.run(Collections.singletonList(file));
+            reprocessor.shutdown();
+
+            LocationAggregator leds = results.get(0).leds;
+            assertEquals(40, results.get(0).frames);
+            assertEquals(LED_COUNT, leds.size());
+            for (int i = 0; i < leds.size(); i++) {
+                assertEquals(4, leds.hits(i));
+                int led = (int) (leds.firstFrame(i) % LED_COUNT);
+                assertEquals(scene.ledX(led), leds.x(i), 0.5);
+                assertEquals(scene.ledY(led), leds.y(i), 0.5);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void concurrentSessions_countOnlyTheirOwnFrames() throws IOException {
+        SceneGenerator scene = scene();
+        int[] lengths = {40, 23, 7};
+        List<File> files = new ArrayList<>();
+        try {
+            for (int length : lengths) {
+                File file = File.createTempFile("session", ".ring");
+                files.add(file);
+                record(file, scene, length);
+            }
+
+            BatchReprocessor reprocessor = reprocessor();
+            List<BatchReprocessor.Result> results = reprocessor.run(files);
+            reprocessor.shutdown();
+
+            assertEquals(lengths.length, results.size());
+            for (int i = 0; i < lengths.length; i++) {
+                assertEquals(files.get(i), results.get(i).session);
+                assertEquals(lengths[i], results.get(i).frames);
+                assertEquals(Math.min(lengths[i], LED_COUNT), results.get(i).leds.size());
+            }
+            assertEquals(40 + 23 + 7, reprocessor.framesProcessed());
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlobAssociatorTest {
+    private static float[] blobs(float... xy) {
+        float[] blobs = new float[xy.length / 2 * LedDetector.STRIDE];
+        for (int i = 0; i < xy.length / 2; i++) {
+            blobs[i * LedDetector.STRIDE] = xy[2 * i];
+            blobs[i * LedDetector.STRIDE + 1] = xy[2 * i + 1];
+        }
+        return blobs;
+    }
+
+    /** The all-pairs search the grid replaces, same order and tie breaking */
+    private static int allPairs(float[] previous, int previousCount, float[] current, int currentCount,
+            float radius, int[] match) {
+        int stride = LedDetector.STRIDE;
+        boolean[] claimed = new boolean[previousCount];
+        int matched = 0;
+        for (int j = 0; j < currentCount; j++) {
+            int best = -1;
+            float bestDist2 = radius * radius;
+            for (int i = 0; i < previousCount; i++) {
+                if (claimed[i]) {
+                    continue;
+                }
+                float dx = previous[i * stride] - current[j * stride];
+                float dy = previous[i * stride + 1] - current[j * stride + 1];
+                float d2 = dx * dx + dy * dy;
+                if (d2 <= bestDist2) {
+                    bestDist2 = d2;
+                    best = i;
+                }
+            }
+            match[j] = best;
+            if (best >= 0) {
+                claimed[best] = true;
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    @Test
+    public void movedBlobs_matchTheirPreviousPosition() {
+        float[] previous = blobs(10, 10, 100, 50, 300, 200);
+        float[] current = blobs(301, 198, 12, 11, 99, 52);
+        int[] match = new int[3];
+
+        int matched = new BlobAssociator(4f).associate(previous, 3, current, 3, match);
+
+        assertEquals(3, matched);
+        assertArrayEquals(new int[] {2, 0, 1}, match);
+    }
+
+    @Test
+    public void blobsOutsideRadius_areUnmatched() {
+        float[] previous = blobs(10, 10, 100, 50);
+        // One too far from anything, one left of and above the grid of previous blobs
+        float[] current = blobs(200, 200, -50, -50, 101, 50);
+        int[] match = new int[3];
+
+        int matched = new BlobAssociator(4f).associate(previous, 2, current, 3, match);
+
+        assertEquals(1, matched);
+        assertArrayEquals(new int[] {-1, -1, 1}, match);
+    }
+
+    @Test
+    public void previousBlob_isMatchedOnlyOnce() {
+        float[] previous = blobs(50, 50);
+        float[] current = blobs(51, 50, 50, 50);
+        int[] match = new int[2];
+
+        int matched = new BlobAssociator(4f).associate(previous, 1, current, 2, match);
+
+        assertEquals(1, matched);
+        assertArrayEquals(new int[] {0, -1}, match);
+    }
+
+    @Test
+    public void noPreviousBlobs_matchesNothing() {
+        int[] match = new int[2];
+        Arrays.fill(match, 7);
+
+        assertEquals(0, new BlobAssociator(4f).associate(new float[0], 0, blobs(1, 1, 2, 2), 2, match));
+        assertArrayEquals(new int[] {-1, -1}, match);
+    }
+
+    @Test
+    public void associate_agreesWithAllPairsAcrossFrames() {
+        Random random = new Random(3);
+        float radius = 4f;
+        BlobAssociator associator = new BlobAssociator(radius);
+        int stride = LedDetector.STRIDE;
+
+        // A drifting set of blobs that grows, so the working storage is reused and resized
+        float[] previous = new float[0];
+        int previousCount = 0;
+        for (int frame = 0; frame < 20; frame++) {
+            int count = 20 + frame * 15;
+            float[] current = new float[count * stride];
+            for (int j = 0; j < count; j++) {
+                if (j < previousCount && random.nextInt(4) != 0) {
+                    int i = (j * 31) % previousCount;
+                    current[j * stride] = previous[i * stride] + (random.nextFloat() - 0.5f) * 6;
+                    current[j * stride + 1] = previous[i * stride + 1] + (random.nextFloat() - 0.5f) * 6;
+                } else {
+                    current[j * stride] = random.nextFloat() * 700 - 10;
+                    current[j * stride + 1] = random.nextFloat() * 400 - 10;
+                }
+            }
+
+            int[] match = new int[count];
+            int[] expected = new int[count];
+            int matched = associator.associate(previous, previousCount, current, count, match);
+            assertEquals(allPairs(previous, previousCount, current, count, radius, expected), matched);
+            assertArrayEquals("frame " + frame, expected, match);
+
+            previous = current;
+            previousCount = count;
+        }
+    }
+}
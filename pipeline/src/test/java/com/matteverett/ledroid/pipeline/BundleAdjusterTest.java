@@ -0,0 +1,71 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BundleAdjusterTest {
+    @Test
+    public void adjust_recoversPosesAndPositions() {
+        int views = 8;
+        int leds = 400;
+        Random random = new Random(5);
+        CameraView[] truthViews = TreeScene.views(views);
+        CameraView[] cameras = new CameraView[views];
+        for (int v = 0; v < views; v++) {
+            cameras[v] = v == 0 ? truthViews[v] : TreeScene.sensorView(360.0 * v / views, random);
+        }
+        double[] truth = TreeScene.positions(leds);
+
+        // Every LED seen from every view, with the odd wrong detection
+        int[] ledStart = new int[leds + 1];
+        int[] obsView = new int[leds * views];
+        double[] obsUv = new double[2 * leds * views];
+        double[] p = new double[2];
+        for (int i = 0; i < leds; i++) {
+            ledStart[i + 1] = ledStart[i] + views;
+            for (int v = 0; v < views; v++) {
+                int o = i * views + v;
+                truthViews[v].project(truth[3 * i], truth[3 * i + 1], truth[3 * i + 2], p);
+                obsView[o] = v;
+                obsUv[2 * o] = p[0] + random.nextGaussian() * 0.5;
+                obsUv[2 * o + 1] = p[1] + random.nextGaussian() * 0.5;
+                if (random.nextInt(30) == 0) {
+                    obsUv[2 * o] += 30;
+                }
+            }
+        }
+
+        double[] positions = new double[3 * leds];
+        for (int i = 0; i < 3 * leds; i++) {
+            positions[i] = truth[i] + random.nextGaussian() * 0.03;
+        }
+        double before = rmsError(positions, truth);
+
+        BundleAdjuster.Result result = new BundleAdjuster().adjust(
+                cameras, leds, positions, ledStart, obsView, obsUv, null);
+        assertTrue(result.rms < result.initialRms);
+        double after = rmsError(positions, truth);
+        assertTrue("error " + before + " m before, " + after + " m after", after < 0.01);
+    }
+
+    @Test
+    public void rodrigues_isARotation() {
+        double[] R = new double[9];
+        BundleAdjuster.rodrigues(0, 0, Math.PI / 2, R);
+        assertEquals(0, R[0], 1e-12);
+        assertEquals(-1, R[1], 1e-12);
+        assertEquals(1, R[3], 1e-12);
+        assertEquals(1, R[8], 1e-12);
+    }
+
+    private static double rmsError(double[] positions, double[] truth) {
+        double sum = 0;
+        for (int i = 0; i < truth.length; i++) {
+            sum += (positions[i] - truth[i]) * (positions[i] - truth[i]);
+        }
+        return Math.sqrt(sum * 3 / truth.length);
+    }
+}
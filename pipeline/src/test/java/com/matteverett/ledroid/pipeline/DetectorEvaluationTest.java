@@ -0,0 +1,43 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DetectorEvaluationTest {
+    @Test
+    public void blobDetector_findsEverySyntheticLed() {
+        SceneConfig config = new SceneConfig();
+        config.width = 320;
+        config.height = 240;
+        config.ledCount = 20;
+        SceneGenerator scene = new SceneGenerator(config);
+
+        DetectorEvaluation.Result result =
+                DetectorEvaluation.evaluate(scene, new BlobDetector(128, 2), 4, 1);
+
+        assertEquals(1.0, result.recall(), 0);
+        assertEquals(0, result.falsePositives);
+        assertTrue("max error " + result.maxError, result.maxError < 0.5);
+    }
+
+    @Test
+    public void unlitLeds_areNotRendered() {
+        SceneConfig config = new SceneConfig();
+        config.width = 160;
+        config.height = 120;
+        config.ledCount = 4;
+        config.noiseSigma = 0;
+        SceneGenerator scene = new SceneGenerator(config);
+        boolean[] lit = {true, false, true, false};
+
+        byte[] frame = new byte[scene.frameSize()];
+        scene.render(frame, SceneGenerator.FORMAT_I420, lit);
+        float[] out = new float[LedDetector.STRIDE * 8];
+        int found = new BlobDetector(128, 2).detect(frame, 0, 160, 120, 160, out);
+
+        float[] truth = new float[8];
+        assertEquals(2, scene.truth(truth, lit));
+        assertEquals(2, found);
+    }
+}
@@ -0,0 +1,74 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LocationEncoderTest {
+    @Test
+    public void encode_matchesFormattedPayload() {
+        Random random = new Random(7);
+        double[][] frames = new double[5][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new double[2 * i];
+            for (int j = 0; j < frames[i].length; j++) {
+                frames[i][j] = random.nextDouble() * 2000 - 100;
+            }
+        }
+        frames[3][0] = 0;
+        frames[3][1] = 1279.9999999;
+        frames[4][0] = -0.25;
+
+        LocationEncoder encoder = new LocationEncoder();
+        StringBuilder expected = new StringBuilder("{\"type\":\"data\",\"locations\":[");
+        for (int i = 0; i < frames.length; i++) {
+            encoder.beginFrame();
+            expected.append(i > 0 ? ",[" : "[");
+            for (int j = 0; j < frames[i].length; j += 2) {
+                encoder.add(frames[i][j], frames[i][j + 1]);
+                expected.append(j > 0 ? "," : "")
+                        .append(String.format(Locale.ENGLISH, "%f,%f", frames[i][j], frames[i][j + 1]));
+            }
+            encoder.endFrame();
+            expected.append(']');
+        }
+        expected.append("]}");
+
+        byte[] payload = encoder.toByteArray();
+        assertEquals(expected.toString(), new String(payload, StandardCharsets.US_ASCII));
+        assertEquals(payload.length, encoder.length());
+
+        encoder.reset();
+        assertEquals("{\"type\":\"data\",\"locations\":[]}",
+                new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void orientation_followsLocations() {
+        LocationEncoder encoder = new LocationEncoder();
+        encoder.beginFrame();
+        encoder.add(1.5, 2);
+        encoder.endFrame();
+        encoder.setOrientation(-90, 2.25, 0);
+        assertEquals("{\"type\":\"data\",\"locations\":[[1.500000,2.000000]],"
+                        + "\"orientation\":[-90.000000,2.250000,0.000000]}",
+                new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void pose_followsOrientation() {
+        LocationEncoder encoder = new LocationEncoder();
+        encoder.beginFrame();
+        encoder.endFrame();
+        encoder.setOrientation(10, 0, 0);
+        encoder.setPose(new double[]{0.5, 0, -0.25}, new double[]{0, 1, 3});
+        assertEquals("{\"type\":\"data\",\"locations\":[[]],"
+                        + "\"orientation\":[10.000000,0.000000,0.000000],"
+                        + "\"pose\":[0.500000,0.000000,-0.250000,0.000000,1.000000,3.000000]}",
+                new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,101 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrientationHistoryTest {
+    private static float[] aboutZ(double degrees) {
+        double a = Math.toRadians(degrees);
+        float c = (float) Math.cos(a);
+        float s = (float) Math.sin(a);
+        return new float[]{c, -s, 0, s, c, 0, 0, 0, 1};
+    }
+
+    private static double angleAboutZ(float[] r) {
+        return Math.toDegrees(Math.atan2(r[3], r[0]));
+    }
+
+    @Test
+    public void rotationAt_interpolatesBetweenSamples() {
+        OrientationHistory history = new OrientationHistory(8);
+        float[] r = new float[9];
+        assertFalse(history.rotationAt(0, r));
+
+        history.add(1000, aboutZ(10));
+        history.add(2000, aboutZ(30));
+        history.add(3000, aboutZ(50));
+
+        assertTrue(history.rotationAt(2500, r));
+        assertEquals(40, angleAboutZ(r), 1e-3);
+        assertTrue(history.rotationAt(1250, r));
+        assertEquals(15, angleAboutZ(r), 1e-3);
+        assertTrue(history.rotationAt(2000, r));
+        assertEquals(30, angleAboutZ(r), 1e-3);
+
+        // Clamped outside the samples
+        history.rotationAt(500, r);
+        assertEquals(10, angleAboutZ(r), 1e-3);
+        history.rotationAt(4000, r);
+        assertEquals(50, angleAboutZ(r), 1e-3);
+    }
+
+    @Test
+    public void rotationAt_rejectsTimesTooFarPastTheNewestSample() {
+        OrientationHistory history = new OrientationHistory(8);
+        float[] r = new float[9];
+        history.add(1000, aboutZ(10));
+        history.add(2000, aboutZ(30));
+
+        assertTrue(history.rotationAt(2400, 500, r));
+        assertEquals(30, angleAboutZ(r), 1e-3);
+        assertFalse(history.rotationAt(2600, 500, r));
+        // Older times are still interpolated or clamped
+        assertTrue(history.rotationAt(1500, 500, r));
+        assertEquals(20, angleAboutZ(r), 1e-3);
+        assertTrue(history.rotationAt(0, 500, r));
+        assertEquals(10, angleAboutZ(r), 1e-3);
+
+        // A later batch makes the time available
+        history.add(3000, aboutZ(50));
+        assertTrue(history.rotationAt(2600, 500, r));
+        assertEquals(42, angleAboutZ(r), 1e-3);
+    }
+
+    @Test
+    public void rotationAt_takesTheShortWayRoundAfterWrapping() {
+        OrientationHistory history = new OrientationHistory(4);
+        for (int i = 0; i < 10; i++) {
+            // Crosses 180 degrees between the last two samples
+            history.add(1000L * i, aboutZ(100 + 10 * i));
+        }
+        assertEquals(4, history.size());
+
+        float[] r = new float[9];
+        history.rotationAt(8500, r);
+        assertEquals(-175, angleAboutZ(r), 1e-3);
+        // The oldest samples were overwritten
+        history.rotationAt(0, r);
+        assertEquals(160, angleAboutZ(r), 1e-3);
+    }
+
+    @Test
+    public void toQuaternion_roundTripsGeneralRotations() {
+        double[] q = new double[4];
+        float[] r = new float[9];
+        for (int i = 0; i < 50; i++) {
+            double[] source = {Math.cos(i), Math.sin(2.0 * i), Math.cos(3.0 * i + 1), Math.sin(i + 0.5)};
+            double norm = Math.sqrt(source[0] * source[0] + source[1] * source[1]
+                    + source[2] * source[2] + source[3] * source[3]);
+            for (int k = 0; k < 4; k++) {
+                source[k] /= norm;
+            }
+            OrientationHistory.toMatrix(source, 0, r);
+            OrientationHistory.toQuaternion(r, q, 0);
+            double sign = Math.signum(q[0] * source[0] + q[1] * source[1] + q[2] * source[2] + q[3] * source[3]);
+            for (int k = 0; k < 4; k++) {
+                assertEquals(source[k], sign * q[k], 1e-5);
+            }
+        }
+    }
+}
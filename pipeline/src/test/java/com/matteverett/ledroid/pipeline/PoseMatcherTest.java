@@ -0,0 +1,60 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class PoseMatcherTest {
+    @Test
+    public void match_findsLedsFromAPredictedPose() {
+        int leds = 200;
+        double[] positions = TreeScene.positions(leds);
+        positions[3 * 7] = Double.NaN;
+        LedMap map = LedMap.fromPositions(positions);
+        assertEquals(leds - 1, map.size());
+
+        // Blobs as seen by the actual camera, the prediction is a degree out
+        CameraView actual = TreeScene.view(30);
+        CameraView predicted = TreeScene.view(31);
+        float[] blobs = new float[LedDetector.STRIDE * map.size()];
+        int[] truth = new int[map.size()];
+        int count = 0;
+        double[] uv = new double[2];
+        for (int i = 0; i < map.size(); i += 3) {
+            actual.project(map.x(i), map.y(i), map.z(i), uv);
+            blobs[LedDetector.STRIDE * count] = (float) uv[0];
+            blobs[LedDetector.STRIDE * count + 1] = (float) uv[1];
+            truth[count++] = i;
+        }
+
+        PoseMatcher matcher = new PoseMatcher(20);
+        int matched = matcher.match(predicted, map, TreeScene.IMAGE_WIDTH, TreeScene.IMAGE_HEIGHT, blobs, count);
+        assertTrue("matched " + matched + " of " + count, matched > count * 8 / 10);
+        int correct = 0;
+        for (int k = 0; k < matched; k++) {
+            double[] image = matcher.imagePoints();
+            for (int b = 0; b < count; b++) {
+                if (blobs[LedDetector.STRIDE * b] == (float) image[2 * k] && truth[b] == matcher.index(k)) {
+                    correct++;
+                }
+            }
+        }
+        assertTrue("correct " + correct + " of " + matched, correct > matched * 9 / 10);
+    }
+
+    @Test
+    public void ledMap_roundTrips() throws IOException {
+        LedMap map = new LedMap(new int[]{0, 4}, new double[]{0.1, -0.2, 1.5, 0.25, 0.5, 0.75});
+        StringWriter out = new StringWriter();
+        map.write(out);
+        LedMap read = LedMap.read(new StringReader(out.toString()));
+        assertEquals(2, read.size());
+        assertEquals(4, read.led(1));
+        assertEquals(-0.2, read.y(0), 1e-9);
+        assertEquals(0.75, read.z(1), 1e-9);
+    }
+}
@@ -0,0 +1,71 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ReplayTest {
+    @Test
+    public void y4m_replaysThroughDetectionAndCapture() throws IOException {
+        SceneConfig config = new SceneConfig();
+        config.width = 160;
+        config.height = 120;
+        config.ledCount = 5;
+        SceneGenerator scene = new SceneGenerator(config);
+
+        ByteArrayOutputStream video = new ByteArrayOutputStream();
+        video.write("YUV4MPEG2 W160 H120 F30:1 Ip A1:1 C420jpeg\n".getBytes(StandardCharsets.US_ASCII));
+        byte[] frame = new byte[scene.frameSize()];
+        for (int i = 0; i < 6; i++) {
+            scene.render(frame, SceneGenerator.FORMAT_I420);
+            video.write("FRAME\n".getBytes(StandardCharsets.US_ASCII));
+            video.write(frame);
+        }
+
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        ReplayTool.DetectionConsumer consumer = new ReplayTool.DetectionConsumer(
+                new BlobDetector(128, 2), new CaptureSession(3), messages);
+        Y4mSource source = new Y4mSource(new ByteArrayInputStream(video.toByteArray()));
+        Replay.Stats stats = new Replay(source, false).run(consumer);
+
+        assertEquals(6, stats.frames);
+        assertEquals(2, consumer.mCaptures);
+        assertEquals(30L, consumer.mLocations);
+        String[] lines = new String(messages.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("{\"type\":\"data\",\"locations\":[["));
+    }
+
+    @Test
+    public void ringFile_readsBackOldestFirst() throws IOException {
+        File file = File.createTempFile("replay", ".ring");
+        try {
+            RingFileWriter writer = new RingFileWriter(file, RingFile.FORMAT_I420, 4, 2, 2);
+            byte[] data = new byte[writer.frameSize()];
+            for (int i = 0; i < 3; i++) {
+                data[0] = (byte) i;
+                writer.write(data, 0, i, 1000 * i, 0, 0);
+            }
+            writer.close();
+
+            RingFileReader reader = new RingFileReader(file);
+            assertEquals(2, reader.frameCount());
+            LumaFrame frame = reader.next();
+            assertEquals(1, frame.sequence());
+            assertEquals(1, frame.data()[0]);
+            assertEquals(8, frame.data().length);
+            frame = reader.next();
+            assertEquals(2000, frame.timestamp());
+            assertNull(reader.next());
+            reader.close();
+        } finally {
+            file.delete();
+        }
+    }
+}
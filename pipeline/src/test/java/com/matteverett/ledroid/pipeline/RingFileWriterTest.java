@@ -0,0 +1,60 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class RingFileWriterTest {
+    private File mRing;
+    private File mDump;
+
+    @Before
+    public void setUp() throws IOException {
+        mRing = File.createTempFile("ring", ".ring");
+        mDump = File.createTempFile("dump", ".ring");
+    }
+
+    @After
+    public void tearDown() {
+        mRing.delete();
+        mDump.delete();
+    }
+
+    @Test
+    public void dump_keepsNewestFramesInOrder() throws IOException {
+        RingFileWriter writer = new RingFileWriter(mRing, RingFile.FORMAT_Y8, 4, 2, 3);
+        byte[] frame = new byte[writer.frameSize()];
+        for (int i = 0; i < 5; i++) {
+            frame[0] = (byte) i;
+            writer.write(frame, 0, 100 + i, 1000 * i, 1000 * i + 1, 0);
+        }
+        assertEquals(5, writer.written());
+
+        assertEquals(3, writer.dump(mDump, 0));
+        ByteBuffer dump = read(mDump);
+        assertEquals(3, dump.getInt(24));
+        assertEquals(3, dump.getLong(32));
+        int slotSize = dump.getInt(28);
+        for (int i = 0; i < 3; i++) {
+            int slot = RingFile.HEADER_SIZE + i * slotSize;
+            assertEquals(102 + i, dump.getLong(slot));
+            assertEquals(1000 * (2 + i), dump.getLong(slot + 8));
+            assertEquals(2 + i, dump.get(slot + RingFile.SLOT_HEADER_SIZE));
+        }
+
+        assertEquals(2, writer.dump(mDump, 3000));
+        writer.close();
+    }
+
+    private static ByteBuffer read(File file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,56 @@
+package com.matteverett.ledroid.pipeline;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TriangulatorTest {
+    @Test
+    public void orbitCamera_looksAtTheAxis() {
+        CameraView view = CameraView.orbiting(70, 0, 0, 3, 1, 1000, 1000, 640, 360);
+        double[] uv = new double[2];
+        assertTrue(view.project(0, 0, 1, uv));
+        assertEquals(640, uv[0], 1e-9);
+        assertEquals(360, uv[1], 1e-9);
+        // Higher points appear further up the image
+        assertTrue(view.project(0, 0, 1.5, uv));
+        assertTrue(uv[1] < 360);
+    }
+
+    @Test
+    public void triangulate_rejectsOutliers() {
+        int views = 8;
+        int leds = 300;
+        Random random = new Random(3);
+        CameraView[] cameras = TreeScene.views(views);
+        double[] truth = TreeScene.positions(leds);
+
+        double[][] uv = new double[views][2 * leds];
+        double[] p = new double[2];
+        for (int v = 0; v < views; v++) {
+            for (int i = 0; i < leds; i++) {
+                cameras[v].project(truth[3 * i], truth[3 * i + 1], truth[3 * i + 2], p);
+                uv[v][2 * i] = p[0] + random.nextGaussian() * 0.5;
+                uv[v][2 * i + 1] = p[1] + random.nextGaussian() * 0.5;
+                if (random.nextInt(10) == 0) {
+                    // Wrong detection
+                    uv[v][2 * i] = random.nextDouble() * 1280;
+                    uv[v][2 * i + 1] = random.nextDouble() * 720;
+                } else if (random.nextInt(10) == 0) {
+                    // Hidden behind the tree
+                    uv[v][2 * i] = Double.NaN;
+                }
+            }
+        }
+
+        Triangulator.Result result = new Triangulator(cameras).triangulate(uv, leds);
+        assertEquals(leds, result.solvedCount());
+        double worst = 0;
+        for (int i = 0; i < 3 * leds; i++) {
+            worst = Math.max(worst, Math.abs(result.positions[i] - truth[i]));
+        }
+        assertTrue("worst error " + worst + " m", worst < 0.01);
+    }
+}